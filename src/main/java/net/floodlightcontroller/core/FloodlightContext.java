@@ -17,19 +17,94 @@
 
 package net.floodlightcontroller.core;
 
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is a context object where floodlight listeners can register 
  * and later retrieve context information associated with an
  * event
+ *
+ * Keys registered with registerSlot() are stored in a flat array indexed
+ * by their slot, so reading or writing them costs no hashing and no
+ * allocation, and contexts can be reset and reused for every message.
+ * Any other key still goes into the storage map.
  * @author readams
  */
 public class FloodlightContext {
+    protected static final int INITIAL_SLOTS = 8;
+
+    // Slot indices of registered keys, shared by all contexts
+    private static final ConcurrentHashMap<String, Integer> slotIndex =
+            new ConcurrentHashMap<String, Integer>();
+
+    protected Object[] slots = new Object[INITIAL_SLOTS];
+    // One past the highest slot written since the last reset
+    protected int slotsUsed = 0;
+
     protected ConcurrentHashMap<String, Object> storage =
             new ConcurrentHashMap<String, Object>();
 
+    /**
+     * Register a context key and return its slot index. Registering the
+     * same key again returns the same index.
+     * @param key
+     * @return the slot index of the key
+     */
+    public static int registerSlot(String key) {
+        Integer slot = slotIndex.get(key);
+        if (slot != null)
+            return slot;
+        synchronized (slotIndex) {
+            slot = slotIndex.get(key);
+            if (slot == null) {
+                slot = slotIndex.size();
+                slotIndex.put(key, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * @param key
+     * @return the slot index of a registered key, or -1
+     */
+    public static int getSlot(String key) {
+        Integer slot = slotIndex.get(key);
+        return (slot == null) ? -1 : slot;
+    }
+
+    /**
+     * Values stored under keys that were not registered with
+     * registerSlot(). Registered keys are kept in slots.
+     * @return
+     */
     public ConcurrentHashMap<String, Object> getStorage() {
         return storage;
     }
+
+    protected Object getSlotValue(int slot) {
+        return (slot < slots.length) ? slots[slot] : null;
+    }
+
+    protected void setSlotValue(int slot, Object value) {
+        if (slot >= slots.length) {
+            if (value == null)
+                return;
+            slots = Arrays.copyOf(slots, Math.max(slot + 1, slots.length * 2));
+        }
+        slots[slot] = value;
+        if (slot >= slotsUsed)
+            slotsUsed = slot + 1;
+    }
+
+    /**
+     * Clear all values so the context can be reused for another event
+     */
+    public void reset() {
+        Arrays.fill(slots, 0, slotsUsed, null);
+        slotsUsed = 0;
+        if (!storage.isEmpty())
+            storage.clear();
+    }
 }
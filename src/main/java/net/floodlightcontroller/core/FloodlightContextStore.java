@@ -17,18 +17,53 @@
 
 package net.floodlightcontroller.core;
 
+/**
+ * Typed access to values in a FloodlightContext. Keys registered with
+ * FloodlightContext.registerSlot() can be accessed directly by their slot
+ * index; string keys are mapped to their slot when registered and fall back
+ * to the context's storage map otherwise.
+ */
 public class FloodlightContextStore<V> {
     
     @SuppressWarnings("unchecked")
     public V get(FloodlightContext bc, String key) {
+        int slot = FloodlightContext.getSlot(key);
+        if (slot >= 0)
+            return (V)bc.getSlotValue(slot);
         return (V)bc.storage.get(key);
     }
     
     public void put(FloodlightContext bc, String key, V value) {
-        bc.storage.put(key, value);
+        int slot = FloodlightContext.getSlot(key);
+        if (slot >= 0) {
+            if (value == null)
+                throw new NullPointerException();
+            bc.setSlotValue(slot, value);
+        } else {
+            bc.storage.put(key, value);
+        }
     }
     
     public void remove(FloodlightContext bc, String key) {
-        bc.storage.remove(key);
+        int slot = FloodlightContext.getSlot(key);
+        if (slot >= 0)
+            bc.setSlotValue(slot, null);
+        else
+            bc.storage.remove(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(FloodlightContext bc, int slot) {
+        return (V)bc.getSlotValue(slot);
+    }
+
+    public void put(FloodlightContext bc, int slot, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        bc.setSlotValue(slot, value);
+    }
+
+    public void remove(FloodlightContext bc, int slot) {
+        bc.setSlotValue(slot, null);
     }
 }
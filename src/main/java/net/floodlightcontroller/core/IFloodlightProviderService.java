@@ -24,7 +24,6 @@ import java.util.Set;
 import java.util.Map;
 
 import net.floodlightcontroller.core.module.IFloodlightService;
-import net.floodlightcontroller.packet.Ethernet;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
@@ -47,6 +46,26 @@ public interface IFloodlightProviderService extends
     public static final String CONTEXT_PI_PAYLOAD =
             "net.floodlightcontroller.core.IFloodlightProvider.piPayload";
 
+    /**
+     * The FloodlightContext slot of CONTEXT_PI_PAYLOAD
+     */
+    public static final int CONTEXT_PI_PAYLOAD_SLOT =
+            FloodlightContext.registerSlot(CONTEXT_PI_PAYLOAD);
+
+    /**
+     * A value stored in the floodlight context containing an
+     * EthernetView of the payload of a packet-in message. Read it with
+     * bcStore.getView().
+     */
+    public static final String CONTEXT_PI_VIEW =
+            "net.floodlightcontroller.core.IFloodlightProvider.piView";
+
+    /**
+     * The FloodlightContext slot of CONTEXT_PI_VIEW
+     */
+    public static final int CONTEXT_PI_VIEW_SLOT =
+            FloodlightContext.registerSlot(CONTEXT_PI_VIEW);
+
     /**
      * The role of the controller as used by the OF 1.2 and OVS failover and
      * load-balancing mechanism.
@@ -80,10 +99,10 @@ public interface IFloodlightProviderService extends
 
     /**
      * A FloodlightContextStore object that can be used to retrieve the
-     * packet-in payload
+     * packet-in payload, either decoded or as a lazily decoded view
      */
-    public static final FloodlightContextStore<Ethernet> bcStore =
-            new FloodlightContextStore<Ethernet>();
+    public static final PacketInPayloadStore bcStore =
+            new PacketInPayloadStore();
 
     /**
      * Adds an OpenFlow message listener
@@ -224,7 +224,7 @@ public class OFMessageFilterManager
 
         if (m.getType() == OFType.PACKET_IN) {
             eth = IFloodlightProviderService.bcStore.get(cntx, 
-                    IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                    IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
         } else if (m.getType() == OFType.PACKET_OUT) {
             eth = new Ethernet();
             OFPacketOut p = (OFPacketOut) m;
@@ -440,7 +440,7 @@ public class OFMessageFilterManager
                 if (cntx != null) {
                 // packet type  icmp, arp, etc.
                     eth = IFloodlightProviderService.bcStore.get(cntx,
-                            IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                            IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
                     if (eth != null)
                            sb.append(eth.toString());
                 }
@@ -473,7 +473,7 @@ public class OFMessageFilterManager
                 // If the conext is not set by floodlight, then ignore.
                 if (cntx != null) {
                     eth = IFloodlightProviderService.bcStore.get(cntx,
-                        IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                        IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
                     if (eth != null)
                         sb.append(eth.toString());
                 }
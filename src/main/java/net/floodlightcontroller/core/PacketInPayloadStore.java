@@ -0,0 +1,101 @@
+package net.floodlightcontroller.core;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+
+/**
+ * The FloodlightContextStore of the packet-in payload. The controller only
+ * stores an {@link EthernetView} of the payload in the context; the
+ * decoded {@link Ethernet} under CONTEXT_PI_PAYLOAD is built from the view
+ * the first time a listener asks for it. Listeners that only look at
+ * header fields should use getView() so the payload is never decoded.
+ * Storing or removing a decoded payload drops the view of the previous one.
+ */
+public class PacketInPayloadStore extends FloodlightContextStore<Ethernet> {
+    private final FloodlightContextStore<EthernetView> viewStore =
+            new FloodlightContextStore<EthernetView>();
+
+    @Override
+    public Ethernet get(FloodlightContext bc, String key) {
+        if (IFloodlightProviderService.CONTEXT_PI_PAYLOAD.equals(key))
+            return get(bc, IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
+        return super.get(bc, key);
+    }
+
+    @Override
+    public Ethernet get(FloodlightContext bc, int slot) {
+        Ethernet eth = super.get(bc, slot);
+        if (eth == null &&
+                slot == IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT) {
+            EthernetView view = viewStore.get(bc,
+                    IFloodlightProviderService.CONTEXT_PI_VIEW_SLOT);
+            if (view != null) {
+                eth = view.getEthernet();
+                super.put(bc, slot, eth);
+            }
+        }
+        return eth;
+    }
+
+    @Override
+    public void put(FloodlightContext bc, String key, Ethernet value) {
+        if (IFloodlightProviderService.CONTEXT_PI_PAYLOAD.equals(key))
+            put(bc, IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT, value);
+        else
+            super.put(bc, key, value);
+    }
+
+    @Override
+    public void put(FloodlightContext bc, int slot, Ethernet value) {
+        // a view of the previous payload no longer matches
+        if (slot == IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT)
+            viewStore.remove(bc, IFloodlightProviderService.CONTEXT_PI_VIEW_SLOT);
+        super.put(bc, slot, value);
+    }
+
+    @Override
+    public void remove(FloodlightContext bc, String key) {
+        if (IFloodlightProviderService.CONTEXT_PI_PAYLOAD.equals(key))
+            remove(bc, IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
+        else
+            super.remove(bc, key);
+    }
+
+    @Override
+    public void remove(FloodlightContext bc, int slot) {
+        if (slot == IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT)
+            viewStore.remove(bc, IFloodlightProviderService.CONTEXT_PI_VIEW_SLOT);
+        super.remove(bc, slot);
+    }
+
+    /**
+     * Get the packet-in payload view. If a decoded payload was stored
+     * instead, a view of it is created and stored.
+     * @param bc
+     * @return the view, or null if there is no packet-in payload
+     */
+    public EthernetView getView(FloodlightContext bc) {
+        EthernetView view = viewStore.get(bc,
+                IFloodlightProviderService.CONTEXT_PI_VIEW_SLOT);
+        if (view == null) {
+            Ethernet eth = super.get(bc,
+                    IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
+            if (eth != null) {
+                view = new EthernetView(eth);
+                viewStore.put(bc,
+                        IFloodlightProviderService.CONTEXT_PI_VIEW_SLOT, view);
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Store the packet-in payload view. Any decoded payload is removed.
+     * @param bc
+     * @param view
+     */
+    public void putView(FloodlightContext bc, EthernetView view) {
+        super.remove(bc, IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
+        viewStore.put(bc, IFloodlightProviderService.CONTEXT_PI_VIEW_SLOT, view);
+    }
+}
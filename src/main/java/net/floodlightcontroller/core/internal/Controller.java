@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Arrays;
@@ -36,7 +37,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
-import java.util.Stack;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -82,8 +82,9 @@ import net.floodlightcontroller.debugevent.IDebugEventService.EventType;
 import net.floodlightcontroller.debugevent.IDebugEventService.MaxEventsRegistered;
 import net.floodlightcontroller.notification.INotificationManager;
 import net.floodlightcontroller.notification.NotificationManagerFactory;
-import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.perfmon.IPktInProcessingTimeService;
+import net.floodlightcontroller.perfmon.ThreadTimeBuckets;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.storage.IResultSet;
 import net.floodlightcontroller.storage.IStorageSourceListener;
@@ -94,6 +95,7 @@ import net.floodlightcontroller.util.LoadMonitor;
 import net.floodlightcontroller.util.TimedCache;
 
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
@@ -101,6 +103,7 @@ import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
 import org.openflow.protocol.factory.FloodlightFactory;
 import org.openflow.protocol.statistics.OFDescriptionStatistics;
 import org.openflow.util.HexString;
@@ -169,6 +172,14 @@ public class Controller implements IFloodlightProviderService,
     protected String openFlowHost = null;
     protected int openFlowPort = 6633;
     protected int workerThreads = 0;
+    // Slice incoming frames out of the netty buffers instead of copying them
+    protected boolean zeroCopyDecode = false;
+    // Number of per-switch ordered dispatch threads; 0 dispatches messages
+    // on the netty I/O threads
+    protected int dispatchThreads = 0;
+    protected int dispatchQueueCapacity =
+            OFMessageDispatcher.DEFAULT_QUEUE_CAPACITY;
+    protected OFMessageDispatcher messageDispatcher;
 
 
     // This controller's current role that modules can use/query to decide
@@ -1701,13 +1712,14 @@ public class Controller implements IFloodlightProviderService,
      }
 
     /**
-     * flcontext_cache - Keep a thread local stack of contexts
+     * flcontext_cache - Keep a thread local stack of contexts. The stack
+     * is only touched by its own thread so it needs no synchronization.
      */
-    protected static final ThreadLocal<Stack<FloodlightContext>> flcontext_cache =
-        new ThreadLocal <Stack<FloodlightContext>> () {
+    protected static final ThreadLocal<ArrayDeque<FloodlightContext>> flcontext_cache =
+        new ThreadLocal <ArrayDeque<FloodlightContext>> () {
             @Override
-            protected Stack<FloodlightContext> initialValue() {
-                return new Stack<FloodlightContext>();
+            protected ArrayDeque<FloodlightContext> initialValue() {
+                return new ArrayDeque<FloodlightContext>();
             }
         };
 
@@ -1716,14 +1728,11 @@ public class Controller implements IFloodlightProviderService,
      * @return FloodlightContext
      */
     protected static FloodlightContext flcontext_alloc() {
-        FloodlightContext flcontext = null;
+        FloodlightContext flcontext = flcontext_cache.get().poll();
 
-        if (flcontext_cache.get().empty()) {
+        if (flcontext == null) {
             flcontext = new FloodlightContext();
         }
-        else {
-            flcontext = flcontext_cache.get().pop();
-        }
 
         return flcontext;
     }
@@ -1733,7 +1742,7 @@ public class Controller implements IFloodlightProviderService,
      * @param flcontext
      */
     protected void flcontext_free(FloodlightContext flcontext) {
-        flcontext.getStorage().clear();
+        flcontext.reset();
         flcontext_cache.get().push(flcontext);
     }
 
@@ -1768,7 +1777,7 @@ public class Controller implements IFloodlightProviderService,
     protected void handleMessage(IOFSwitch sw, OFMessage m,
                                  FloodlightContext bContext)
             throws IOException {
-        Ethernet eth = null;
+        EthernetView eth = null;
 
         if (this.notifiedRole == Role.SLAVE) {
             counters.dispatchMessageWhileSlave.updateCounterNoFlush();
@@ -1781,16 +1790,16 @@ public class Controller implements IFloodlightProviderService,
             case PACKET_IN:
                 OFPacketIn pi = (OFPacketIn)m;
 
-                if (pi.getPacketData().length <= 0) {
+                if (pi.getPacketDataLength() <= 0) {
                     log.error("Ignoring PacketIn (Xid = " + pi.getXid() +
                               ") because the data field is empty.");
                     return;
                 }
 
                 if (Controller.ALWAYS_DECODE_ETH) {
-                    eth = new Ethernet();
-                    eth.deserialize(pi.getPacketData(), 0,
-                            pi.getPacketData().length);
+                    // Only the headers the listeners read get decoded,
+                    // straight from the read buffer
+                    eth = new EthernetView(pi.getPacketDataView());
                     counterStore.updatePacketInCountersLocal(sw, m, eth);
                 }
                 // fall through to default case...
@@ -1814,26 +1823,24 @@ public class Controller implements IFloodlightProviderService,
                         bc = bContext;
                     }
                     if (eth != null) {
-                        IFloodlightProviderService.bcStore.put(bc,
-                                IFloodlightProviderService.CONTEXT_PI_PAYLOAD,
-                                eth);
+                        IFloodlightProviderService.bcStore.putView(bc, eth);
                     }
 
                     // Get the starting time (overall and per-component) of
                     // the processing chain for this packet if performance
                     // monitoring is turned on
-                    pktinProcTime.recordStartTimePktIn();
+                    ThreadTimeBuckets times =
+                            pktinProcTime.recordStartTimePktIn();
                     Command cmd;
                     for (IOFMessageListener listener : listeners) {
-                        pktinProcTime.recordStartTimeComp(listener);
                         cmd = listener.receive(sw, m, bc);
-                        pktinProcTime.recordEndTimeComp(listener);
+                        pktinProcTime.recordEndTimeComp(times, listener);
 
                         if (Command.STOP.equals(cmd)) {
                             break;
                         }
                     }
-                    pktinProcTime.recordEndTimePktIn(sw, m, bc);
+                    pktinProcTime.recordEndTimePktIn(times, sw, m, bc);
                 } else {
                     if (m.getType() != OFType.BARRIER_REPLY)
                         log.warn("Unhandled OF Message: {} from {}", m, sw);
@@ -1845,6 +1852,35 @@ public class Controller implements IFloodlightProviderService,
         }
     }
 
+    /**
+     * Dispatch a message received from a switch to the IOFMessageListeners,
+     * either right away on the calling netty thread or, if dispatch threads
+     * are configured, through the per-switch ordered dispatcher.
+     * @param sw The switch sending the message
+     * @param channel The channel of the switch
+     * @param m The message the switch sent
+     * @throws IOException
+     */
+    void dispatchMessage(IOFSwitch sw, Channel channel, OFMessage m)
+            throws IOException {
+        if (messageDispatcher == null) {
+            handleMessage(sw, m, null);
+            factory.recycle(m);
+        } else {
+            messageDispatcher.dispatch(sw, channel, m);
+        }
+    }
+
+    /**
+     * Tell the dispatcher, if there is one, that the channel of a switch
+     * was closed so it does not resume reading from it
+     * @param channel
+     */
+    void dispatchChannelDisconnected(Channel channel) {
+        if (messageDispatcher != null)
+            messageDispatcher.channelDisconnected(channel);
+    }
+
     void switchActivated(IOFSwitch sw) {
         this.switchManager.switchActivated(sw);
     }
@@ -2031,8 +2067,9 @@ public class Controller implements IFloodlightProviderService,
             throw new NullPointerException("Switch must not be null");
         if (m == null)
             throw new NullPointerException("OFMessage must not be null");
+        FloodlightContext allocated = null;
         if (bc == null)
-            bc = new FloodlightContext();
+            bc = allocated = flcontext_alloc();
         if (log.isTraceEnabled()) {
             String str = m.toString();
             log.trace("{}", str);
@@ -2051,6 +2088,7 @@ public class Controller implements IFloodlightProviderService,
                 }
             }
         }
+        if (allocated != null) flcontext_free(allocated);
     }
 
     @Override
@@ -2221,6 +2259,30 @@ public class Controller implements IFloodlightProviderService,
             this.workerThreads = Integer.parseInt(threads);
         }
         log.debug("Number of worker threads set to {}", this.workerThreads);
+        String zeroCopy = configParams.get("zeroCopyDecode");
+        if (zeroCopy != null) {
+            this.zeroCopyDecode = Boolean.parseBoolean(zeroCopy);
+        }
+        log.debug("Zero-copy OpenFlow decoding set to {}", this.zeroCopyDecode);
+        String dispatch = configParams.get("dispatchThreads");
+        if (dispatch != null) {
+            this.dispatchThreads = Integer.parseInt(dispatch);
+        }
+        String dispatchQueue = configParams.get("dispatchQueueCapacity");
+        if (dispatchQueue != null) {
+            this.dispatchQueueCapacity = Integer.parseInt(dispatchQueue);
+        }
+        log.debug("Number of dispatch threads set to {}", this.dispatchThreads);
+        String recycled = configParams.get("recycledMessageTypes");
+        if (recycled != null) {
+            for (String t : recycled.split(",")) {
+                if (t.trim().length() == 0)
+                    continue;
+                factory.setRecycling(OFType.valueOf(t.trim().toUpperCase()),
+                                     BasicFactory.DEFAULT_RECYCLE_CAPACITY);
+                log.debug("Recycling {} messages", t.trim());
+            }
+        }
 
     }
 
@@ -2289,6 +2351,10 @@ public class Controller implements IFloodlightProviderService,
                                            INITIAL_ROLE_CHANGE_DESCRIPTION);
         this.switchManager = new SwitchManager(this.notifiedRole);
         this.counters = new Counters();
+        if (this.dispatchThreads > 0) {
+            this.messageDispatcher = new OFMessageDispatcher(this,
+                    this.dispatchThreads, this.dispatchQueueCapacity);
+        }
         this.swConnectCache =
                 new TimedCache<Long>(100, 5*1000 );  // 5 seconds interval
      }
@@ -2340,9 +2406,15 @@ public class Controller implements IFloodlightProviderService,
 
         try {
             this.counters.createCounters(debugCounters);
+            if (this.messageDispatcher != null) {
+                this.messageDispatcher.createCounters(debugCounters);
+            }
         } catch (CounterException e) {
             throw new FloodlightModuleException(e.getMessage());
         }
+        if (this.messageDispatcher != null) {
+            this.messageDispatcher.start();
+        }
 
         addInfoProvider("summary", this);
 
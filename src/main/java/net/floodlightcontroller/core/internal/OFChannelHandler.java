@@ -1,6 +1,7 @@
 package net.floodlightcontroller.core.internal;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -1287,6 +1288,8 @@ class OFChannelHandler
             reply.setPayload(m.getPayload());
             reply.setLengthU(m.getLengthU());
             h.channel.write(Collections.singletonList(reply));
+            // the reply took over the payload, the request is no longer used
+            FloodlightFactory.getInstance().recycle(m);
         }
 
         void processOFEchoReply(OFChannelHandler h, OFEchoReply m)
@@ -1417,6 +1420,7 @@ class OFChannelHandler
     public void channelDisconnected(ChannelHandlerContext ctx,
                                     ChannelStateEvent e) throws Exception {
         controller.removeSwitchChannel(this);
+        controller.dispatchChannelDisconnected(this.channel);
         if (this.sw != null) {
             // TODO: switchDisconnected() will check if we've previously
             // activated the switch. Nevertheless, we might want to check
@@ -1571,12 +1575,16 @@ class OFChannelHandler
                                 continue;
                             case HIGH:
                                 // Drop all packet-ins, except LLDP/BDDPs
-                                byte[] data = ((OFPacketIn)ofm).getPacketData();
-                                if (data.length > 14) {
-                                    if (((data[12] == (byte)0x88) &&
-                                         (data[13] == (byte)0xcc)) ||
-                                        ((data[12] == (byte)0x89) &&
-                                         (data[13] == (byte)0x42))) {
+                                // Peek at the ethertype without
+                                // materialising the packet data
+                                ByteBuffer data =
+                                        ((OFPacketIn)ofm).getPacketDataView();
+                                if (data != null && data.remaining() > 14) {
+                                    int p = data.position();
+                                    if (((data.get(p + 12) == (byte)0x88) &&
+                                         (data.get(p + 13) == (byte)0xcc)) ||
+                                        ((data.get(p + 12) == (byte)0x89) &&
+                                         (data.get(p + 13) == (byte)0x42))) {
                                         lldps_allowed++;
                                         packets_allowed++;
                                         break;
@@ -1708,7 +1716,7 @@ class OFChannelHandler
 
     private void dispatchMessage(OFMessage m) throws IOException {
         // handleMessage will count
-        this.controller.handleMessage(this.sw, m, null);
+        this.controller.dispatchMessage(this.sw, this.channel, m);
     }
 
     /**
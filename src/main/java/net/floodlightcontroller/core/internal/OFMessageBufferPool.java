@@ -0,0 +1,103 @@
+package net.floodlightcontroller.core.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out direct buffers for encoding outbound OpenFlow messages and takes
+ * them back once they have been written, so that writes do not allocate
+ * direct memory.
+ *
+ * Buffers come in power of two sizes from MIN_POOLED_SIZE to
+ * MAX_POOLED_SIZE, and each size keeps up to MAX_FREE_PER_SIZE free buffers.
+ * A buffer is taken on the thread that writes to the switch and released on
+ * the netty I/O thread when the write completes, so the free lists are
+ * shared between threads.  Requests larger than MAX_POOLED_SIZE get a heap
+ * buffer of their own, which Netty copies into its pooled send buffer.
+ */
+class OFMessageBufferPool {
+    protected static final int MIN_POOLED_SIZE = 256;
+    protected static final int MAX_POOLED_SIZE = 16 * 1024;
+    protected static final int MAX_FREE_PER_SIZE = 64;
+
+    private static final int MIN_SHIFT =
+            Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private static final int N_SIZES =
+            Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+
+    private static final Queue<ByteBuffer>[] free = createFreeLists();
+    private static final AtomicInteger[] freeCount =
+            new AtomicInteger[N_SIZES];
+    static {
+        for (int i = 0; i < N_SIZES; i++)
+            freeCount[i] = new AtomicInteger();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Queue<ByteBuffer>[] createFreeLists() {
+        Queue<ByteBuffer>[] lists = new Queue[N_SIZES];
+        for (int i = 0; i < N_SIZES; i++)
+            lists[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+        return lists;
+    }
+
+    /**
+     * Get the index of the smallest pooled size that holds size bytes
+     */
+    private static int sizeIndex(int size) {
+        if (size <= MIN_POOLED_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Get a buffer to encode into
+     * @param size the number of bytes to encode
+     * @return a buffer with position 0 and limit size
+     */
+    static ByteBuffer allocate(int size) {
+        if (size > MAX_POOLED_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+        int index = sizeIndex(size);
+        ByteBuffer buf = free[index].poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(MIN_POOLED_SIZE << index);
+        } else {
+            freeCount[index].decrementAndGet();
+        }
+        buf.limit(size);
+        return buf;
+    }
+
+    /**
+     * Return a buffer from allocate once nothing reads it any more. Buffers
+     * that were not pooled are left to the garbage collector.
+     * @param buf
+     */
+    static void release(ByteBuffer buf) {
+        if (!isPooled(buf))
+            return;
+        int index = sizeIndex(buf.capacity());
+        if (freeCount[index].incrementAndGet() > MAX_FREE_PER_SIZE) {
+            freeCount[index].decrementAndGet();
+            return;
+        }
+        buf.clear();
+        free[index].offer(buf);
+    }
+
+    /**
+     * Check if a buffer came from the pool
+     * @param buf
+     * @return
+     */
+    static boolean isPooled(ByteBuffer buf) {
+        int capacity = buf.capacity();
+        return buf.isDirect() && capacity >= MIN_POOLED_SIZE &&
+               capacity <= MAX_POOLED_SIZE &&
+               Integer.bitCount(capacity) == 1;
+    }
+}
@@ -17,26 +17,101 @@
 
 package net.floodlightcontroller.core.internal;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.nio.ByteBuffer;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
 import org.openflow.protocol.factory.FloodlightFactory;
-import org.openflow.protocol.factory.OFMessageFactory;
 
 /**
  * Decode an openflow message from a Channel, for use in a netty
- * pipeline
+ * pipeline.
+ *
+ * In zero-copy mode the OpenFlow header is read straight from the
+ * ChannelBuffer and every frame is sliced out of it without copying. The
+ * payload of a PACKET_IN is then kept as a view of the received bytes and
+ * only copied when a listener asks for it. FrameDecoder compacts its
+ * cumulation buffer in place, which would corrupt those views, so this mode
+ * keeps its own remainder of partially received frames instead.
  * @author readams
  */
 public class OFMessageDecoder extends FrameDecoder {
 
-    OFMessageFactory factory = FloodlightFactory.getInstance();
-    
+    BasicFactory factory = FloodlightFactory.getInstance();
+
+    protected final boolean zeroCopy;
+    // Unconsumed tail of the last read in zero-copy mode. The buffers netty
+    // hands us are never reused, so this is a slice and not a copy.
+    private ChannelBuffer remainder;
+
+    public OFMessageDecoder() {
+        this(false);
+    }
+
+    public OFMessageDecoder(boolean zeroCopy) {
+        super();
+        this.zeroCopy = zeroCopy;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+            throws Exception {
+        if (!zeroCopy || !(e.getMessage() instanceof ChannelBuffer)) {
+            super.messageReceived(ctx, e);
+            return;
+        }
+
+        ChannelBuffer input = (ChannelBuffer)e.getMessage();
+        if (!input.readable())
+            return;
+
+        ChannelBuffer buffer;
+        if (remainder == null) {
+            buffer = input;
+        } else {
+            // A frame straddles two reads. Join the pieces in a new buffer
+            // so that frames sliced out of earlier reads stay intact.
+            buffer = ChannelBuffers.buffer(remainder.readableBytes() +
+                                           input.readableBytes());
+            buffer.writeBytes(remainder);
+            buffer.writeBytes(input);
+            remainder = null;
+        }
+
+        List<OFMessage> messages = decodeFrames(e.getChannel(), buffer);
+        if (buffer.readable())
+            remainder = buffer.readSlice(buffer.readableBytes());
+        if (messages != null)
+            Channels.fireMessageReceived(ctx, messages, e.getRemoteAddress());
+    }
+
+    @Override
+    public void channelDisconnected(ChannelHandlerContext ctx,
+                                    ChannelStateEvent e) throws Exception {
+        // a partial frame of a connection that is gone is never completed
+        remainder = null;
+        super.channelDisconnected(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+            throws Exception {
+        remainder = null;
+        super.channelClosed(ctx, e);
+    }
+
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel,
                             ChannelBuffer buffer) throws Exception {
@@ -58,6 +133,54 @@ public class OFMessageDecoder extends FrameDecoder {
         }
     }
 
+    /**
+     * Slice every complete frame out of the buffer and parse it. PACKET_IN
+     * payloads are not copied. Partial frames are left unread. Messages of
+     * types the factory recycles are read into recycled messages.
+     * @param channel
+     * @param buffer
+     * @return the decoded messages, or null if no frame was complete
+     */
+    protected List<OFMessage> decodeFrames(Channel channel,
+                                           ChannelBuffer buffer) {
+        if (!channel.isConnected()) {
+            // Same guard as decode()
+            return null;
+        }
+
+        List<OFMessage> messages = null;
+        while (buffer.readableBytes() >= OFMessage.MINIMUM_LENGTH) {
+            int start = buffer.readerIndex();
+            int length = buffer.getUnsignedShort(start + 2);
+            if (length < OFMessage.MINIMUM_LENGTH) {
+                throw new IllegalArgumentException("Invalid OpenFlow " +
+                        "message length " + length);
+            }
+            if (buffer.readableBytes() < length)
+                break;
+
+            // For heap buffers this wraps the backing array without copying
+            ByteBuffer data = buffer.toByteBuffer(start, length);
+            buffer.skipBytes(length);
+            OFType type = OFType.valueOf(buffer.getByte(start + 1));
+            if (type == null) {
+                // Unknown message type, skip over the whole frame
+                continue;
+            }
+
+            OFMessage ofm = factory.getMessageForRead(type);
+            if (ofm instanceof OFPacketIn) {
+                ((OFPacketIn)ofm).readFromNoCopy(data);
+            } else {
+                ofm.readFrom(data);
+            }
+            if (messages == null)
+                messages = new ArrayList<OFMessage>();
+            messages.add(ofm);
+        }
+        return messages;
+    }
+
     @Override
     protected Object decodeLast(ChannelHandlerContext ctx, Channel channel,
                             ChannelBuffer buffer) throws Exception {
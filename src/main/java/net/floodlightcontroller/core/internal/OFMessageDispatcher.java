@@ -0,0 +1,357 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterException;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterType;
+import net.floodlightcontroller.debugcounter.NullDebugCounter;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.factory.FloodlightFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the IOFMessageListener chain on a fixed pool of worker threads
+ * instead of the netty I/O thread that read the message.
+ *
+ * Switches are sharded by DPID, so all messages from one switch are handled
+ * by the same worker in the order they were received, while a busy switch
+ * only delays the switches that share its shard. Each shard has a bounded
+ * queue. Once it fills past the high watermark the channels feeding it stop
+ * reading from their sockets until the worker has drained it below the low
+ * watermark. The I/O thread never blocks: messages that netty had already
+ * decoded when the queue filled up go to an overflow list of their channel,
+ * and so do the later ones of that channel until the worker has moved the
+ * list into the queue.
+ *
+ * Per shard the debug counters report the messages enqueued and dispatched
+ * (their difference is the queue depth), the summed enqueue-to-completion
+ * latency in microseconds, how often reading was suspended and how many
+ * messages did not fit the queue.
+ */
+public class OFMessageDispatcher {
+    protected static final Logger log =
+            LoggerFactory.getLogger(OFMessageDispatcher.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    // Maximum number of messages handled between two flushes
+    protected static final int BATCH_SIZE = 64;
+    // How long an idle worker waits before re-checking suspended channels
+    protected static final long IDLE_POLL_MS = 100;
+
+    protected final Controller controller;
+    protected final Shard[] shards;
+    protected final int highWatermark;
+    protected final int lowWatermark;
+
+    /**
+     * A message waiting in a shard queue
+     */
+    protected static class QueuedMessage {
+        final IOFSwitch sw;
+        final Channel channel;
+        final OFMessage m;
+        final long enqueueTimeNs;
+
+        QueuedMessage(IOFSwitch sw, Channel channel, OFMessage m) {
+            this.sw = sw;
+            this.channel = channel;
+            this.m = m;
+            this.enqueueTimeNs = System.nanoTime();
+        }
+    }
+
+    protected class Shard implements Runnable {
+        final int id;
+        final BlockingQueue<QueuedMessage> queue;
+        // channels whose reads were suspended because this shard was full
+        final Set<Channel> suspended = Collections.newSetFromMap(
+                new ConcurrentHashMap<Channel, Boolean>());
+        // messages of a channel that did not fit the queue, in order. A
+        // list is only changed while holding its lock, and removed by the
+        // worker once it is empty.
+        final ConcurrentMap<Channel, Queue<QueuedMessage>> overflow =
+                new ConcurrentHashMap<Channel, Queue<QueuedMessage>>();
+        Thread thread;
+
+        IDebugCounter ctrEnqueued;
+        IDebugCounter ctrDispatched;
+        IDebugCounter ctrLatencyUs;
+        IDebugCounter ctrReadSuspended;
+        IDebugCounter ctrQueueFull;
+
+        Shard(int id, int capacity) {
+            this.id = id;
+            this.queue = new ArrayBlockingQueue<QueuedMessage>(capacity);
+        }
+
+        void enqueue(QueuedMessage qm) {
+            if (!addToOverflow(qm) && !queue.offer(qm)) {
+                // Reads of this channel are suspended but netty had already
+                // decoded a batch
+                ctrQueueFull.updateCounterNoFlush();
+                Queue<QueuedMessage> pending = new LinkedList<QueuedMessage>();
+                pending.add(qm);
+                // only this channel's I/O thread adds its list
+                overflow.put(qm.channel, pending);
+            }
+            ctrEnqueued.updateCounterNoFlush();
+            if (queue.size() >= highWatermark &&
+                    suspended.add(qm.channel)) {
+                ctrReadSuspended.updateCounterNoFlush();
+                qm.channel.setReadable(false);
+            }
+        }
+
+        /**
+         * Append a message to the overflow list of its channel, if there is
+         * one, so it is not dispatched before the messages already on it
+         * @return true if the message was added
+         */
+        private boolean addToOverflow(QueuedMessage qm) {
+            Queue<QueuedMessage> pending = overflow.get(qm.channel);
+            if (pending == null)
+                return false;
+            synchronized (pending) {
+                // the worker may have emptied and removed the list since
+                if (overflow.get(qm.channel) != pending)
+                    return false;
+                pending.add(qm);
+            }
+            ctrQueueFull.updateCounterNoFlush();
+            return true;
+        }
+
+        /**
+         * Move overflowing messages into the queue as far as it has room.
+         * The later messages of a channel stay on its list until the whole
+         * list has been moved, so the order of a channel is kept.
+         */
+        void moveOverflow() {
+            for (Map.Entry<Channel, Queue<QueuedMessage>> e :
+                    overflow.entrySet()) {
+                Queue<QueuedMessage> pending = e.getValue();
+                synchronized (pending) {
+                    QueuedMessage qm;
+                    while ((qm = pending.peek()) != null && queue.offer(qm))
+                        pending.poll();
+                    if (pending.isEmpty())
+                        overflow.remove(e.getKey(), pending);
+                }
+            }
+        }
+
+        void resumeIfDrained() {
+            if (suspended.isEmpty() || queue.size() > lowWatermark)
+                return;
+            for (Channel channel : suspended) {
+                suspended.remove(channel);
+                channel.setReadable(true);
+            }
+        }
+
+        @Override
+        @LogMessageDoc(level="ERROR",
+                message="Exception in message dispatch shard {id}",
+                explanation="Failed to dispatch an OpenFlow message",
+                recommendation=LogMessageDoc.GENERIC_ACTION)
+        public void run() {
+            List<QueuedMessage> batch =
+                    new ArrayList<QueuedMessage>(BATCH_SIZE);
+            while (true) {
+                try {
+                    QueuedMessage first =
+                            queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch, BATCH_SIZE - 1);
+                        dispatchBatch(batch);
+                        batch.clear();
+                    }
+                    if (!overflow.isEmpty())
+                        moveOverflow();
+                    resumeIfDrained();
+                } catch (InterruptedException e) {
+                    log.debug("Message dispatch shard {} interrupted", id);
+                    return;
+                } catch (Exception e) {
+                    log.error("Exception in message dispatch shard " + id, e);
+                    batch.clear();
+                }
+            }
+        }
+
+        private void dispatchBatch(List<QueuedMessage> batch) {
+            long latencyNs = 0;
+            for (QueuedMessage qm : batch) {
+                try {
+                    controller.handleMessage(qm.sw, qm.m, null);
+                    FloodlightFactory.getInstance().recycle(qm.m);
+                } catch (Exception e) {
+                    // Same handling as an exception on the netty thread
+                    if (qm.channel != null)
+                        Channels.fireExceptionCaught(qm.channel, e);
+                }
+                latencyNs += System.nanoTime() - qm.enqueueTimeNs;
+            }
+            ctrDispatched.updateCounterNoFlush(batch.size());
+            ctrLatencyUs.updateCounterNoFlush(
+                    (int)TimeUnit.NANOSECONDS.toMicros(latencyNs));
+            // Flush flow-mods, counters and events of this batch
+            controller.flushAll();
+        }
+    }
+
+    /**
+     * @param controller the controller whose listeners messages go to
+     * @param nShards the number of worker threads
+     * @param queueCapacity the bound of each shard queue
+     */
+    public OFMessageDispatcher(Controller controller, int nShards,
+                               int queueCapacity) {
+        if (nShards <= 0)
+            throw new IllegalArgumentException("nShards must be positive");
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        this.controller = controller;
+        this.highWatermark = Math.max(1, queueCapacity * 3 / 4);
+        this.lowWatermark = queueCapacity / 4;
+        this.shards = new Shard[nShards];
+        for (int i = 0; i < nShards; i++) {
+            shards[i] = new Shard(i, queueCapacity);
+        }
+        try {
+            createCounters(new NullDebugCounter());
+        } catch (CounterException e) {
+            // cannot happen with the null counter service
+        }
+    }
+
+    /**
+     * Register the per-shard counters. Every level of the hierarchy has to
+     * be registered.
+     * @param debugCounters
+     * @throws CounterException
+     */
+    void createCounters(IDebugCounterService debugCounters)
+            throws CounterException {
+        String prefix = Controller.Counters.prefix;
+        for (Shard s : shards) {
+            String shard = "dispatch-shard-" + s.id;
+            debugCounters.registerCounter(prefix, shard,
+                    "Message dispatch shard " + s.id,
+                    CounterType.ALWAYS_COUNT);
+            s.ctrEnqueued = debugCounters.registerCounter(prefix,
+                    shard + "/enqueued",
+                    "Number of OF messages queued to this shard",
+                    CounterType.ALWAYS_COUNT);
+            s.ctrDispatched = debugCounters.registerCounter(prefix,
+                    shard + "/dispatched",
+                    "Number of OF messages this shard dispatched to " +
+                    "listeners. Enqueued minus dispatched is the queue depth",
+                    CounterType.ALWAYS_COUNT);
+            s.ctrLatencyUs = debugCounters.registerCounter(prefix,
+                    shard + "/latency-us",
+                    "Total microseconds between queueing and dispatch " +
+                    "completion of the messages of this shard",
+                    CounterType.ALWAYS_COUNT);
+            s.ctrReadSuspended = debugCounters.registerCounter(prefix,
+                    shard + "/read-suspended",
+                    "Number of times reading from a switch channel was " +
+                    "suspended because this shard was backed up",
+                    CounterType.ALWAYS_COUNT,
+                    IDebugCounterService.CTR_MDATA_WARN);
+            s.ctrQueueFull = debugCounters.registerCounter(prefix,
+                    shard + "/queue-full",
+                    "Number of OF messages put on the overflow list of " +
+                    "their channel because the queue of this shard was full",
+                    CounterType.ALWAYS_COUNT,
+                    IDebugCounterService.CTR_MDATA_WARN);
+        }
+    }
+
+    /**
+     * Start the worker threads
+     */
+    void start() {
+        for (Shard s : shards) {
+            if (s.thread != null)
+                continue;
+            s.thread = new Thread(s, "OFMessageDispatcher-" + s.id);
+            s.thread.setDaemon(true);
+            s.thread.start();
+        }
+    }
+
+    /**
+     * Stop the worker threads. Queued messages are dropped.
+     */
+    void shutdown() {
+        for (Shard s : shards) {
+            if (s.thread != null) {
+                s.thread.interrupt();
+                s.thread = null;
+            }
+            s.queue.clear();
+            s.overflow.clear();
+            s.resumeIfDrained();
+        }
+    }
+
+    /**
+     * Queue a message for dispatch to the listeners. Called on the netty
+     * I/O thread that owns the switch channel.
+     * @param sw the switch that sent the message
+     * @param channel the channel of the switch, used for backpressure
+     * @param m the message
+     */
+    void dispatch(IOFSwitch sw, Channel channel, OFMessage m) {
+        shards[shardFor(sw.getId())]
+                .enqueue(new QueuedMessage(sw, channel, m));
+    }
+
+    /**
+     * Forget a channel that was closed. Its queued messages are still
+     * dispatched.
+     * @param channel
+     */
+    void channelDisconnected(Channel channel) {
+        for (Shard s : shards) {
+            s.suspended.remove(channel);
+        }
+    }
+
+    int shardFor(long dpid) {
+        int h = (int)(dpid ^ (dpid >>> 32));
+        // spread DPIDs that only differ in their high bits
+        h ^= (h >>> 16);
+        h ^= (h >>> 8);
+        return (h & Integer.MAX_VALUE) % shards.length;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getQueueDepth(int shard) {
+        return shards[shard].queue.size();
+    }
+}
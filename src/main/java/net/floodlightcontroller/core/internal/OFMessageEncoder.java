@@ -20,20 +20,51 @@ package net.floodlightcontroller.core.internal;
 import java.util.List;
 import java.nio.ByteBuffer;
 
-import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.openflow.protocol.OFMessage;
 
 /**
  * Encode an openflow message for output into a ChannelBuffer, for use in a
- * netty pipeline
+ * netty pipeline. Messages are serialized into buffers from
+ * OFMessageBufferPool, which go back to the pool once netty has written
+ * them.
  * @author readams
  */
 public class OFMessageEncoder extends OneToOneEncoder {
 
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt)
+            throws Exception {
+        if (!(evt instanceof MessageEvent) ||
+                !(((MessageEvent) evt).getMessage() instanceof List)) {
+            super.handleDownstream(ctx, evt);
+            return;
+        }
+        MessageEvent e = (MessageEvent) evt;
+        @SuppressWarnings("unchecked")
+        List<OFMessage> msglist = (List<OFMessage>) e.getMessage();
+        final ByteBuffer data = encode(msglist);
+        ChannelFuture future = e.getFuture();
+        if (OFMessageBufferPool.isPooled(data)) {
+            future.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    OFMessageBufferPool.release(data);
+                }
+            });
+        }
+        Channels.write(ctx, future, ChannelBuffers.wrappedBuffer(data),
+                       e.getRemoteAddress());
+    }
+
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel,
                             Object msg) throws Exception {
@@ -42,24 +73,44 @@ public class OFMessageEncoder extends OneToOneEncoder {
 
         @SuppressWarnings("unchecked")
         List<OFMessage> msglist = (List<OFMessage>)msg;
-        int size = 0;
-        for (OFMessage ofm :  msglist) {
-        	/* Many OF1.3+ messages are variable in length. So, call 
-        	 * must be made to computeLength() before sizing the buffer.
-        	 */
-            ofm.computeLength(); 
-            size += ofm.getLengthU();
-        }
+        return ChannelBuffers.wrappedBuffer(encode(msglist));
+    }
+
+    /**
+     * Serialize messages into a buffer from OFMessageBufferPool
+     * @param msglist
+     * @return the buffer, flipped for reading
+     */
+    private ByteBuffer encode(List<OFMessage> msglist) {
+        int written = 0;
+        ByteBuffer data = null;
+        try {
+            int size = 0;
+            for (OFMessage ofm :  msglist) {
+                /* Many OF1.3+ messages are variable in length. So, the
+                 * length must be computed before sizing the buffer.
+                 * writeTo() reuses it.
+                 */
+                size += ofm.computeLengthForWrite();
+            }
 
-        ChannelBuffer buf = ChannelBuffers.directBuffer(size);
-        ByteBuffer data = buf.toByteBuffer(0, size);
-        for (OFMessage ofm :  msglist) {
-            ofm.writeTo(data);
+            data = OFMessageBufferPool.allocate(size);
+            for (OFMessage ofm :  msglist) {
+                ofm.writeTo(data);
+                written++;
+            }
+            data.flip();
+            return data;
+        } finally {
+            if (written < msglist.size()) {
+                // messages left unwritten by an exception may change before
+                // they are written again
+                for (int i = written; i < msglist.size(); i++)
+                    msglist.get(i).clearComputedLength();
+                if (data != null)
+                    OFMessageBufferPool.release(data);
+            }
         }
-        //Following call to writerIndex is necessary in case of 
-        // channelBuffer to byteBuffer conversion above
-        buf.writerIndex(data.position());
-        return buf;
     }
 
 }
@@ -31,6 +31,7 @@ import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.counter.CounterValue.CounterType;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.IPv4;
 
 import org.openflow.protocol.OFMessage;
@@ -155,15 +156,33 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
 
     @Override
     public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m, Ethernet eth) {
-        if (((OFPacketIn)m).getPacketData().length <= 0) {
+        boolean isIPv4 = eth.getPayload() instanceof IPv4;
+        byte l4type = isIPv4 ? ((IPv4)eth.getPayload()).getProtocol() : 0;
+        updatePacketInCountersLocal(sw, m, eth.getEtherType(),
+                                    getL2Type(eth.isBroadcast(), eth.isMulticast()),
+                                    isIPv4, l4type);
+    }
+
+    @Override
+    public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m, EthernetView eth) {
+        updatePacketInCountersLocal(sw, m, eth.getEtherType(),
+                                    getL2Type(eth.isBroadcast(), eth.isMulticast()),
+                                    eth.isIPv4(), eth.getNetworkProtocol());
+    }
+
+    protected void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m,
+                                               short l3type, String l2Type,
+                                               boolean isIPv4, byte l4type) {
+        if (((OFPacketIn)m).getPacketDataLength() <= 0) {
             return;
         }
-        CounterKeyTuple countersKey = this.getCountersKey(sw, m, eth);
+        CounterKeyTuple countersKey = this.getCountersKey(sw, m, l3type, l4type);
         Map<CounterKeyTuple, MutableInt> pktin_buffer = this.pktin_local_buffer.get();
         MutableInt currval = pktin_buffer.get(countersKey);
 
         if (currval == null) {
-            this.createPacketInCounters(sw, m, eth); // create counters as side effect (if required)
+            // create counters as side effect (if required)
+            this.createPacketInCounters(sw, m, l3type, l2Type, isIPv4, l4type);
             currval = new MutableInt();
             pktin_buffer.put(countersKey, currval);
         }
@@ -173,7 +192,7 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
 
     @Override
     public void updatePktOutFMCounterStoreLocal(IOFSwitch sw, OFMessage m) {
-        CounterKeyTuple countersKey = this.getCountersKey(sw, m, null);
+        CounterKeyTuple countersKey = this.getCountersKey(sw, m, (short)0, (byte)0);
         Map<CounterKeyTuple, MutableInt> pktout_buffer = this.pktout_local_buffer.get();
         MutableInt currval = pktout_buffer.get(countersKey);
 
@@ -290,24 +309,29 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
     //   Internal Methods
     //*******************************
 
-    protected CounterKeyTuple getCountersKey(IOFSwitch sw, OFMessage m, Ethernet eth) {
+    protected CounterKeyTuple getCountersKey(IOFSwitch sw, OFMessage m,
+                                             short l3type, byte l4type) {
         byte mtype = m.getType().getTypeValue();
-        short l3type = 0;
-        byte l4type = 0;
-
-        if (eth != null) {
-            l3type = eth.getEtherType();
-            if (eth.getPayload() instanceof IPv4) {
-                IPv4 ipV4 = (IPv4)eth.getPayload();
-                l4type = ipV4.getProtocol();
-            }
-        }
         return new CounterKeyTuple(mtype, sw.getId(), l3type, l4type);
     }
 
-    protected List<ICounter> createPacketInCounters(IOFSwitch sw, OFMessage m, Ethernet eth) {
+    protected static String getL2Type(boolean isBroadcast, boolean isMulticast) {
+        if (isBroadcast) {
+            return BROADCAST;
+        }
+        else if (isMulticast) {
+            return MULTICAST;
+        }
+        else {
+            return UNICAST;
+        }
+    }
+
+    protected List<ICounter> createPacketInCounters(IOFSwitch sw, OFMessage m,
+                                                    short l3EtherType, String l2Type,
+                                                    boolean isIPv4, byte l4type) {
         /* If possible, find and return counters for this tuple */
-        CounterKeyTuple countersKey = this.getCountersKey(sw, m, eth);
+        CounterKeyTuple countersKey = this.getCountersKey(sw, m, l3EtherType, l4type);
         List<ICounter> counters =
                 this.pktinCounters.get(countersKey);
         if (counters != null) {
@@ -319,24 +343,12 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
          */
         counters = new ArrayList<ICounter>();
 
-        int l3type = eth.getEtherType() & 0xffff;
+        int l3type = l3EtherType & 0xffff;
         String switchIdHex = sw.getStringId();
-        String etherType = String.format("%04x", eth.getEtherType());
+        String etherType = String.format("%04x", l3EtherType);
         String packetName = m.getType().toClass().getName();
         packetName = packetName.substring(packetName.lastIndexOf('.')+1);
 
-        // L2 Type
-        String l2Type = null;
-        if (eth.isBroadcast()) {
-            l2Type = BROADCAST;
-        }
-        else if (eth.isMulticast()) {
-            l2Type = MULTICAST;
-        }
-        else {
-            l2Type = UNICAST;
-        }
-
         /*
          * Use alias for L3 type
          * Valid EtherType must be greater than or equal to 0x0600
@@ -413,11 +425,10 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
                                        CounterType.LONG));
 
         // L4 counters
-        if (eth.getPayload() instanceof IPv4) {
+        if (isIPv4) {
 
             // resolve protocol alias
-            IPv4 ipV4 = (IPv4)eth.getPayload();
-            String l4name = String.format("%02x", ipV4.getProtocol());
+            String l4name = String.format("%02x", l4type);
             if (TypeAliases.l4TypeAliasMap != null &&
                 TypeAliases.l4TypeAliasMap.containsKey(l4name)) {
                 l4name = TypeAliases.l4TypeAliasMap.get(l4name);
@@ -456,7 +467,7 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
 
     protected List<ICounter> getPktOutFMCounters(IOFSwitch sw, OFMessage m) {
         /* If possible, find and return counters for this tuple */
-        CounterKeyTuple countersKey = this.getCountersKey(sw, m, null);
+        CounterKeyTuple countersKey = this.getCountersKey(sw, m, (short)0, (byte)0);
         List<ICounter> counters =
             this.pktoutCounters.get(countersKey);
         if (counters != null) {
@@ -25,6 +25,7 @@ import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.counter.CounterStore.NetworkLayer;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 
 public interface ICounterStoreService extends IFloodlightService {
 
@@ -48,6 +49,15 @@ public interface ICounterStoreService extends IFloodlightService {
      */
     public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m, Ethernet eth);
 
+    /**
+     * Update packetIn counters from the header fields of a packet view
+     *
+     * @param sw
+     * @param m
+     * @param eth
+     */
+    public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m, EthernetView eth);
+
     /**
      * This method can only be used to update packetOut and flowmod counters
      *
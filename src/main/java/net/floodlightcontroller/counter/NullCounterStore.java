@@ -33,6 +33,7 @@ import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.counter.CounterStore.NetworkLayer;
 import net.floodlightcontroller.counter.CounterValue.CounterType;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 
 /**
  * An ICounsterStoreService implementation that does nothing.
@@ -53,6 +54,11 @@ public class NullCounterStore implements IFloodlightModule,
         // no-op
     }
 
+    @Override
+    public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m, EthernetView eth) {
+        // no-op
+    }
+
     @Override
     public void updatePktOutFMCounterStoreLocal(IOFSwitch sw, OFMessage ofMsg) {
         // no-op
@@ -11,7 +11,6 @@ import java.util.Set;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -95,23 +94,25 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
      */
     public class DebugCounterInfo {
         CounterInfo cinfo;
-        AtomicLong cvalue;
+        StripedCounter cvalue;
 
         public DebugCounterInfo(CounterInfo cinfo) {
             this.cinfo = cinfo;
-            this.cvalue = new AtomicLong();
+            this.cvalue = new StripedCounter();
         }
         public CounterInfo getCounterInfo() {
             return cinfo;
         }
         public Long getCounterValue() {
-            return cvalue.get();
+            return cvalue.sum();
         }
     }
 
     /**
      * Global debug-counter storage across all threads. These are
      * updated from the local per thread counters by the flush counters method.
+     * Each value is striped so that threads flushing the same counter do not
+     * contend, and is only summed up when it is read.
      */
     protected static DebugCounterInfo[] allCounters =
                             new DebugCounterInfo[MAX_COUNTERS];
@@ -219,7 +220,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
         @Override
         public long getCounterValue() {
             if (!validCounterId()) return -1;
-            return allCounters[counterId].cvalue.get();
+            return allCounters[counterId].cvalue.sum();
         }
 
         private boolean validCounterId() {
@@ -323,7 +324,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
                DebugCounterInfo dc = allCounters[counterId];
                if (dc.cinfo.enabled) {
                    // globally enabled - flush now
-                   dc.cvalue.addAndGet(lc.cvalue.get());
+                   dc.cvalue.add(lc.cvalue.get());
                    lc.cvalue.set(0);
                } else {
                    // global counter is disabled - don't flush, disable locally
@@ -347,7 +348,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
                DebugCounterInfo dc = allCounters[counterId];
                if (dc.cinfo.enabled) {
                    // globally enabled - flush now
-                   dc.cvalue.addAndGet(lc.cvalue.get());
+                   dc.cvalue.add(lc.cvalue.get());
                    lc.cvalue.set(0);
                } else {
                    // global counter is disabled - don't flush, disable locally
@@ -382,11 +383,11 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
            return;
        }
        // reset at this level
-       allCounters[rci.ctrIds[rci.foundUptoLevel-1]].cvalue.set(0);
+       allCounters[rci.ctrIds[rci.foundUptoLevel-1]].cvalue.reset();
        // reset all levels below
        ArrayList<Integer> resetIds = getHierarchyBelow(moduleName, rci);
        for (int index : resetIds) {
-           allCounters[index].cvalue.set(0);
+           allCounters[index].cvalue.reset();
        }
    }
 
@@ -397,7 +398,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
        for (String moduleName : moduleCounters.keySet()) {
            ArrayList<Integer> resetIds = getHierarchyBelow(moduleName, rci);
            for (int index : resetIds) {
-               allCounters[index].cvalue.set(0);
+               allCounters[index].cvalue.reset();
            }
        }
    }
@@ -411,7 +412,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
        if (target != null) {
            ArrayList<Integer> resetIds = getHierarchyBelow(moduleName, rci);
            for (int index : resetIds) {
-               allCounters[index].cvalue.set(0);
+               allCounters[index].cvalue.reset();
            }
        } else {
            if (log.isDebugEnabled())
@@ -445,7 +446,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
        DebugCounterInfo dc = allCounters[rci.ctrIds[rci.foundUptoLevel-1]];
        if (dc.cinfo.ctype == CounterType.COUNT_ON_DEMAND) {
            dc.cinfo.enabled = false;
-           dc.cvalue.set(0);
+           dc.cvalue.reset();
            currentCounters.remove(dc.cinfo.counterId);
        }
    }
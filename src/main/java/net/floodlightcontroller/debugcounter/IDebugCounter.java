@@ -32,7 +32,9 @@ public interface IDebugCounter {
     void updateCounterNoFlush(int incr);
 
     /**
-     * Retrieve the value of the counter from the global counter store
+     * Retrieve the value of the counter from the global counter store. The
+     * global store is striped to keep concurrent flushes from contending, so
+     * this sums the stripes and is more expensive than an update.
      */
     long getCounterValue();
 }
@@ -0,0 +1,85 @@
+package net.floodlightcontroller.debugcounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to without contending on a single
+ * cache line.  Updates go to a base value until two threads collide on it;
+ * from then on every thread adds to one of a set of cells picked by its
+ * thread id.  The cells are spread PAD longs apart so that no two of them
+ * share a cache line.  Reading the counter sums the base and all cells, so
+ * reads are more expensive than updates, which is the right trade-off for
+ * debug counters that are updated on every message and read on a REST call.
+ *
+ * The value is only exact once concurrent updates have completed; a reset
+ * racing with updates may lose some of them.
+ */
+public class StripedCounter {
+    /**
+     * Distance in longs between two cells.  128 bytes keeps cells apart
+     * even when the CPU prefetches cache lines in pairs.
+     */
+    protected static final int PAD = 16;
+
+    /**
+     * Number of cells once the counter is contended, the number of CPUs
+     * rounded up to a power of two and at least two
+     */
+    protected static final int CELLS =
+            Integer.highestOneBit(Math.max(1, Math.min(64,
+                    Runtime.getRuntime().availableProcessors()) - 1) << 1);
+
+    private final AtomicLong base = new AtomicLong();
+    protected volatile AtomicLongArray cells;
+
+    /**
+     * Add to the counter
+     * @param x the amount to add
+     */
+    public void add(long x) {
+        AtomicLongArray as = cells;
+        if (as == null) {
+            long v = base.get();
+            if (base.compareAndSet(v, v + x)) return;
+            as = inflate();
+        }
+        int cell = (int) Thread.currentThread().getId() & (CELLS - 1);
+        as.getAndAdd(cell * PAD, x);
+    }
+
+    /**
+     * Get the value of the counter
+     * @return the sum of all additions since the last reset
+     */
+    public long sum() {
+        long sum = base.get();
+        AtomicLongArray as = cells;
+        if (as != null) {
+            for (int i = 0; i < CELLS; i++) {
+                sum += as.get(i * PAD);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Reset the counter to zero
+     */
+    public void reset() {
+        base.set(0);
+        AtomicLongArray as = cells;
+        if (as != null) {
+            for (int i = 0; i < CELLS; i++) {
+                as.set(i * PAD, 0);
+            }
+        }
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null) {
+            cells = new AtomicLongArray(CELLS * PAD);
+        }
+        return cells;
+    }
+}
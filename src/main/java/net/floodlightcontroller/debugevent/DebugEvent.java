@@ -89,15 +89,16 @@ public class DebugEvent implements IFloodlightModule, IDebugEventService {
     //******************
 
     /**
-     * Event history for a particular event-id is stored in a circular buffer
+     * Event history for a particular event-id is stored in a ring buffer of
+     * preallocated slots that is written and read without locks
      */
     protected class DebugEventHistory {
         EventInfo einfo;
-        CircularBuffer<Event> eventBuffer;
+        EventRingBuffer eventBuffer;
 
         public DebugEventHistory(EventInfo einfo, int capacity) {
             this.einfo = einfo;
-            this.eventBuffer = new CircularBuffer<Event>(capacity);
+            this.eventBuffer = new EventRingBuffer(capacity);
         }
     }
 
@@ -300,7 +301,7 @@ public class DebugEvent implements IFloodlightModule, IDebugEventService {
                 // flush this buffer now
                 DebugEventHistory de = allEvents[eventId];
                 if (de.einfo.enabled) {
-                    le.eventList = de.eventBuffer.addAll(le.eventList, le.nextIndex);
+                    de.eventBuffer.addAll(le.eventList, le.nextIndex);
                 } else {
                     // global buffer is disabled - don't flush, disable locally
                     le.enabled = false;
@@ -327,7 +328,7 @@ public class DebugEvent implements IFloodlightModule, IDebugEventService {
                 // flush this buffer now
                 DebugEventHistory de = allEvents[eventId];
                 if (de.einfo.enabled) {
-                    le.eventList = de.eventBuffer.addAll(le.eventList, le.nextIndex);
+                    de.eventBuffer.addAll(le.eventList, le.nextIndex);
                 } else {
                     // global buffer is disabled - don't flush, disable locally
                     le.enabled = false;
@@ -410,9 +411,7 @@ public class DebugEvent implements IFloodlightModule, IDebugEventService {
         if (de != null) {
             int num = 1;
             List<Map<String,String>> ret = new ArrayList<Map<String,String>>();
-            for (Event e : de.eventBuffer) {
-                if (num > last)
-                    break;
+            for (Event e : de.eventBuffer.getEvents(last)) {
                 Map<String, String> temp = e.getFormattedEvent(de.einfo.eventClass,
                                                                de.einfo.moduleEventName);
                 temp.put("#", String.valueOf(num++));
@@ -0,0 +1,152 @@
+package net.floodlightcontroller.debugevent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size history of events that many threads can write to and read
+ * from without locks.  All slots are allocated up front and events are
+ * copied into them, so logging an event allocates nothing.
+ *
+ * Writers claim consecutive sequence numbers; sequence s goes to slot
+ * s % capacity, overwriting the event written one lap earlier.  Every slot
+ * carries a state that tells which sequence it holds and whether it is
+ * being written: 2s+1 while sequence s is written, 2s+2 once it is
+ * published, 0 if the slot was never written.  Readers copy a slot and
+ * keep the copy only if the slot held the same published sequence before
+ * and after copying, so they never block writers and never return an event
+ * that was torn by a concurrent write.  An event that is overwritten while
+ * it is read is skipped.
+ */
+public class EventRingBuffer implements Iterable<Event> {
+    protected static class Slot {
+        final AtomicLong state = new AtomicLong();
+        // volatile so that a reader cannot see these fields out of order
+        // with the state
+        volatile long timestamp;
+        volatile long threadId;
+        volatile String threadName;
+        volatile Object eventData;
+    }
+
+    private final Slot[] slots;
+    private final AtomicLong nextSequence = new AtomicLong();
+    /**
+     * Sequences below this one were cleared
+     */
+    private volatile long firstSequence;
+
+    public EventRingBuffer(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Write an event into the buffer, overwriting the oldest event if the
+     * buffer is full
+     */
+    public void add(long timestamp, long threadId, String threadName,
+                    Object eventData) {
+        long seq = nextSequence.getAndIncrement();
+        Slot slot = slots[(int) (seq % slots.length)];
+        long writing = 2 * seq + 1;
+        while (true) {
+            long state = slot.state.get();
+            if (state >= writing) {
+                // a writer of a later lap got here first; this event
+                // would be overwritten right away
+                return;
+            }
+            if ((state & 1) != 0) {
+                // a writer of the previous lap has not finished yet
+                Thread.yield();
+                continue;
+            }
+            if (slot.state.compareAndSet(state, writing)) break;
+        }
+        slot.timestamp = timestamp;
+        slot.threadId = threadId;
+        slot.threadName = threadName;
+        slot.eventData = eventData;
+        slot.state.set(writing + 1);
+    }
+
+    /**
+     * Write an event into the buffer
+     * @param e the event to copy
+     */
+    public void add(Event e) {
+        add(e.timestamp, e.threadId, e.threadName, e.eventData);
+    }
+
+    /**
+     * Write the first events of a list into the buffer.  The events are
+     * copied, so the caller can keep reusing them.
+     * @param elist         the events to write
+     * @param uptoIndex     write the events from index 0 up to but not
+     *                      including index 'uptoIndex'
+     */
+    public void addAll(List<Event> elist, int uptoIndex) {
+        if (uptoIndex > elist.size()) uptoIndex = elist.size();
+        for (int index = 0; index < uptoIndex; index++) {
+            Event e = elist.get(index);
+            if (e != null) add(e);
+        }
+    }
+
+    /**
+     * Copy the oldest events in the buffer
+     * @param max the maximum number of events to return
+     * @return copies of the events, from oldest to most recent
+     */
+    public List<Event> getEvents(int max) {
+        long next = nextSequence.get();
+        long first = Math.max(firstSequence, next - slots.length);
+        List<Event> events = new ArrayList<Event>();
+        for (long seq = first; seq < next && events.size() < max; seq++) {
+            Slot slot = slots[(int) (seq % slots.length)];
+            long published = 2 * seq + 2;
+            if (slot.state.get() != published) continue;
+            Event e = new Event(slot.timestamp, slot.threadId,
+                                slot.threadName, slot.eventData);
+            if (slot.state.get() != published) continue;
+            events.add(e);
+        }
+        return events;
+    }
+
+    /**
+     * Returns an iterator over a copy of the events in the buffer, from
+     * oldest to most recent.  Writes after the copy are not reflected.
+     */
+    @Override
+    public Iterator<Event> iterator() {
+        return getEvents(slots.length).iterator();
+    }
+
+    /**
+     * The number of events in the buffer, including events that are still
+     * being written
+     */
+    public int size() {
+        long count = nextSequence.get() - firstSequence;
+        return (int) Math.min(count, slots.length);
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Remove all events written so far
+     */
+    public void clear() {
+        firstSequence = nextSequence.get();
+    }
+}
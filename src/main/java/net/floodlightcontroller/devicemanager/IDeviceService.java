@@ -22,6 +22,7 @@ import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.Set;
 
+import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.FloodlightContextStore;
 import net.floodlightcontroller.core.module.IFloodlightService;
 
@@ -58,6 +59,16 @@ public interface IDeviceService extends IFloodlightService {
     public static final String CONTEXT_ORIG_DST_DEVICE =
             "net.floodlightcontroller.devicemanager.origDstDevice";
 
+    /**
+     * FloodlightContext slots of the device keys above
+     */
+    public static final int CONTEXT_SRC_DEVICE_SLOT =
+            FloodlightContext.registerSlot(CONTEXT_SRC_DEVICE);
+    public static final int CONTEXT_DST_DEVICE_SLOT =
+            FloodlightContext.registerSlot(CONTEXT_DST_DEVICE);
+    public static final int CONTEXT_ORIG_DST_DEVICE_SLOT =
+            FloodlightContext.registerSlot(CONTEXT_ORIG_DST_DEVICE);
+
     /**
      * A FloodlightContextStore object that can be used to interact with the 
      * FloodlightContext information created by BVS manager.
@@ -149,9 +160,9 @@ public interface IDeviceService extends IFloodlightService {
     
     /**
      * Find devices that match the provided query.  Any fields that are
-     * null will not be included in the query.  If there is an index for 
-     * the query, then it will be performed efficiently using the index.
-     * Otherwise, there will be a full scan of the device list.
+     * null will not be included in the query.  Queries on any combination
+     * of fields are performed efficiently using the device indices; only a
+     * query with no fields at all scans the full device list.
      * 
      * @param macAddress The MAC address
      * @param vlan the VLAN
@@ -168,6 +179,29 @@ public interface IDeviceService extends IFloodlightService {
                                                     Long switchDPID,
                                                     Integer switchPort);
 
+    /**
+     * Find devices that match the provided query, where the IPv4 address
+     * may be that of a subnet.  A device matches the subnet if any of its
+     * IPv4 addresses is in it.  Any fields that are null will not be
+     * included in the query.
+     * 
+     * @param macAddress The MAC address
+     * @param vlan the VLAN
+     * @param ipv4Address an ipv4 address of the subnet
+     * @param ipv4PrefixLength the prefix length of the subnet, 32 to match
+     * the single address
+     * @param switchDPID the switch DPID
+     * @param switchPort the switch port
+     * @return an iterator over a set of devices matching the query
+     * @see IDeviceService#queryDevices(Long, Short, Integer, Long, Integer)
+     */
+    public Iterator<? extends IDevice> queryDevices(Long macAddress,
+                                                    Short vlan,
+                                                    Integer ipv4Address, 
+                                                    int ipv4PrefixLength,
+                                                    Long switchDPID,
+                                                    Integer switchPort);
+
     /**
      * Find devices that match the provided query.  Only the index for
      * the specified class will be searched.  
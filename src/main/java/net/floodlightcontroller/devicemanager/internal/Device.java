@@ -473,6 +473,37 @@ public class Device implements IDevice {
         return false;
     }
 
+    /**
+     * Update the last seen time of the attachment point (sw, port) if it
+     * is the only attachment point of the device, and is not one of the
+     * old attachment points.  In that case a call to
+     * {@link #updateAttachmentPoint(long, int, long)} could only update
+     * its last seen time, which this method does without allocating.
+     * The caller must check that (sw, port) is a valid attachment point.
+     * @param sw
+     * @param port
+     * @param lastSeen
+     * @return true if the attachment point was updated, false if
+     * {@link #updateAttachmentPoint(long, int, long)} must be used instead
+     */
+    protected boolean touchAttachmentPoint(long sw, int port, long lastSeen) {
+        List<AttachmentPoint> apList = attachmentPoints;
+        if (apList == null || apList.size() != 1) return false;
+        AttachmentPoint ap = apList.get(0);
+        if (ap.getSw() != sw || ap.getPort() != port) return false;
+
+        List<AttachmentPoint> oldAPList = oldAPs;
+        if (oldAPList != null) {
+            for (int i = 0; i < oldAPList.size(); i++) {
+                AttachmentPoint oldAP = oldAPList.get(i);
+                if (oldAP.getSw() == sw && oldAP.getPort() == port)
+                    return false;
+            }
+        }
+        ap.setLastSeen(lastSeen);
+        return true;
+    }
+
     /**
      * Delete (sw,port) from the list of list of attachment points
      * and oldAPs.
@@ -0,0 +1,477 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * An index over all the key fields of the devices that answers queries on
+ * any combination of fields, and IPv4 subnet queries.  For each field the
+ * index keeps postings from the field values to the sorted keys of the
+ * devices with that value, in hash tables over primitive keys, and a query
+ * intersects the postings of the fields it is given.
+ *
+ * The postings of a device cover the fields of all of its entities and the
+ * switches and ports of its attachment points.  A query therefore returns
+ * a superset of the devices that match, which callers check against the
+ * devices themselves, e.g. with a {@link DeviceIterator}.
+ *
+ * The index is updated from the device map whenever a device is added,
+ * replaced or removed, which happens when entities are learned or expire
+ * but not for every packet.  Updates take a write lock; queries take a
+ * read lock and return a copy of the matching device keys.
+ */
+public class DeviceFieldIndex {
+    private static final int MAC = 0;
+    private static final int VLAN = 1;
+    private static final int IPV4 = 2;
+    private static final int SWITCH = 3;
+    private static final int PORT = 4;
+    private static final int SWITCH_PORT = 5;
+    private static final int FIELDS = 6;
+
+    private static final long[] NO_KEYS = new long[0];
+
+    /**
+     * A field value of a device.  Values that do not need the second
+     * component leave it 0.
+     */
+    private static class FieldKey implements Comparable<FieldKey> {
+        final int field;
+        final long a;
+        final long b;
+
+        public FieldKey(int field, long a, long b) {
+            this.field = field;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public int compareTo(FieldKey o) {
+            if (field != o.field) return field < o.field ? -1 : 1;
+            if (a != o.a) return a < o.a ? -1 : 1;
+            if (b != o.b) return b < o.b ? -1 : 1;
+            return 0;
+        }
+    }
+
+    /**
+     * An open addressing hash table from a pair of longs to a sorted array
+     * of device keys.  Removed entries are filled by shifting back the
+     * entries that follow them, so there are no tombstones.
+     */
+    private static class PostingsMap {
+        private long[] keysA;
+        private long[] keysB;
+        private long[][] postings;
+        private int[] sizes;
+        private int count;
+
+        public PostingsMap() {
+            allocate(16);
+        }
+
+        /**
+         * Find the slot of a key
+         * @return the slot, or -1 if the key is not in the table
+         */
+        public int find(long a, long b) {
+            int i = slot(a, b);
+            return i < 0 ? -1 : i;
+        }
+
+        /**
+         * Add a device key to the postings of a key
+         * @return true if the key was not in the table before
+         */
+        public boolean add(long a, long b, long deviceKey) {
+            int i = slot(a, b);
+            boolean added = i < 0;
+            if (added) {
+                i = ~i;
+                keysA[i] = a;
+                keysB[i] = b;
+                postings[i] = new long[2];
+                sizes[i] = 0;
+                count += 1;
+            }
+            long[] p = postings[i];
+            int n = sizes[i];
+            int pos = Arrays.binarySearch(p, 0, n, deviceKey);
+            if (pos < 0) {
+                pos = -(pos + 1);
+                if (n == p.length) {
+                    p = postings[i] = Arrays.copyOf(p, n * 2);
+                }
+                System.arraycopy(p, pos, p, pos + 1, n - pos);
+                p[pos] = deviceKey;
+                sizes[i] = n + 1;
+            }
+            if (count * 4 > postings.length * 3)
+                allocate(postings.length * 2);
+            return added;
+        }
+
+        /**
+         * Remove a device key from the postings of a key
+         * @return true if the key is no longer in the table
+         */
+        public boolean remove(long a, long b, long deviceKey) {
+            int i = slot(a, b);
+            if (i < 0) return false;
+            long[] p = postings[i];
+            int n = sizes[i];
+            int pos = Arrays.binarySearch(p, 0, n, deviceKey);
+            if (pos < 0) return false;
+            System.arraycopy(p, pos + 1, p, pos, n - pos - 1);
+            n -= 1;
+            sizes[i] = n;
+            if (n == 0) {
+                delete(i);
+                return true;
+            }
+            if (p.length > 8 && n < p.length / 4)
+                postings[i] = Arrays.copyOf(p, p.length / 2);
+            return false;
+        }
+
+        private int slot(long a, long b) {
+            int mask = postings.length - 1;
+            int i = hash(a, b) & mask;
+            while (postings[i] != null) {
+                if (keysA[i] == a && keysB[i] == b) return i;
+                i = (i + 1) & mask;
+            }
+            return ~i;
+        }
+
+        private void delete(int i) {
+            int mask = postings.length - 1;
+            postings[i] = null;
+            count -= 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (postings[j] == null) return;
+                // move the entry at j into the hole at i unless its home
+                // slot lies cyclically in (i, j]
+                int home = hash(keysA[j], keysB[j]) & mask;
+                boolean inRange = (i <= j) ? (i < home && home <= j)
+                                           : (i < home || home <= j);
+                if (inRange) continue;
+                keysA[i] = keysA[j];
+                keysB[i] = keysB[j];
+                postings[i] = postings[j];
+                sizes[i] = sizes[j];
+                postings[j] = null;
+                i = j;
+            }
+        }
+
+        private void allocate(int capacity) {
+            long[] oldA = keysA;
+            long[] oldB = keysB;
+            long[][] oldPostings = postings;
+            int[] oldSizes = sizes;
+            keysA = new long[capacity];
+            keysB = new long[capacity];
+            postings = new long[capacity][];
+            sizes = new int[capacity];
+            if (oldPostings == null) return;
+            for (int j = 0; j < oldPostings.length; j++) {
+                if (oldPostings[j] == null) continue;
+                int i = ~slot(oldA[j], oldB[j]);
+                keysA[i] = oldA[j];
+                keysB[i] = oldB[j];
+                postings[i] = oldPostings[j];
+                sizes[i] = oldSizes[j];
+            }
+        }
+
+        private static int hash(long a, long b) {
+            long h = (a * 0x9e3779b97f4a7c15L) ^ b;
+            h *= 0x9e3779b97f4a7c15L;
+            return (int)(h >>> 32);
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final PostingsMap[] maps = new PostingsMap[FIELDS];
+    private final Map<Long, FieldKey[]> deviceFields =
+            new HashMap<Long, FieldKey[]>();
+
+    /**
+     * The IPv4 addresses in the index as unsigned values in ascending
+     * order, for subnet queries.  Rebuilt when a query finds that
+     * addresses were added or removed since the last one.
+     */
+    private int[] sortedAddresses = new int[0];
+    private volatile boolean addressesChanged = false;
+
+    public DeviceFieldIndex() {
+        for (int i = 0; i < FIELDS; i++) {
+            maps[i] = new PostingsMap();
+        }
+    }
+
+    /**
+     * Get the number of devices in the index
+     * @return the number of devices
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return deviceFields.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Bring the postings of a device in line with the device that is
+     * currently in the given device map, or remove them if the device is
+     * no longer there.  Reading the device under the index lock means that
+     * the last of several concurrent updates of a device indexes the
+     * latest version of it.
+     * @param deviceKey the device key
+     * @param deviceMap the device map
+     */
+    public void updateDevice(Long deviceKey, Map<Long, Device> deviceMap) {
+        lock.writeLock().lock();
+        try {
+            Device device = deviceMap.get(deviceKey);
+            FieldKey[] fields = null;
+            FieldKey[] oldFields;
+            if (device == null) {
+                oldFields = deviceFields.remove(deviceKey);
+            } else {
+                fields = getFieldKeys(device);
+                oldFields = deviceFields.put(deviceKey, fields);
+            }
+            if (oldFields == null) oldFields = new FieldKey[0];
+            if (fields == null) fields = new FieldKey[0];
+
+            long key = deviceKey.longValue();
+            int i = 0;
+            int j = 0;
+            while (i < oldFields.length || j < fields.length) {
+                int c;
+                if (i == oldFields.length) c = 1;
+                else if (j == fields.length) c = -1;
+                else c = oldFields[i].compareTo(fields[j]);
+
+                if (c < 0) {
+                    FieldKey f = oldFields[i++];
+                    if (maps[f.field].remove(f.a, f.b, key) && f.field == IPV4)
+                        addressesChanged = true;
+                } else if (c > 0) {
+                    FieldKey f = fields[j++];
+                    if (maps[f.field].add(f.a, f.b, key) && f.field == IPV4)
+                        addressesChanged = true;
+                } else {
+                    i += 1;
+                    j += 1;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the keys of the devices that may match a query.  Fields that
+     * are null are not part of the query.  An untagged VLAN is queried as
+     * {@link Ethernet#VLAN_UNTAGGED}.
+     * @param macAddress the MAC address
+     * @param vlan the VLAN
+     * @param ipv4Address the IPv4 address, or an address of the subnet
+     * @param ipv4PrefixLength the prefix length of the subnet, 32 to query
+     * a single address
+     * @param switchDPID the switch DPID
+     * @param switchPort the switch port
+     * @return the device keys in ascending order, or null if the query
+     * has no fields and all devices match
+     */
+    public long[] query(Long macAddress, Short vlan, Integer ipv4Address,
+                        int ipv4PrefixLength, Long switchDPID,
+                        Integer switchPort) {
+        if (macAddress == null && vlan == null && ipv4Address == null &&
+            switchDPID == null && switchPort == null)
+            return null;
+        boolean subnet = ipv4Address != null && ipv4PrefixLength < 32;
+        if (subnet && addressesChanged) {
+            sortAddresses();
+        }
+
+        lock.readLock().lock();
+        try {
+            long[][] lists = new long[FIELDS][];
+            int[] sizes = new int[FIELDS];
+            int n = 0;
+            if (macAddress != null) {
+                int s = maps[MAC].find(macAddress.longValue(), 0);
+                if (s < 0) return NO_KEYS;
+                lists[n] = maps[MAC].postings[s];
+                sizes[n++] = maps[MAC].sizes[s];
+            }
+            if (vlan != null) {
+                int s = maps[VLAN].find(vlan.shortValue(), 0);
+                if (s < 0) return NO_KEYS;
+                lists[n] = maps[VLAN].postings[s];
+                sizes[n++] = maps[VLAN].sizes[s];
+            }
+            if (ipv4Address != null) {
+                if (subnet) {
+                    lists[n] = querySubnet(ipv4Address.intValue(),
+                                           ipv4PrefixLength);
+                    sizes[n] = lists[n].length;
+                    n += 1;
+                } else {
+                    int s = maps[IPV4].find(ipv4Address.intValue(), 0);
+                    if (s < 0) return NO_KEYS;
+                    lists[n] = maps[IPV4].postings[s];
+                    sizes[n++] = maps[IPV4].sizes[s];
+                }
+            }
+            if (switchDPID != null && switchPort != null) {
+                int s = maps[SWITCH_PORT].find(switchDPID.longValue(),
+                                               switchPort.intValue());
+                if (s < 0) return NO_KEYS;
+                lists[n] = maps[SWITCH_PORT].postings[s];
+                sizes[n++] = maps[SWITCH_PORT].sizes[s];
+            } else if (switchDPID != null) {
+                int s = maps[SWITCH].find(switchDPID.longValue(), 0);
+                if (s < 0) return NO_KEYS;
+                lists[n] = maps[SWITCH].postings[s];
+                sizes[n++] = maps[SWITCH].sizes[s];
+            } else if (switchPort != null) {
+                int s = maps[PORT].find(switchPort.intValue(), 0);
+                if (s < 0) return NO_KEYS;
+                lists[n] = maps[PORT].postings[s];
+                sizes[n++] = maps[PORT].sizes[s];
+            }
+            return intersect(lists, sizes, n);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Intersect sorted lists of device keys, starting from the shortest
+     */
+    private static long[] intersect(long[][] lists, int[] sizes, int n) {
+        int shortest = 0;
+        for (int i = 1; i < n; i++) {
+            if (sizes[i] < sizes[shortest]) shortest = i;
+        }
+        long[] result = Arrays.copyOf(lists[shortest], sizes[shortest]);
+        int count = result.length;
+        for (int i = 0; i < n && count > 0; i++) {
+            if (i == shortest) continue;
+            int kept = 0;
+            for (int j = 0; j < count; j++) {
+                if (Arrays.binarySearch(lists[i], 0, sizes[i], result[j]) >= 0)
+                    result[kept++] = result[j];
+            }
+            count = kept;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Get the union of the postings of all the addresses in a subnet.
+     * Must be called with the read lock held.
+     */
+    private long[] querySubnet(int address, int prefixLength) {
+        int mask = prefixLength <= 0 ? 0 : -1 << (32 - prefixLength);
+        int low = (address & mask) ^ Integer.MIN_VALUE;
+        int high = (address | ~mask) ^ Integer.MIN_VALUE;
+        int[] addresses = sortedAddresses;
+        int from = Arrays.binarySearch(addresses, low);
+        if (from < 0) from = -(from + 1);
+
+        PostingsMap map = maps[IPV4];
+        long[] keys = new long[16];
+        int count = 0;
+        for (int i = from; i < addresses.length && addresses[i] <= high; i++) {
+            int s = map.find(addresses[i] ^ Integer.MIN_VALUE, 0);
+            if (s < 0) continue;
+            int n = map.sizes[s];
+            if (count + n > keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(keys.length * 2,
+                                                    count + n));
+            }
+            System.arraycopy(map.postings[s], 0, keys, count, n);
+            count += n;
+        }
+        Arrays.sort(keys, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || keys[distinct - 1] != keys[i])
+                keys[distinct++] = keys[i];
+        }
+        return Arrays.copyOf(keys, distinct);
+    }
+
+    private void sortAddresses() {
+        lock.writeLock().lock();
+        try {
+            if (!addressesChanged) return;
+            PostingsMap map = maps[IPV4];
+            int[] addresses = new int[map.count];
+            int n = 0;
+            for (int i = 0; i < map.postings.length; i++) {
+                if (map.postings[i] != null)
+                    addresses[n++] = (int)map.keysA[i] ^ Integer.MIN_VALUE;
+            }
+            Arrays.sort(addresses);
+            sortedAddresses = addresses;
+            addressesChanged = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static FieldKey[] getFieldKeys(Device device) {
+        List<FieldKey> keys = new ArrayList<FieldKey>();
+        for (Entity e : device.entities) {
+            keys.add(new FieldKey(MAC, e.getMacAddress(), 0));
+            Short vlan = e.getVlan();
+            keys.add(new FieldKey(VLAN, vlan == null ? Ethernet.VLAN_UNTAGGED
+                                                     : vlan.shortValue(), 0));
+            if (e.getIpv4Address() != null)
+                keys.add(new FieldKey(IPV4, e.getIpv4Address().intValue(), 0));
+            if (e.getSwitchDPID() != null)
+                keys.add(new FieldKey(SWITCH, e.getSwitchDPID().longValue(), 0));
+            if (e.getSwitchPort() != null)
+                keys.add(new FieldKey(PORT, e.getSwitchPort().intValue(), 0));
+            if (e.hasSwitchPort())
+                keys.add(new FieldKey(SWITCH_PORT,
+                                      e.getSwitchDPID().longValue(),
+                                      e.getSwitchPort().intValue()));
+        }
+        // attachment points may outlive the entities they were learned from
+        List<AttachmentPoint> aps = device.attachmentPoints;
+        if (aps != null) {
+            for (AttachmentPoint ap : aps) {
+                keys.add(new FieldKey(SWITCH, ap.getSw(), 0));
+                keys.add(new FieldKey(PORT, ap.getPort(), 0));
+                keys.add(new FieldKey(SWITCH_PORT, ap.getSw(), ap.getPort()));
+            }
+        }
+        Collections.sort(keys);
+        int n = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (n == 0 || keys.get(n - 1).compareTo(keys.get(i)) != 0)
+                keys.set(n++, keys.get(i));
+        }
+        return keys.subList(0, n).toArray(new FieldKey[n]);
+    }
+}
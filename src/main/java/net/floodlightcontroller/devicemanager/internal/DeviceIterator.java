@@ -33,6 +33,7 @@ public class DeviceIterator extends FilterIterator<Device> {
     private Long macAddress;
     private Short vlan;
     private Integer ipv4Address; 
+    private int ipv4PrefixLength;
     private Long switchDPID;
     private Integer switchPort;
     
@@ -53,12 +54,37 @@ public class DeviceIterator extends FilterIterator<Device> {
                           Integer ipv4Address, 
                           Long switchDPID,
                           Integer switchPort) {
+        this(subIterator, entityClasses, macAddress, vlan, ipv4Address, 32,
+             switchDPID, switchPort);
+    }
+
+    /**
+     * Construct a new device iterator over the key fields that matches
+     * devices with an IPv4 address in a subnet
+     * @param subIterator an iterator over the full data structure to scan
+     * @param entityClasses the entity classes to search for
+     * @param macAddress The MAC address
+     * @param vlan the VLAN
+     * @param ipv4Address an address of the subnet
+     * @param ipv4PrefixLength the prefix length of the subnet
+     * @param switchDPID the switch DPID
+     * @param switchPort the switch port
+     */
+    public DeviceIterator(Iterator<Device> subIterator, 
+                          IEntityClass[] entityClasses,
+                          Long macAddress,
+                          Short vlan, 
+                          Integer ipv4Address, 
+                          int ipv4PrefixLength,
+                          Long switchDPID,
+                          Integer switchPort) {
         super(subIterator);
         this.entityClasses = entityClasses;
         this.subIterator = subIterator;
         this.macAddress = macAddress;
         this.vlan = vlan;
         this.ipv4Address = ipv4Address;
+        this.ipv4PrefixLength = ipv4PrefixLength;
         this.switchDPID = switchDPID;
         this.switchPort = switchPort;
     }
@@ -66,6 +92,8 @@ public class DeviceIterator extends FilterIterator<Device> {
     @Override
     protected boolean matches(Device value) {
         boolean match;
+        // the device may have been removed since its key was looked up
+        if (value == null) return false;
         if (entityClasses != null) {
             IEntityClass clazz = value.getEntityClass();
             if (clazz == null) return false;
@@ -90,8 +118,21 @@ public class DeviceIterator extends FilterIterator<Device> {
         }
         if (ipv4Address != null) {
             Integer[] ipv4Addresses = value.getIPv4Addresses();
-            if (Arrays.binarySearch(ipv4Addresses, ipv4Address) < 0) 
-                return false;
+            if (ipv4PrefixLength >= 32) {
+                if (Arrays.binarySearch(ipv4Addresses, ipv4Address) < 0) 
+                    return false;
+            } else {
+                int mask = ipv4PrefixLength <= 0 ?
+                        0 : -1 << (32 - ipv4PrefixLength);
+                match = false;
+                for (Integer a : ipv4Addresses) {
+                    if ((a.intValue() & mask) == (ipv4Address & mask)) {
+                        match = true;
+                        break;
+                    }
+                }
+                if (!match) return false;
+            }
         }
         if (switchDPID != null || switchPort != null) {
             SwitchPort[] sps = value.getAttachmentPoints();
@@ -19,7 +19,6 @@ package net.floodlightcontroller.devicemanager.internal;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -32,6 +31,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -84,6 +84,7 @@ import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.DHCP;
 import net.floodlightcontroller.packet.DHCPOption;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.packet.DHCP.DHCPOptionCode;
@@ -93,6 +94,7 @@ import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.ITopologyListener;
 import net.floodlightcontroller.topology.ITopologyService;
 import net.floodlightcontroller.util.MultiIterator;
+import net.floodlightcontroller.util.TimingWheel;
 import static net.floodlightcontroller.devicemanager.internal.
 DeviceManagerImpl.DeviceUpdate.Change.*;
 
@@ -155,16 +157,23 @@ IFlowReconcileListener, IInfoProvider {
     public IDebugCounter cntPacketNotAllowed;
     public IDebugCounter cntNewDevice;
     public IDebugCounter cntPacketOnInternalPortForKnownDevice;
+    public IDebugCounter cntKnownDeviceFastPath;
     public IDebugCounter cntNewEntity;
     public IDebugCounter cntDeviceChanged;
     public IDebugCounter cntDeviceMoved;
     public IDebugCounter cntCleanupEntitiesRuns;
     public IDebugCounter cntEntityRemovedTimeout;
+    public IDebugCounter cntExpiryDevicesChecked;
     public IDebugCounter cntDeviceDeleted;
     public IDebugCounter cntDeviceReclassifyDelete;
     public IDebugCounter cntDeviceStrored;
     public IDebugCounter cntDeviceStoreThrottled;
     public IDebugCounter cntDeviceRemovedFromStore;
+    public IDebugCounter cntDeviceStoreQueued;
+    public IDebugCounter cntDeviceStoreCoalesced;
+    public IDebugCounter cntDeviceStoreFlushed;
+    public IDebugCounter cntDeviceStoreFlushes;
+    public IDebugCounter cntDeviceStoreFlushTime;
     public IDebugCounter cntSyncException;
     public IDebugCounter cntDevicesFromStore;
     public IDebugCounter cntConsolidateStoreRuns;
@@ -190,6 +199,14 @@ IFlowReconcileListener, IInfoProvider {
             5*60*1000; // 5 min
     private int syncStoreWriteIntervalMs = DEFAULT_SYNC_STORE_WRITE_INTERVAL_MS;
 
+    /**
+     * Time that device writes are held back so that further writes of the
+     * same device can be coalesced with them before they are flushed to
+     * the sync store in one batch.  With 0 every write is flushed at once.
+     */
+    static final int DEFAULT_SYNC_STORE_FLUSH_DELAY_MS = 200;
+    private int syncStoreFlushDelayMs = DEFAULT_SYNC_STORE_FLUSH_DELAY_MS;
+
     /**
      * Time after SLAVE->MASTER until we run the consolidate store
      * code.
@@ -213,9 +230,26 @@ IFlowReconcileListener, IInfoProvider {
     protected static final int ENTITY_TIMEOUT = 60*60*1000;
 
     /**
-     * Time in seconds between cleaning up old entities/devices
+     * Default time in seconds between runs of the entity cleanup task.
+     * Entities expire at most this long after {@link #ENTITY_TIMEOUT}.
+     */
+    protected static final int DEFAULT_ENTITY_EXPIRY_GRANULARITY = 60;
+    protected int entityExpiryGranularity = DEFAULT_ENTITY_EXPIRY_GRANULARITY;
+
+    /**
+     * Number of slots in each level of {@link #entityExpiryWheel}
+     */
+    protected static final int ENTITY_EXPIRY_WHEEL_SLOTS = 64;
+
+    /**
+     * Number of levels of {@link #entityExpiryWheel}
+     */
+    protected static final int ENTITY_EXPIRY_WHEEL_LEVELS = 3;
+
+    /**
+     * The group bit of a MAC address held in a long
      */
-    protected static final int ENTITY_CLEANUP_INTERVAL = 60*60;
+    protected static final long MULTICAST_BIT = 0x010000000000L;
 
     /**
      * This is the master device map that maps device IDs to {@link Device}
@@ -223,6 +257,25 @@ IFlowReconcileListener, IInfoProvider {
      */
     protected ConcurrentHashMap<Long, Device> deviceMap;
 
+    /**
+     * Device keys scheduled by the time at which the oldest entity of the
+     * device expires.  The cleanup task only looks at the devices that
+     * are due, and schedules them again if their entities have been seen
+     * since.
+     */
+    protected TimingWheel<Long> entityExpiryWheel;
+
+    /**
+     * Number of slots in {@link #learnedEntities}
+     */
+    protected static final int LEARNED_ENTITY_CACHE_SIZE = 1 << 18;
+
+    /**
+     * Cache of the source entities learned from packet ins, used to find
+     * known devices without going through the entity indices
+     */
+    protected LearnedEntityCache learnedEntities;
+
     /**
      * Counter used to generate device keys
      */
@@ -234,9 +287,10 @@ IFlowReconcileListener, IInfoProvider {
     protected DeviceUniqueIndex primaryIndex;
 
     /**
-     * This stores secondary indices over the fields in the devices
+     * This indexes the devices on all their fields, for queries on any
+     * combination of fields
      */
-    protected Map<EnumSet<DeviceField>, DeviceIndex> secondaryIndexMap;
+    protected DeviceFieldIndex fieldIndex;
 
     /**
      * This map contains state for each of the {@ref IEntityClass}
@@ -437,6 +491,11 @@ IFlowReconcileListener, IInfoProvider {
      */
     private SingletonTask storeConsolidateTask;
 
+    /**
+     * Task to flush the queued device writes to the store
+     */
+    private SingletonTask storeFlushTask;
+
     /**
      * Listens for HA notifications
      */
@@ -497,11 +556,10 @@ IFlowReconcileListener, IInfoProvider {
     @Override
     public void addIndex(boolean perClass,
                          EnumSet<DeviceField> keyFields) {
+        // The field index already covers any combination of fields across
+        // all classes, so only per class indices need to be added
         if (perClass) {
             perClassIndices.add(keyFields);
-        } else {
-            secondaryIndexMap.put(keyFields,
-                                  new DeviceMultiIndex(keyFields));
         }
     }
 
@@ -511,39 +569,20 @@ IFlowReconcileListener, IInfoProvider {
                                                     Integer ipv4Address,
                                                     Long switchDPID,
                                                     Integer switchPort) {
-        DeviceIndex index = null;
-        if (secondaryIndexMap.size() > 0) {
-            EnumSet<DeviceField> keys =
-                    getEntityKeys(macAddress, vlan, ipv4Address,
-                                  switchDPID, switchPort);
-            index = secondaryIndexMap.get(keys);
-        }
-
-        Iterator<Device> deviceIterator = null;
-        if (index == null) {
-            // Do a full table scan
-            deviceIterator = deviceMap.values().iterator();
-        } else {
-            // index lookup
-            Entity entity = new Entity((macAddress == null ? 0 : macAddress),
-                                       vlan,
-                                       ipv4Address,
-                                       switchDPID,
-                                       switchPort,
-                                       null);
-            deviceIterator =
-                    new DeviceIndexInterator(this, index.queryByEntity(entity));
-        }
+        return getDeviceIteratorForQuery(macAddress, vlan, ipv4Address, 32,
+                                         switchDPID, switchPort);
+    }
 
-        DeviceIterator di =
-                new DeviceIterator(deviceIterator,
-                                   null,
-                                   macAddress,
-                                   vlan,
-                                   ipv4Address,
-                                   switchDPID,
-                                   switchPort);
-        return di;
+    @Override
+    public Iterator<? extends IDevice> queryDevices(Long macAddress,
+                                                    Short vlan,
+                                                    Integer ipv4Address,
+                                                    int ipv4PrefixLength,
+                                                    Long switchDPID,
+                                                    Integer switchPort) {
+        return getDeviceIteratorForQuery(macAddress, vlan, ipv4Address,
+                                         ipv4PrefixLength,
+                                         switchDPID, switchPort);
     }
 
     @Override
@@ -567,6 +606,15 @@ IFlowReconcileListener, IInfoProvider {
 
         Iterator<Device> iter;
         if (index == null) {
+            long[] deviceKeys = fieldIndex.query(macAddress, vlan, ipv4Address,
+                                                 32, switchDPID, switchPort);
+            if (deviceKeys != null) {
+                // look up the fields across all classes
+                return new DeviceIterator(getDevicesByKeys(deviceKeys),
+                                          new IEntityClass[] { entityClass },
+                                          macAddress, vlan, ipv4Address,
+                                          switchDPID, switchPort);
+            }
             index = classState.classIndex;
             if (index == null) {
                 // scan all devices
@@ -600,28 +648,26 @@ IFlowReconcileListener, IInfoProvider {
                                                         Integer ipv4Address,
                                                         Long switchDPID,
                                                         Integer switchPort) {
-        DeviceIndex index = null;
-        if (secondaryIndexMap.size() > 0) {
-            EnumSet<DeviceField> keys =
-                getEntityKeys(macAddress, vlan, ipv4Address,
-                            switchDPID, switchPort);
-            index = secondaryIndexMap.get(keys);
-        }
+        return getDeviceIteratorForQuery(macAddress, vlan, ipv4Address, 32,
+                                         switchDPID, switchPort);
+    }
 
+    protected Iterator<Device> getDeviceIteratorForQuery(Long macAddress,
+                                                        Short vlan,
+                                                        Integer ipv4Address,
+                                                        int ipv4PrefixLength,
+                                                        Long switchDPID,
+                                                        Integer switchPort) {
+        long[] deviceKeys = fieldIndex.query(macAddress, vlan, ipv4Address,
+                                             ipv4PrefixLength,
+                                             switchDPID, switchPort);
         Iterator<Device> deviceIterator = null;
-        if (index == null) {
+        if (deviceKeys == null) {
             // Do a full table scan
             deviceIterator = deviceMap.values().iterator();
         } else {
             // index lookup
-            Entity entity = new Entity((macAddress == null ? 0 : macAddress),
-                                vlan,
-                                ipv4Address,
-                                switchDPID,
-                                switchPort,
-                                null);
-            deviceIterator =
-                new DeviceIndexInterator(this, index.queryByEntity(entity));
+            deviceIterator = getDevicesByKeys(deviceKeys);
         }
 
         DeviceIterator di =
@@ -630,11 +676,41 @@ IFlowReconcileListener, IInfoProvider {
                                 macAddress,
                                 vlan,
                                 ipv4Address,
+                                ipv4PrefixLength,
                                 switchDPID,
                                 switchPort);
         return di;
     }
 
+    /**
+     * Get an iterator over the devices with the given keys.  Devices that
+     * are no longer in the device map are returned as null.
+     * @param deviceKeys the device keys
+     * @return the iterator
+     */
+    private Iterator<Device> getDevicesByKeys(final long[] deviceKeys) {
+        return new Iterator<Device>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < deviceKeys.length;
+            }
+
+            @Override
+            public Device next() {
+                if (next >= deviceKeys.length)
+                    throw new NoSuchElementException();
+                return deviceMap.get(deviceKeys[next++]);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     @Override
     public void addListener(IDeviceListener listener) {
          deviceListeners.addListener("device", listener);
@@ -819,7 +895,7 @@ IFlowReconcileListener, IInfoProvider {
             return Command.STOP;
         }
         // Store the source device in the context
-        fcStore.put(ofm.cntx, CONTEXT_SRC_DEVICE, srcDevice);
+        fcStore.put(ofm.cntx, CONTEXT_SRC_DEVICE_SLOT, srcDevice);
 
         // Find the device matching the destination from the entity
         // classes of the source.
@@ -828,7 +904,7 @@ IFlowReconcileListener, IInfoProvider {
         if (dstEntity != null) {
             dstDevice = findDestByEntity(srcDevice.getEntityClass(), dstEntity);
             if (dstDevice != null)
-                fcStore.put(ofm.cntx, CONTEXT_DST_DEVICE, dstDevice);
+                fcStore.put(ofm.cntx, CONTEXT_DST_DEVICE_SLOT, dstDevice);
             else
                 cntReconcileNoDest.updateCounterNoFlush();
         } else {
@@ -907,6 +983,31 @@ IFlowReconcileListener, IInfoProvider {
         this.debugCounters = fmc.getServiceImpl(IDebugCounterService.class);
         this.debugEvents = fmc.getServiceImpl(IDebugEventService.class);
         this.syncService = fmc.getServiceImpl(ISyncService.class);
+        Map<String, String> configParams = fmc.getConfigParams(this);
+        String granularity = configParams.get("entityExpiryGranularity");
+        if (granularity != null) {
+            try {
+                entityExpiryGranularity = Integer.parseInt(granularity);
+            } catch (NumberFormatException e) {
+                logger.warn("Error parsing entity expiry granularity, " +
+                            "using default of {} seconds",
+                            DEFAULT_ENTITY_EXPIRY_GRANULARITY);
+            }
+            if (entityExpiryGranularity <= 0)
+                entityExpiryGranularity = DEFAULT_ENTITY_EXPIRY_GRANULARITY;
+        }
+        String flushDelay = configParams.get("syncStoreFlushDelayMs");
+        if (flushDelay != null) {
+            try {
+                syncStoreFlushDelayMs = Integer.parseInt(flushDelay);
+            } catch (NumberFormatException e) {
+                logger.warn("Error parsing sync store flush delay, " +
+                            "using default of {} ms",
+                            DEFAULT_SYNC_STORE_FLUSH_DELAY_MS);
+            }
+            if (syncStoreFlushDelayMs < 0)
+                syncStoreFlushDelayMs = DEFAULT_SYNC_STORE_FLUSH_DELAY_MS;
+        }
         this.deviceSyncManager = new DeviceSyncManager();
         this.haListenerDelegate = new HAListenerDelegate();
         registerDeviceManagerDebugCounters();
@@ -933,9 +1034,15 @@ IFlowReconcileListener, IInfoProvider {
             throws FloodlightModuleException {
         isMaster = (floodlightProvider.getRole() == Role.MASTER);
         primaryIndex = new DeviceUniqueIndex(entityClassifier.getKeyFields());
-        secondaryIndexMap = new HashMap<EnumSet<DeviceField>, DeviceIndex>();
+        fieldIndex = new DeviceFieldIndex();
 
         deviceMap = new ConcurrentHashMap<Long, Device>();
+        entityExpiryWheel =
+                new TimingWheel<Long>(entityExpiryGranularity * 1000L,
+                                      ENTITY_EXPIRY_WHEEL_SLOTS,
+                                      ENTITY_EXPIRY_WHEEL_LEVELS,
+                                      System.currentTimeMillis());
+        learnedEntities = new LearnedEntityCache(LEARNED_ENTITY_CACHE_SIZE);
         classStateMap =
                 new ConcurrentHashMap<String, ClassState>();
         apComparator = new AttachmentPointComparator();
@@ -952,12 +1059,12 @@ IFlowReconcileListener, IInfoProvider {
             @Override
             public void run() {
                 cleanupEntities();
-                entityCleanupTask.reschedule(ENTITY_CLEANUP_INTERVAL,
+                entityCleanupTask.reschedule(entityExpiryGranularity,
                                              TimeUnit.SECONDS);
             }
         };
         entityCleanupTask = new SingletonTask(ses, ecr);
-        entityCleanupTask.reschedule(ENTITY_CLEANUP_INTERVAL,
+        entityCleanupTask.reschedule(entityExpiryGranularity,
                                      TimeUnit.SECONDS);
 
         Runnable consolidateStoreRunner = new Runnable() {
@@ -969,6 +1076,14 @@ IFlowReconcileListener, IInfoProvider {
             }
         };
         storeConsolidateTask = new SingletonTask(ses, consolidateStoreRunner);
+
+        Runnable storeFlushRunner = new Runnable() {
+            @Override
+            public void run() {
+                deviceSyncManager.flushPendingWrites();
+            }
+        };
+        storeFlushTask = new SingletonTask(ses, storeFlushRunner);
         if (isMaster)
             storeConsolidateTask.reschedule(syncStoreConsolidateIntervalMs,
                                             TimeUnit.MILLISECONDS);
@@ -1062,6 +1177,11 @@ IFlowReconcileListener, IInfoProvider {
                  "Number of times a packetIn was received on an internal port " +
                  "for a known device.",
                  CounterType.ALWAYS_COUNT);
+            cntKnownDeviceFastPath = debugCounters.registerCounter(PACKAGE,
+                 "known-device-fast-path",
+                 "Number of times a packetIn from a known device at its " +
+                 "current attachment point only updated last seen times",
+                 CounterType.ALWAYS_COUNT);
             cntNewEntity = debugCounters.registerCounter(PACKAGE, "new-entity",
                  "Number of times a new entity was learned for an existing device",
                  CounterType.ALWAYS_COUNT);
@@ -1080,6 +1200,11 @@ IFlowReconcileListener, IInfoProvider {
                  "Number of times entities have been removed due to timeout " +
                  "(entity has been inactive for " + ENTITY_TIMEOUT/1000 + "s)",
                  CounterType.ALWAYS_COUNT);
+            cntExpiryDevicesChecked = debugCounters.registerCounter(PACKAGE,
+                 "expiry-devices-checked",
+                 "Number of devices the entity cleanup task has checked for " +
+                 "expired entities",
+                 CounterType.ALWAYS_COUNT);
             cntDeviceDeleted = debugCounters.registerCounter(PACKAGE, "device-deleted",
                  "Number of devices that have been removed due to inactivity",
                  CounterType.ALWAYS_COUNT);
@@ -1103,6 +1228,34 @@ IFlowReconcileListener, IInfoProvider {
                  "because the local controller removed the device due to " +
                  "inactivity",
                  CounterType.ALWAYS_COUNT);
+            cntDeviceStoreQueued = debugCounters.registerCounter(PACKAGE,
+                 "device-store-queued",
+                 "Number of device writes and removals queued for the sync " +
+                 "store",
+                 CounterType.ALWAYS_COUNT);
+            cntDeviceStoreCoalesced = debugCounters.registerCounter(PACKAGE,
+                 "device-store-coalesced",
+                 "Number of queued device writes and removals that replaced " +
+                 "one for the same device still in the queue. The coalescing " +
+                 "ratio is this over device-store-queued",
+                 CounterType.ALWAYS_COUNT);
+            cntDeviceStoreFlushed = debugCounters.registerCounter(PACKAGE,
+                 "device-store-flushed",
+                 "Number of queued device writes and removals flushed to the " +
+                 "sync store. The queue depth is device-store-queued minus " +
+                 "device-store-coalesced minus this",
+                 CounterType.ALWAYS_COUNT);
+            cntDeviceStoreFlushes = debugCounters.registerCounter(PACKAGE,
+                 "device-store-flushes",
+                 "Number of batches of queued device writes flushed to the " +
+                 "sync store",
+                 CounterType.ALWAYS_COUNT);
+            cntDeviceStoreFlushTime = debugCounters.registerCounter(PACKAGE,
+                 "device-store-flush-time-us",
+                 "Total time in microseconds spent flushing batches of device " +
+                 "writes to the sync store. The mean flush latency is this " +
+                 "over device-store-flushes",
+                 CounterType.ALWAYS_COUNT);
             cntSyncException = debugCounters.registerCounter(PACKAGE, "sync-exception",
                  "Number of times an operation on the sync store resulted in " +
                  "sync exception",
@@ -1181,39 +1334,46 @@ IFlowReconcileListener, IInfoProvider {
 
     protected Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                              FloodlightContext cntx) {
-        Ethernet eth =
-                IFloodlightProviderService.bcStore.
-                get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-
-        // Extract source entity information
-        Entity srcEntity =
-                getSourceEntityFromPacket(eth, sw.getId(), pi.getInPort());
-        if (srcEntity == null) {
-            cntInvalidSource.updateCounterNoFlush();
-            return Command.STOP;
-        }
-
-        // Learn from ARP packet for special VRRP settings.
-        // In VRRP settings, the source MAC address and sender MAC
-        // addresses can be different.  In such cases, we need to learn
-        // the IP to MAC mapping of the VRRP IP address.  The source
-        // entity will not have that information.  Hence, a separate call
-        // to learn devices in such cases.
-        learnDeviceFromArpResponseData(eth, sw.getId(), pi.getInPort());
+        EthernetView eth = IFloodlightProviderService.bcStore.getView(cntx);
 
-        // Learn/lookup device information
-        Device srcDevice = learnDeviceByEntity(srcEntity);
+        // Most packets come from known devices at their current attachment
+        // point, and only need their last seen times updated
+        Device srcDevice =
+                learnKnownDeviceFromPacket(eth, sw.getId(), pi.getInPort());
         if (srcDevice == null) {
-            cntNoSource.updateCounterNoFlush();
-            return Command.STOP;
+            // Extract source entity information
+            Entity srcEntity =
+                    getSourceEntityFromPacket(eth, sw.getId(), pi.getInPort());
+            if (srcEntity == null) {
+                cntInvalidSource.updateCounterNoFlush();
+                return Command.STOP;
+            }
+
+            // Learn from ARP packet for special VRRP settings.
+            // In VRRP settings, the source MAC address and sender MAC
+            // addresses can be different.  In such cases, we need to learn
+            // the IP to MAC mapping of the VRRP IP address.  The source
+            // entity will not have that information.  Hence, a separate
+            // call to learn devices in such cases.
+            learnDeviceFromArpResponseData(eth, sw.getId(), pi.getInPort());
+
+            // Learn/lookup device information
+            srcDevice = learnDeviceByEntity(srcEntity);
+            if (srcDevice == null) {
+                cntNoSource.updateCounterNoFlush();
+                return Command.STOP;
+            }
+            learnedEntities.put(srcDevice, srcEntity);
+        } else {
+            learnDeviceFromArpResponseData(eth, sw.getId(), pi.getInPort());
         }
 
         // Store the source device in the context
-        fcStore.put(cntx, CONTEXT_SRC_DEVICE, srcDevice);
+        fcStore.put(cntx, CONTEXT_SRC_DEVICE_SLOT, srcDevice);
 
         // Find the device matching the destination from the entity
         // classes of the source.
-        if (eth.getDestinationMAC().toLong() == 0) {
+        if (eth.getDestinationMAC() == 0) {
             cntInvalidDest.updateCounterNoFlush();
             return Command.STOP;
         }
@@ -1223,7 +1383,7 @@ IFlowReconcileListener, IInfoProvider {
             dstDevice =
                     findDestByEntity(srcDevice.getEntityClass(), dstEntity);
             if (dstDevice != null)
-                fcStore.put(cntx, CONTEXT_DST_DEVICE, dstDevice);
+                fcStore.put(cntx, CONTEXT_DST_DEVICE_SLOT, dstDevice);
             else
                 cntNoDest.updateCounterNoFlush();
         } else {
@@ -1247,7 +1407,13 @@ IFlowReconcileListener, IInfoProvider {
      * @param eth
      * @param srcDevice
      */
-    private void snoopDHCPClientName(Ethernet eth, Device srcDevice) {
+    private void snoopDHCPClientName(EthernetView view, Device srcDevice) {
+        // Check the headers before decoding the whole packet
+        if (view.getNetworkProtocol() != IPv4.PROTOCOL_UDP ||
+                !(isDHCPPort(view.getTransportSource()) ||
+                  isDHCPPort(view.getTransportDestination())))
+            return;
+        Ethernet eth = view.getEthernet();
         if (! (eth.getPayload() instanceof IPv4) )
             return;
         IPv4 ipv4 = (IPv4) eth.getPayload();
@@ -1268,6 +1434,10 @@ IFlowReconcileListener, IInfoProvider {
         }
     }
 
+    private static boolean isDHCPPort(short port) {
+        return port == UDP.DHCP_SERVER_PORT || port == UDP.DHCP_CLIENT_PORT;
+    }
+
     /**
      * Check whether the given attachment point is valid given the current
      * topology
@@ -1281,7 +1451,8 @@ IFlowReconcileListener, IInfoProvider {
                                            (short)switchPort) == false)
             return false;
 
-        if (suppressAPs.contains(new SwitchPort(switchDPID, switchPort)))
+        if (!suppressAPs.isEmpty() &&
+                suppressAPs.contains(new SwitchPort(switchDPID, switchPort)))
             return false;
 
         return true;
@@ -1295,32 +1466,71 @@ IFlowReconcileListener, IInfoProvider {
      * @param dlAddr
      * @return
      */
-    private int getSrcNwAddr(Ethernet eth, long dlAddr) {
-        if (eth.getPayload() instanceof ARP) {
-            ARP arp = (ARP) eth.getPayload();
-            if ((arp.getProtocolType() == ARP.PROTO_TYPE_IP) &&
-                    (Ethernet.toLong(arp.getSenderHardwareAddress()) == dlAddr)) {
-                return IPv4.toIPv4Address(arp.getSenderProtocolAddress());
+    private int getSrcNwAddr(EthernetView eth, long dlAddr) {
+        if (eth.isARP()) {
+            if ((eth.getArpProtocolType() == ARP.PROTO_TYPE_IP) &&
+                    (eth.getArpSenderHardwareAddress() == dlAddr)) {
+                return eth.getArpSenderProtocolAddress();
             }
         }
         return 0;
     }
 
     /**
-     * Parse an entity from an {@link Ethernet} packet.
+     * Look up the source device of a packet in {@link #learnedEntities}
+     * and update its last seen times.  This succeeds only when learning
+     * the source entity of the packet with
+     * {@link #learnDeviceByEntity(Entity)} could change nothing but the
+     * last seen times of the entity and attachment point: the entity is
+     * already part of the device, the device is still current and the
+     * attachment point is the only one of the device.  It neither
+     * allocates nor touches the indices.
+     * @param eth the packet
+     * @param swdpid the switch on which the packet arrived
+     * @param port the port on which the packet arrived
+     * @return the source device, or null if the packet must be learned
+     * with {@link #learnDeviceByEntity(Entity)}
+     */
+    protected Device learnKnownDeviceFromPacket(EthernetView eth,
+                                                long swdpid,
+                                                int port) {
+        long dlAddr = eth.getSourceMAC();
+        short vlan = eth.getVlanID();
+        if (vlan < 0) vlan = Ethernet.VLAN_UNTAGGED;
+        int nwSrc = getSrcNwAddr(eth, dlAddr);
+
+        LearnedEntityCache.LearnedEntity le =
+                learnedEntities.get(dlAddr, vlan, nwSrc, swdpid, port);
+        if (le == null) return null;
+        Device device = le.device;
+        if (deviceMap.get(device.getDeviceKey()) != device) return null;
+        if (!isEntityAllowed(le.entity, device.getEntityClass()))
+            return null;
+        if (!isValidAttachmentPoint(swdpid, port)) return null;
+
+        long now = System.currentTimeMillis();
+        if (!device.touchAttachmentPoint(swdpid, port, now)) return null;
+        le.entity.touch(now);
+
+        cntKnownDeviceFastPath.updateCounterNoFlush();
+        deviceSyncManager.storeDeviceThrottled(device);
+        return device;
+    }
+
+    /**
+     * Parse an entity from an {@link EthernetView} of a packet.
      * @param eth the packet to parse
      * @param sw the switch on which the packet arrived
      * @param pi the original packetin
      * @return the entity from the packet
      */
-    protected Entity getSourceEntityFromPacket(Ethernet eth,
+    protected Entity getSourceEntityFromPacket(EthernetView eth,
                                              long swdpid,
                                              int port) {
-        byte[] dlAddrArr = eth.getSourceMACAddress();
-        long dlAddr = Ethernet.toLong(dlAddrArr);
+        long dlAddr = eth.getSourceMAC();
 
         // Ignore broadcast/multicast source
-        if ((dlAddrArr[0] & 0x1) != 0)
+        if ((dlAddr & MULTICAST_BIT) != 0)
             return null;
         // Ignore 0 source mac
         if (dlAddr == 0)
@@ -1341,30 +1551,26 @@ IFlowReconcileListener, IInfoProvider {
      * Ethernet source MAC is different from the sender hardware
      * address in ARP data.
      */
-    protected void learnDeviceFromArpResponseData(Ethernet eth,
+    protected void learnDeviceFromArpResponseData(EthernetView eth,
                                             long swdpid,
                                             int port) {
 
-        if (!(eth.getPayload() instanceof ARP)) return;
-        ARP arp = (ARP) eth.getPayload();
+        if (!eth.isARP()) return;
 
-        byte[] dlAddrArr = eth.getSourceMACAddress();
-        long dlAddr = Ethernet.toLong(dlAddrArr);
-
-        byte[] senderHardwareAddr = arp.getSenderHardwareAddress();
-        long senderAddr = Ethernet.toLong(senderHardwareAddr);
+        long dlAddr = eth.getSourceMAC();
+        long senderAddr = eth.getArpSenderHardwareAddress();
 
         if (dlAddr == senderAddr) return;
 
         // Ignore broadcast/multicast source
-        if ((senderHardwareAddr[0] & 0x1) != 0)
+        if ((senderAddr & MULTICAST_BIT) != 0)
             return;
         // Ignore zero sender mac
         if (senderAddr == 0)
             return;
 
         short vlan = eth.getVlanID();
-        int nwSrc = IPv4.toIPv4Address(arp.getSenderProtocolAddress());
+        int nwSrc = eth.getArpSenderProtocolAddress();
 
         Entity e =  new Entity(senderAddr,
                 ((vlan >= 0) ? vlan : null),
@@ -1381,22 +1587,20 @@ IFlowReconcileListener, IInfoProvider {
      * @param eth
      * @return
      */
-    protected Entity getDestEntityFromPacket(Ethernet eth) {
-        byte[] dlAddrArr = eth.getDestinationMACAddress();
-        long dlAddr = Ethernet.toLong(dlAddrArr);
+    protected Entity getDestEntityFromPacket(EthernetView eth) {
+        long dlAddr = eth.getDestinationMAC();
         short vlan = eth.getVlanID();
         int nwDst = 0;
 
         // Ignore broadcast/multicast destination
-        if ((dlAddrArr[0] & 0x1) != 0)
+        if ((dlAddr & MULTICAST_BIT) != 0)
             return null;
         // Ignore zero dest mac
         if (dlAddr == 0)
             return null;
 
-        if (eth.getPayload() instanceof IPv4) {
-            IPv4 ipv4 = (IPv4) eth.getPayload();
-            nwDst = ipv4.getDestinationAddress();
+        if (eth.isIPv4()) {
+            nwDst = eth.getNetworkDestination();
         }
 
         return new Entity(dlAddr,
@@ -1648,6 +1852,8 @@ IFlowReconcileListener, IInfoProvider {
                 }
 
                 updateSecondaryIndices(entity, entityClass, deviceKey);
+                fieldIndex.updateDevice(deviceKey, deviceMap);
+                scheduleEntityExpiry(deviceKey, entity);
 
                 // We need to count and log here. If we log earlier we could
                 // hit a concurrent modification and restart the dev creation
@@ -1720,6 +1926,8 @@ IFlowReconcileListener, IInfoProvider {
                 updateSecondaryIndices(entity,
                                        device.getEntityClass(),
                                        deviceKey);
+                fieldIndex.updateDevice(deviceKey, deviceMap);
+                scheduleEntityExpiry(deviceKey, entity);
 
                 // We need to count here after all the possible "continue"
                 // statements in this branch
@@ -1973,9 +2181,6 @@ IFlowReconcileListener, IInfoProvider {
     private void updateSecondaryIndices(Entity entity,
                                         IEntityClass entityClass,
                                         Long deviceKey) {
-        for (DeviceIndex index : secondaryIndexMap.values()) {
-            index.updateIndex(entity, deviceKey);
-        }
         ClassState state = getClassState(entityClass);
         for (DeviceIndex index : state.secondaryIndexMap.values()) {
             index.updateIndex(entity, deviceKey);
@@ -1983,24 +2188,40 @@ IFlowReconcileListener, IInfoProvider {
     }
 
     /**
-     * Clean up expired entities/devices
+     * Schedule the expiry of a device's entities no later than the expiry
+     * of the given entity
+     * @param deviceKey the device key
+     * @param entity an entity of the device
+     */
+    private void scheduleEntityExpiry(Long deviceKey, Entity entity) {
+        Date lastSeen = entity.getLastSeenTimestamp();
+        if (lastSeen != null) {
+            entityExpiryWheel.schedule(deviceKey,
+                                       lastSeen.getTime() + ENTITY_TIMEOUT);
+        }
+    }
+
+    /**
+     * Clean up expired entities/devices.  Only the devices that
+     * {@link #entityExpiryWheel} reports as due are checked.
      */
     protected void cleanupEntities () {
         cntCleanupEntitiesRuns.updateCounterWithFlush();
 
-        Calendar c = Calendar.getInstance();
-        c.add(Calendar.MILLISECOND, -ENTITY_TIMEOUT);
-        Date cutoff = c.getTime();
+        long now = System.currentTimeMillis();
+        Date cutoff = new Date(now - ENTITY_TIMEOUT);
+        List<Long> due = entityExpiryWheel.advance(now);
+        cntExpiryDevicesChecked.updateCounterWithFlush(due.size());
 
         ArrayList<Entity> toRemove = new ArrayList<Entity>();
         ArrayList<Entity> toKeep = new ArrayList<Entity>();
-
-        Iterator<Device> diter = deviceMap.values().iterator();
         LinkedList<DeviceUpdate> deviceUpdates =
                 new LinkedList<DeviceUpdate>();
+        int expired = 0;
 
-        while (diter.hasNext()) {
-            Device d = diter.next();
+        for (Long deviceKey : due) {
+            Device d = deviceMap.get(deviceKey);
+            if (d == null) continue;
 
             while (true) {
                 deviceUpdates.clear();
@@ -2071,9 +2292,24 @@ IFlowReconcileListener, IInfoProvider {
                     }
                     deviceUpdates.add(update);
                 }
+                fieldIndex.updateDevice(deviceKey, deviceMap);
+                expired += toRemove.size();
                 processUpdates(deviceUpdates);
                 break;
             }
+
+            // Check the remaining entities again when the oldest of them
+            // expires
+            d = deviceMap.get(deviceKey);
+            if (d != null) {
+                for (Entity e : d.getEntities()) {
+                    scheduleEntityExpiry(deviceKey, e);
+                }
+            }
+        }
+        if (logger.isDebugEnabled() && due.size() > 0) {
+            logger.debug("Entity cleanup expired {} entities of {} devices " +
+                         "checked", expired, due.size());
         }
         // Since cleanupEntities() is not called in the packet-in pipeline,
         // debugEvents need to be flushed explicitly
@@ -2087,9 +2323,6 @@ IFlowReconcileListener, IInfoProvider {
         // Don't count in this method. This method CAN BE called to clean-up
         // after concurrent device adds/updates and thus counting here
         // is misleading
-        for (DeviceIndex index : secondaryIndexMap.values()) {
-            index.removeEntityIfNeeded(removed, deviceKey, others);
-        }
         ClassState classState = getClassState(entityClass);
         for (DeviceIndex index : classState.secondaryIndexMap.values()) {
             index.removeEntityIfNeeded(removed, deviceKey, others);
@@ -2113,6 +2346,8 @@ IFlowReconcileListener, IInfoProvider {
         // Don't count in this method. This method CAN BE called to clean-up
         // after concurrent device adds/updates and thus counting here
         // is misleading
+        learnedEntities.remove(device);
+        entityExpiryWheel.cancel(device.getDeviceKey());
         ArrayList<Entity> emptyToKeep = new ArrayList<Entity>();
         for (Entity entity : device.getEntities()) {
             this.removeEntity(entity, device.getEntityClass(),
@@ -2123,6 +2358,7 @@ IFlowReconcileListener, IInfoProvider {
                 logger.debug("device map does not have this device -" +
                     device.toString());
         }
+        fieldIndex.updateDevice(device.getDeviceKey(), deviceMap);
     }
 
     private EnumSet<DeviceField> getEntityKeys(Long macAddress,
@@ -2327,6 +2563,15 @@ IFlowReconcileListener, IInfoProvider {
         this.syncStoreWriteIntervalMs = intervalMs;
     }
 
+    /**
+     * For testing: sets the time device writes are held back before they
+     * are flushed to the device store.
+     * @param delayMs
+     */
+    void setSyncStoreFlushDelay(int delayMs) {
+        this.syncStoreFlushDelayMs = delayMs;
+    }
+
     /**
      * For testing: sets the time between transition to MASTER and
      * consolidate store
@@ -2349,6 +2594,14 @@ IFlowReconcileListener, IInfoProvider {
         private final ConcurrentMap<Long, Long> lastWriteTimes =
                 new ConcurrentHashMap<Long, Long>();
 
+        // maps the store key to the device to write, or to null to remove
+        // the entry, for the writes that have not been flushed yet
+        private final Map<String, Device> pendingWrites =
+                new HashMap<String, Device>();
+
+        // held while flushing so that batches are written in order
+        private final Object flushLock = new Object();
+
         /**
          * Write the given device to storage if we are MASTER.
          * Use this method if the device has significantly changed (e.g.,
@@ -2361,7 +2614,7 @@ IFlowReconcileListener, IInfoProvider {
             if (d == null)
                 return;
             long now = System.nanoTime();
-            writeUpdatedDeviceToStorage(d);
+            queueWrite(DeviceSyncRepresentation.computeKey(d), d);
             lastWriteTimes.put(d.getDeviceKey(), now);
         }
 
@@ -2382,7 +2635,7 @@ IFlowReconcileListener, IInfoProvider {
             Long last = lastWriteTimes.get(d.getDeviceKey());
             if (last == null ||
                     now - last > intervalNs) {
-                writeUpdatedDeviceToStorage(d);
+                queueWrite(DeviceSyncRepresentation.computeKey(d), d);
                 lastWriteTimes.put(d.getDeviceKey(), now);
             } else {
                 cntDeviceStoreThrottled.updateCounterWithFlush();
@@ -2402,17 +2655,83 @@ IFlowReconcileListener, IInfoProvider {
             // hashMap? I.e., we write a stale entry to the map after the
             // delete and now are left with an entry we'll never clean up
             lastWriteTimes.remove(d.getDeviceKey());
-            try {
-                // TODO: should probably do versioned delete. OTOH, even
-                // if we accidentally delete, we'll write it again after
-                // the next entity ....
-                cntDeviceRemovedFromStore.updateCounterWithFlush();
-                storeClient.delete(DeviceSyncRepresentation.computeKey(d));
-            } catch(ObsoleteVersionException e) {
-                // FIXME
-            } catch (SyncException e) {
-                cntSyncException.updateCounterWithFlush();
-                logger.error("Could not remove device " + d + " from store", e);
+            // TODO: should probably do versioned delete. OTOH, even
+            // if we accidentally delete, we'll write it again after
+            // the next entity ....
+            queueWrite(DeviceSyncRepresentation.computeKey(d), null);
+        }
+
+        /**
+         * Queue a write of a device to the store, replacing any queued
+         * write for the same store key.  The queue is flushed after
+         * syncStoreFlushDelayMs, or at once if the delay is 0.
+         * @param key the store key
+         * @param d the device to write, or null to remove the entry
+         */
+        private void queueWrite(String key, Device d) {
+            cntDeviceStoreQueued.updateCounterWithFlush();
+            boolean first;
+            synchronized (pendingWrites) {
+                first = pendingWrites.isEmpty();
+                if (!first && pendingWrites.containsKey(key))
+                    cntDeviceStoreCoalesced.updateCounterWithFlush();
+                pendingWrites.put(key, d);
+            }
+            if (syncStoreFlushDelayMs <= 0) {
+                flushPendingWrites();
+            } else if (first) {
+                // later writes join this flush rather than delay it
+                storeFlushTask.reschedule(syncStoreFlushDelayMs,
+                                          TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Write all queued device writes to the store as one batch.  The
+         * writes are dropped if we are no longer MASTER.
+         */
+        private void flushPendingWrites() {
+            synchronized (flushLock) {
+                Map<String, Device> writes;
+                synchronized (pendingWrites) {
+                    if (pendingWrites.isEmpty())
+                        return;
+                    writes = new HashMap<String, Device>(pendingWrites);
+                    pendingWrites.clear();
+                }
+                if (!isMaster)
+                    return;
+
+                long start = System.nanoTime();
+                Map<String, DeviceSyncRepresentation> values =
+                        new HashMap<String, DeviceSyncRepresentation>();
+                int removed = 0;
+                for (Map.Entry<String, Device> e : writes.entrySet()) {
+                    if (e.getValue() == null) {
+                        values.put(e.getKey(), null);
+                        removed++;
+                    } else {
+                        values.put(e.getKey(),
+                                   new DeviceSyncRepresentation(e.getValue()));
+                    }
+                }
+                cntDeviceStrored.updateCounterWithFlush(values.size() - removed);
+                cntDeviceRemovedFromStore.updateCounterWithFlush(removed);
+                try {
+                    // FIXME: use a versioned put
+                    storeClient.putAll(values);
+                } catch (ObsoleteVersionException e) {
+                    // FIXME: what's the right behavior here. Can the store
+                    // client even throw this error?
+                } catch (SyncException e) {
+                    cntSyncException.updateCounterWithFlush();
+                    logger.error("Could not write " + values.size() +
+                                 " devices to sync store:", e);
+                }
+                cntDeviceStoreFlushed.updateCounterWithFlush(values.size());
+                cntDeviceStoreFlushes.updateCounterWithFlush();
+                cntDeviceStoreFlushTime.updateCounterWithFlush(
+                        (int)((System.nanoTime() - start) / 1000));
             }
         }
 
@@ -2475,28 +2794,6 @@ IFlowReconcileListener, IInfoProvider {
                                             TimeUnit.MILLISECONDS);
         }
 
-        /**
-         * Actually perform the write of the device to the store
-         * FIXME: concurrent modification behavior
-         * @param device The device to write
-         */
-        private void writeUpdatedDeviceToStorage(Device device) {
-            try {
-                cntDeviceStrored.updateCounterWithFlush();
-                // FIXME: use a versioned put
-                DeviceSyncRepresentation storeDevice =
-                        new DeviceSyncRepresentation(device);
-                storeClient.put(storeDevice.getKey(), storeDevice);
-            } catch (ObsoleteVersionException e) {
-                // FIXME: what's the right behavior here. Can the store client
-                // even throw this error?
-            } catch (SyncException e) {
-                cntSyncException.updateCounterWithFlush();
-                logger.error("Could not write device " + device +
-                          " to sync store:", e);
-            }
-        }
-
         /**
          * Iterate through all entries in the sync store. For each device
          * in the store check if any stored entity matches a live device. If
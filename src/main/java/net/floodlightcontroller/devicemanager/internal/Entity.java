@@ -91,6 +91,14 @@ public class Entity implements Comparable<Entity> {
      * be set to the current time.
      */
     protected Date activeSince;
+
+    /**
+     * The last time we observed this entity through {@link #touch(long)},
+     * if that is later than {@link Entity#lastSeenTimestamp}.  The
+     * timestamp is brought up to date when it is read, so that frequent
+     * observations of a known entity do not allocate.
+     */
+    private volatile long touchedTime;
     
     private int hashCode = 0;
 
@@ -153,7 +161,14 @@ public class Entity implements Comparable<Entity> {
     }
 
     public Date getLastSeenTimestamp() {
-        return lastSeenTimestamp;
+        long touched = touchedTime;
+        Date lastSeen = lastSeenTimestamp;
+        if (touched != 0 &&
+            (lastSeen == null || lastSeen.getTime() < touched)) {
+            lastSeen = new Date(touched);
+            lastSeenTimestamp = lastSeen;
+        }
+        return lastSeen;
     }
 
     /**
@@ -168,6 +183,20 @@ public class Entity implements Comparable<Entity> {
                 lastSeenTimestamp.getTime())
             this.activeSince = lastSeenTimestamp;
         this.lastSeenTimestamp = lastSeenTimestamp;
+        this.touchedTime = 0;
+    }
+
+    /**
+     * Record that the entity was observed at the given time.  This has
+     * the same effect as {@link #setLastSeenTimestamp(Date)} but only
+     * allocates when {@link Entity#activeSince} changes.
+     * @param time the time of the observation in milliseconds
+     */
+    public void touch(long time) {
+        if (activeSince == null ||
+            (activeSince.getTime() + ACTIVITY_TIMEOUT) < time)
+            this.activeSince = new Date(time);
+        this.touchedTime = time;
     }
 
     public Date getActiveSince() {
@@ -234,7 +263,8 @@ public class Entity implements Comparable<Entity> {
         builder.append(", switchPort=");
         builder.append(switchPort);
         builder.append(", lastSeenTimestamp=");
-        builder.append(lastSeenTimestamp == null? "null" : lastSeenTimestamp.getTime());
+        Date lastSeen = getLastSeenTimestamp();
+        builder.append(lastSeen == null? "null" : lastSeen.getTime());
         builder.append(", activeSince=");
         builder.append(activeSince == null? "null" : activeSince.getTime());
         builder.append("]");
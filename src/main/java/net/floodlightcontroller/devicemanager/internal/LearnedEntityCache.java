@@ -0,0 +1,157 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * A set associative cache from the fields of a source entity, as
+ * primitives, to the device and the entity object that the entity was
+ * last learned as.  This lets the packet in path find a known host without
+ * building an {@link Entity} and without going through the entity indices.
+ *
+ * Each entity hashes to a set of {@link #WAYS} slots.  Entries are never
+ * updated in place: a new entity takes a free slot of its set or replaces
+ * one of the others.  An entry may refer to a device that has since been
+ * replaced in the device map, so callers must check that the device is
+ * still current before using it.
+ */
+public class LearnedEntityCache {
+    /**
+     * A cached entity.  The entity is the one held in the device's entity
+     * array, so updating its timestamps updates the device.
+     */
+    protected static class LearnedEntity {
+        protected final long macAddress;
+        protected final short vlan;
+        protected final int ipv4Address;
+        protected final long switchDPID;
+        protected final int switchPort;
+        protected final Device device;
+        protected final Entity entity;
+
+        public LearnedEntity(Device device, Entity entity) {
+            this.macAddress = entity.getMacAddress();
+            this.vlan = getVlan(entity);
+            this.ipv4Address = getIpv4Address(entity);
+            this.switchDPID = entity.getSwitchDPID();
+            this.switchPort = entity.getSwitchPort();
+            this.device = device;
+            this.entity = entity;
+        }
+
+        public boolean matches(long macAddress, short vlan, int ipv4Address,
+                               long switchDPID, int switchPort) {
+            return this.macAddress == macAddress &&
+                   this.switchDPID == switchDPID &&
+                   this.switchPort == switchPort &&
+                   this.vlan == vlan &&
+                   this.ipv4Address == ipv4Address;
+        }
+    }
+
+    /**
+     * Number of slots in each set
+     */
+    protected static final int WAYS = 4;
+
+    private final AtomicReferenceArray<LearnedEntity> slots;
+    private final int mask;
+    private int victim = 0;
+
+    /**
+     * Create a new cache
+     * @param size the number of slots, rounded up to a power of two of at
+     * least {@link #WAYS}
+     */
+    public LearnedEntityCache(int size) {
+        int n = Integer.highestOneBit(Math.max(WAYS, size) - 1) << 1;
+        slots = new AtomicReferenceArray<LearnedEntity>(n);
+        mask = n - WAYS;
+    }
+
+    /**
+     * Look up an entity.  The VLAN is {@link Ethernet#VLAN_UNTAGGED} for
+     * untagged entities and the IP address is 0 for entities without one.
+     * @return the cached entity or null if it is not cached
+     */
+    public LearnedEntity get(long macAddress, short vlan, int ipv4Address,
+                             long switchDPID, int switchPort) {
+        int set = set(macAddress, vlan, ipv4Address, switchDPID, switchPort);
+        for (int i = set; i < set + WAYS; i++) {
+            LearnedEntity le = slots.get(i);
+            if (le != null &&
+                le.matches(macAddress, vlan, ipv4Address, switchDPID,
+                           switchPort))
+                return le;
+        }
+        return null;
+    }
+
+    /**
+     * Cache the entity of the given device that is equal to the given
+     * entity.  Entities without an attachment point are not cached.
+     * @param device the device the entity was learned as
+     * @param entity the entity
+     */
+    public void put(Device device, Entity entity) {
+        if (!entity.hasSwitchPort()) return;
+        int index = device.entityIndex(entity);
+        if (index < 0) return;
+        LearnedEntity le = new LearnedEntity(device, device.entities[index]);
+        int set = set(le.macAddress, le.vlan, le.ipv4Address,
+                      le.switchDPID, le.switchPort);
+        for (int i = set; i < set + WAYS; i++) {
+            LearnedEntity old = slots.get(i);
+            if (old == null ||
+                old.matches(le.macAddress, le.vlan, le.ipv4Address,
+                            le.switchDPID, le.switchPort)) {
+                slots.set(i, le);
+                return;
+            }
+        }
+        // the choice of victim need not be exact, so the counter is not
+        // synchronized
+        victim = (victim + 1) & (WAYS - 1);
+        slots.set(set + victim, le);
+    }
+
+    /**
+     * Remove the entries for the entities of a device
+     * @param device the device
+     */
+    public void remove(Device device) {
+        for (Entity entity : device.entities) {
+            if (!entity.hasSwitchPort()) continue;
+            int set = set(entity.getMacAddress(), getVlan(entity),
+                          getIpv4Address(entity), entity.getSwitchDPID(),
+                          entity.getSwitchPort());
+            for (int i = set; i < set + WAYS; i++) {
+                LearnedEntity le = slots.get(i);
+                if (le != null && le.device.getDeviceKey().equals(
+                                                 device.getDeviceKey()))
+                    slots.compareAndSet(i, le, null);
+            }
+        }
+    }
+
+    private int set(long macAddress, short vlan, int ipv4Address,
+                    long switchDPID, int switchPort) {
+        long h = macAddress * 0x9e3779b97f4a7c15L;
+        h = (h ^ switchDPID) * 0x9e3779b97f4a7c15L;
+        h = (h ^ ((long)switchPort << 32) ^ (vlan & 0xffff)) *
+                0x9e3779b97f4a7c15L;
+        h = (h ^ ipv4Address) * 0x9e3779b97f4a7c15L;
+        return (int)(h >>> 32) & mask;
+    }
+
+    private static short getVlan(Entity entity) {
+        Short vlan = entity.getVlan();
+        return vlan == null ? Ethernet.VLAN_UNTAGGED : vlan.shortValue();
+    }
+
+    private static int getIpv4Address(Entity entity) {
+        Integer ipv4Address = entity.getIpv4Address();
+        return ipv4Address == null ? 0 : ipv4Address.intValue();
+    }
+}
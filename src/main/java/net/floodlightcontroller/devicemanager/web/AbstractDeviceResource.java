@@ -42,7 +42,7 @@ public abstract class AbstractDeviceResource extends ServerResource {
             "Invalid VLAN: must be an integer in the range 0-4095";
     public static final String IPV4_ERROR = 
             "Invalid IPv4 address: must be in dotted decimal format, " + 
-            "234.0.59.1";
+            "234.0.59.1, optionally with a prefix length, 234.0.59.0/24";
     public static final String DPID_ERROR = 
             "Invalid Switch DPID: must be a 64-bit quantity, expressed in " + 
             "hex as AA:BB:CC:DD:EE:FF:00:11";
@@ -57,6 +57,7 @@ public abstract class AbstractDeviceResource extends ServerResource {
         Long macAddress = null;
         Short vlan = null;
         Integer ipv4Address = null;
+        int ipv4PrefixLength = 32;
         Long switchDPID = null;
         Integer switchPort = null;
         
@@ -89,6 +90,16 @@ public abstract class AbstractDeviceResource extends ServerResource {
         }
         if (ipv4Str != null) {
             try {
+                int slash = ipv4Str.indexOf('/');
+                if (slash >= 0) {
+                    ipv4PrefixLength =
+                            Integer.parseInt(ipv4Str.substring(slash + 1));
+                    if (ipv4PrefixLength > 32 || ipv4PrefixLength < 0) {
+                        setStatus(Status.CLIENT_ERROR_BAD_REQUEST, IPV4_ERROR);
+                        return null;
+                    }
+                    ipv4Str = ipv4Str.substring(0, slash);
+                }
                 ipv4Address = IPv4.toIPv4Address(ipv4Str);
             } catch (Exception e) {
                 setStatus(Status.CLIENT_ERROR_BAD_REQUEST, IPV4_ERROR);
@@ -116,14 +127,6 @@ public abstract class AbstractDeviceResource extends ServerResource {
             }
         }
         
-        @SuppressWarnings("unchecked")
-        Iterator<Device> diter = (Iterator<Device>)
-                deviceManager.queryDevices(macAddress, 
-                                           vlan, 
-                                           ipv4Address, 
-                                           switchDPID, 
-                                           switchPort);
-        
         final String macStartsWith = 
                 form.getFirstValue("mac__startswith", true);
         final String vlanStartsWith = 
@@ -134,6 +137,33 @@ public abstract class AbstractDeviceResource extends ServerResource {
                 form.getFirstValue("dpid__startswith", true);
         final String portStartsWith = 
                 form.getFirstValue("port__startswith", true);
+
+        if (ipv4Address == null && ipv4StartsWith != null) {
+            // A prefix of whole octets such as "10.0." is a subnet, which
+            // the device manager can look up in its index
+            int octets = getWholeOctets(ipv4StartsWith);
+            if (octets > 0) {
+                StringBuilder sb = new StringBuilder(ipv4StartsWith);
+                for (int i = octets; i < 4; i++) {
+                    sb.append(i < 3 ? "0." : "0");
+                }
+                try {
+                    ipv4Address = IPv4.toIPv4Address(sb.toString());
+                    ipv4PrefixLength = octets * 8;
+                } catch (Exception e) {
+                    // not a subnet; just filter below
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Iterator<Device> diter = (Iterator<Device>)
+                deviceManager.queryDevices(macAddress, 
+                                           vlan, 
+                                           ipv4Address, 
+                                           ipv4PrefixLength,
+                                           switchDPID, 
+                                           switchPort);
         
         return new FilterIterator<Device>(diter) {
             @Override
@@ -197,4 +227,20 @@ public abstract class AbstractDeviceResource extends ServerResource {
             }
         };
     }
+
+    /**
+     * Get the number of whole octets in a prefix of a dotted decimal
+     * IPv4 address
+     * @param prefix the prefix
+     * @return the number of octets, or 0 if the prefix does not end
+     * with a dot after one to three octets
+     */
+    private static int getWholeOctets(String prefix) {
+        if (!prefix.endsWith(".")) return 0;
+        int octets = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (prefix.charAt(i) == '.') octets += 1;
+        }
+        return octets <= 3 ? octets : 0;
+    }
 }
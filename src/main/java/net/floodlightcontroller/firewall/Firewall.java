@@ -372,7 +372,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
             IRoutingDecision decision = null;
             if (cntx != null) {
                 decision = IRoutingDecision.rtStore.get(cntx,
-                        IRoutingDecision.CONTEXT_DECISION);
+                        IRoutingDecision.CONTEXT_DECISION_SLOT);
 
                 return this.processPacketInMessage(sw, (OFPacketIn) msg,
                         decision, cntx);
@@ -539,7 +539,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
             FloodlightContext cntx) {
         FirewallRule matched_rule = null;
         Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
         NonWildcardsPair nonWildcards = new NonWildcardsPair();
 
         synchronized (rules) {
@@ -588,7 +588,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
     public Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
             IRoutingDecision decision, FloodlightContext cntx) {
         Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
         // Allowing L2 broadcast + ARP broadcast request (also deny malformed
         // broadcasts -> L2 broadcast + L3 unicast)
@@ -609,7 +609,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
                                         
                 decision = new RoutingDecision(sw.getId(), pi.getInPort()
                 		, IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE),
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT),
                         IRoutingDecision.RoutingAction.MULTICAST);
                 decision.addToContext(cntx);
             } else {
@@ -620,7 +620,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
 
                 decision = new RoutingDecision(sw.getId(), pi.getInPort()
                 		, IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE),
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT),
                         IRoutingDecision.RoutingAction.DROP);
                 decision.addToContext(cntx);
             }
@@ -646,7 +646,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
             if (rule == null || rule.action == FirewallRule.FirewallAction.DENY) {
                 decision = new RoutingDecision(sw.getId(), pi.getInPort()
                 		, IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE),
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT),
                         IRoutingDecision.RoutingAction.DROP);
                 decision.setNonWildcards(match_ret.nonWildcards);
                 decision.addToContext(cntx);
@@ -663,7 +663,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
             } else {
                 decision = new RoutingDecision(sw.getId(), pi.getInPort()
                 		, IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE),
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT),
                         IRoutingDecision.RoutingAction.FORWARD_OR_FLOOD);
                 decision.setNonWildcards(match_ret.nonWildcards);
                 decision.addToContext(cntx);
@@ -40,7 +40,7 @@ import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.core.util.AppCookie;
 import net.floodlightcontroller.counter.ICounterStoreService;
-import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.routing.ForwardingBase;
 import net.floodlightcontroller.routing.IRoutingDecision;
 import net.floodlightcontroller.routing.IRoutingService;
@@ -71,8 +71,7 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                    recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     public Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi, IRoutingDecision decision,
                                           FloodlightContext cntx) {
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                                   IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        EthernetView eth = IFloodlightProviderService.bcStore.getView(cntx);
 
         // If a decision has been made we obey it
         // otherwise we just forward
@@ -166,12 +165,12 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
         // Check if we have the location of the destination
         IDevice dstDevice =
                 IDeviceService.fcStore.
-                    get(cntx, IDeviceService.CONTEXT_DST_DEVICE);
+                    get(cntx, IDeviceService.CONTEXT_DST_DEVICE_SLOT);
 
         if (dstDevice != null) {
             IDevice srcDevice =
                     IDeviceService.fcStore.
-                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE);
+                        get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT);
             Long srcIsland = topology.getL2DomainId(sw.getId());
 
             if (srcDevice == null) {
@@ -230,6 +229,10 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
 
             int iSrcDaps = 0, iDstDaps = 0;
 
+            // Spread flows over equal cost routes by their addresses
+            long flowHash = (cntx == null) ? 0 : getFlowHash(
+                    IFloodlightProviderService.bcStore.getView(cntx));
+
             while ((iSrcDaps < srcDaps.length) && (iDstDaps < dstDaps.length)) {
                 SwitchPort srcDap = srcDaps[iSrcDaps];
                 SwitchPort dstDap = dstDaps[iDstDaps];
@@ -248,7 +251,7 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                                 routingEngine.getRoute(srcDap.getSwitchDPID(),
                                                        srcDap.getPort(),
                                                        dstDap.getSwitchDPID(),
-                                                       dstDap.getPort(), 0); //cookie = 0, i.e., default route
+                                                       dstDap.getPort(), flowHash);
                         if (route != null) {
                             if (log.isTraceEnabled()) {
                                 log.trace("pushRoute match={} route={} " +
@@ -266,7 +269,7 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                             if (cntx != null) {
                                 decision = IRoutingDecision.rtStore
                                         .get(cntx,
-                                                IRoutingDecision.CONTEXT_DECISION);
+                                                IRoutingDecision.CONTEXT_DECISION_SLOT);
                             }
                             if (decision != null) {
                                 nonWildcards = decision.getNonWildcards();
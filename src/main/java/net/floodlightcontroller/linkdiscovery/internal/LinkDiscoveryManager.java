@@ -29,15 +29,17 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.floodlightcontroller.core.FloodlightContext;
@@ -83,6 +85,8 @@ import net.floodlightcontroller.notification.INotificationManager;
 import net.floodlightcontroller.notification.NotificationManagerFactory;
 import net.floodlightcontroller.packet.BSN;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.packet.LLDP;
 import net.floodlightcontroller.packet.LLDPTLV;
 import net.floodlightcontroller.restserver.IRestApiService;
@@ -94,6 +98,7 @@ import net.floodlightcontroller.storage.OperatorPredicate;
 import net.floodlightcontroller.storage.StorageException;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.NodePortTuple;
+import net.floodlightcontroller.util.TimingWheel;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
@@ -194,6 +199,9 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     protected final int LINK_TIMEOUT = 35; // timeout as part of LLDP process.
     protected final int LLDP_TO_ALL_INTERVAL = 15; // 15 seconds.
     protected long lldpClock = 0;
+    // Switches still to be probed in the current LLDP_TO_ALL_INTERVAL
+    // round; only used by the discovery task.
+    protected Queue<Long> discoveryRound;
     // This value is intentionally kept higher than LLDP_TO_ALL_INTERVAL.
     // If we want to identify link failures faster, we could decrease this
     // value to a small number, say 1 or 2 sec.
@@ -201,6 +209,16 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                                                      // links
 
     protected LLDPTLV controllerTLV;
+    /**
+     * Serialized LLDP frames per switch, see {@link #getLLDPTemplate}
+     */
+    protected ConcurrentHashMap<Long, AtomicReferenceArray<byte[]>> lldpTemplates;
+    // Offsets of the per port fields in the frame.  The port id value
+    // follows the Ethernet header, the chassis id TLV, the port id TLV
+    // header and its subtype; BDDPs have the BSN header in between.
+    private static final int LLDP_SRC_MAC_OFFSET = 6;
+    private static final int LLDP_PORT_ID_OFFSET = 14 + 9 + 2 + 1;
+    private static final int BSN_HEADER_LENGTH = 8;
     protected ReentrantReadWriteLock lock;
     int lldpTimeCount = 0;
 
@@ -214,7 +232,20 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     /**
      * Map from link to the most recent time it was verified functioning
      */
-    protected Map<Link, LinkInfo> links;
+    protected ConcurrentHashMap<Link, LinkInfo> links;
+
+    /**
+     * Number of one second slots of {@link #linkTimeouts}, enough to
+     * cover LINK_TIMEOUT
+     */
+    protected static final int LINK_TIMEOUT_WHEEL_SLOTS = 64;
+
+    /**
+     * Links scheduled by the time at which their oldest valid time times
+     * out.  timeoutLinks() only looks at the links that are due, and
+     * schedules them again if they have been refreshed since.
+     */
+    protected TimingWheel<Link> linkTimeouts;
 
     /**
      * Map from switch id to a set of all links with it as an endpoint
@@ -291,6 +322,81 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                       HexString.toHexString(sw), port);
         }
 
+        // Only the source MAC and the port id differ between the ports of
+        // a switch, so patch those into a copy of the switch's template.
+        byte[] data = getLLDPTemplate(sw, isStandard, isReverse).clone();
+
+        // TODO: Consider remove this block of code.
+        // The template carries the lower 6 bytes of the dpid as source
+        // MAC; we only keep them for ports with a zero MAC and log a
+        // warning, mostly for paranoia.
+        byte[] srcMac = ofpPort.getHardwareAddress();
+        byte[] zeroMac = { 0, 0, 0, 0, 0, 0 };
+        if (Arrays.equals(srcMac, zeroMac)) {
+            log.warn("Port {}/{} has zero hareware address"
+                             + "overwrite with lower 6 bytes of dpid",
+                     HexString.toHexString(sw), ofpPort.getPortNumber());
+        } else {
+            System.arraycopy(srcMac, 0, data, LLDP_SRC_MAC_OFFSET,
+                             srcMac.length);
+        }
+
+        // set the portId to the outgoing port
+        int portIdOffset = LLDP_PORT_ID_OFFSET;
+        if (!isStandard) portIdOffset += BSN_HEADER_LENGTH;
+        data[portIdOffset] = (byte) (port >>> 8);
+        data[portIdOffset + 1] = (byte) port;
+        if (log.isTraceEnabled()) {
+            log.trace("Sending LLDP out of interface: {}/{}",
+                      HexString.toHexString(sw), port);
+        }
+
+        // wrap in a packet out
+        OFPacketOut po = (OFPacketOut) floodlightProvider.getOFMessageFactory()
+                                                         .getMessage(OFType.PACKET_OUT);
+        po.setBufferId(OFPacketOut.BUFFER_ID_NONE);
+        po.setInPort(OFPort.OFPP_ANY);
+
+        // set data and data length
+        po.setLengthU(OFPacketOut.MINIMUM_LENGTH + data.length);
+        po.setPacketData(data);
+
+        return po;
+    }
+
+    /**
+     * Get the serialized LLDP frame of a switch, building it on first use.
+     * The frame has port id 0 and the lower 6 bytes of the dpid as source
+     * MAC, for the caller to patch.
+     *
+     * @param sw
+     * @param isStandard
+     *            indicates standard or modified LLDP
+     * @param isReverse
+     *            indicates whether the LLDP is sent as a response
+     * @return the template frame, which must not be modified
+     */
+    protected byte[] getLLDPTemplate(long sw, boolean isStandard,
+                                     boolean isReverse) {
+        int index = (isStandard ? 0 : 2) + (isReverse ? 1 : 0);
+        AtomicReferenceArray<byte[]> templates = lldpTemplates.get(sw);
+        if (templates == null) {
+            templates = new AtomicReferenceArray<byte[]>(4);
+            AtomicReferenceArray<byte[]> old =
+                    lldpTemplates.putIfAbsent(sw, templates);
+            if (old != null) templates = old;
+        }
+        byte[] template = templates.get(index);
+        if (template == null) {
+            template = buildLLDPTemplate(sw, isStandard, isReverse);
+            if (!templates.compareAndSet(index, null, template))
+                template = templates.get(index);
+        }
+        return template;
+    }
+
+    private byte[] buildLLDPTemplate(long sw, boolean isStandard,
+                                     boolean isReverse) {
         // using "nearest customer bridge" MAC address for broadest possible
         // propagation
         // through provider and TPMR bridges (see IEEE 802.1AB-2009 and
@@ -299,7 +405,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         // bridge
         byte[] chassisId = new byte[] { 4, 0, 0, 0, 0, 0, 0 }; // filled in
                                                                // later
-        byte[] portId = new byte[] { 2, 0, 0 }; // filled in later
+        byte[] portId = new byte[] { 2, 0, 0 }; // patched per port
         byte[] ttlValue = new byte[] { 0, 0x78 };
         // OpenFlow OUI - 00-26-E1
         byte[] dpidTLVValue = new byte[] { 0x0, 0x26, (byte) 0xe1, 0, 0, 0,
@@ -310,34 +416,14 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
         byte[] dpidArray = new byte[8];
         ByteBuffer dpidBB = ByteBuffer.wrap(dpidArray);
-        ByteBuffer portBB = ByteBuffer.wrap(portId, 1, 2);
-
-        Long dpid = sw;
-        dpidBB.putLong(dpid);
+        dpidBB.putLong(sw);
         // set the chassis id's value to last 6 bytes of dpid
         System.arraycopy(dpidArray, 2, chassisId, 1, 6);
         // set the optional tlv to the full dpid
         System.arraycopy(dpidArray, 0, dpidTLVValue, 4, 8);
-
-        // TODO: Consider remove this block of code.
-        // It's evil to overwrite port object. The the old code always
-        // overwrote mac address, we now only overwrite zero macs and
-        // log a warning, mostly for paranoia.
-        byte[] srcMac = ofpPort.getHardwareAddress();
-        byte[] zeroMac = { 0, 0, 0, 0, 0, 0 };
-        if (Arrays.equals(srcMac, zeroMac)) {
-            log.warn("Port {}/{} has zero hareware address"
-                             + "overwrite with lower 6 bytes of dpid",
-                     HexString.toHexString(dpid), ofpPort.getPortNumber());
-            System.arraycopy(dpidArray, 2, srcMac, 0, 6);
-        }
-
-        // set the portId to the outgoing port
-        portBB.putShort((short)port);
-        if (log.isTraceEnabled()) {
-            log.trace("Sending LLDP out of interface: {}/{}",
-                      HexString.toHexString(sw), port);
-        }
+        // source MAC for ports without a hardware address
+        byte[] srcMac = new byte[6];
+        System.arraycopy(dpidArray, 2, srcMac, 0, 6);
 
         LLDP lldp = new LLDP();
         lldp.setChassisId(new LLDPTLV().setType((byte) 1)
@@ -361,7 +447,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
         Ethernet ethernet;
         if (isStandard) {
-            ethernet = new Ethernet().setSourceMACAddress(ofpPort.getHardwareAddress())
+            ethernet = new Ethernet().setSourceMACAddress(srcMac)
                                      .setDestinationMACAddress(LLDP_STANDARD_DST_MAC_STRING)
                                      .setEtherType(Ethernet.TYPE_LLDP);
             ethernet.setPayload(lldp);
@@ -369,24 +455,12 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             BSN bsn = new BSN(BSN.BSN_TYPE_BDDP);
             bsn.setPayload(lldp);
 
-            ethernet = new Ethernet().setSourceMACAddress(ofpPort.getHardwareAddress())
+            ethernet = new Ethernet().setSourceMACAddress(srcMac)
                                      .setDestinationMACAddress(LLDP_BSN_DST_MAC_STRING)
                                      .setEtherType(Ethernet.TYPE_BSN);
             ethernet.setPayload(bsn);
         }
-
-        // serialize and wrap in a packet out
-        byte[] data = ethernet.serialize();
-        OFPacketOut po = (OFPacketOut) floodlightProvider.getOFMessageFactory()
-                                                         .getMessage(OFType.PACKET_OUT);
-        po.setBufferId(OFPacketOut.BUFFER_ID_NONE);
-        po.setInPort(OFPort.OFPP_ANY);
-
-        // set data and data length
-        po.setLengthU(OFPacketOut.MINIMUM_LENGTH + data.length);
-        po.setPacketData(data);
-
-        return po;
+        return ethernet.serialize();
     }
 
     /**
@@ -563,22 +637,26 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
     protected Command handlePacketIn(long sw, OFPacketIn pi,
                                      FloodlightContext cntx) {
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                           IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-
-        if (eth.getPayload() instanceof BSN) {
-            BSN bsn = (BSN) eth.getPayload();
-            if (bsn == null) return Command.STOP;
-            if (bsn.getPayload() == null) return Command.STOP;
-            // It could be a packet other than BSN LLDP, therefore
-            // continue with the regular processing.
-            if (bsn.getPayload() instanceof LLDP == false)
-                return Command.CONTINUE;
-            return handleLldp((LLDP) bsn.getPayload(), sw, pi.getInPort(), false, cntx);
-        } else if (eth.getPayload() instanceof LLDP) {
-            return handleLldp((LLDP) eth.getPayload(), sw, pi.getInPort(), true, cntx);
-        } else if (eth.getEtherType() < 1500) {
-            long destMac = eth.getDestinationMAC().toLong();
+        EthernetView eth = IFloodlightProviderService.bcStore.getView(cntx);
+        short etherType = eth.getEtherType();
+
+        // Only discovery packets need their payload decoded
+        if (etherType == Ethernet.TYPE_BSN || etherType == Ethernet.TYPE_LLDP) {
+            IPacket payload = eth.getEthernet().getPayload();
+            if (payload instanceof BSN) {
+                BSN bsn = (BSN) payload;
+                if (bsn.getPayload() == null) return Command.STOP;
+                // It could be a packet other than BSN LLDP, therefore
+                // continue with the regular processing.
+                if (bsn.getPayload() instanceof LLDP == false)
+                    return Command.CONTINUE;
+                return handleLldp((LLDP) bsn.getPayload(), sw, pi.getInPort(), false, cntx);
+            } else if (payload instanceof LLDP) {
+                return handleLldp((LLDP) payload, sw, pi.getInPort(), true, cntx);
+            }
+        }
+        if (etherType < 1500) {
+            long destMac = eth.getDestinationMAC();
             if ((destMac & LINK_LOCAL_MASK) == LINK_LOCAL_VALUE) {
                 ctrLinkLocalDrops.updateCounterNoFlush();
                 if (log.isTraceEnabled()) {
@@ -589,7 +667,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             }
         }
 
-        if (ignorePacketInFromSource(eth.getSourceMAC().toLong())) {
+        if (ignorePacketInFromSource(eth.getSourceMAC())) {
             ctrIgnoreSrcMacDrops.updateCounterNoFlush();
             return Command.STOP;
         }
@@ -893,7 +971,20 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         if (lldpClock == 0) {
             if (log.isTraceEnabled())
                 log.trace("Sending LLDP out on all ports.");
-            discoverOnAllPorts();
+            // finish off the previous round before starting a new one
+            while (!discoveryRound.isEmpty()) {
+                discoverOnSwitchPorts(discoveryRound.remove());
+            }
+            discoveryRound.addAll(floodlightProvider.getAllSwitchDpids());
+        }
+
+        // Spread the round over the interval instead of probing every
+        // port at once, so each tick sends an even share of the switches
+        // left and the round is complete by the end of the interval.
+        long ticksLeft = LLDP_TO_ALL_INTERVAL - lldpClock;
+        int count = (int) ((discoveryRound.size() + ticksLeft - 1) / ticksLeft);
+        for (int i = 0; i < count; i++) {
+            discoverOnSwitchPorts(discoveryRound.remove());
         }
     }
 
@@ -1130,17 +1221,44 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     protected void sendDiscoveryMessage(long sw, int port,
                                         boolean isStandard, boolean isReverse) {
 
+        OFPacketOut po = createDiscoveryMessage(sw, port, isStandard,
+                                                isReverse);
+        if (po == null) return;
+
+        // send
+        IOFSwitch iofSwitch = floodlightProvider.getSwitch(sw);
+        try {
+            iofSwitch.write(po, null);
+            iofSwitch.flush();
+        } catch (IOException e) {
+            log.error("Failure sending LLDP out port {} on switch {}",
+                      new Object[] { port, iofSwitch.getStringId() }, e);
+        }
+    }
+
+    /**
+     * Create the link discovery message for a given switch port, with the
+     * discovery actions set.
+     *
+     * @param sw
+     * @param port
+     * @param isStandard
+     *            indicates standard or modified LLDP
+     * @param isReverse
+     *            indicates whether the LLDP is sent as a response
+     * @return the packet out, or null if no message is to be sent
+     */
+    protected OFPacketOut createDiscoveryMessage(long sw, int port,
+                                                 boolean isStandard,
+                                                 boolean isReverse) {
+
         // Takes care of all checks including null pointer checks.
         if (!isOutgoingDiscoveryAllowed(sw, port, isStandard, isReverse))
-            return;
+            return null;
 
         IOFSwitch iofSwitch = floodlightProvider.getSwitch(sw);
         OFPhysicalPort ofpPort = iofSwitch.getPort(port).toOFPhysicalPort();
 
-        if (log.isTraceEnabled()) {
-            log.trace("Sending LLDP packet out of swich: {}, port: {}",
-                      HexString.toHexString(sw), port);
-        }
         OFPacketOut po = generateLLDPMessage(sw, port, isStandard, isReverse);
 
         // Add actions
@@ -1156,15 +1274,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         // po already has the minimum length + data length set
         // simply add the actions length to this.
         po.setLengthU(po.getLengthU() + po.getActionsLength());
-
-        // send
-        try {
-            iofSwitch.write(po, null);
-            iofSwitch.flush();
-        } catch (IOException e) {
-            log.error("Failure sending LLDP out port {} on switch {}",
-                      new Object[] { port, iofSwitch.getStringId() }, e);
-        }
+        return po;
     }
 
     /**
@@ -1176,28 +1286,50 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         }
         // Send standard LLDPs
         for (long sw : floodlightProvider.getAllSwitchDpids()) {
-            IOFSwitch iofSwitch = floodlightProvider.getSwitch(sw);
-            if (iofSwitch == null) continue;
-            if (iofSwitch.getEnabledPorts() != null) {
-                for (ImmutablePort ofp : iofSwitch.getEnabledPorts()) {
-                    if (isLinkDiscoverySuppressed(sw, ofp.getPortNumber()))
-                                                                           continue;
-                    if (autoPortFastFeature
-                        && iofSwitch.isFastPort(ofp.getPortNumber()))
-                                                                     continue;
-
-                    // sends forward LLDP only non-fastports.
-                    sendDiscoveryMessage(sw, ofp.getPortNumber(), true,
-                                         false);
-
-                    // If the switch port is not already in the maintenance
-                    // queue, add it.
-                    NodePortTuple npt = new NodePortTuple(
-                                                          sw,
-                                                          ofp.getPortNumber());
-                    addToMaintenanceQueue(npt);
-                }
-            }
+            discoverOnSwitchPorts(sw);
+        }
+    }
+
+    /**
+     * Send LLDPs to all ports of a switch, in a single write
+     * @param sw
+     */
+    @LogMessageDoc(level = "ERROR",
+                   message = "Failure sending LLDPs on switch {switch}",
+                   explanation = "An I/O error occured while sending LLDP messages "
+                                 + "to the switch.",
+                   recommendation = LogMessageDoc.CHECK_SWITCH)
+    protected void discoverOnSwitchPorts(long sw) {
+        IOFSwitch iofSwitch = floodlightProvider.getSwitch(sw);
+        if (iofSwitch == null) return;
+        if (iofSwitch.getEnabledPorts() == null) return;
+
+        List<OFMessage> msglist = new ArrayList<OFMessage>();
+        for (ImmutablePort ofp : iofSwitch.getEnabledPorts()) {
+            if (isLinkDiscoverySuppressed(sw, ofp.getPortNumber()))
+                continue;
+            if (autoPortFastFeature
+                && iofSwitch.isFastPort(ofp.getPortNumber()))
+                continue;
+
+            // sends forward LLDP only non-fastports.
+            OFPacketOut po = createDiscoveryMessage(sw, ofp.getPortNumber(),
+                                                    true, false);
+            if (po != null) msglist.add(po);
+
+            // If the switch port is not already in the maintenance
+            // queue, add it.
+            NodePortTuple npt = new NodePortTuple(sw, ofp.getPortNumber());
+            addToMaintenanceQueue(npt);
+        }
+        if (msglist.isEmpty()) return;
+
+        try {
+            iofSwitch.write(msglist, null);
+            iofSwitch.flush();
+        } catch (IOException e) {
+            log.error("Failure sending LLDPs on switch {}",
+                      iofSwitch.getStringId(), e);
         }
     }
 
@@ -1304,10 +1436,13 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
         boolean linkChanged = false;
 
+        if (refreshLink(lt, newInfo)) return linkChanged;
+
         lock.writeLock().lock();
         try {
             // put the new info. if an old info exists, it will be returned.
             LinkInfo oldInfo = links.put(lt, newInfo);
+            linkTimeouts.schedule(lt, getLinkDeadline(newInfo));
             if (oldInfo != null
                     && oldInfo.getFirstSeenTime() < newInfo.getFirstSeenTime())
                 newInfo.setFirstSeenTime(oldInfo.getFirstSeenTime());
@@ -1370,6 +1505,59 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         return linkChanged;
     }
 
+    /**
+     * Refresh the valid times of a known link whose type does not change.
+     * The new info is swapped in under the read lock, so refreshes don't
+     * wait for each other, and the link is only rescheduled if it now
+     * times out earlier.
+     *
+     * @param lt
+     * @param newInfo
+     * @return true if the link was refreshed, false if it has to be
+     *         added or updated under the write lock
+     */
+    protected boolean refreshLink(Link lt, LinkInfo newInfo) {
+        lock.readLock().lock();
+        try {
+            LinkInfo oldInfo;
+            while ((oldInfo = links.get(lt)) != null) {
+                // updateLink copies fields over, so start from the new
+                // info again if another refresh got in first
+                LinkInfo info = new LinkInfo(newInfo);
+                if (oldInfo.getFirstSeenTime() < info.getFirstSeenTime())
+                    info.setFirstSeenTime(oldInfo.getFirstSeenTime());
+                if (updateLink(lt, oldInfo, info)) return false;
+                if (!links.replace(lt, oldInfo, info)) continue;
+
+                long deadline = getLinkDeadline(info);
+                if (deadline < getLinkDeadline(oldInfo))
+                    linkTimeouts.schedule(lt, deadline);
+                writeLinkToStorage(lt, info);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the time at which the oldest valid time of a link times out
+     *
+     * @param info
+     * @return the deadline in milliseconds, or 0 if the link has no valid
+     *         time
+     */
+    protected long getLinkDeadline(LinkInfo info) {
+        Long validTime = info.getUnicastValidTime();
+        Long multicastValidTime = info.getMulticastValidTime();
+        if (validTime == null ||
+            (multicastValidTime != null && multicastValidTime < validTime))
+            validTime = multicastValidTime;
+        if (validTime == null) return 0;
+        return validTime + (this.LINK_TIMEOUT * 1000);
+    }
+
     /**
      * Delete a link
      *
@@ -1438,6 +1626,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                 }
 
                 LinkInfo info = this.links.remove(lt);
+                linkTimeouts.cancel(lt);
                 LinkType linkType = getLinkType(lt, info);
                 linkUpdateList.add(new LDUpdate(lt.getSrc(),
                                                 lt.getSrcPort(),
@@ -1503,15 +1692,16 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         Long curTime = System.currentTimeMillis();
         boolean linkChanged = false;
 
+        List<Link> dueLinks = linkTimeouts.advance(curTime);
+        if (dueLinks.isEmpty()) return;
+
         // reentrant required here because deleteLink also write locks
         lock.writeLock().lock();
         try {
-            Iterator<Entry<Link, LinkInfo>> it = this.links.entrySet()
-                                                           .iterator();
-            while (it.hasNext()) {
-                Entry<Link, LinkInfo> entry = it.next();
-                Link lt = entry.getKey();
-                LinkInfo info = entry.getValue();
+            for (Link lt : dueLinks) {
+                LinkInfo info = this.links.get(lt);
+                if (info == null) continue;
+                boolean changed = false;
 
                 // Timeout the unicast and multicast LLDP valid times
                 // independently.
@@ -1519,25 +1709,30 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                     && (info.getUnicastValidTime()
                         + (this.LINK_TIMEOUT * 1000) < curTime)) {
                     info.setUnicastValidTime(null);
-                    linkChanged = true;
+                    changed = true;
                 }
                 if ((info.getMulticastValidTime() != null)
                     && (info.getMulticastValidTime()
                         + (this.LINK_TIMEOUT * 1000) < curTime)) {
                     info.setMulticastValidTime(null);
-                    linkChanged = true;
+                    changed = true;
                 }
                 // Add to the erase list only if the unicast
                 // time is null.
                 if (info.getUnicastValidTime() == null
                     && info.getMulticastValidTime() == null) {
-                    eraseList.add(entry.getKey());
-                } else if (linkChanged) {
+                    eraseList.add(lt);
+                    continue;
+                } else if (changed) {
                     updates.add(new LDUpdate(lt.getSrc(), lt.getSrcPort(),
                                              lt.getDst(), lt.getDstPort(),
                                              getLinkType(lt, info),
                                              UpdateOperation.LINK_UPDATED));
+                    linkChanged = true;
                 }
+                // refreshed since it was scheduled, or only timed out
+                // one of its valid times
+                linkTimeouts.schedule(lt, getLinkDeadline(info));
             }
 
             // if any link was deleted or any link was changed.
@@ -1596,6 +1791,8 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         this.controllerTLV = new LLDPTLV().setType((byte) 0x0c)
                                           .setLength((short) controllerTLVValue.length)
                                           .setValue(controllerTLVValue);
+        // the templates carry the old controller id
+        this.lldpTemplates.clear();
     }
 
     //******************
@@ -1643,6 +1840,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
     @Override
     public void switchRemoved(long sw) {
+        lldpTemplates.remove(sw);
         List<Link> eraseList = new ArrayList<Link>();
         lock.writeLock().lock();
         try {
@@ -1971,10 +2169,17 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         this.linkDiscoveryAware = new ArrayList<ILinkDiscoveryListener>();
         this.lock = new ReentrantReadWriteLock();
         this.updates = new LinkedBlockingQueue<LDUpdate>();
-        this.links = new HashMap<Link, LinkInfo>();
+        this.links = new ConcurrentHashMap<Link, LinkInfo>();
+        this.linkTimeouts =
+                new TimingWheel<Link>(DISCOVERY_TASK_INTERVAL * 1000L,
+                                      LINK_TIMEOUT_WHEEL_SLOTS, 1,
+                                      System.currentTimeMillis());
         this.portLinks = new HashMap<NodePortTuple, Set<Link>>();
         this.suppressLinkDiscovery = Collections.synchronizedSet(new HashSet<NodePortTuple>());
         this.switchLinks = new HashMap<Long, Set<Link>>();
+        this.lldpTemplates =
+                new ConcurrentHashMap<Long, AtomicReferenceArray<byte[]>>();
+        this.discoveryRound = new LinkedList<Long>();
         this.quarantineQueue = new LinkedBlockingQueue<NodePortTuple>();
         this.maintenanceQueue = new LinkedBlockingQueue<NodePortTuple>();
 
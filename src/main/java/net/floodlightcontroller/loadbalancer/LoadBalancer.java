@@ -186,7 +186,7 @@ public class LoadBalancer implements IFloodlightModule,
                             FloodlightContext cntx) {
         
         Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                                                              IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                                                              IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
         IPacket pkt = eth.getPayload();
  
         if (eth.isBroadcast() || eth.isMulticast()) {
@@ -262,7 +262,7 @@ public class LoadBalancer implements IFloodlightModule,
         log.debug("vipProxyArpReply");
             
         Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                                                              IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                                                              IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
         // retrieve original arp to determine host configured gw IP address                                          
         if (! (eth.getPayload() instanceof ARP))
@@ -572,7 +572,7 @@ public class LoadBalancer implements IFloodlightModule,
 
                OFMatch ofMatch = new OFMatch();
                try {
-                   ofMatch.fromString(matchString);
+                   ofMatch = OFMatch.fromString(matchString);
                } catch (IllegalArgumentException e) {
                    log.debug("ignoring flow entry {} on switch {} with illegal OFMatch() key: "
                                      + matchString, entryName, swString);
@@ -0,0 +1,334 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only view of an Ethernet frame that decodes header fields on
+ * demand straight from the frame bytes. The layer 2, layer 3 and layer 4
+ * headers are each parsed the first time one of their fields is read.
+ * The full {@link Ethernet} packet tree is only built by getEthernet().
+ *
+ * Fields of a header that is not present, or is truncated, read as 0.
+ * The bytes must not be modified while the view is in use. A view of a
+ * ByteBuffer reads the buffer in place, such as the packet data of a
+ * PACKET_IN that was never copied out of the read buffer.
+ */
+public class EthernetView {
+    protected static final short TYPE_VLAN = (short) 0x8100;
+    protected static final int ETH_HEADER_LENGTH = 14;
+    protected static final int VLAN_TAG_LENGTH = 4;
+    protected static final int IPV4_MIN_HEADER_LENGTH = 20;
+    protected static final int ARP_HEADER_LENGTH = 8;
+
+    protected final ByteBuffer data;
+    // Absolute index of the frame in data
+    protected final int offset;
+    protected final int length;
+
+    protected Ethernet ethernet;
+
+    protected boolean l2Parsed;
+    protected short vlanID = Ethernet.VLAN_UNTAGGED;
+    protected byte priorityCode;
+    protected short etherType;
+    // Offset of the layer 3 header relative to offset
+    protected int l3Offset;
+
+    protected boolean l3Parsed;
+    protected boolean ipv4;
+    protected byte networkProtocol;
+    protected int networkSource;
+    protected int networkDestination;
+    // Offset of the layer 4 header, -1 if there is none to parse
+    protected int l4Offset = -1;
+
+    protected boolean l4Parsed;
+    protected short transportSource;
+    protected short transportDestination;
+
+    public EthernetView(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public EthernetView(byte[] data, int offset, int length) {
+        this.data = ByteBuffer.wrap(data);
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * A view of the bytes from the position to the limit of the buffer.
+     * The buffer's position and limit are not used afterwards.
+     * @param data
+     */
+    public EthernetView(ByteBuffer data) {
+        this.data = data;
+        this.offset = data.position();
+        this.length = data.remaining();
+    }
+
+    /**
+     * A view of a packet that was already decoded
+     * @param eth
+     */
+    public EthernetView(Ethernet eth) {
+        this(eth.serialize());
+        this.ethernet = eth;
+    }
+
+    /**
+     * @return the packet fully decoded. It is decoded on the first call
+     * and shared by later calls.
+     */
+    public Ethernet getEthernet() {
+        if (ethernet == null) {
+            Ethernet eth = new Ethernet();
+            if (data.hasArray()) {
+                eth.deserialize(data.array(), data.arrayOffset() + offset,
+                                length);
+            } else {
+                // read-only and direct buffers have no array to decode from
+                byte[] bytes = new byte[length];
+                ByteBuffer frame = data.duplicate();
+                frame.limit(offset + length);
+                frame.position(offset);
+                frame.get(bytes);
+                eth.deserialize(bytes, 0, length);
+            }
+            ethernet = eth;
+        }
+        return ethernet;
+    }
+
+    /**
+     * @return whether getEthernet() has decoded the packet already
+     */
+    public boolean isDecoded() {
+        return ethernet != null;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    // Layer 2
+
+    public long getDestinationMAC() {
+        return getMAC(0);
+    }
+
+    public long getSourceMAC() {
+        return getMAC(Ethernet.DATALAYER_ADDRESS_LENGTH);
+    }
+
+    /**
+     * @return the VLAN ID, or Ethernet.VLAN_UNTAGGED
+     */
+    public short getVlanID() {
+        parseL2();
+        return vlanID;
+    }
+
+    public byte getPriorityCode() {
+        parseL2();
+        return priorityCode;
+    }
+
+    public short getEtherType() {
+        parseL2();
+        return etherType;
+    }
+
+    public boolean isBroadcast() {
+        return getDestinationMAC() == 0xffffffffffffL;
+    }
+
+    public boolean isMulticast() {
+        return length > 0 && (data.get(offset) & 0x01) != 0;
+    }
+
+    // Layer 3
+
+    public boolean isIPv4() {
+        parseL3();
+        return ipv4;
+    }
+
+    /**
+     * @return the IPv4 protocol, 0 if the packet is not IPv4
+     */
+    public byte getNetworkProtocol() {
+        parseL3();
+        return networkProtocol;
+    }
+
+    /**
+     * @return the IPv4 source address, 0 if the packet is not IPv4
+     */
+    public int getNetworkSource() {
+        parseL3();
+        return networkSource;
+    }
+
+    /**
+     * @return the IPv4 destination address, 0 if the packet is not IPv4
+     */
+    public int getNetworkDestination() {
+        parseL3();
+        return networkDestination;
+    }
+
+    public boolean isARP() {
+        short type = getEtherType();
+        return (type == Ethernet.TYPE_ARP || type == Ethernet.TYPE_RARP) &&
+                available(l3Offset, ARP_HEADER_LENGTH);
+    }
+
+    public short getArpProtocolType() {
+        return isARP() ? getShort(l3Offset + 2) : 0;
+    }
+
+    public short getArpOpCode() {
+        return isARP() ? getShort(l3Offset + 6) : 0;
+    }
+
+    /**
+     * @return the ARP sender hardware address, 0 if the packet is not an
+     * ARP for Ethernet addresses
+     */
+    public long getArpSenderHardwareAddress() {
+        if (!isARP() || getByte(l3Offset + 4) !=
+                Ethernet.DATALAYER_ADDRESS_LENGTH)
+            return 0;
+        return getMAC(l3Offset + ARP_HEADER_LENGTH);
+    }
+
+    /**
+     * @return the ARP sender protocol address, 0 if the packet is not an
+     * ARP for IPv4 addresses
+     */
+    public int getArpSenderProtocolAddress() {
+        if (!isARP() || getByte(l3Offset + 5) != 4)
+            return 0;
+        int pos = l3Offset + ARP_HEADER_LENGTH +
+                (getByte(l3Offset + 4) & 0xff);
+        return available(pos, 4) ? getInt(pos) : 0;
+    }
+
+    // Layer 4
+
+    /**
+     * @return the TCP or UDP source port, 0 for other packets and for
+     * IPv4 fragments
+     */
+    public short getTransportSource() {
+        parseL4();
+        return transportSource;
+    }
+
+    /**
+     * @return the TCP or UDP destination port, 0 for other packets and for
+     * IPv4 fragments
+     */
+    public short getTransportDestination() {
+        parseL4();
+        return transportDestination;
+    }
+
+    protected void parseL2() {
+        if (l2Parsed)
+            return;
+        l2Parsed = true;
+        if (!available(0, ETH_HEADER_LENGTH))
+            return;
+        short type = getShort(12);
+        l3Offset = ETH_HEADER_LENGTH;
+        if (type == TYPE_VLAN) {
+            if (!available(0, ETH_HEADER_LENGTH + VLAN_TAG_LENGTH))
+                return;
+            short tci = getShort(14);
+            priorityCode = (byte) ((tci >> 13) & 0x07);
+            vlanID = (short) (tci & 0x0fff);
+            type = getShort(16);
+            l3Offset += VLAN_TAG_LENGTH;
+        }
+        etherType = type;
+    }
+
+    protected void parseL3() {
+        if (l3Parsed)
+            return;
+        l3Parsed = true;
+        if (getEtherType() != Ethernet.TYPE_IPv4 ||
+                !available(l3Offset, IPV4_MIN_HEADER_LENGTH))
+            return;
+        byte versionAndLength = getByte(l3Offset);
+        if (((versionAndLength >> 4) & 0xf) != 4)
+            return;
+        ipv4 = true;
+        networkProtocol = getByte(l3Offset + 9);
+        networkSource = getInt(l3Offset + 12);
+        networkDestination = getInt(l3Offset + 16);
+
+        // Same rule as IPv4.deserialize(): fragments carry no L4 header
+        short flagsAndOffset = getShort(l3Offset + 6);
+        byte flags = (byte) ((flagsAndOffset >> IPv4.IPV4_FLAGS_SHIFT) &
+                IPv4.IPV4_FLAGS_MASK);
+        short fragmentOffset = (short) (flagsAndOffset & IPv4.IPV4_OFFSET_MASK);
+        boolean isFragment = ((flags & IPv4.IPV4_FLAGS_DONTFRAG) == 0) &&
+                ((flags & IPv4.IPV4_FLAGS_MOREFRAG) != 0 || fragmentOffset != 0);
+        if (!isFragment)
+            l4Offset = l3Offset + (versionAndLength & 0xf) * 4;
+    }
+
+    protected void parseL4() {
+        if (l4Parsed)
+            return;
+        l4Parsed = true;
+        parseL3();
+        if (l4Offset < 0 || !available(l4Offset, 4))
+            return;
+        if (networkProtocol == IPv4.PROTOCOL_TCP ||
+                networkProtocol == IPv4.PROTOCOL_UDP) {
+            transportSource = getShort(l4Offset);
+            transportDestination = getShort(l4Offset + 2);
+        }
+    }
+
+    private boolean available(int pos, int n) {
+        return pos >= 0 && pos + n <= length;
+    }
+
+    private byte getByte(int pos) {
+        return data.get(offset + pos);
+    }
+
+    // Assembled from bytes so the byte order of the buffer does not matter
+
+    private short getShort(int pos) {
+        int p = offset + pos;
+        return (short) (((data.get(p) & 0xff) << 8) | (data.get(p + 1) & 0xff));
+    }
+
+    private int getInt(int pos) {
+        int p = offset + pos;
+        return ((data.get(p) & 0xff) << 24) | ((data.get(p + 1) & 0xff) << 16) |
+               ((data.get(p + 2) & 0xff) << 8) | (data.get(p + 3) & 0xff);
+    }
+
+    private long getMAC(int pos) {
+        if (!available(pos, Ethernet.DATALAYER_ADDRESS_LENGTH))
+            return 0;
+        long mac = 0;
+        int p = offset + pos;
+        for (int i = 0; i < Ethernet.DATALAYER_ADDRESS_LENGTH; i++) {
+            mac = (mac << 8) | (data.get(p + i) & 0xffL);
+        }
+        return mac;
+    }
+
+    @Override
+    public String toString() {
+        return getEthernet().toString();
+    }
+}
@@ -16,123 +16,107 @@
 
 package net.floodlightcontroller.perfmon;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+
+import org.openflow.protocol.OFType;
 
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import net.floodlightcontroller.core.IOFMessageListener;
 
+/**
+ * Processing times over a span of time: of the whole listener chain, of
+ * each listener, and of the chain per message type.  A bucket is a
+ * snapshot merged from the histograms of the recording threads.
+ */
 @JsonSerialize(using=CumulativeTimeBucketJSONSerializer.class)
 public class CumulativeTimeBucket {
-    private long startTime_ns; // First pkt time-stamp in this bucket
-    private Map<Integer, OneComponentTime> compStats;
-    private long totalPktCnt;
-    private long totalProcTimeNs; // total processing time for one pkt in
-    private long sumSquaredProcTimeNs2;
-    private long maxTotalProcTimeNs;
-    private long minTotalProcTimeNs;
-    private long avgTotalProcTimeNs;
-    private long sigmaTotalProcTimeNs; // std. deviation
+    private long startTime_ns; // wall clock start of the span of time
+    private List<OneComponentTime> compStats;
+    private LatencyHistogram totalProcTimes;
+    private Map<OFType, LatencyHistogram> typeProcTimes;
 
     public long getStartTimeNs() {
         return startTime_ns;
     }
 
     public long getTotalPktCnt() {
-        return totalPktCnt;
+        return totalProcTimes.getCount();
     }
     
     public long getAverageProcTimeNs() {
-        return avgTotalProcTimeNs;
+        return totalProcTimes.getAverageNs();
     }
 
     public long getMinTotalProcTimeNs() {
-        return minTotalProcTimeNs;
+        return totalProcTimes.getMinNs();
     }
     
     public long getMaxTotalProcTimeNs() {
-        return maxTotalProcTimeNs;
+        return totalProcTimes.getMaxNs();
     }
     
     public long getTotalSigmaProcTimeNs() {
-        return sigmaTotalProcTimeNs;
+        return totalProcTimes.getStdDevNs();
+    }
+
+    /**
+     * Get a percentile of the processing time of the whole chain
+     * @param percentile the percentage, between 0 and 100
+     * @return the processing time in nanoseconds
+     */
+    public long getTotalProcTimeNsAtPercentile(double percentile) {
+        return totalProcTimes.getValueAtPercentile(percentile);
     }
     
     public int getNumComps() {
-        return compStats.values().size();
+        return compStats.size();
     }
     
     public Collection<OneComponentTime> getModules() {
-        return compStats.values();
+        return compStats;
+    }
+
+    /**
+     * Get the processing times of the whole chain per message type
+     * @return the histograms of the message types seen
+     */
+    public Map<OFType, LatencyHistogram> getMessageTypes() {
+        return typeProcTimes;
     }
 
     public CumulativeTimeBucket(List<IOFMessageListener> listeners) {
-        compStats = new ConcurrentHashMap<Integer, OneComponentTime>(listeners.size());
+        this(System.currentTimeMillis() * 1000000, new LatencyHistogram(),
+             Collections.<IOFMessageListener, LatencyHistogram>emptyMap(),
+             new EnumMap<OFType, LatencyHistogram>(OFType.class));
         for (IOFMessageListener l : listeners) {
-            OneComponentTime oct = new OneComponentTime(l);
-            compStats.put(oct.hashCode(), oct);
+            compStats.add(new OneComponentTime(l));
         }
-        startTime_ns = System.nanoTime();
     }
 
-    private void updateSquaredProcessingTime(long curTimeNs) {
-        sumSquaredProcTimeNs2 += (Math.pow(curTimeNs, 2));
-    }
-    
     /**
-     * Resets all counters and counters for each component time
+     * Create a bucket from merged histograms
+     * @param startTimeNs the start of the span of time
+     * @param totalProcTimes the processing times of the whole chain
+     * @param listenerProcTimes the processing times per listener
+     * @param typeProcTimes the processing times of the chain per type
      */
-    public void reset() {
-        startTime_ns = System.nanoTime();
-        totalPktCnt = 0;
-        totalProcTimeNs = 0;
-        avgTotalProcTimeNs = 0;
-        sumSquaredProcTimeNs2 = 0;
-        maxTotalProcTimeNs = Long.MIN_VALUE;
-        minTotalProcTimeNs = Long.MAX_VALUE;
-        sigmaTotalProcTimeNs = 0;
-        for (OneComponentTime oct : compStats.values()) {
-            oct.resetAllCounters();
+    public CumulativeTimeBucket(long startTimeNs,
+                                LatencyHistogram totalProcTimes,
+                                Map<IOFMessageListener, LatencyHistogram> listenerProcTimes,
+                                Map<OFType, LatencyHistogram> typeProcTimes) {
+        this.startTime_ns = startTimeNs;
+        this.totalProcTimes = totalProcTimes;
+        this.typeProcTimes = typeProcTimes;
+        this.compStats = new ArrayList<OneComponentTime>();
+        for (Map.Entry<IOFMessageListener, LatencyHistogram> e :
+                listenerProcTimes.entrySet()) {
+            compStats.add(new OneComponentTime(e.getKey(), e.getValue()));
         }
     }
-    
-    private void computeSigma() {
-        // Computes std. deviation from the sum of count numbers and from
-        // the sum of the squares of count numbers
-        double temp = totalProcTimeNs;
-        temp = Math.pow(temp, 2) / totalPktCnt;
-        temp = (sumSquaredProcTimeNs2 - temp) / totalPktCnt;
-        sigmaTotalProcTimeNs = (long) Math.sqrt(temp);
-    }
-    
-    public void computeAverages() {
-        // Must be called last to, needs latest info
-        computeSigma();
-        
-        for (OneComponentTime oct : compStats.values()) {
-            oct.computeSigma();
-        }
-    }
-    
-    public void updatePerPacketCounters(long procTimeNs) {
-        totalPktCnt++;
-        totalProcTimeNs += procTimeNs;
-        avgTotalProcTimeNs = totalProcTimeNs / totalPktCnt;
-        updateSquaredProcessingTime(procTimeNs);
-        
-        if (procTimeNs > maxTotalProcTimeNs) {
-            maxTotalProcTimeNs = procTimeNs;
-        }
-        
-        if (procTimeNs < minTotalProcTimeNs) {
-            minTotalProcTimeNs = procTimeNs;
-        }
-    }
-    
-    public void updateOneComponent(IOFMessageListener l, long procTimeNs) {
-        compStats.get(l.hashCode()).updatePerPacketCounters(procTimeNs);
-    }
 }
\ No newline at end of file
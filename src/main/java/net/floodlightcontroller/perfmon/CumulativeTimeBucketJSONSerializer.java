@@ -18,6 +18,9 @@ package net.floodlightcontroller.perfmon;
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.Map.Entry;
+
+import org.openflow.protocol.OFType;
 
 
 import com.fasterxml.jackson.core.JsonGenerator;
@@ -45,11 +48,36 @@ public class CumulativeTimeBucketJSONSerializer
        jGen.writeNumberField("min", ctb.getMinTotalProcTimeNs());
        jGen.writeNumberField("max", ctb.getMaxTotalProcTimeNs());
        jGen.writeNumberField("std-dev", ctb.getTotalSigmaProcTimeNs());
+       jGen.writeNumberField("50th-percentile",
+                             ctb.getTotalProcTimeNsAtPercentile(50));
+       jGen.writeNumberField("99th-percentile",
+                             ctb.getTotalProcTimeNsAtPercentile(99));
+       jGen.writeNumberField("99.9th-percentile",
+                             ctb.getTotalProcTimeNsAtPercentile(99.9));
        jGen.writeArrayFieldStart("modules");
        for (OneComponentTime oct : ctb.getModules()) {
            serializer.defaultSerializeValue(oct, jGen);
        }
        jGen.writeEndArray();
+       jGen.writeArrayFieldStart("message-types");
+       for (Entry<OFType, LatencyHistogram> e :
+               ctb.getMessageTypes().entrySet()) {
+           LatencyHistogram h = e.getValue();
+           jGen.writeStartObject();
+           jGen.writeStringField("type", e.getKey().toString());
+           jGen.writeNumberField("num-packets", h.getCount());
+           jGen.writeNumberField("average", h.getAverageNs());
+           jGen.writeNumberField("min", h.getMinNs());
+           jGen.writeNumberField("max", h.getMaxNs());
+           jGen.writeNumberField("50th-percentile",
+                                 h.getValueAtPercentile(50));
+           jGen.writeNumberField("99th-percentile",
+                                 h.getValueAtPercentile(99));
+           jGen.writeNumberField("99.9th-percentile",
+                                 h.getValueAtPercentile(99.9));
+           jGen.writeEndObject();
+       }
+       jGen.writeEndArray();
        jGen.writeEndObject();
    }
 
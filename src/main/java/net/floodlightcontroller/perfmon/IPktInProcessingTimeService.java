@@ -34,20 +34,32 @@ public interface IPktInProcessingTimeService extends IFloodlightService {
     public void bootstrap(List<IOFMessageListener> listeners);
     
     /**
-     * Stores a timestamp in ns. Used right before a service handles an
-     * OF message. Only stores if the service is enabled.
+     * Stores the time the processing of a message starts in ns. Only
+     * stores if the service is enabled.
+     * @return the buckets of the calling thread, to pass to the other
+     *         records of this message, or null if the service is disabled
      */
-    public void recordStartTimeComp(IOFMessageListener listener);
+    public ThreadTimeBuckets recordStartTimePktIn();
     
-    public void recordEndTimeComp(IOFMessageListener listener);
-    
-    public void recordStartTimePktIn();
+    /**
+     * Stores the time a listener finished handling the message. Used
+     * right after each listener, in dispatch order.
+     * @param tb the value returned by {@link #recordStartTimePktIn()}
+     * @param listener the listener
+     */
+    public void recordEndTimeComp(ThreadTimeBuckets tb,
+                                  IOFMessageListener listener);
     
-    public void recordEndTimePktIn(IOFSwitch sw, OFMessage m, FloodlightContext cntx);
+    public void recordEndTimePktIn(ThreadTimeBuckets tb, IOFSwitch sw,
+                                   OFMessage m, FloodlightContext cntx);
     
     public boolean isEnabled();
     
     public void setEnabled(boolean enabled);
     
+    /**
+     * Get the processing times recorded by all threads over the last
+     * minute
+     */
     public CumulativeTimeBucket getCtb();
 }
@@ -0,0 +1,159 @@
+package net.floodlightcontroller.perfmon;
+
+import java.util.Arrays;
+
+/**
+ * A log-linear histogram of latencies in nanoseconds.  Values below
+ * 2^SUB_BUCKET_BITS are counted exactly; above that every power of two
+ * is split into 2^(SUB_BUCKET_BITS-1) linear buckets, so a percentile is
+ * off by at most 1/16th of its value.  Values of 2^MAX_EXPONENT ns
+ * (about a minute) and more share the last bucket.
+ *
+ * Recording is not synchronized: a histogram is written by one thread
+ * and merged into others with {@link #add(LatencyHistogram)}.  A reader
+ * racing with the writer may miss the latest values, which is fine for
+ * monitoring data.
+ */
+public class LatencyHistogram {
+    protected static final int SUB_BUCKET_BITS = 5;
+    protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    protected static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    protected static final int MAX_EXPONENT = 36;
+    protected static final int BUCKETS =
+            bucketIndex((1L << (MAX_EXPONENT + 1)) - 1) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private double sumSquares;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * Get the bucket of a value
+     * @param value a value between 0 and 2^(MAX_EXPONENT+1)-1
+     * @return the index of the bucket
+     */
+    protected static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS + 1;
+        // value >>> shift is in [HALF_SUB_BUCKETS, SUB_BUCKETS)
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Get the lowest value that falls into a bucket
+     * @param index the index of the bucket
+     * @return the value
+     */
+    protected static long bucketStart(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long mantissa = index - shift * HALF_SUB_BUCKETS;
+        return mantissa << shift;
+    }
+
+    /**
+     * Record one value
+     * @param valueNs the value in nanoseconds; negative values count as 0
+     */
+    public void record(long valueNs) {
+        if (valueNs < 0) valueNs = 0;
+        int index = (valueNs >>> (MAX_EXPONENT + 1)) != 0 ?
+                BUCKETS - 1 : bucketIndex(valueNs);
+        counts[index]++;
+        count++;
+        sum += valueNs;
+        sumSquares += (double) valueNs * valueNs;
+        if (valueNs < min) min = valueNs;
+        if (valueNs > max) max = valueNs;
+    }
+
+    /**
+     * Add the values of another histogram to this one
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        if (other.count == 0) return;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        sumSquares += other.sumSquares;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    /**
+     * Remove all values
+     */
+    public void reset() {
+        if (count == 0) return;
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        sumSquares = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSumNs() {
+        return sum;
+    }
+
+    public double getSumSquaresNs() {
+        return sumSquares;
+    }
+
+    public long getMinNs() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMaxNs() {
+        return count == 0 ? 0 : max;
+    }
+
+    public long getAverageNs() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public long getStdDevNs() {
+        if (count == 0) return 0;
+        double average = (double) sum / count;
+        double variance = sumSquares / count - average * average;
+        return variance <= 0 ? 0 : (long) Math.sqrt(variance);
+    }
+
+    /**
+     * Get the value below which a given percentage of the values fall.
+     * The value is the middle of its bucket, bounded by the minimum and
+     * maximum recorded values, except for the highest value which is
+     * exact.
+     * @param percentile the percentage, between 0 and 100
+     * @return the value in nanoseconds, or 0 if the histogram is empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        if (rank < 1) rank = 1;
+        if (rank >= count) return max;
+        long seen = 0;
+        int index = 0;
+        for (; index < BUCKETS - 1; index++) {
+            seen += counts[index];
+            if (seen >= rank) break;
+        }
+        long start = bucketStart(index);
+        long end = index + 1 < BUCKETS ? bucketStart(index + 1) - 1 : max;
+        long value = start + (end - start) / 2;
+        if (value < min) return min;
+        if (value > max) return max;
+        return value;
+    }
+}
@@ -93,23 +93,19 @@ public class NullPktInProcessingTime
     }
 
     @Override
-    public void recordStartTimeComp(IOFMessageListener listener) {
-
-    }
-
-    @Override
-    public void recordEndTimeComp(IOFMessageListener listener) {
-
+    public ThreadTimeBuckets recordStartTimePktIn() {
+        return null;
     }
 
     @Override
-    public void recordStartTimePktIn() {
+    public void recordEndTimeComp(ThreadTimeBuckets tb,
+                                  IOFMessageListener listener) {
 
     }
 
     @Override
-    public void recordEndTimePktIn(IOFSwitch sw, OFMessage m,
-                                   FloodlightContext cntx) {
+    public void recordEndTimePktIn(ThreadTimeBuckets tb, IOFSwitch sw,
+                                   OFMessage m, FloodlightContext cntx) {
         
     }
 
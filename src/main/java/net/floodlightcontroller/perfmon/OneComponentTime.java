@@ -27,117 +27,75 @@ import net.floodlightcontroller.core.IOFMessageListener;
 public class OneComponentTime {
     private int compId; // hascode of IOFMessageListener
     private String compName;
-    private int pktCnt;
     // all times in nanoseconds
-    private long totalProcTimeNs;
-    private long sumSquaredProcTimeNs2; // squared
-    private long maxProcTimeNs;
-    private long minProcTimeNs;
-    private long avgProcTimeNs;
-    private long sigmaProcTimeNs;  // std. deviation
+    private LatencyHistogram procTimes;
 
     public OneComponentTime(IOFMessageListener module) {
+        this(module, new LatencyHistogram());
+    }
+
+    public OneComponentTime(IOFMessageListener module,
+                            LatencyHistogram procTimes) {
         compId = module.hashCode();
         compName = module.getClass().getCanonicalName();
-        resetAllCounters();
+        this.procTimes = procTimes;
     }
-    
-    public void resetAllCounters() {
-        maxProcTimeNs = Long.MIN_VALUE;
-        minProcTimeNs = Long.MAX_VALUE;
-        pktCnt = 0;
-        totalProcTimeNs = 0;
-        sumSquaredProcTimeNs2 = 0;
-        avgProcTimeNs = 0;
-        sigmaProcTimeNs = 0;
-    }
-    
+
     @JsonProperty("module-name")
     public String getCompName() {
         return compName;
     }
 
     @JsonProperty("num-packets")
-    public int getPktCnt() {
-        return pktCnt;
+    public long getPktCnt() {
+        return procTimes.getCount();
     }
 
     @JsonProperty("total")
     public long getSumProcTimeNs() {
-        return totalProcTimeNs;
+        return procTimes.getSumNs();
     }
 
     @JsonProperty("max")
     public long getMaxProcTimeNs() {
-        return maxProcTimeNs;
+        return procTimes.getMaxNs();
     }
 
     @JsonProperty("min")
     public long getMinProcTimeNs() {
-        return minProcTimeNs;
+        return procTimes.getMinNs();
     }
 
     @JsonProperty("average")
     public long getAvgProcTimeNs() {
-        return avgProcTimeNs;
+        return procTimes.getAverageNs();
     }
 
     @JsonProperty("std-dev")
     public long getSigmaProcTimeNs() {
-        return sigmaProcTimeNs;
+        return procTimes.getStdDevNs();
     }
-    
+
     @JsonProperty("average-squared")
     public long getSumSquaredProcTimeNs() {
-        return sumSquaredProcTimeNs2;
+        return (long) procTimes.getSumSquaresNs();
     }
 
-    // Methods used to update the counters
-    
-    private void increasePktCount() {
-        pktCnt++;
-    }
-    
-    private void updateTotalProcessingTime(long procTimeNs) {
-        totalProcTimeNs += procTimeNs;
-    }
-    
-    private void updateAvgProcessTime() {
-        avgProcTimeNs = totalProcTimeNs / pktCnt;
+    @JsonProperty("50th-percentile")
+    public long getMedianProcTimeNs() {
+        return procTimes.getValueAtPercentile(50);
     }
-    
-    private void updateSquaredProcessingTime(long procTimeNs) {
-        sumSquaredProcTimeNs2 += (Math.pow(procTimeNs, 2));
-    }
-    
-    private void calculateMinProcTime(long curTimeNs) {
-        if (curTimeNs < minProcTimeNs)
-            minProcTimeNs = curTimeNs;
-    }
-    
-    private void calculateMaxProcTime(long curTimeNs) {
-        if (curTimeNs > maxProcTimeNs)
-            maxProcTimeNs = curTimeNs;
-    }
-    
-    public void computeSigma() {
-        // Computes std. deviation from the sum of count numbers and from
-        // the sum of the squares of count numbers
-        double temp = totalProcTimeNs;
-        temp = Math.pow(temp, 2) / pktCnt;
-        temp = (sumSquaredProcTimeNs2 - temp) / pktCnt;
-        sigmaProcTimeNs = (long) Math.sqrt(temp);
+
+    @JsonProperty("99th-percentile")
+    public long get99thPercentileProcTimeNs() {
+        return procTimes.getValueAtPercentile(99);
     }
-    
-    public void updatePerPacketCounters(long procTimeNs) {
-        increasePktCount();
-        updateTotalProcessingTime(procTimeNs);
-        calculateMinProcTime(procTimeNs);
-        calculateMaxProcTime(procTimeNs);
-        updateAvgProcessTime();
-        updateSquaredProcessingTime(procTimeNs);
+
+    @JsonProperty("99.9th-percentile")
+    public long get999thPercentileProcTimeNs() {
+        return procTimes.getValueAtPercentile(99.9);
     }
-    
+
     @Override
     public int hashCode() {
         return compId;
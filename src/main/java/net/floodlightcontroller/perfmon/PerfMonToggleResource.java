@@ -30,11 +30,9 @@ public class PerfMonToggleResource extends ServerResource {
         
         String param = ((String)getRequestAttributes().get("perfmonstate")).toLowerCase();
         if (param.equals("reset")) {
-        	// We cannot reset something that is disabled, so enable it first.
-        	if(!pktinProcTime.isEnabled()){
-        		pktinProcTime.setEnabled(true);
-        	}
-            pktinProcTime.getCtb().reset();
+        	// Enabling starts over with fresh buckets, and we cannot reset
+        	// something that is disabled anyway.
+        	pktinProcTime.setEnabled(true);
         } else {
             if (param.equals("enable") || param.equals("true")) {
                 pktinProcTime.setEnabled(true);
@@ -21,9 +21,14 @@ package net.floodlightcontroller.perfmon;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -51,6 +56,14 @@ import org.slf4j.LoggerFactory;
  * Buckets are reused to reduce garbage generation! Once the
  * last bucket is used up the LRU bucket is reused.
  * 
+ * Every thread that dispatches messages records into its own set of
+ * buckets, holding one latency histogram per listener and per message
+ * type, so recording takes no locks.  recordStartTimePktIn() looks the
+ * buckets of the thread up once per message and returns them, and the
+ * dispatch loop passes them to the listener and end records.  getCtb()
+ * merges the buckets of all threads over the last BUCKET_SET_SIZE
+ * buckets.
+ * 
  * Naming convention for variable or constants
  * variable_s : value in seconds
  * variable_ms: value in milliseconds
@@ -85,24 +98,92 @@ public class PktInProcessingTime
     protected static  Logger  logger = 
         LoggerFactory.getLogger(PktInProcessingTime.class);
     
-    protected boolean isEnabled = false;
+    protected volatile boolean isEnabled = false;
     protected boolean isInited = false;
     // Maintains the time when the last packet was processed
     protected long lastPktTime_ns;
-    private CumulativeTimeBucket ctb = null;
 
     
     /***
      * BUCKET_SET_SIZE buckets each holding 10s of processing time data, a total
-     * of 30*10s = 5mins of processing time data is maintained
+     * of 6*10s = 1min of processing time data is maintained
      */
     protected static final int ONE_BUCKET_DURATION_SECONDS = 10;// seconds
     protected static final long ONE_BUCKET_DURATION_NANOSECONDS  =
-                                ONE_BUCKET_DURATION_SECONDS * 1000000000;
-    
+                                ONE_BUCKET_DURATION_SECONDS * 1000000000L;
+    protected static final int BUCKET_SET_SIZE = 6;
+
+    /**
+     * The processing times recorded in one bucket by one thread
+     */
+    protected static class TimeBucket {
+        // the bucket number, or Long.MIN_VALUE while the bucket is unused
+        // or being reset
+        volatile long bucketNum = Long.MIN_VALUE;
+        final LatencyHistogram totalProcTimes = new LatencyHistogram();
+        final LatencyHistogram[] typeProcTimes =
+                new LatencyHistogram[OFType.values().length];
+        // by position of the listener in ThreadTimeBuckets.listeners
+        final LatencyHistogram[] indexedProcTimes;
+        // listeners that were dispatched in a different order
+        final ConcurrentHashMap<IOFMessageListener, LatencyHistogram>
+                listenerProcTimes =
+                    new ConcurrentHashMap<IOFMessageListener, LatencyHistogram>();
+
+        TimeBucket(int numListeners) {
+            indexedProcTimes = new LatencyHistogram[numListeners];
+        }
+
+        void reset(long newBucketNum) {
+            bucketNum = Long.MIN_VALUE;
+            totalProcTimes.reset();
+            for (LatencyHistogram h : typeProcTimes) {
+                if (h != null) h.reset();
+            }
+            for (LatencyHistogram h : indexedProcTimes) {
+                if (h != null) h.reset();
+            }
+            for (LatencyHistogram h : listenerProcTimes.values()) {
+                h.reset();
+            }
+            bucketNum = newBucketNum;
+        }
+    }
+
+    private List<IOFMessageListener> listeners =
+            Collections.emptyList();
+    private long bootstrapTime_ms;
+    private volatile ThreadLocal<ThreadTimeBuckets> threadBuckets;
+    private volatile List<ThreadTimeBuckets> allThreadBuckets;
+
+    protected static long getBucketNum(long timeNs) {
+        long bucketNum = timeNs / ONE_BUCKET_DURATION_NANOSECONDS;
+        // round towards negative infinity, nanoTime may be negative
+        if (timeNs < 0 && timeNs % ONE_BUCKET_DURATION_NANOSECONDS != 0)
+            bucketNum--;
+        return bucketNum;
+    }
+
     @Override
-    public void bootstrap(List<IOFMessageListener> listeners) {
-            ctb = new CumulativeTimeBucket(listeners);
+    public synchronized void bootstrap(List<IOFMessageListener> listeners) {
+        // Start over with fresh buckets; threads still holding the old
+        // ones record into them until they look up their buckets again
+        final List<ThreadTimeBuckets> all =
+                new CopyOnWriteArrayList<ThreadTimeBuckets>();
+        final List<IOFMessageListener> current = listeners == null ?
+                Collections.<IOFMessageListener>emptyList() :
+                new ArrayList<IOFMessageListener>(listeners);
+        threadBuckets = new ThreadLocal<ThreadTimeBuckets>() {
+            @Override
+            protected ThreadTimeBuckets initialValue() {
+                ThreadTimeBuckets tb = new ThreadTimeBuckets(current);
+                all.add(tb);
+                return tb;
+            }
+        };
+        allThreadBuckets = all;
+        this.listeners = current;
+        bootstrapTime_ms = System.currentTimeMillis();
     }
     
     @Override
@@ -119,33 +200,131 @@ public class PktInProcessingTime
         logger.debug("Setting module to " + isEnabled);
     }
     
+    /**
+     * Merge the processing times of all threads over the last
+     * BUCKET_SET_SIZE buckets
+     */
     @Override
     public CumulativeTimeBucket getCtb() {
-        return ctb;
+        List<ThreadTimeBuckets> all;
+        List<IOFMessageListener> listeners;
+        long startTime_ms;
+        synchronized (this) {
+            all = allThreadBuckets;
+            listeners = this.listeners;
+            startTime_ms = bootstrapTime_ms;
+        }
+        long windowMs = BUCKET_SET_SIZE * ONE_BUCKET_DURATION_SECONDS * 1000L;
+        startTime_ms = Math.max(startTime_ms,
+                                System.currentTimeMillis() - windowMs);
+
+        LatencyHistogram total = new LatencyHistogram();
+        Map<IOFMessageListener, LatencyHistogram> perListener =
+                new LinkedHashMap<IOFMessageListener, LatencyHistogram>();
+        for (IOFMessageListener l : listeners) {
+            perListener.put(l, new LatencyHistogram());
+        }
+        Map<OFType, LatencyHistogram> perType =
+                new EnumMap<OFType, LatencyHistogram>(OFType.class);
+        if (all == null)
+            return new CumulativeTimeBucket(startTime_ms * 1000000, total,
+                                            perListener, perType);
+
+        long lastBucketNum = getBucketNum(System.nanoTime());
+        for (ThreadTimeBuckets tb : all) {
+            for (TimeBucket bucket : tb.buckets) {
+                long bucketNum = bucket.bucketNum;
+                if (bucketNum > lastBucketNum ||
+                    bucketNum <= lastBucketNum - BUCKET_SET_SIZE)
+                    continue;
+                // merge into copies first, and drop them if the owner
+                // reused the bucket meanwhile
+                LatencyHistogram bucketTotal = new LatencyHistogram();
+                bucketTotal.add(bucket.totalProcTimes);
+                Map<IOFMessageListener, LatencyHistogram> bucketListeners =
+                        new HashMap<IOFMessageListener, LatencyHistogram>();
+                for (int i = 0; i < bucket.indexedProcTimes.length; i++) {
+                    LatencyHistogram h = bucket.indexedProcTimes[i];
+                    if (h == null) continue;
+                    addListenerTimes(bucketListeners, tb.listeners[i], h);
+                }
+                for (Map.Entry<IOFMessageListener, LatencyHistogram> e :
+                        bucket.listenerProcTimes.entrySet()) {
+                    addListenerTimes(bucketListeners, e.getKey(),
+                                     e.getValue());
+                }
+                LatencyHistogram[] bucketTypes =
+                        new LatencyHistogram[bucket.typeProcTimes.length];
+                for (int i = 0; i < bucketTypes.length; i++) {
+                    LatencyHistogram h = bucket.typeProcTimes[i];
+                    if (h == null) continue;
+                    bucketTypes[i] = new LatencyHistogram();
+                    bucketTypes[i].add(h);
+                }
+                if (bucket.bucketNum != bucketNum) continue;
+
+                total.add(bucketTotal);
+                for (Map.Entry<IOFMessageListener, LatencyHistogram> e :
+                        bucketListeners.entrySet()) {
+                    LatencyHistogram h = perListener.get(e.getKey());
+                    if (h == null) {
+                        h = new LatencyHistogram();
+                        perListener.put(e.getKey(), h);
+                    }
+                    h.add(e.getValue());
+                }
+                OFType[] types = OFType.values();
+                for (int i = 0; i < bucketTypes.length; i++) {
+                    if (bucketTypes[i] == null) continue;
+                    LatencyHistogram h = perType.get(types[i]);
+                    if (h == null) {
+                        h = new LatencyHistogram();
+                        perType.put(types[i], h);
+                    }
+                    h.add(bucketTypes[i]);
+                }
+            }
+        }
+        return new CumulativeTimeBucket(startTime_ms * 1000000, total,
+                                        perListener, perType);
     }
-    
-    private long startTimePktNs;
-    private long startTimeCompNs;
-    @Override
-    public void recordStartTimeComp(IOFMessageListener listener) {
-        if (isEnabled()) {
-            startTimeCompNs = System.nanoTime();
+
+    private static void addListenerTimes(
+            Map<IOFMessageListener, LatencyHistogram> times,
+            IOFMessageListener listener, LatencyHistogram h) {
+        LatencyHistogram sum = times.get(listener);
+        if (sum == null) {
+            sum = new LatencyHistogram();
+            times.put(listener, sum);
         }
+        sum.add(h);
     }
-    
+
     @Override
-    public void recordEndTimeComp(IOFMessageListener listener) {
-        if (isEnabled()) {
-            long procTime = System.nanoTime() - startTimeCompNs;
-            ctb.updateOneComponent(listener, procTime);
-        }
+    public ThreadTimeBuckets recordStartTimePktIn() {
+        if (!isEnabled()) return null;
+        ThreadTimeBuckets tb = threadBuckets.get();
+        tb.startTimePktNs = System.nanoTime();
+        tb.lastTimeNs = tb.startTimePktNs;
+        tb.nextComp = 0;
+        return tb;
     }
-    
+
+    /**
+     * Record the end of a listener.  The listeners of a message run back
+     * to back, so the time the message started or the previous listener
+     * ended is taken as the start, and the clock is read once per
+     * listener.
+     */
     @Override
-    public void recordStartTimePktIn() {
-        if (isEnabled()) {
-            startTimePktNs = System.nanoTime();
-        }
+    public void recordEndTimeComp(ThreadTimeBuckets tb,
+                                  IOFMessageListener listener) {
+        if (tb == null) return;
+        long endTimeNs = System.nanoTime();
+        long procTime = endTimeNs - tb.lastTimeNs;
+        tb.lastTimeNs = endTimeNs;
+        TimeBucket bucket = tb.getBucket(endTimeNs);
+        tb.getListenerTimes(bucket, tb.nextComp++, listener).record(procTime);
     }
     
     @Override
@@ -154,10 +333,21 @@ public class PktInProcessingTime
             explanation="Time to process packet-in exceeded the configured " +
             		"performance threshold",
             recommendation=LogMessageDoc.CHECK_CONTROLLER)
-    public void recordEndTimePktIn(IOFSwitch sw, OFMessage m, FloodlightContext cntx) {
-        if (isEnabled()) {
-            long procTimeNs = System.nanoTime() - startTimePktNs;
-            ctb.updatePerPacketCounters(procTimeNs);
+    public void recordEndTimePktIn(ThreadTimeBuckets tb, IOFSwitch sw,
+                                   OFMessage m, FloodlightContext cntx) {
+        if (tb != null) {
+            // the end of the last listener is the end of the packet
+            long endTimeNs = tb.nextComp > 0 ? tb.lastTimeNs : System.nanoTime();
+            long procTimeNs = endTimeNs - tb.startTimePktNs;
+            TimeBucket bucket = tb.getBucket(endTimeNs);
+            bucket.totalProcTimes.record(procTimeNs);
+            int type = m.getType().ordinal();
+            LatencyHistogram h = bucket.typeProcTimes[type];
+            if (h == null) {
+                h = new LatencyHistogram();
+                bucket.typeProcTimes[type] = h;
+            }
+            h.record(procTimeNs);
             
             if (ptWarningThresholdInNano > 0 && 
                     procTimeNs > ptWarningThresholdInNano) {
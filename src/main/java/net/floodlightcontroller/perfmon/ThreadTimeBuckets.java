@@ -0,0 +1,83 @@
+package net.floodlightcontroller.perfmon;
+
+import java.util.List;
+
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.perfmon.PktInProcessingTime.TimeBucket;
+
+/**
+ * The buckets and start times of one thread that dispatches messages.
+ * {@link IPktInProcessingTimeService#recordStartTimePktIn()} hands them
+ * out to the dispatch loop, which passes them back to record each
+ * listener and the end of the message.  Only the owning thread records
+ * into them.
+ */
+public class ThreadTimeBuckets {
+    final TimeBucket[] buckets =
+            new TimeBucket[PktInProcessingTime.BUCKET_SET_SIZE];
+    /**
+     * The listeners the service was bootstrapped with; a listener at the
+     * same position in the dispatch order is recorded by index
+     */
+    final IOFMessageListener[] listeners;
+    TimeBucket current;
+    long currentStartNs;
+    long currentEndNs;
+    long startTimePktNs;
+    // the time the packet started or the last listener ended
+    long lastTimeNs;
+    // the position of the next listener in the dispatch order
+    int nextComp;
+
+    ThreadTimeBuckets(List<IOFMessageListener> listeners) {
+        this.listeners = listeners.toArray(
+                new IOFMessageListener[listeners.size()]);
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new TimeBucket(this.listeners.length);
+        }
+    }
+
+    TimeBucket getBucket(long timeNs) {
+        // the current bucket covers [currentStartNs, currentEndNs)
+        if (current != null &&
+            timeNs - currentStartNs >= 0 && timeNs - currentEndNs < 0)
+            return current;
+        long bucketNum = PktInProcessingTime.getBucketNum(timeNs);
+        int setSize = PktInProcessingTime.BUCKET_SET_SIZE;
+        TimeBucket bucket =
+                buckets[(int) (((bucketNum % setSize) + setSize) % setSize)];
+        if (bucket.bucketNum != bucketNum) bucket.reset(bucketNum);
+        current = bucket;
+        currentStartNs =
+                bucketNum * PktInProcessingTime.ONE_BUCKET_DURATION_NANOSECONDS;
+        currentEndNs =
+                currentStartNs + PktInProcessingTime.ONE_BUCKET_DURATION_NANOSECONDS;
+        return bucket;
+    }
+
+    /**
+     * Get the histogram of a listener in a bucket
+     * @param bucket
+     * @param index the position of the listener in the dispatch order
+     * @param listener
+     * @return the histogram
+     */
+    LatencyHistogram getListenerTimes(TimeBucket bucket, int index,
+                                      IOFMessageListener listener) {
+        LatencyHistogram h;
+        if (index < listeners.length && listeners[index] == listener) {
+            h = bucket.indexedProcTimes[index];
+            if (h == null) {
+                h = new LatencyHistogram();
+                bucket.indexedProcTimes[index] = h;
+            }
+        } else {
+            h = bucket.listenerProcTimes.get(listener);
+            if (h == null) {
+                h = new LatencyHistogram();
+                bucket.listenerProcTimes.put(listener, h);
+            }
+        }
+        return h;
+    }
+}
@@ -3,6 +3,7 @@ package net.floodlightcontroller.pronghornmodule;
 import java.io.IOException;
 import java.util.concurrent.Future;
 import java.util.List;
+import java.util.Map;
 
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.OFStatisticsRequest;
@@ -22,9 +23,63 @@ public interface IPronghornService extends IFloodlightService {
 
     public void issue_flow_mod(OFFlowMod flow_mod, String switch_id)
         throws IOException, IllegalArgumentException;
+    public void issue_flow_mod(OFFlowMod flow_mod, long switch_id)
+        throws IOException, IllegalArgumentException;
+
+    /**
+       Issues the flow mods followed by a barrier to one switch in a
+       single write. Flow mods issued to the switch earlier that are
+       not yet covered by a barrier join the same transaction.
+
+       @returns {PronghornBarrierFuture} --- completes with the
+       transaction's commit latency and failed xids.
+
+       @throws IllegalArgumentException if the switch does not exist.
+     */
+    public PronghornBarrierFuture issue_flow_mod_batch(
+        List<OFFlowMod> flow_mods, long switch_id)
+        throws IOException, IllegalArgumentException;
+
+    /**
+       Issues a batch per switch, as issue_flow_mod_batch does. Nothing
+       is written if any of the switches does not exist.
+
+       @returns {Map<Long,PronghornBarrierFuture>} --- future of each
+       switch's transaction, by DPID.
+     */
+    public Map<Long, PronghornBarrierFuture> issue_flow_mod_batches(
+        Map<Long, List<OFFlowMod>> flow_mods)
+        throws IOException, IllegalArgumentException;
+    /**
+       Blocks until the barrier completes or times out. cb is told
+       about every command of the transaction that failed.
+     */
     public void barrier (
         String switch_id,IPronghornBarrierCallback cb) throws IOException;
 
+    /**
+       Sends a barrier without blocking. The barrier closes the
+       transaction made of the flow mods issued to the switch since
+       its previous barrier. Errors the switch returns for those flow
+       mods are matched to the transaction by xid, so any number of
+       transactions per switch can be outstanding.
+
+       @returns {PronghornBarrierFuture} --- completes when the
+       barrier reply arrives or the barrier times out.
+
+       @throws IllegalArgumentException if the switch does not exist.
+     */
+    public PronghornBarrierFuture barrier_async(String switch_id)
+        throws IOException, IllegalArgumentException;
+
+    /**
+       Same as barrier_async(switch_id), and cb is called on the
+       thread that receives the switch's reply.
+     */
+    public PronghornBarrierFuture barrier_async(
+        String switch_id, IPronghornBarrierCallback cb)
+        throws IOException, IllegalArgumentException;
+
     public void register_switch_listener(IOFSwitchListener switch_listener);
     public void unregister_switch_listener(IOFSwitchListener switch_listener);
 
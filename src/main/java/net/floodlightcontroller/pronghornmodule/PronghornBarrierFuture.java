@@ -0,0 +1,194 @@
+package net.floodlightcontroller.pronghornmodule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+   Future for one transaction on one switch. It collects the xids of
+   the flow mods issued to the switch until the next barrier, the
+   errors the switch returns for them, and completes when the reply to
+   that barrier arrives or the barrier times out.
+
+   Every transaction of a switch has its own future, so any number of
+   them can be outstanding at the same time.
+ */
+public class PronghornBarrierFuture implements Future<PronghornBarrierResult>
+{
+    private final long switch_id;
+    // the outstanding transactions of the switch, told when this one
+    // is canceled
+    private final PronghornModule.SwitchTransactions transactions;
+    private IPronghornBarrierCallback cb;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    // xids of the flow mods in this transaction
+    private final List<Integer> command_xids = new ArrayList<Integer>();
+    private final List<Integer> failed_xids = new ArrayList<Integer>();
+
+    private volatile int xid = -1;
+    private volatile long barrier_sent_ns = 0;
+    private volatile boolean canceled = false;
+    private volatile PronghornBarrierResult result = null;
+
+    PronghornBarrierFuture(
+        long switch_id, PronghornModule.SwitchTransactions transactions)
+    {
+        this.switch_id = switch_id;
+        this.transactions = transactions;
+    }
+
+    /**
+       @returns {int} --- xid of the barrier request, -1 until the
+       barrier has been sent.
+     */
+    public int get_xid()
+    {
+        return xid;
+    }
+
+    public long get_switch_id()
+    {
+        return switch_id;
+    }
+
+    void set_xid(int xid)
+    {
+        this.xid = xid;
+        this.barrier_sent_ns = System.nanoTime();
+    }
+
+    /**
+       Set the callback told about the outcome of the transaction.
+       Errors that arrived before are passed to it right away.
+     */
+    void set_callback(IPronghornBarrierCallback cb)
+    {
+        List<Integer> earlier_failures;
+        synchronized (this)
+        {
+            this.cb = cb;
+            earlier_failures = new ArrayList<Integer>(failed_xids);
+        }
+        for (Integer command_xid : earlier_failures)
+            cb.command_failure(command_xid);
+    }
+
+    synchronized void add_command(int command_xid)
+    {
+        command_xids.add(command_xid);
+    }
+
+    synchronized List<Integer> get_command_xids()
+    {
+        return new ArrayList<Integer>(command_xids);
+    }
+
+    /**
+       Record an error returned for one of the commands.
+     */
+    void command_failure(int command_xid)
+    {
+        IPronghornBarrierCallback to_notify;
+        synchronized (this)
+        {
+            if (isDone())
+                return;
+            failed_xids.add(command_xid);
+            to_notify = cb;
+        }
+        if (to_notify != null)
+            to_notify.command_failure(command_xid);
+    }
+
+    /**
+       @param {boolean} committed --- True if the barrier reply
+       arrived, false if the barrier timed out or failed.
+
+       @returns {boolean} --- False if the future was already done.
+     */
+    boolean complete(boolean committed)
+    {
+        IPronghornBarrierCallback to_notify;
+        synchronized (this)
+        {
+            if (isDone())
+                return false;
+            result = new PronghornBarrierResult(
+                switch_id, xid, committed,
+                new ArrayList<Integer>(failed_xids),
+                System.nanoTime() - barrier_sent_ns);
+            to_notify = cb;
+        }
+        if (to_notify != null)
+        {
+            if (committed)
+                to_notify.barrier_success();
+            else
+                to_notify.barrier_failure();
+        }
+        latch.countDown();
+        return true;
+    }
+
+    /**
+       Cancel the transaction. Its barrier reply and the errors of its
+       commands are no longer matched to it.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        synchronized (this)
+        {
+            if (isDone())
+                return false;
+            canceled = true;
+        }
+        transactions.cancel(this);
+        latch.countDown();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return canceled;
+    }
+
+    @Override
+    public synchronized boolean isDone()
+    {
+        return canceled || (result != null);
+    }
+
+    /**
+       @throws CancellationException if the future was canceled.
+     */
+    @Override
+    public PronghornBarrierResult get()
+        throws InterruptedException, ExecutionException
+    {
+        latch.await();
+        return get_result();
+    }
+
+    @Override
+    public PronghornBarrierResult get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (! latch.await(timeout, unit))
+            throw new TimeoutException();
+        return get_result();
+    }
+
+    private PronghornBarrierResult get_result()
+    {
+        if (canceled)
+            throw new CancellationException();
+        return result;
+    }
+}
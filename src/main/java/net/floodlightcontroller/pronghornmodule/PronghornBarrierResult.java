@@ -0,0 +1,86 @@
+package net.floodlightcontroller.pronghornmodule;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+   Outcome of one transaction: the flow mods issued to a switch
+   between two barriers, and the barrier that closed them.
+ */
+public class PronghornBarrierResult
+{
+    private final long switch_id;
+    private final int xid;
+    private final boolean committed;
+    private final List<Integer> failed_xids;
+    private final long commit_latency_ns;
+
+    public PronghornBarrierResult(
+        long switch_id, int xid, boolean committed, List<Integer> failed_xids,
+        long commit_latency_ns)
+    {
+        this.switch_id = switch_id;
+        this.xid = xid;
+        this.committed = committed;
+        this.failed_xids = Collections.unmodifiableList(failed_xids);
+        this.commit_latency_ns = commit_latency_ns;
+    }
+
+    public long get_switch_id()
+    {
+        return switch_id;
+    }
+
+    /**
+       @returns {int} --- xid of the barrier request.
+     */
+    public int get_xid()
+    {
+        return xid;
+    }
+
+    /**
+       @returns {boolean} --- True if the barrier reply arrived before
+       the barrier timed out.
+     */
+    public boolean is_committed()
+    {
+        return committed;
+    }
+
+    /**
+       @returns {List<Integer>} --- xids of the commands in the
+       transaction that the switch answered with an error.
+     */
+    public List<Integer> get_failed_xids()
+    {
+        return failed_xids;
+    }
+
+    /**
+       @returns {long} --- nanoseconds from sending the barrier to its
+       reply, or to the timeout if the barrier was not committed.
+     */
+    public long get_commit_latency_ns()
+    {
+        return commit_latency_ns;
+    }
+
+    /**
+       @returns {boolean} --- True if the barrier was committed and no
+       command of the transaction failed.
+     */
+    public boolean succeeded()
+    {
+        return committed && failed_xids.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PronghornBarrierResult [switch=" + switch_id +
+            ", xid=" + xid + ", committed=" + committed +
+            ", failed_xids=" + failed_xids +
+            ", commit_latency_ns=" + commit_latency_ns + "]";
+    }
+}
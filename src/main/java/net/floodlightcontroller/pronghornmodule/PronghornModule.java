@@ -4,12 +4,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.io.IOException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Future;
@@ -53,7 +53,122 @@ public class PronghornModule
     protected IStaticFlowEntryPusherService flow_entry_pusher;
     protected IThreadPoolService threadpool_service;
     protected ILinkDiscoveryService link_discovery_service;
-    protected ConcurrentHashMap<IOFSwitch, BlockingQueue<OFMessage>> queues;
+    protected ConcurrentHashMap<Long, SwitchTransactions> transactions;
+
+    // how long to wait for a barrier reply before failing the transaction
+    protected static final long BARRIER_TIMEOUT_MS = 1000;
+
+    /**
+       Transactions of one switch. Flow mods are added to the open
+       transaction, which a barrier closes. Closed transactions stay
+       outstanding until the reply to their barrier arrives.
+     */
+    protected class SwitchTransactions
+    {
+        private final long switch_id;
+        private PronghornBarrierFuture open = null;
+        // outstanding transactions by barrier xid
+        final ConcurrentHashMap<Integer, PronghornBarrierFuture> by_barrier_xid =
+            new ConcurrentHashMap<Integer, PronghornBarrierFuture>();
+        // transaction of each flow mod whose barrier has not replied
+        final ConcurrentHashMap<Integer, PronghornBarrierFuture> by_command_xid =
+            new ConcurrentHashMap<Integer, PronghornBarrierFuture>();
+
+        SwitchTransactions(long switch_id)
+        {
+            this.switch_id = switch_id;
+        }
+
+        synchronized void add_command(int command_xid)
+        {
+            if (open == null)
+                open = new PronghornBarrierFuture(switch_id, this);
+            open.add_command(command_xid);
+            by_command_xid.put(command_xid, open);
+        }
+
+        /**
+           Add the commands and close the open transaction with the
+           barrier xid in one step, so commands issued concurrently
+           cannot end up between them.
+         */
+        synchronized PronghornBarrierFuture close(
+            List<Integer> command_xids, int barrier_xid)
+        {
+            for (Integer command_xid : command_xids)
+                add_command(command_xid);
+            return close(barrier_xid, null);
+        }
+
+        /**
+           Close the open transaction with the barrier xid.
+         */
+        synchronized PronghornBarrierFuture close(
+            int barrier_xid, IPronghornBarrierCallback cb)
+        {
+            PronghornBarrierFuture future =
+                (open != null) ? open : new PronghornBarrierFuture(switch_id, this);
+            open = null;
+            if (cb != null)
+                future.set_callback(cb);
+            future.set_xid(barrier_xid);
+            by_barrier_xid.put(barrier_xid, future);
+            return future;
+        }
+
+        void finish(PronghornBarrierFuture future, boolean committed)
+        {
+            if (by_barrier_xid.remove(future.get_xid(), future))
+            {
+                for (Integer command_xid : future.get_command_xids())
+                    by_command_xid.remove(command_xid, future);
+                future.complete(committed);
+            }
+        }
+
+        /**
+           Forget a transaction that was canceled, whether or not its
+           barrier was sent.
+         */
+        void cancel(PronghornBarrierFuture future)
+        {
+            synchronized (this)
+            {
+                if (open == future)
+                    open = null;
+            }
+            by_barrier_xid.remove(future.get_xid(), future);
+            for (Integer command_xid : future.get_command_xids())
+                by_command_xid.remove(command_xid, future);
+        }
+
+        void barrier_reply(int xid)
+        {
+            PronghornBarrierFuture future = by_barrier_xid.get(xid);
+            if (future != null)
+                finish(future, true);
+            else if (log.isDebugEnabled())
+                log.debug("Barrier reply {} from switch {} matches no " +
+                          "transaction", xid, HexString.toHexString(switch_id));
+        }
+
+        void error(int xid)
+        {
+            PronghornBarrierFuture future = by_command_xid.get(xid);
+            if (future != null)
+            {
+                future.command_failure(xid);
+                return;
+            }
+            // the barrier request itself failed
+            future = by_barrier_xid.get(xid);
+            if (future != null)
+                finish(future, false);
+            else if (log.isDebugEnabled())
+                log.debug("Error {} from switch {} matches no transaction",
+                          xid, HexString.toHexString(switch_id));
+        }
+    }
     
     @Override
     public Collection<Class<? extends IFloodlightService>> getModuleServices()
@@ -96,7 +211,7 @@ public class PronghornModule
         
         flow_entry_pusher =
             context.getServiceImpl(IStaticFlowEntryPusherService.class);
-        queues = new ConcurrentHashMap<IOFSwitch, BlockingQueue<OFMessage>>();
+        transactions = new ConcurrentHashMap<Long, SwitchTransactions>();
     }
 
     @Override
@@ -154,34 +269,48 @@ public class PronghornModule
         return false;
     }
 
-    /* Create queue for sw if does not exist */
-    private void ensureQueueExists(IOFSwitch sw) {
-        if (!queues.contains(sw)) {
-            queues.put(sw, new LinkedBlockingQueue<OFMessage>());
+    /* Get transactions of sw, creating them if they do not exist */
+    private SwitchTransactions get_transactions(IOFSwitch sw)
+    {
+        SwitchTransactions txns = transactions.get(sw.getId());
+        if (txns == null)
+        {
+            txns = new SwitchTransactions(sw.getId());
+            SwitchTransactions existing =
+                transactions.putIfAbsent(sw.getId(), txns);
+            if (existing != null)
+                txns = existing;
         }
+        return txns;
+    }
+
+    private IOFSwitch get_switch(String switch_id)
+        throws IllegalArgumentException
+    {
+        return get_switch(HexString.toLong(switch_id));
+    }
+
+    private IOFSwitch get_switch(long switch_id)
+        throws IllegalArgumentException
+    {
+        IOFSwitch sw = floodlightProvider.getSwitch(switch_id);
+        if (sw == null)
+            throw new IllegalArgumentException(
+                "Unknown switch " + HexString.toHexString(switch_id));
+        return sw;
     }
 
     @Override
     public net.floodlightcontroller.core.IListener.Command receive(
         IOFSwitch sw, OFMessage msg, FloodlightContext cntx)
     {
-        if (queues.get(sw) != null)
+        SwitchTransactions txns = transactions.get(sw.getId());
+        if (txns != null)
         {
-            if ((msg.getType() == OFType.BARRIER_REPLY) ||
-                (msg.getType() == OFType.ERROR))
-            {
-                try
-                {
-                    queues.get(sw).put(msg);
-                }
-                catch (InterruptedException e)
-                {
-                    e.printStackTrace();
-                    log.error(
-                        "Interrupted excpetion while putting",e.getMessage());
-                    assert(false);
-                }
-            }
+            if (msg.getType() == OFType.BARRIER_REPLY)
+                txns.barrier_reply(msg.getXid());
+            else if (msg.getType() == OFType.ERROR)
+                txns.error(msg.getXid());
             // DEBUG
             else
             {
@@ -201,52 +330,175 @@ public class PronghornModule
     @Override
     public String sendBarrier(String switch_id)
     {
-        RESTBarrierCallback cb = new RESTBarrierCallback();
         try {
-            if (send_barrier(switch_id,cb) &&
-                (! cb.had_error.get()))
+            PronghornBarrierResult result =
+                wait_for(barrier_async(switch_id));
+            if ((result != null) && result.succeeded())
                 return "true";
         } catch (IOException ex) {
             // ignore IOException: returning false anyways.
+        } catch (IllegalArgumentException ex) {
+            // unknown switch: returning false anyways.
         }
         return "false";
     }
 
-    private class RESTBarrierCallback implements IPronghornBarrierCallback
+    @Override
+    public void issue_flow_mod(OFFlowMod flow_mod, String switch_id)
+        throws IOException, IllegalArgumentException
     {
-        public final AtomicBoolean had_error = new AtomicBoolean (false);
-        
-        @Override
-        public void command_failure(int id)
-        {
-            had_error.set(true);
-        }
+        issue_flow_mod(flow_mod, HexString.toLong(switch_id));
+    }
 
-        @Override
-        public void barrier_success(){}
-        @Override
-        public void barrier_failure(){}
+    @Override
+    public void issue_flow_mod(OFFlowMod flow_mod, long switch_id)
+        throws IOException, IllegalArgumentException
+    {
+        IOFSwitch sw = get_switch(switch_id);
+        // errors are matched to their transaction by xid
+        if (flow_mod.getXid() == 0)
+            flow_mod.setXid(sw.getNextTransactionId());
+        get_transactions(sw).add_command(flow_mod.getXid());
+        sw.write(flow_mod, null);
     }
 
+    @Override
+    public PronghornBarrierFuture issue_flow_mod_batch(
+        List<OFFlowMod> flow_mods, long switch_id)
+        throws IOException, IllegalArgumentException
+    {
+        return write_batch(get_switch(switch_id), flow_mods);
+    }
 
     @Override
-    public void issue_flow_mod(OFFlowMod flow_mod, String switch_id)
+    public Map<Long, PronghornBarrierFuture> issue_flow_mod_batches(
+        Map<Long, List<OFFlowMod>> flow_mods)
         throws IOException, IllegalArgumentException
     {
-        long id = HexString.toLong(switch_id);
-        IOFSwitch sw = floodlightProvider.getSwitch(id);
-        ensureQueueExists(sw);
-        sw.write(flow_mod, null);
+        // resolve every switch before writing to any of them
+        Map<IOFSwitch, List<OFFlowMod>> batches =
+            new LinkedHashMap<IOFSwitch, List<OFFlowMod>>();
+        for (Map.Entry<Long, List<OFFlowMod>> entry : flow_mods.entrySet())
+            batches.put(get_switch(entry.getKey()), entry.getValue());
+
+        Map<Long, PronghornBarrierFuture> futures =
+            new HashMap<Long, PronghornBarrierFuture>();
+        for (Map.Entry<IOFSwitch, List<OFFlowMod>> entry : batches.entrySet())
+        {
+            IOFSwitch sw = entry.getKey();
+            futures.put(sw.getId(), write_batch(sw, entry.getValue()));
+        }
+        return futures;
+    }
+
+    /**
+       Write the flow mods and a trailing barrier to the switch, after
+       the flow mods issued one at a time that are still buffered for
+       it. They belong to this transaction so must reach the switch
+       first. The switch writes out its buffer for the barrier, so the
+       batch shares one channel write with them unless it is larger
+       than the buffer.
+     */
+    private PronghornBarrierFuture write_batch(
+        IOFSwitch sw, List<OFFlowMod> flow_mods) throws IOException
+    {
+        List<OFMessage> msgs = new ArrayList<OFMessage>(flow_mods.size() + 1);
+        List<Integer> command_xids = new ArrayList<Integer>(flow_mods.size());
+        for (OFFlowMod flow_mod : flow_mods)
+        {
+            if (flow_mod.getXid() == 0)
+                flow_mod.setXid(sw.getNextTransactionId());
+            command_xids.add(flow_mod.getXid());
+            msgs.add(flow_mod);
+        }
+        OFMessage barrier_req =
+            floodlightProvider.getOFMessageFactory().getMessage(OFType.BARRIER_REQUEST);
+        int xid = sw.getNextTransactionId();
+        barrier_req.setXid(xid);
+        msgs.add(barrier_req);
+
+        SwitchTransactions txns = get_transactions(sw);
+        PronghornBarrierFuture future = txns.close(command_xids, xid);
+        schedule_timeout(txns, future);
+        for (OFMessage msg : msgs)
+            sw.write(msg, null);
+        sw.flush();
+        return future;
     }
     
     @Override
     public void barrier (
         String switch_id,IPronghornBarrierCallback cb) throws IOException
     {
-        if (send_barrier(switch_id,cb))
-            cb.barrier_success();
-        else
-            cb.barrier_failure();
+        wait_for(barrier_async(switch_id, cb));
+    }
+
+    @Override
+    public PronghornBarrierFuture barrier_async(String switch_id)
+        throws IOException, IllegalArgumentException
+    {
+        return barrier_async(switch_id, null);
+    }
+
+    @Override
+    public PronghornBarrierFuture barrier_async(
+        String switch_id, IPronghornBarrierCallback cb)
+        throws IOException, IllegalArgumentException
+    {
+        IOFSwitch sw = get_switch(switch_id);
+        OFMessage barrier_req =
+            floodlightProvider.getOFMessageFactory().getMessage(OFType.BARRIER_REQUEST);
+        int xid = sw.getNextTransactionId();
+        barrier_req.setXid(xid);
+
+        SwitchTransactions txns = get_transactions(sw);
+        PronghornBarrierFuture future = txns.close(xid, cb);
+        schedule_timeout(txns, future);
+        sw.write(barrier_req, null);
+        return future;
+    }
+
+    private void schedule_timeout(
+        final SwitchTransactions txns, final PronghornBarrierFuture future)
+    {
+        threadpool_service.getScheduledExecutor().schedule(
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    txns.finish(future, false);
+                }
+            },
+            BARRIER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+       Block until a transaction completes.
+
+       @returns {PronghornBarrierResult or null} --- null if waiting
+       was interrupted or the future was canceled.
+     */
+    private PronghornBarrierResult wait_for(PronghornBarrierFuture future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            log.error("Interrupted waiting for barrier {}", future.get_xid());
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            log.error("Failed waiting for barrier {}", future.get_xid());
+        }
+        catch (CancellationException e)
+        {
+            log.debug("Barrier {} was canceled", future.get_xid());
+        }
+        return null;
     }
 
 
@@ -279,72 +531,4 @@ public class PronghornModule
         return sw.queryStatistics(ofsr);
     }
 
-    
-
-    
-    /**
-       @returns {boolean} --- True if the barrier completes before
-       timing out.  False if it does not.  Note that a transaction may
-       have failed even if this method returns true: in particular,
-       this can happen if one of the command messages associated with
-       the transaction returns an error.  These errors get passed back
-       through cb.
-     */
-    private boolean send_barrier(String switchId,IPronghornBarrierCallback cb)
-        throws IOException
-    {
-        long id = HexString.toLong(switchId);
-        // send barrier request
-        IOFSwitch sw = floodlightProvider.getSwitch(id);
-        OFMessage barrierReq =
-            floodlightProvider.getOFMessageFactory().getMessage(OFType.BARRIER_REQUEST);
-        
-        ensureQueueExists(sw);
-        int xid = sw.getNextTransactionId();
-        barrierReq.setXid(xid);
-        sw.write(barrierReq, null);
-        
-        // block until barrier reply or timeout.
-        while (true)
-        {
-            OFMessage queue_resp = null;
-            try
-            {
-                queue_resp = queues.get(sw).poll(1, TimeUnit.SECONDS);
-            }
-            catch (InterruptedException e)
-            {
-                log.error(
-                    "InterruptedException on queue.",e.getMessage());
-                assert(false);
-                return false;
-            }
-
-            // timed out waiting for response
-            if (queue_resp == null)
-                return false;
-
-            // check if the return message is for barrier or for error
-            if (queue_resp.getType() == OFType.BARRIER_REPLY)
-                return true;
-            else if (queue_resp.getType() == OFType.ERROR)
-            {
-                // if we have a callback, then tell it that one of the
-                // changes failed
-                if (cb != null)
-                {
-                    int err_xid = queue_resp.getXid();
-                    cb.command_failure(err_xid);
-                }
-            }
-            // DEBUG
-            else
-            {
-                log.error("Unknown openflow message type.");
-                assert(false);
-                return false;
-            }
-            // END DEBUG
-        }
-    }
 }
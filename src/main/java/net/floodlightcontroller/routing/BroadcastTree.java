@@ -19,6 +19,7 @@ package net.floodlightcontroller.routing;
 import java.util.HashMap;
 
 import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.topology.ClusterGraph;
 
 import org.openflow.util.HexString;
 
@@ -26,6 +27,13 @@ public class BroadcastTree {
     protected HashMap<Long, Link> links;
     protected HashMap<Long, Integer> costs;
 
+    // Trees computed over a ClusterGraph keep their links and costs in
+    // arrays indexed like the graph; the maps above are only built from
+    // them when asked for.
+    protected ClusterGraph graph;
+    protected Link[] treeLinks;
+    protected int[] treeCosts;
+
     public BroadcastTree() {
         links = new HashMap<Long, Link>();
         costs = new HashMap<Long, Integer>();
@@ -36,32 +44,73 @@ public class BroadcastTree {
         this.costs = costs;
     }
 
+    /**
+     * @param graph the graph the tree was computed over
+     * @param treeLinks the tree link of each node, by graph index
+     * @param treeCosts the cost of each node, by graph index
+     */
+    public BroadcastTree(ClusterGraph graph, Link[] treeLinks, int[] treeCosts) {
+        this.graph = graph;
+        this.treeLinks = treeLinks;
+        this.treeCosts = treeCosts;
+    }
+
     public Link getTreeLink(long node) {
-        return links.get(node);
+        if (graph != null) {
+            int i = graph.indexOf(node);
+            if (i >= 0) return treeLinks[i];
+        }
+        HashMap<Long, Link> l = links;
+        if (l == null) return null;
+        return l.get(node);
     }
 
     public int getCost(long node) {
+        if (graph != null) {
+            int i = graph.indexOf(node);
+            return (i < 0) ? -1 : treeCosts[i];
+        }
         if (costs.get(node) == null) return -1;
         return (costs.get(node));
     }
 
-    public HashMap<Long, Link> getLinks() {
+    public synchronized HashMap<Long, Link> getLinks() {
+        if (links == null) {
+            HashMap<Long, Link> l = new HashMap<Long, Link>();
+            for (int i = 0; i < treeLinks.length; i++) {
+                l.put(graph.getNode(i), treeLinks[i]);
+            }
+            links = l;
+        }
         return links;
     }
 
-    public void addTreeLink(long myNode, Link link) {
-        links.put(myNode, link);
+    public synchronized void addTreeLink(long myNode, Link link) {
+        if (graph != null) {
+            int i = graph.indexOf(myNode);
+            if (i >= 0) treeLinks[i] = link;
+        }
+        getLinks().put(myNode, link);
     }
 
     public String toString() {
         StringBuffer sb = new StringBuffer();
+        HashMap<Long, Link> links = getLinks();
+        HashMap<Long, Integer> costs = getCosts();
         for(long n: links.keySet()) {
             sb.append("[" + HexString.toHexString(n) + ": cost=" + costs.get(n) + ", " + links.get(n) + "]");
         }
         return sb.toString();
     }
 
-    public HashMap<Long, Integer> getCosts() {
+    public synchronized HashMap<Long, Integer> getCosts() {
+        if (costs == null) {
+            HashMap<Long, Integer> c = new HashMap<Long, Integer>();
+            for (int i = 0; i < treeCosts.length; i++) {
+                c.put(graph.getNode(i), treeCosts[i]);
+            }
+            costs = c;
+        }
         return costs;
     }
 }
@@ -38,6 +38,7 @@ import net.floodlightcontroller.counter.ICounterStoreService;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.devicemanager.SwitchPort;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.routing.IRoutingService;
 import net.floodlightcontroller.routing.IRoutingDecision;
@@ -48,6 +49,7 @@ import net.floodlightcontroller.util.OFMessageDamper;
 import net.floodlightcontroller.util.TimedCache;
 
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowModTemplate;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFOXMFieldType;
 import org.openflow.protocol.OFMessage;
@@ -168,7 +170,7 @@ public abstract class ForwardingBase
                 if (cntx != null)
                      decision =
                              IRoutingDecision.rtStore.get(cntx,
-                                                          IRoutingDecision.CONTEXT_DECISION);
+                                                          IRoutingDecision.CONTEXT_DECISION_SLOT);
 
                 return this.processPacketInMessage(sw,
                                                    (OFPacketIn) msg,
@@ -236,6 +238,8 @@ public abstract class ForwardingBase
             .setCommand(flowModCommand)
             .setMatch(match)
             .setInstructions(Arrays.asList((OFInstruction) new OFInstructionApplyActions().setActions(actions)));
+        // encode the flow mod once, each hop only gets its own ports
+        OFFlowModTemplate template = new OFFlowModTemplate(fm);
 
         List<NodePortTuple> switchPortList = route.getPath();
         
@@ -251,6 +255,11 @@ public abstract class ForwardingBase
                 return srcSwitchIncluded;
             }
 
+            int outPort = switchPortList.get(indx).getPortId();
+            int inPort = switchPortList.get(indx-1).getPortId();
+            // set input and output ports on the switch
+            fm = template.getFlowMod(inPort, outPort);
+
             // set buffer id if it is the source switch
             if (1 == indx) {
                 // Set the flag to request flow-mod removal notifications only for the
@@ -264,14 +273,6 @@ public abstract class ForwardingBase
                 }
             }
 
-            int outPort = switchPortList.get(indx).getPortId();
-            int inPort = switchPortList.get(indx-1).getPortId();
-            // set input and output ports on the switch
-            fm.getMatch().setInPort(inPort);
-            // Need to perform set outport for each fm.clone()
-            // Caution: Will not work when there are multiple actions
-            ((OFActionOutput)((OFInstructionApplyActions)fm.getInstructions().get(0)).getActions().get(0)).setPort(outPort);
-
             try {
                 counterStore.updatePktOutFMCounterStoreLocal(sw, fm);
                 if (log.isTraceEnabled()) {
@@ -279,7 +280,7 @@ public abstract class ForwardingBase
                             "sw={} inPort={} outPort={}",
                             new Object[] {indx,
                                           sw,
-                                          fm.getMatch().getInPort(),
+                                          inPort,
                                           outPort });
                 }
                 messageDamper.write(sw, fm, cntx);
@@ -298,8 +299,6 @@ public abstract class ForwardingBase
             } catch (IOException e) {
                 log.error("Failure writing flow mod", e);
             }
-
-            fm = fm.clone();
         }
 
         return srcSwitchIncluded;
@@ -498,7 +497,7 @@ public abstract class ForwardingBase
 
         Ethernet eth =
             IFloodlightProviderService.bcStore.get(cntx,
-                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
         Long broadcastHash;
         broadcastHash = topology.getL2DomainId(sw.getId()) * prime1 +
@@ -519,7 +518,7 @@ public abstract class ForwardingBase
 
         // Get the hash of the Ethernet packet.
         Ethernet eth =
-                IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
         long hash =  pi.getInPort() * prime2 + eth.hashCode();
 
@@ -581,6 +580,31 @@ public abstract class ForwardingBase
 
     }
 
+    /**
+     * Hash of the addresses of a packet, passed as the cookie of
+     * IRoutingService.getRoute to spread flows over equal cost routes.
+     * Only the MAC and IPv4 addresses are hashed, as these are what the
+     * default forwarding match includes, so all packets matched by one
+     * installed flow take the same route.
+     * @param eth the packet, may be null
+     * @return the hash, never 0 for a packet; 0 if there is none
+     */
+    public static long getFlowHash(EthernetView eth) {
+        if (eth == null) return 0;
+        long h = eth.getSourceMAC() * 0x9E3779B97F4A7C15L;
+        h ^= eth.getDestinationMAC() * 0xC2B2AE3D27D4EB4FL;
+        if (eth.isIPv4()) {
+            h ^= ((long)eth.getNetworkSource() << 32 |
+                  (eth.getNetworkDestination() & 0xffffffffL)) *
+                 0x165667B19E3779F9L;
+        }
+        // final mix so that every bit of the input affects the low bits
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (h == 0) ? 1 : h;
+    }
+
     @Override
     public boolean isCallbackOrderingPrereq(OFType type, String name) {
         return (type.equals(OFType.PACKET_IN) &&
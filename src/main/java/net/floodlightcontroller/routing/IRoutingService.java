@@ -31,7 +31,7 @@ public interface IRoutingService extends IFloodlightService {
      * multiple routes.
      * @param src Source switch DPID.
      * @param dst Destination switch DPID.
-     * @param cookie cookie (usage determined by implementation; ignored by topology instance now).
+     * @param cookie cookie (usage determined by implementation; a non-zero cookie selects one of the equal cost routes).
      */
     public Route getRoute(long src, long dst, long cookie);
 
@@ -40,7 +40,7 @@ public interface IRoutingService extends IFloodlightService {
      *  not allow tunnels in the path.
      * @param src Source switch DPID.
      * @param dst Destination switch DPID.
-     * @param cookie cookie (usage determined by implementation; ignored by topology instance now).
+     * @param cookie cookie (usage determined by implementation; a non-zero cookie selects one of the equal cost routes).
      * @param tunnelEnabled boolean option.
      */
     public Route getRoute(long src, long dst, long cookie, boolean tunnelEnabled);
@@ -51,7 +51,7 @@ public interface IRoutingService extends IFloodlightService {
      * @param srcPort Source port on source switch.
      * @param dst Destination switch DPID.
      * @param dstPort dstPort on Destination switch.
-     * @param cookie cookie (usage determined by implementation; ignored by topology instance now).
+     * @param cookie cookie (usage determined by implementation; a non-zero cookie selects one of the equal cost routes).
      */
     public Route getRoute(long srcId, int srcPort,
                              long dstId, int dstPort, long cookie);
@@ -62,7 +62,7 @@ public interface IRoutingService extends IFloodlightService {
      * @param srcPort Source port on source switch.
      * @param dst Destination switch DPID.
      * @param dstPort dstPort on Destination switch.
-     * @param cookie cookie (usage determined by implementation; ignored by topology instance now).
+     * @param cookie cookie (usage determined by implementation; a non-zero cookie selects one of the equal cost routes).
      * @param tunnelEnabled boolean option.
      */
     public Route getRoute(long srcId, int srcPort,
@@ -72,6 +72,28 @@ public interface IRoutingService extends IFloodlightService {
     /** return all routes, if available */
     public ArrayList<Route> getRoutes(long longSrcDpid, long longDstDpid, boolean tunnelEnabled);
 
+    /**
+     * Provides up to maxPaths equal cost routes between src and dst,
+     * including tunnel links in the paths.  The first route is the one
+     * getRoute returns for a zero cookie; a non-zero cookie passed to
+     * getRoute is treated as a flow hash and selects one of these routes.
+     * @param src Source switch DPID.
+     * @param dst Destination switch DPID.
+     * @param maxPaths maximum number of routes to return.
+     */
+    public ArrayList<Route> getRoutes(long src, long dst, int maxPaths);
+
+    /**
+     * Provides up to maxPaths equal cost routes between src and dst, with
+     * option to allow or not allow tunnels in the paths.
+     * @param src Source switch DPID.
+     * @param dst Destination switch DPID.
+     * @param maxPaths maximum number of routes to return.
+     * @param tunnelEnabled boolean option.
+     */
+    public ArrayList<Route> getRoutes(long src, long dst, int maxPaths,
+                                      boolean tunnelEnabled);
+
     /** Check if a route exists between src and dst, including tunnel links
      *  in the path.
      */
@@ -30,21 +30,26 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.floodlightcontroller.storage.StorageException;
 
 public class MemoryStorageSource extends NoSqlStorageSource {
     
-    private Map<String, MemoryTable> tableMap = new HashMap<String,MemoryTable>();
+    private ConcurrentMap<String, MemoryTable> tableMap =
+            new ConcurrentHashMap<String,MemoryTable>();
     IPktInProcessingTimeService pktinProcessingTime;
     
-    synchronized private MemoryTable getTable(String tableName, boolean create) {
+    private MemoryTable getTable(String tableName, boolean create) {
         MemoryTable table = tableMap.get(tableName);
         if (table == null) {
             if (!create)
                 throw new StorageException("Table " + tableName + " does not exist");
             table = new MemoryTable(tableName);
-            tableMap.put(tableName, table);
+            MemoryTable existingTable = tableMap.putIfAbsent(tableName, table);
+            if (existingTable != null)
+                table = existingTable;
         }
         return table;
     }
@@ -52,21 +57,34 @@ public class MemoryStorageSource extends NoSqlStorageSource {
     @Override
     protected Collection<Map<String,Object>> getAllRows(String tableName, String[] columnNameList) {
         MemoryTable table = getTable(tableName, false);
-        return table.getAllRows();
+        table.readLock().lock();
+        try {
+            return new ArrayList<Map<String,Object>>(table.getAllRows());
+        } finally {
+            table.readLock().unlock();
+        }
     }
     
     @Override
     protected Map<String,Object> getRow(String tableName, String[] columnNameList, Object rowKey) {
         MemoryTable table = getTable(tableName, false);
-        return table.getRow(rowKey);
+        table.readLock().lock();
+        try {
+            return table.getRow(rowKey);
+        } finally {
+            table.readLock().unlock();
+        }
     }
     
     @Override
     protected List<Map<String,Object>> executeEqualityQuery(String tableName,
             String[] columnNameList, String predicateColumnName, Comparable<?> value) {
         MemoryTable table = getTable(tableName, false);
-        List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
-        synchronized (table) {
+        table.readLock().lock();
+        try {
+            if (table.hasIndex(predicateColumnName))
+                return table.getRowsWithValue(predicateColumnName, value);
+            List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
             Collection<Map<String,Object>> allRows = table.getAllRows();
             for (Map<String,Object> row : allRows) {
                 Object v = row.get(predicateColumnName);
@@ -77,8 +95,10 @@ public class MemoryStorageSource extends NoSqlStorageSource {
                     result.add(row);
                 }
             }
+            return result;
+        } finally {
+            table.readLock().unlock();
         }
-        return result;
     }
     
     @SuppressWarnings({ "unchecked", "rawtypes" })
@@ -87,30 +107,41 @@ public class MemoryStorageSource extends NoSqlStorageSource {
             String[] columnNameList, String predicateColumnName,
             Comparable<?> startValue, boolean startInclusive, Comparable<?> endValue, boolean endInclusive) {
         MemoryTable table = getTable(tableName, false);
-        List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
-        synchronized (table) {
+        table.readLock().lock();
+        try {
+            if (table.hasRangeIndex(predicateColumnName))
+                return table.getRowsInRange(predicateColumnName,
+                        startValue, startInclusive, endValue, endInclusive);
+            List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
             Collection<Map<String,Object>> allRows = table.getAllRows();
             for (Map<String,Object> row : allRows) {
                 Comparable value = (Comparable) row.get(predicateColumnName);
-                if (value != null) {
+                if (value == null)
+                    continue;
+                if (startValue != null) {
                     int compareResult = value.compareTo(startValue);
-                    if ((compareResult > 0) || (startInclusive && (compareResult >= 0))) {
-                        compareResult = value.compareTo(endValue);
-                        if ((compareResult < 0) || (startInclusive && (compareResult <= 0))) {
-                            result.add(row);
-                        }
-                    }
+                    if ((compareResult < 0) || (!startInclusive && (compareResult == 0)))
+                        continue;
                 }
+                if (endValue != null) {
+                    int compareResult = value.compareTo(endValue);
+                    if ((compareResult > 0) || (!endInclusive && (compareResult == 0)))
+                        continue;
+                }
+                result.add(row);
             }
+            return result;
+        } finally {
+            table.readLock().unlock();
         }
-        return result;
     }
     
     @Override
     protected void insertRows(String tableName, List<Map<String,Object>> insertRowList) {
         MemoryTable table = getTable(tableName, false);
         String primaryKeyName = getTablePrimaryKeyName(tableName);
-        synchronized (table) {
+        table.writeLock().lock();
+        try {
             for (Map<String,Object> row : insertRowList) {
                 Object primaryKey = row.get(primaryKeyName);
                 if (primaryKey == null) {
@@ -122,21 +153,21 @@ public class MemoryStorageSource extends NoSqlStorageSource {
                 }
                 table.insertRow(primaryKey, row);
             }
+        } finally {
+            table.writeLock().unlock();
         }
     }
     
     @Override
     protected void updateRows(String tableName, Set<Object> rowKeys, Map<String,Object> updateRowList) {
         MemoryTable table = getTable(tableName, false);
-        synchronized (table) {
+        table.writeLock().lock();
+        try {
             for (Object rowKey : rowKeys) {
-                Map<String,Object> row = table.getRow(rowKey);
-                if (row == null)
-                    row = table.newRow(rowKey);
-                for (Map.Entry<String,Object> entry: updateRowList.entrySet()) {
-                    row.put(entry.getKey(), entry.getValue());
-                }
+                table.updateRow(rowKey, updateRowList);
             }
+        } finally {
+            table.writeLock().unlock();
         }
     }
     
@@ -144,35 +175,59 @@ public class MemoryStorageSource extends NoSqlStorageSource {
     protected void updateRowsImpl(String tableName, List<Map<String,Object>> updateRowList) {
         MemoryTable table = getTable(tableName, false);
         String primaryKeyName = getTablePrimaryKeyName(tableName);
-        synchronized (table) {
+        table.writeLock().lock();
+        try {
             for (Map<String,Object> updateRow : updateRowList) {
                 Object rowKey = updateRow.get(primaryKeyName);
                 if (rowKey == null)
                     throw new StorageException("Primary key not found.");
-                Map<String,Object> row = table.getRow(rowKey);
-                if (row == null)
-                    row = table.newRow(rowKey);
-                for (Map.Entry<String,Object> entry: updateRow.entrySet()) {
-                    row.put(entry.getKey(), entry.getValue());
-                }
+                table.updateRow(rowKey, updateRow);
             }
+        } finally {
+            table.writeLock().unlock();
         }
     }
     
     @Override
     protected void deleteRowsImpl(String tableName, Set<Object> rowKeys) {
         MemoryTable table = getTable(tableName, false);
-        synchronized (table) {
+        table.writeLock().lock();
+        try {
             for (Object rowKey : rowKeys) {
                 table.deleteRow(rowKey);
             }
+        } finally {
+            table.writeLock().unlock();
         }
     }
     
+    /**
+     * Create a table. The indexed columns get a sorted index, which serves
+     * both equality and range queries.
+     */
     @Override
     public void createTable(String tableName, Set<String> indexedColumnNames) {
         super.createTable(tableName, indexedColumnNames);
         getTable(tableName, true);
+        if (indexedColumnNames == null) return;
+        for (String columnName : indexedColumnNames) {
+            setColumnIndexMode(tableName, columnName,
+                               ColumnIndexMode.RANGE_INDEXED);
+        }
+    }
+
+    @Override
+    public void setColumnIndexMode(String tableName, String columnName,
+                                   ColumnIndexMode indexMode) {
+        super.setColumnIndexMode(tableName, columnName, indexMode);
+        MemoryTable table = tableMap.get(tableName);
+        if (table == null) return;
+        table.writeLock().lock();
+        try {
+            table.setIndex(columnName, indexMode);
+        } finally {
+            table.writeLock().unlock();
+        }
     }
     
     public void setPktinProcessingTime(
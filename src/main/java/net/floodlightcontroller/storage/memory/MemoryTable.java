@@ -17,26 +17,79 @@
 
 package net.floodlightcontroller.storage.memory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import net.floodlightcontroller.storage.nosql.NoSqlStorageSource.ColumnIndexMode;
+
+/**
+ * A table of rows keyed by primary key, with optional indexes on columns.
+ * An equality index is a hash map from column value to the keys of the
+ * rows with that value; a range index is the same thing in a sorted map.
+ * Rows are never modified in place once stored: updates store a modified
+ * copy, so readers can use a row they got without holding the lock.
+ *
+ * The table does no locking of its own.  Callers hold the read lock to
+ * look up rows and the write lock to change them.
+ */
 public class MemoryTable {
 
+    /**
+     * Orders column values for range indexes: null first, then values
+     * grouped by type, then in their natural order within a type.  This
+     * keeps a column holding values of different types from throwing
+     * ClassCastException.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected static final Comparator<Object> VALUE_ORDER =
+            new Comparator<Object>() {
+        @Override
+        public int compare(Object v1, Object v2) {
+            if (v1 == null) return (v2 == null) ? 0 : -1;
+            if (v2 == null) return 1;
+            if (v1.getClass() != v2.getClass())
+                return v1.getClass().getName().compareTo(
+                        v2.getClass().getName());
+            return ((Comparable) v1).compareTo(v2);
+        }
+    };
+
     private String tableName;
     private Map<Object,Map<String,Object>> rowMap;
+    private Map<String,Map<Object,Set<Object>>> indexMap;
     private int nextId;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
     
     MemoryTable(String tableName) {
         this.tableName = tableName;
         rowMap = new TreeMap<Object,Map<String,Object>>();
+        indexMap = new HashMap<String,Map<Object,Set<Object>>>();
         nextId = 0;
     }
     
     String getTableName() {
         return tableName;
     }
+
+    Lock readLock() {
+        return lock.readLock();
+    }
+
+    Lock writeLock() {
+        return lock.writeLock();
+    }
     
     Collection<Map<String,Object>> getAllRows() {
         return rowMap.values();
@@ -46,6 +99,106 @@ public class MemoryTable {
         Map<String,Object> row = rowMap.get(key);
         return row;
     }
+
+    /**
+     * Create, replace or drop the index of a column
+     * @param columnName the column
+     * @param indexMode the kind of index to build; NOT_INDEXED drops it
+     */
+    void setIndex(String columnName, ColumnIndexMode indexMode) {
+        Map<Object,Set<Object>> index;
+        switch (indexMode) {
+            case EQUALITY_INDEXED:
+                index = new HashMap<Object,Set<Object>>();
+                break;
+            case RANGE_INDEXED:
+                index = new TreeMap<Object,Set<Object>>(VALUE_ORDER);
+                break;
+            default:
+                indexMap.remove(columnName);
+                return;
+        }
+        indexMap.put(columnName, index);
+        for (Map.Entry<Object,Map<String,Object>> entry : rowMap.entrySet()) {
+            addToIndex(index, entry.getValue().get(columnName),
+                       entry.getKey());
+        }
+    }
+
+    boolean hasIndex(String columnName) {
+        return indexMap.containsKey(columnName);
+    }
+
+    boolean hasRangeIndex(String columnName) {
+        return indexMap.get(columnName) instanceof NavigableMap;
+    }
+
+    /**
+     * Get the rows with a given value in an indexed column
+     * @param columnName the column
+     * @param value the value; null matches rows without a value
+     * @return the rows in primary key order
+     */
+    List<Map<String,Object>> getRowsWithValue(String columnName,
+                                              Object value) {
+        Map<Object,Set<Object>> index = indexMap.get(columnName);
+        List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+        Set<Object> keys = index.get(value);
+        if (keys != null) {
+            for (Object key : keys) {
+                rows.add(rowMap.get(key));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Get the rows whose value in a range indexed column lies in a range.
+     * Only values of the type of the bounds are in the range; rows without
+     * a value never are.
+     * @param columnName the column
+     * @param startValue the lower bound, or null if there is none
+     * @param startInclusive whether the lower bound is in the range
+     * @param endValue the upper bound, or null if there is none
+     * @param endInclusive whether the upper bound is in the range
+     * @return the rows in primary key order
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    List<Map<String,Object>> getRowsInRange(String columnName,
+            Object startValue, boolean startInclusive,
+            Object endValue, boolean endInclusive) {
+        NavigableMap<Object,Set<Object>> range =
+                (NavigableMap<Object,Set<Object>>) indexMap.get(columnName);
+        List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+        if (startValue != null && endValue != null) {
+            int c = VALUE_ORDER.compare(startValue, endValue);
+            if (c > 0 || (c == 0 && !(startInclusive && endInclusive)))
+                return rows;
+            range = range.subMap(startValue, startInclusive,
+                                 endValue, endInclusive);
+        } else if (startValue != null) {
+            range = range.tailMap(startValue, startInclusive);
+        } else if (endValue != null) {
+            range = range.headMap(endValue, endInclusive);
+        }
+        Object bound = (startValue != null) ? startValue : endValue;
+        List keys = new ArrayList<Object>();
+        int postings = 0;
+        for (Map.Entry<Object,Set<Object>> entry : range.entrySet()) {
+            Object value = entry.getKey();
+            if (value == null) continue;
+            if (bound != null && value.getClass() != bound.getClass())
+                continue;
+            keys.addAll(entry.getValue());
+            postings++;
+        }
+        if (postings > 1)
+            Collections.sort(keys);
+        for (Object key : keys) {
+            rows.add(rowMap.get(key));
+        }
+        return rows;
+    }
     
     // rkv: Do we still need this? Probably needs to be tweaked a bit
     // to work with the support for specifying which column to use as the
@@ -53,20 +206,74 @@ public class MemoryTable {
     Map<String,Object> newRow(Object key) {
         Map<String,Object> row = new HashMap<String, Object>();
         row.put("id", key);
-        rowMap.put(key, row);
+        insertRow(key, row);
         return row;
     }
     
     void insertRow(Object key, Map<String,Object> rowValues) {
         assert(key != null);
-        rowMap.put(key, rowValues);
+        Map<String,Object> oldRow = rowMap.put(key, rowValues);
+        for (Map.Entry<String,Map<Object,Set<Object>>> entry :
+                indexMap.entrySet()) {
+            String columnName = entry.getKey();
+            Object value = rowValues.get(columnName);
+            if (oldRow != null) {
+                Object oldValue = oldRow.get(columnName);
+                if (value == null ? oldValue == null : value.equals(oldValue))
+                    continue;
+                removeFromIndex(entry.getValue(), oldValue, key);
+            }
+            addToIndex(entry.getValue(), value, key);
+        }
+    }
+
+    /**
+     * Change some columns of a row, creating the row if it does not exist.
+     * The stored row is replaced by an updated copy.
+     * @param key the primary key of the row
+     * @param values the columns to change
+     */
+    void updateRow(Object key, Map<String,Object> values) {
+        Map<String,Object> row = rowMap.get(key);
+        if (row == null) {
+            row = new HashMap<String, Object>();
+            row.put("id", key);
+        } else {
+            row = new HashMap<String, Object>(row);
+        }
+        row.putAll(values);
+        insertRow(key, row);
     }
     
     void deleteRow(Object rowKey) {
-        rowMap.remove(rowKey);
+        Map<String,Object> row = rowMap.remove(rowKey);
+        if (row == null) return;
+        for (Map.Entry<String,Map<Object,Set<Object>>> entry :
+                indexMap.entrySet()) {
+            removeFromIndex(entry.getValue(), row.get(entry.getKey()), rowKey);
+        }
     }
     
     Integer getNextId() {
         return new Integer(++nextId);
     }
+
+    private void addToIndex(Map<Object,Set<Object>> index, Object value,
+                            Object key) {
+        Set<Object> keys = index.get(value);
+        if (keys == null) {
+            keys = new TreeSet<Object>();
+            index.put(value, keys);
+        }
+        keys.add(key);
+    }
+
+    private void removeFromIndex(Map<Object,Set<Object>> index, Object value,
+                                 Object key) {
+        Set<Object> keys = index.get(value);
+        if (keys == null) return;
+        keys.remove(key);
+        if (keys.isEmpty())
+            index.remove(value);
+    }
 }
@@ -0,0 +1,135 @@
+package net.floodlightcontroller.topology;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.routing.Link;
+
+/**
+ * A compact, read-only copy of the links of a cluster used for shortest
+ * path computations.  The switches of the cluster are numbered 0..n-1 in
+ * ascending DPID order, and the links entering and leaving each switch
+ * are kept in compressed sparse row arrays together with their weights.
+ * The graph is shared by all trees computed over it.
+ */
+public class ClusterGraph {
+    // index to DPID
+    protected final long[] nodes;
+    // open addressing table from DPID to index
+    private final long[] slotNodes;
+    private final int[] slotIndex;
+    private final int slotMask;
+
+    // Links entering node i are inLinks[inStart[i]] .. inLinks[inStart[i+1]-1];
+    // inNeighbor holds the index of their source.
+    protected final int[] inStart;
+    protected final int[] inNeighbor;
+    protected final int[] inWeight;
+    protected final Link[] inLinks;
+    // Links leaving node i, inNeighbor holds the index of their destination.
+    protected final int[] outStart;
+    protected final int[] outNeighbor;
+    protected final int[] outWeight;
+    protected final Link[] outLinks;
+
+    /**
+     * @param c the cluster
+     * @param linkCost link weights, links that are not in the map have
+     * weight 1.  May be null.
+     */
+    public ClusterGraph(Cluster c, Map<Link, Integer> linkCost) {
+        Map<Long, Set<Link>> links = c.getLinks();
+        int n = links.size();
+        nodes = new long[n];
+        int i = 0;
+        for (Long node: links.keySet()) {
+            nodes[i++] = node;
+        }
+        Arrays.sort(nodes);
+
+        int slots = Integer.highestOneBit(Math.max(n, 1) * 2) * 2;
+        slotNodes = new long[slots];
+        slotIndex = new int[slots];
+        slotMask = slots - 1;
+        Arrays.fill(slotIndex, -1);
+        for (i = 0; i < n; i++) {
+            int s = slot(nodes[i]);
+            while (slotIndex[s] >= 0) s = (s + 1) & slotMask;
+            slotNodes[s] = nodes[i];
+            slotIndex[s] = i;
+        }
+
+        // Count the links in each direction, skipping links that do not
+        // lead to another switch.
+        inStart = new int[n + 1];
+        outStart = new int[n + 1];
+        for (i = 0; i < n; i++) {
+            for (Link l: links.get(nodes[i])) {
+                if (l.getSrc() != nodes[i]) inStart[i + 1]++;
+                if (l.getDst() != nodes[i]) outStart[i + 1]++;
+            }
+        }
+        for (i = 0; i < n; i++) {
+            inStart[i + 1] += inStart[i];
+            outStart[i + 1] += outStart[i];
+        }
+        inNeighbor = new int[inStart[n]];
+        inWeight = new int[inStart[n]];
+        inLinks = new Link[inStart[n]];
+        outNeighbor = new int[outStart[n]];
+        outWeight = new int[outStart[n]];
+        outLinks = new Link[outStart[n]];
+
+        // Fill the rows in the iteration order of the cluster's link sets.
+        for (i = 0; i < n; i++) {
+            int in = inStart[i];
+            int out = outStart[i];
+            for (Link l: links.get(nodes[i])) {
+                int w = 1;
+                if (linkCost != null) {
+                    Integer cost = linkCost.get(l);
+                    if (cost != null) w = cost;
+                }
+                if (l.getSrc() != nodes[i]) {
+                    inNeighbor[in] = indexOf(l.getSrc());
+                    inWeight[in] = w;
+                    inLinks[in++] = l;
+                }
+                if (l.getDst() != nodes[i]) {
+                    outNeighbor[out] = indexOf(l.getDst());
+                    outWeight[out] = w;
+                    outLinks[out++] = l;
+                }
+            }
+        }
+    }
+
+    private int slot(long node) {
+        long h = node * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & slotMask;
+    }
+
+    /**
+     * @return the number of switches in the graph
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    public long getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @return the index of the switch, or -1 if it is not in the graph
+     */
+    public int indexOf(long node) {
+        int s = slot(node);
+        while (slotIndex[s] >= 0) {
+            if (slotNodes[s] == node) return slotIndex[s];
+            s = (s + 1) & slotMask;
+        }
+        return -1;
+    }
+}
@@ -17,13 +17,18 @@
 package net.floodlightcontroller.topology;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 import org.slf4j.Logger;
@@ -34,6 +39,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
 import net.floodlightcontroller.util.ClusterDFS;
+import net.floodlightcontroller.util.IndexedMinHeap;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.routing.BroadcastTree;
@@ -56,6 +62,8 @@ public class TopologyInstance {
     public static final int MAX_LINK_WEIGHT = 10000;
     public static final int MAX_PATH_WEIGHT = Integer.MAX_VALUE - MAX_LINK_WEIGHT - 1;
     public static final int PATH_CACHE_SIZE = 1000;
+    // Number of equal cost routes computed and cached per switch pair
+    public static final int MAX_MULTIPATHS = 16;
 
     protected static Logger log = LoggerFactory.getLogger(TopologyInstance.class);
 
@@ -80,6 +88,14 @@ public class TopologyInstance {
     protected Map<Long, BroadcastTree> destinationRootedTrees;
     protected Map<Long, Set<NodePortTuple>> clusterBroadcastNodePorts;
     protected Map<Long, BroadcastTree> clusterBroadcastTrees;
+    // Link weights used for the destination rooted trees.  Links that are
+    // not in the map have weight 1.
+    protected Map<Link, Integer> linkCost;
+    // Executor for the parallel parts of compute(), null while computing
+    // sequentially or after compute() returned.
+    protected ExecutorService executor;
+    // Number of destination rooted trees computed by one executor task
+    protected static final int TREES_PER_TASK = 8;
 
     protected class PathCacheLoader extends CacheLoader<RouteId, Route> {
         TopologyInstance ti;
@@ -97,6 +113,10 @@ public class TopologyInstance {
     // in the cache.
     private final PathCacheLoader pathCacheLoader = new PathCacheLoader(this);
     protected LoadingCache<RouteId, Route> pathcache;
+    // Up to MAX_MULTIPATHS equal cost routes per switch pair
+    protected LoadingCache<RouteId, List<Route>> multipathcache;
+    // Graphs of the clusters, built by compute() or on first use
+    protected ConcurrentHashMap<Long, ClusterGraph> clusterGraphs;
 
     public TopologyInstance() {
         this.switches = new HashSet<Long>();
@@ -161,9 +181,40 @@ public class TopologyInstance {
                                     return pathCacheLoader.load(rid);
                                 }
                             });
+        multipathcache = CacheBuilder.newBuilder().concurrencyLevel(4)
+                    .maximumSize(PATH_CACHE_SIZE)
+                    .build(
+                            new CacheLoader<RouteId, List<Route>>() {
+                                public List<Route> load(RouteId rid) {
+                                    return Collections.unmodifiableList(
+                                            buildroutes(rid, MAX_MULTIPATHS));
+                                }
+                            });
+        clusterGraphs = new ConcurrentHashMap<Long, ClusterGraph>();
     }
 
     public void compute() {
+        compute(null, null);
+    }
+
+    public void compute(TopologyInstance previous) {
+        compute(previous, null);
+    }
+
+    /**
+     * Compute the topology, reusing the destination rooted trees and the
+     * cached routes of a previous instance wherever the links added and
+     * removed since then cannot have changed them.
+     * If an executor is given, the destination rooted trees and the
+     * broadcast ports of the clusters are computed on its threads.  The
+     * result is the same as that of a sequential computation.
+     * @param previous the instance this one replaces, or null to compute
+     * every tree from scratch
+     * @param executor the executor to compute on, or null to compute on
+     * the calling thread
+     */
+    public void compute(TopologyInstance previous, ExecutorService executor) {
+        this.executor = executor;
 
         // Step 1: Compute clusters ignoring broadcast domain links
         // Create nodes for clusters in the higher level topology
@@ -177,7 +228,7 @@ public class TopologyInstance {
         // Step 2. Compute shortest path trees in each cluster for
         // unicast routing.  The trees are rooted at the destination.
         // Cost for tunnel links and direct links are the same.
-        calculateShortestPathTreeInClusters();
+        calculateShortestPathTreeInClusters(previous);
 
         // Step 3. Compute broadcast tree in each cluster.
         // Cost for tunnel links are high to discourage use of
@@ -188,6 +239,8 @@ public class TopologyInstance {
 
         // Step 4. print topology.
         printTopology();
+
+        this.executor = null;
     }
 
     public void printTopology() {
@@ -424,124 +477,73 @@ public class TopologyInstance {
         return broadcastDomainPorts.contains(npt);
     }
 
-    protected class NodeDist implements Comparable<NodeDist> {
-        private final Long node;
-        public Long getNode() {
-            return node;
-        }
-
-        private final int dist;
-        public int getDist() {
-            return dist;
-        }
-
-        public NodeDist(Long node, int dist) {
-            this.node = node;
-            this.dist = dist;
-        }
-
-        @Override
-        public int compareTo(NodeDist o) {
-            if (o.dist == this.dist) {
-                return (int)(this.node - o.node);
-            }
-            return this.dist - o.dist;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            NodeDist other = (NodeDist) obj;
-            if (!getOuterType().equals(other.getOuterType()))
-                return false;
-            if (node == null) {
-                if (other.node != null)
-                    return false;
-            } else if (!node.equals(other.node))
-                return false;
-            return true;
-        }
+    protected BroadcastTree dijkstra(Cluster c, Long root,
+                                     Map<Link, Integer> linkCost,
+                                     boolean isDstRooted) {
+        return dijkstra(new ClusterGraph(c, linkCost), root, isDstRooted);
+    }
 
-        @Override
-        public int hashCode() {
-            assert false : "hashCode not designed";
-            return 42;
+    /**
+     * Compute the shortest path tree of a root over the graph of its
+     * cluster.  Nodes that are settled with equal cost are visited in
+     * ascending DPID order, and a node's tree link is the first link in
+     * its cluster link set that reaches it with the lowest cost.
+     * @param g the graph of the cluster
+     * @param root the root of the tree
+     * @param isDstRooted if true, the tree links of each node lead
+     * toward the root, otherwise they lead away from it
+     */
+    protected BroadcastTree dijkstra(ClusterGraph g, long root,
+                                     boolean isDstRooted) {
+        int n = g.size();
+        Link[] nexthoplinks = new Link[n];
+        int[] cost = new int[n];
+        boolean[] seen = new boolean[n];
+        Arrays.fill(cost, MAX_PATH_WEIGHT);
+
+        int[] start, neighbors, weights;
+        Link[] links;
+        if (isDstRooted) {
+            start = g.inStart;
+            neighbors = g.inNeighbor;
+            weights = g.inWeight;
+            links = g.inLinks;
+        } else {
+            start = g.outStart;
+            neighbors = g.outNeighbor;
+            weights = g.outWeight;
+            links = g.outLinks;
         }
 
-        private TopologyInstance getOuterType() {
-            return TopologyInstance.this;
-        }
-    }
+        int r = g.indexOf(root);
+        if (r < 0) return new BroadcastTree(g, nexthoplinks, cost);
 
-    protected BroadcastTree dijkstra(Cluster c, Long root,
-                                     Map<Link, Integer> linkCost,
-                                     boolean isDstRooted) {
-        HashMap<Long, Link> nexthoplinks = new HashMap<Long, Link>();
-        //HashMap<Long, Long> nexthopnodes = new HashMap<Long, Long>();
-        HashMap<Long, Integer> cost = new HashMap<Long, Integer>();
-        int w;
-
-        for (Long node: c.links.keySet()) {
-            nexthoplinks.put(node, null);
-            //nexthopnodes.put(node, null);
-            cost.put(node, MAX_PATH_WEIGHT);
-        }
-
-        HashMap<Long, Boolean> seen = new HashMap<Long, Boolean>();
-        PriorityQueue<NodeDist> nodeq = new PriorityQueue<NodeDist>();
-        nodeq.add(new NodeDist(root, 0));
-        cost.put(root, 0);
-        while (nodeq.peek() != null) {
-            NodeDist n = nodeq.poll();
-            Long cnode = n.getNode();
-            int cdist = n.getDist();
+        IndexedMinHeap nodeq = new IndexedMinHeap(n);
+        nodeq.offer(r, 0);
+        cost[r] = 0;
+        while (!nodeq.isEmpty()) {
+            int cdist = nodeq.peekKey();
             if (cdist >= MAX_PATH_WEIGHT) break;
-            if (seen.containsKey(cnode)) continue;
-            seen.put(cnode, true);
-
-            for (Link link: c.links.get(cnode)) {
-                Long neighbor;
-
-                if (isDstRooted == true) neighbor = link.getSrc();
-                else neighbor = link.getDst();
-
-                // links directed toward cnode will result in this condition
-                if (neighbor.equals(cnode)) continue;
-
-                if (seen.containsKey(neighbor)) continue;
-
-                if (linkCost == null || linkCost.get(link)==null) w = 1;
-                else w = linkCost.get(link);
-
-                int ndist = cdist + w; // the weight of the link, always 1 in current version of floodlight.
-                if (ndist < cost.get(neighbor)) {
-                    cost.put(neighbor, ndist);
-                    nexthoplinks.put(neighbor, link);
-                    //nexthopnodes.put(neighbor, cnode);
-                    NodeDist ndTemp = new NodeDist(neighbor, ndist);
-                    // Remove an object that's already in there.
-                    // Note that the comparison is based on only the node id,
-                    // and not node id and distance.
-                    nodeq.remove(ndTemp);
-                    // add the current object to the queue.
-                    nodeq.add(ndTemp);
+            int cnode = nodeq.poll();
+            seen[cnode] = true;
+
+            for (int e = start[cnode]; e < start[cnode + 1]; e++) {
+                int neighbor = neighbors[e];
+                if (seen[neighbor]) continue;
+
+                int ndist = cdist + weights[e];
+                if (ndist < cost[neighbor]) {
+                    cost[neighbor] = ndist;
+                    nexthoplinks[neighbor] = links[e];
+                    nodeq.offer(neighbor, ndist);
                 }
             }
         }
 
-        BroadcastTree ret = new BroadcastTree(nexthoplinks, cost);
-        return ret;
+        return new BroadcastTree(g, nexthoplinks, cost);
     }
 
-    protected void calculateShortestPathTreeInClusters() {
-        pathcache.invalidateAll();
-        destinationRootedTrees.clear();
-
+    protected Map<Link, Integer> getLinkCost() {
         Map<Link, Integer> linkCost = new HashMap<Link, Integer>();
         int tunnel_weight = switchPorts.size() + 1;
 
@@ -552,13 +554,203 @@ public class TopologyInstance {
                 linkCost.put(link, tunnel_weight);
             }
         }
+        return linkCost;
+    }
+
+    protected void calculateShortestPathTreeInClusters() {
+        calculateShortestPathTreeInClusters(null);
+    }
+
+    /**
+     * Compute the destination rooted trees of all nodes.  A tree of the
+     * previous instance is reused if its root is in a cluster with the
+     * same nodes as before, none of the removed links of that cluster is
+     * a tree link, and none of the added links gives a node a path to
+     * the root that is at least as short as its current one.  The routes
+     * cached by the previous instance are kept for every destination
+     * whose tree was reused.
+     * @param previous the instance this one replaces, may be null
+     */
+    protected void calculateShortestPathTreeInClusters(TopologyInstance previous) {
+        pathcache.invalidateAll();
+        multipathcache.invalidateAll();
+        clusterGraphs.clear();
+        destinationRootedTrees.clear();
+        linkCost = getLinkCost();
+
+        if (previous != null &&
+            (previous.destinationRootedTrees == null ||
+             previous.pathcache == null ||
+             !linkCost.equals(previous.linkCost))) {
+            previous = null;
+        }
 
+        int reused = 0;
+        // roots of the trees to compute, and the graphs of their clusters
+        List<Long> roots = new ArrayList<Long>();
+        List<ClusterGraph> graphs = new ArrayList<ClusterGraph>();
         for(Cluster c: clusters) {
+            Set<Link> added = null;
+            Set<Link> removed = null;
+            if (previous != null) {
+                Cluster pc = previous.switchClusterMap.get(c.getId());
+                if (pc != null && pc.getNodes().equals(c.getNodes())) {
+                    Set<Link> links = getClusterLinks(c);
+                    Set<Link> previousLinks = getClusterLinks(pc);
+                    added = new HashSet<Link>(links);
+                    added.removeAll(previousLinks);
+                    removed = previousLinks;
+                    removed.removeAll(links);
+                }
+            }
+            ClusterGraph graph = null;
             for (Long node : c.links.keySet()) {
-                BroadcastTree tree = dijkstra(c, node, linkCost, true);
-                destinationRootedTrees.put(node, tree);
+                BroadcastTree tree = null;
+                if (added != null) {
+                    tree = previous.destinationRootedTrees.get(node);
+                    if (tree != null && isTreeAffected(tree, added, removed))
+                        tree = null;
+                }
+                if (tree == null) {
+                    // the graph is shared by all trees of the cluster
+                    if (graph == null) graph = getClusterGraph(c);
+                    graphs.add(graph);
+                    roots.add(node);
+                } else {
+                    reused++;
+                    destinationRootedTrees.put(node, tree);
+                }
+            }
+        }
+
+        BroadcastTree[] trees = dijkstra(graphs, roots);
+        for (int i = 0; i < trees.length; i++) {
+            destinationRootedTrees.put(roots.get(i), trees[i]);
+        }
+
+        if (previous != null) {
+            for (Map.Entry<RouteId, Route> e:
+                    previous.pathcache.asMap().entrySet()) {
+                Long dst = e.getKey().getDst();
+                BroadcastTree tree = destinationRootedTrees.get(dst);
+                if (tree != null &&
+                    tree == previous.destinationRootedTrees.get(dst)) {
+                    pathcache.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Reused {} of {} destination rooted trees", reused,
+                      destinationRootedTrees.size());
+        }
+    }
+
+    /**
+     * Compute the destination rooted trees of the given roots, on the
+     * executor if there is one.
+     * @param graphs the graph of each root's cluster
+     * @param roots the roots
+     * @return the tree of each root
+     */
+    protected BroadcastTree[] dijkstra(final List<ClusterGraph> graphs,
+                                       final List<Long> roots) {
+        final BroadcastTree[] trees = new BroadcastTree[roots.size()];
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < trees.length; i += TREES_PER_TASK) {
+            final int from = i;
+            final int to = Math.min(trees.length, i + TREES_PER_TASK);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = from; j < to; j++) {
+                        trees[j] = dijkstra(graphs.get(j), roots.get(j), true);
+                    }
+                }
+            });
+        }
+        runTasks(tasks);
+        return trees;
+    }
+
+    /**
+     * Run the tasks on the executor and wait for all of them, or run them
+     * on the calling thread if there is no executor or only one task.
+     * An interrupt while waiting does not abandon the tasks; the thread's
+     * interrupt status is restored once they are all done.
+     */
+    protected void runTasks(List<Runnable> tasks) {
+        if (executor == null || tasks.size() < 2) {
+            for (Runnable task: tasks) task.run();
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+        for (Runnable task: tasks) {
+            futures.add(executor.submit(task));
+        }
+        boolean interrupted = false;
+        try {
+            for (Future<?> f: futures) {
+                while (true) {
+                    try {
+                        f.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
             }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    protected ClusterGraph getClusterGraph(Cluster c) {
+        ClusterGraph graph = clusterGraphs.get(c.getId());
+        if (graph == null) {
+            graph = new ClusterGraph(c, linkCost);
+            ClusterGraph existing = clusterGraphs.putIfAbsent(c.getId(), graph);
+            if (existing != null) graph = existing;
+        }
+        return graph;
+    }
+
+    protected Set<Link> getClusterLinks(Cluster c) {
+        Set<Link> links = new HashSet<Link>();
+        for (Set<Link> nodeLinks: c.links.values()) {
+            links.addAll(nodeLinks);
+        }
+        return links;
+    }
+
+    /**
+     * Returns true if adding and removing the given links may change
+     * the destination rooted tree.  Removing a link that is not in the
+     * tree leaves all costs unchanged.  An added link can only change
+     * the tree if it offers its source a path to the root that is no
+     * longer than the current one.
+     */
+    protected boolean isTreeAffected(BroadcastTree tree, Set<Link> added,
+                                     Set<Link> removed) {
+        for (Link link: removed) {
+            if (link.equals(tree.getTreeLink(link.getSrc()))) return true;
         }
+        for (Link link: added) {
+            if (link.getSrc() == link.getDst()) continue;
+            int srcCost = tree.getCost(link.getSrc());
+            int dstCost = tree.getCost(link.getDst());
+            if (srcCost < 0 || dstCost < 0) return true;
+            if (dstCost >= MAX_PATH_WEIGHT) continue;
+            Integer w = linkCost.get(link);
+            if (dstCost + (w == null ? 1 : w) <= srcCost) return true;
+        }
+        return false;
     }
 
     protected void calculateBroadcastTreeInClusters() {
@@ -575,26 +767,52 @@ public class TopologyInstance {
 
         calculateBroadcastTreeInClusters();
 
-        for(Cluster c: clusters) {
-            // c.id is the smallest node that's in the cluster
-            BroadcastTree tree = clusterBroadcastTrees.get(c.id);
-            //log.info("Broadcast Tree {}", tree);
-
-            Set<NodePortTuple> nptSet = new HashSet<NodePortTuple>();
-            Map<Long, Link> links = tree.getLinks();
-            if (links == null) continue;
-            for(long nodeId: links.keySet()) {
-                Link l = links.get(nodeId);
-                if (l == null) continue;
-                NodePortTuple npt1 = new NodePortTuple(l.getSrc(), l.getSrcPort());
-                NodePortTuple npt2 = new NodePortTuple(l.getDst(), l.getDstPort());
-                nptSet.add(npt1);
-                nptSet.add(npt2);
-            }
-            clusterBroadcastNodePorts.put(c.id, nptSet);
+        final List<Cluster> clusterList = new ArrayList<Cluster>(clusters);
+        final List<Set<NodePortTuple>> nptSets =
+                new ArrayList<Set<NodePortTuple>>(clusterList.size());
+        List<Runnable> tasks = new ArrayList<Runnable>(clusterList.size());
+        for (int i = 0; i < clusterList.size(); i++) {
+            nptSets.add(null);
+            final int index = i;
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    nptSets.set(index,
+                                getBroadcastNodePorts(clusterList.get(index)));
+                }
+            });
+        }
+        runTasks(tasks);
+
+        for (int i = 0; i < clusterList.size(); i++) {
+            if (nptSets.get(i) == null) continue;
+            clusterBroadcastNodePorts.put(clusterList.get(i).id, nptSets.get(i));
         }
     }
 
+    /**
+     * @return the switch ports of the links in the broadcast tree of the
+     * cluster, or null if the tree has no links
+     */
+    protected Set<NodePortTuple> getBroadcastNodePorts(Cluster c) {
+        // c.id is the smallest node that's in the cluster
+        BroadcastTree tree = clusterBroadcastTrees.get(c.id);
+        //log.info("Broadcast Tree {}", tree);
+
+        Set<NodePortTuple> nptSet = new HashSet<NodePortTuple>();
+        Map<Long, Link> links = tree.getLinks();
+        if (links == null) return null;
+        for(long nodeId: links.keySet()) {
+            Link l = links.get(nodeId);
+            if (l == null) continue;
+            NodePortTuple npt1 = new NodePortTuple(l.getSrc(), l.getSrcPort());
+            NodePortTuple npt2 = new NodePortTuple(l.getDst(), l.getDstPort());
+            nptSet.add(npt1);
+            nptSet.add(npt2);
+        }
+        return nptSet;
+    }
+
     protected Route buildroute(RouteId id) {
         NodePortTuple npt;
         long srcId = id.getSrc();
@@ -606,8 +824,7 @@ public class TopologyInstance {
         if (destinationRootedTrees == null) return null;
         if (destinationRootedTrees.get(dstId) == null) return null;
 
-        Map<Long, Link> nexthoplinks =
-                destinationRootedTrees.get(dstId).getLinks();
+        BroadcastTree tree = destinationRootedTrees.get(dstId);
 
         if (!switches.contains(srcId) || !switches.contains(dstId)) {
             // This is a switch that is not connected to any other switch
@@ -618,15 +835,15 @@ public class TopologyInstance {
             // The only possible non-null path for this case is
             // if srcId equals dstId --- and that too is an 'empty' path []
 
-        } else if ((nexthoplinks!=null) && (nexthoplinks.get(srcId)!=null)) {
+        } else if (tree.getTreeLink(srcId) != null) {
             while (srcId != dstId) {
-                Link l = nexthoplinks.get(srcId);
+                Link l = tree.getTreeLink(srcId);
 
                 npt = new NodePortTuple(l.getSrc(), l.getSrcPort());
                 switchPorts.addLast(npt);
                 npt = new NodePortTuple(l.getDst(), l.getDstPort());
                 switchPorts.addLast(npt);
-                srcId = nexthoplinks.get(srcId).getDst();
+                srcId = l.getDst();
             }
         }
         // else, no path exists, and path equals null
@@ -640,6 +857,81 @@ public class TopologyInstance {
         return result;
     }
 
+    /**
+     * Build up to maxPaths equal cost routes from the source to the
+     * destination of the route id.  A link is on an equal cost route if
+     * its weight plus the cost of its destination equals the cost of its
+     * source in the destination rooted tree.  The routes are found depth
+     * first, trying the tree link of each switch before its other links,
+     * so the first route is the one buildroute() returns.
+     * @return the routes, empty if there is none
+     */
+    protected List<Route> buildroutes(RouteId id, int maxPaths) {
+        List<Route> routes = new ArrayList<Route>();
+        long srcId = id.getSrc();
+        long dstId = id.getDst();
+
+        if (destinationRootedTrees == null) return routes;
+        BroadcastTree tree = destinationRootedTrees.get(dstId);
+        Cluster c = switchClusterMap.get(dstId);
+        if (tree == null || c == null || maxPaths <= 0) return routes;
+        if (srcId == dstId || tree.getTreeLink(srcId) == null) return routes;
+
+        ClusterGraph g = getClusterGraph(c);
+        int src = g.indexOf(srcId);
+        int dst = g.indexOf(dstId);
+        if (src < 0 || dst < 0) return routes;
+        int[] cost = new int[g.size()];
+        for (int i = 0; i < cost.length; i++) {
+            cost[i] = tree.getCost(g.getNode(i));
+        }
+        addEqualCostRoutes(id, g, tree, cost, src, dst,
+                           new ArrayList<Link>(), routes, maxPaths);
+        if (log.isTraceEnabled()) {
+            log.trace("buildroutes: {} -> {}", id, routes);
+        }
+        return routes;
+    }
+
+    private void addEqualCostRoutes(RouteId id, ClusterGraph g,
+                                    BroadcastTree tree, int[] cost,
+                                    int node, int dst, List<Link> path,
+                                    List<Route> routes, int maxPaths) {
+        if (routes.size() >= maxPaths) return;
+        if (node == dst) {
+            List<NodePortTuple> switchPorts =
+                    new ArrayList<NodePortTuple>(path.size() * 2);
+            for (Link l: path) {
+                switchPorts.add(new NodePortTuple(l.getSrc(), l.getSrcPort()));
+                switchPorts.add(new NodePortTuple(l.getDst(), l.getDstPort()));
+            }
+            Route r = new Route(new RouteId(id.getSrc(), id.getDst()),
+                                switchPorts);
+            r.setRouteCount(routes.size());
+            routes.add(r);
+            return;
+        }
+
+        Link treeLink = tree.getTreeLink(g.getNode(node));
+        if (treeLink != null) {
+            path.add(treeLink);
+            addEqualCostRoutes(id, g, tree, cost, g.indexOf(treeLink.getDst()),
+                               dst, path, routes, maxPaths);
+            path.remove(path.size() - 1);
+        }
+        for (int e = g.outStart[node]; e < g.outStart[node + 1]; e++) {
+            int next = g.outNeighbor[e];
+            if (cost[next] >= MAX_PATH_WEIGHT ||
+                cost[next] + g.outWeight[e] != cost[node]) continue;
+            Link l = g.outLinks[e];
+            if (l.equals(treeLink)) continue;
+            path.add(l);
+            addEqualCostRoutes(id, g, tree, cost, next, dst, path, routes,
+                               maxPaths);
+            path.remove(path.size() - 1);
+        }
+    }
+
     protected int getCost(long srcId, long dstId) {
         BroadcastTree bt = destinationRootedTrees.get(dstId);
         if (bt == null) return -1;
@@ -658,7 +950,7 @@ public class TopologyInstance {
     protected boolean routeExists(long srcId, long dstId) {
         BroadcastTree bt = destinationRootedTrees.get(dstId);
         if (bt == null) return false;
-        Link link = bt.getLinks().get(srcId);
+        Link link = bt.getTreeLink(srcId);
         if (link == null) return false;
         return true;
     }
@@ -674,7 +966,7 @@ public class TopologyInstance {
 
         List<NodePortTuple> nptList;
         NodePortTuple npt;
-        Route r = getRoute(srcId, dstId, 0);
+        Route r = getRoute(srcId, dstId, cookie);
         if (r == null && srcId != dstId) return null;
 
         if (r != null) {
@@ -695,6 +987,8 @@ public class TopologyInstance {
     // NOTE: Return a null route if srcId equals dstId.  The null route
     // need not be stored in the cache.  Moreover, the LoadingCache will
     // throw an exception if null route is returned.
+    // A non-zero cookie is taken as a flow hash and selects one of the
+    // equal cost routes; flows with the same cookie get the same route.
     protected Route getRoute(long srcId, long dstId, long cookie) {
         // Return null route if srcId equals dstId
         if (srcId == dstId) return null;
@@ -703,6 +997,18 @@ public class TopologyInstance {
         RouteId id = new RouteId(srcId, dstId);
         Route result = null;
 
+        if (cookie != 0) {
+            List<Route> routes = getRoutes(srcId, dstId, MAX_MULTIPATHS);
+            if (routes.size() > 1) {
+                result = routes.get(selectRoute(cookie, routes.size()));
+                if (log.isTraceEnabled()) {
+                    log.trace("getRoute: {} cookie {} -> {}",
+                              new Object[] {id, cookie, result});
+                }
+                return result;
+            }
+        }
+
         try {
             result = pathcache.get(id);
         } catch (Exception e) {
@@ -715,6 +1021,38 @@ public class TopologyInstance {
         return result;
     }
 
+    /**
+     * @return the index of the route a flow hash selects among n routes
+     */
+    protected static int selectRoute(long cookie, int n) {
+        long h = cookie ^ (cookie >>> 32);
+        return (int)((h & Long.MAX_VALUE) % n);
+    }
+
+    /**
+     * Returns up to maxPaths equal cost routes from srcId to dstId.  The
+     * first route is the one getRoute() returns for a zero cookie.
+     * Routes for up to MAX_MULTIPATHS paths are cached.
+     */
+    protected List<Route> getRoutes(long srcId, long dstId, int maxPaths) {
+        if (srcId == dstId || maxPaths <= 0)
+            return Collections.emptyList();
+
+        RouteId id = new RouteId(srcId, dstId);
+        if (maxPaths > MAX_MULTIPATHS)
+            return buildroutes(id, maxPaths);
+
+        List<Route> result = Collections.emptyList();
+        try {
+            result = multipathcache.get(id);
+        } catch (Exception e) {
+            log.error("{}", e);
+        }
+        if (result.size() > maxPaths)
+            result = result.subList(0, maxPaths);
+        return result;
+    }
+
     protected BroadcastTree getBroadcastTreeForCluster(long clusterId){
         Cluster c = switchClusterMap.get(clusterId);
         if (c == null) return null;
@@ -27,9 +27,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.HAListenerTypeMarker;
@@ -62,6 +66,7 @@ import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryListener;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
 import net.floodlightcontroller.packet.BSN;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.LLDP;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.routing.IRoutingService;
@@ -144,6 +149,10 @@ public class TopologyManager implements
     protected TopologyInstance currentInstanceWithoutTunnels;
 
     protected SingletonTask newInstanceTask;
+    // Number of threads computing new topology instances; 0 computes them
+    // on the topology update thread
+    protected int computeThreads = 0;
+    protected ExecutorService computeExecutor;
     private Date lastUpdateTime;
 
     /**
@@ -722,6 +731,18 @@ public class TopologyManager implements
         return result;
     }
 
+    @Override
+    public ArrayList<Route> getRoutes(long src, long dst, int maxPaths) {
+        return getRoutes(src, dst, maxPaths, true);
+    }
+
+    @Override
+    public ArrayList<Route> getRoutes(long src, long dst, int maxPaths,
+                                      boolean tunnelEnabled) {
+        TopologyInstance ti = getCurrentInstance(tunnelEnabled);
+        return new ArrayList<Route>(ti.getRoutes(src, dst, maxPaths));
+    }
+
     // ******************
     // IOFMessageListener
     // ******************
@@ -856,6 +877,28 @@ public class TopologyManager implements
         topologyAware = new ArrayList<ITopologyListener>();
         ldUpdates = new LinkedBlockingQueue<LDUpdate>();
         haListener = new HAListenerDelegate();
+
+        Map<String, String> configParams = context.getConfigParams(this);
+        String threads = configParams.get("computeThreads");
+        if (threads != null) {
+            computeThreads = Integer.parseInt(threads);
+        }
+        if (computeThreads > 0) {
+            final ThreadGroup tg = new ThreadGroup("Topology Compute Threads");
+            ThreadFactory f = new ThreadFactory() {
+                AtomicInteger id = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread t = new Thread(tg, runnable, "TopologyCompute-" +
+                                          id.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+            computeExecutor = Executors.newFixedThreadPool(computeThreads, f);
+        }
+        log.debug("Number of topology compute threads set to {}", computeThreads);
         registerTopologyDebugCounters();
         registerTopologyDebugEvents();
     }
@@ -1092,10 +1135,14 @@ public class TopologyManager implements
     protected Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                              FloodlightContext cntx) {
 
-        // get the packet-in switch.
+        // only BDDP frames need to be decoded, check the header first
+        EthernetView view = IFloodlightProviderService.bcStore.getView(cntx);
+        if (view.getEtherType() != Ethernet.TYPE_BSN)
+            return dropFilter(sw.getId(), pi, cntx);
+
         Ethernet eth =
                 IFloodlightProviderService.bcStore.
-                get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT);
 
         if (eth.getPayload() instanceof BSN) {
             BSN bsn = (BSN) eth.getPayload();
@@ -1240,7 +1287,9 @@ public class TopologyManager implements
                                                    openflowLinks,
                                                    broadcastDomainPorts,
                                                    tunnelPorts);
-        nt.compute();
+        // Reuse the trees and routes that the link changes since the
+        // current instance do not affect.
+        nt.compute(currentInstance, computeExecutor);
         // We set the instances with and without tunnels to be identical.
         // If needed, we may compute them differently.
         currentInstance = nt;
@@ -0,0 +1,120 @@
+package net.floodlightcontroller.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min-heap of the items 0..capacity-1 keyed by an int priority.
+ * Every item is in the heap at most once, and the position of each item
+ * is tracked so that its key can be decreased in O(log n).  Items with
+ * equal keys are ordered by item number.
+ */
+public class IndexedMinHeap {
+    private final int[] heap;   // heap position to item
+    private final int[] pos;    // item to heap position, -1 if not queued
+    private final int[] keys;   // item to key
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        pos = new int[capacity];
+        keys = new int[capacity];
+        Arrays.fill(pos, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int item) {
+        return pos[item] >= 0;
+    }
+
+    /**
+     * Insert the item with the given key, or lower its key if it is
+     * already queued with a larger one.
+     * @return true if the heap changed
+     */
+    public boolean offer(int item, int key) {
+        int p = pos[item];
+        if (p < 0) {
+            p = size++;
+            heap[p] = item;
+            pos[item] = p;
+        } else if (key >= keys[item]) {
+            return false;
+        }
+        keys[item] = key;
+        siftUp(p);
+        return true;
+    }
+
+    /**
+     * @return the smallest key in the heap
+     */
+    public int peekKey() {
+        if (size == 0) throw new NoSuchElementException();
+        return keys[heap[0]];
+    }
+
+    /**
+     * Remove the item with the smallest key.
+     * @return the removed item
+     */
+    public int poll() {
+        if (size == 0) throw new NoSuchElementException();
+        int item = heap[0];
+        pos[item] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            pos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return item;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            pos[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private boolean less(int a, int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+    }
+
+    private void siftUp(int p) {
+        int item = heap[p];
+        while (p > 0) {
+            int parent = (p - 1) >>> 1;
+            if (!less(item, heap[parent])) break;
+            heap[p] = heap[parent];
+            pos[heap[p]] = p;
+            p = parent;
+        }
+        heap[p] = item;
+        pos[item] = p;
+    }
+
+    private void siftDown(int p) {
+        int item = heap[p];
+        int half = size >>> 1;
+        while (p < half) {
+            int child = 2 * p + 1;
+            if (child + 1 < size && less(heap[child + 1], heap[child]))
+                child++;
+            if (!less(heap[child], item)) break;
+            heap[p] = heap[child];
+            pos[heap[p]] = p;
+            p = child;
+        }
+        heap[p] = item;
+        pos[item] = p;
+    }
+}
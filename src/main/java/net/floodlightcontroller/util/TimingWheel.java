@@ -0,0 +1,182 @@
+package net.floodlightcontroller.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hierarchical timing wheel that schedules keys by deadline and returns
+ * the keys that are due as time advances.  Each level has the same number
+ * of slots; a slot of level 0 spans one tick, and a slot of level n spans
+ * a full rotation of level n-1.  Advancing by one tick only touches the
+ * level 0 slot of that tick, plus a higher level slot once per rotation
+ * of the level below, whose keys are moved down toward level 0.  Keys
+ * further away than the top level can hold are parked in the top level
+ * and moved again when their slot comes up.
+ *
+ * A key has at most one deadline.  Scheduling a key that is already
+ * scheduled keeps the earlier of the two deadlines; the stale entry is
+ * dropped when its slot is reached.
+ *
+ * Deadlines are rounded down to the tick, so a key is returned by the
+ * first call to {@link #advance(long)} whose time is in or after the tick
+ * containing its deadline.  Keys may therefore be returned up to one tick
+ * early, and callers that need exact deadlines should check them and
+ * schedule the key again.
+ */
+public class TimingWheel<K> {
+    private static class Timer<K> {
+        final K key;
+        final long deadline;
+
+        public Timer(K key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long tick;
+    private final int slots;
+    private final long[] levelTick;
+    private final List<List<Timer<K>>> wheel;
+    private final Map<K, Long> deadlines = new HashMap<K, Long>();
+    private List<K> due = new ArrayList<K>();
+    private long currentTime;
+
+    /**
+     * Create a new timing wheel
+     * @param tick the length of a tick in milliseconds
+     * @param slots the number of slots of each level
+     * @param levels the number of levels
+     * @param startTime the current time in milliseconds
+     */
+    public TimingWheel(long tick, int slots, int levels, long startTime) {
+        if (tick <= 0 || slots <= 1 || levels <= 0)
+            throw new IllegalArgumentException();
+        this.tick = tick;
+        this.slots = slots;
+        this.levelTick = new long[levels];
+        this.wheel = new ArrayList<List<Timer<K>>>(slots * levels);
+        long t = tick;
+        for (int i = 0; i < levels; i++) {
+            levelTick[i] = t;
+            t *= slots;
+        }
+        for (int i = 0; i < slots * levels; i++) {
+            wheel.add(null);
+        }
+        this.currentTime = startTime - startTime % tick;
+    }
+
+    /**
+     * Get the length of a tick
+     * @return the tick in milliseconds
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Get the number of scheduled keys
+     * @return the number of keys
+     */
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Get the deadline of a key
+     * @param key the key
+     * @return the deadline, or null if the key is not scheduled
+     */
+    public synchronized Long getDeadline(K key) {
+        return deadlines.get(key);
+    }
+
+    /**
+     * Schedule a key, unless it is already scheduled with an earlier
+     * deadline
+     * @param key the key
+     * @param deadline the time in milliseconds at which the key is due
+     */
+    public synchronized void schedule(K key, long deadline) {
+        Long current = deadlines.get(key);
+        if (current != null && current.longValue() <= deadline) return;
+        deadlines.put(key, deadline);
+        add(new Timer<K>(key, deadline));
+    }
+
+    /**
+     * Remove a key from the wheel
+     * @param key the key
+     */
+    public synchronized void cancel(K key) {
+        deadlines.remove(key);
+    }
+
+    /**
+     * Advance the wheel to the given time and return the keys that are
+     * due in the tick containing that time or earlier.  The returned keys
+     * are no longer scheduled.
+     * @param now the current time in milliseconds
+     * @return the due keys
+     */
+    public synchronized List<K> advance(long now) {
+        while (currentTime + tick <= now) {
+            currentTime += tick;
+            // move keys down from the higher levels first, so that keys
+            // due in this tick reach level 0 or the due list
+            for (int level = levelTick.length - 1; level >= 0; level--) {
+                if (currentTime % levelTick[level] != 0) continue;
+                int index = level * slots +
+                        (int)((currentTime / levelTick[level]) % slots);
+                List<Timer<K>> timers = wheel.get(index);
+                if (timers == null) continue;
+                wheel.set(index, null);
+                for (Timer<K> timer : timers) {
+                    add(timer);
+                }
+            }
+        }
+        List<K> result = due;
+        due = new ArrayList<K>();
+        return result;
+    }
+
+    private void add(Timer<K> timer) {
+        Long current = deadlines.get(timer.key);
+        if (current == null || current.longValue() != timer.deadline) {
+            // cancelled or rescheduled
+            return;
+        }
+        if (timer.deadline < currentTime + tick) {
+            deadlines.remove(timer.key);
+            due.add(timer.key);
+            return;
+        }
+
+        int top = levelTick.length - 1;
+        int level = 0;
+        long slotTime = 0;
+        for (; level <= top; level++) {
+            long t = levelTick[level];
+            slotTime = timer.deadline / t * t;
+            if (slotTime > currentTime &&
+                slotTime - currentTime <= t * slots)
+                break;
+        }
+        if (level > top) {
+            level = top;
+            slotTime = timer.deadline / levelTick[top] * levelTick[top];
+        }
+        int index = level * slots +
+                (int)((slotTime / levelTick[level]) % slots);
+        List<Timer<K>> timers = wheel.get(index);
+        if (timers == null) {
+            timers = new ArrayList<Timer<K>>();
+            wheel.set(index, timers);
+        }
+        timers.add(timer);
+    }
+}
@@ -26,6 +26,8 @@ public class OFEchoRequest extends OFMessage {
         if (datalen > 0) {
             this.payload = new byte[datalen];
             bb.get(payload);
+        } else {
+            this.payload = null;
         }
     }
 
@@ -46,6 +46,12 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
     protected short flags;
     protected OFMatch match;
     protected List<OFInstruction> instructions;
+    // Set while the match and instructions are written from the encoding
+    // of a template, see OFFlowModTemplate. They are then only decoded
+    // when they are needed.
+    protected OFFlowModTemplate template;
+    protected int templateInPort;
+    protected int templateOutputPort;
 
     public OFFlowMod() {
         super();
@@ -62,6 +68,38 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
         this.tableId = 0;
     }
 
+    /**
+     * Create a flow mod of a template
+     * @param header the flow mod to copy all fields but the match and
+     *        instructions from
+     * @param template
+     * @param inPort the in_port of the match
+     * @param outputPort the port of the output action
+     */
+    OFFlowMod(OFFlowMod header, OFFlowModTemplate template,
+              int inPort, int outputPort) {
+        super();
+        this.type = OFType.FLOW_MOD;
+        this.version = header.version;
+        this.length = header.length;
+        this.xid = header.xid;
+        this.instructionFactory = header.instructionFactory;
+        this.cookie = header.cookie;
+        this.cookieMask = header.cookieMask;
+        this.tableId = header.tableId;
+        this.command = header.command;
+        this.idleTimeout = header.idleTimeout;
+        this.hardTimeout = header.hardTimeout;
+        this.priority = header.priority;
+        this.bufferId = header.bufferId;
+        this.outPort = header.outPort;
+        this.outGroup = header.outGroup;
+        this.flags = header.flags;
+        this.template = template;
+        this.templateInPort = inPort;
+        this.templateOutputPort = outputPort;
+    }
+
     /**
      * Get buffer_id
      * @return
@@ -205,6 +243,7 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
      * @return
      */
     public OFMatch getMatch() {
+        detachTemplate();
         return this.match;
     }
 
@@ -213,6 +252,7 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
      * @param match
      */
     public OFFlowMod setMatch(OFMatch match) {
+        detachTemplate();
         this.match = match;
         return this;
     }
@@ -291,6 +331,7 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
      * @return a list of ordered OFInstruction objects
      */
     public List<OFInstruction> getInstructions() {
+        detachTemplate();
         return this.instructions;
     }
 
@@ -299,12 +340,34 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
      * @param instructions a list of ordered OFInstruction objects
      */
     public OFFlowMod setInstructions(List<OFInstruction> instructions) {
+        detachTemplate();
         this.instructions = instructions;
         return this;
     }
 
+    /**
+     * Decode the match and instructions of a flow mod of a template. The
+     * flow mod is still written from the template.
+     */
+    private void decodeTemplate() {
+        if (template != null && match == null)
+            template.decode(this, templateInPort, templateOutputPort);
+    }
+
+    /**
+     * Decode the match and instructions of a flow mod of a template so
+     * they can be changed. The flow mod is written from them from now on.
+     */
+    private void detachTemplate() {
+        if (template != null) {
+            decodeTemplate();
+            template = null;
+        }
+    }
+
     @Override
     public void readFrom(ByteBuffer data) {
+        template = null;
         super.readFrom(data);
         this.cookie = data.getLong();
         this.cookieMask = data.getLong();
@@ -343,6 +406,10 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
         data.putInt(outGroup);
         data.putShort(flags);
         data.putShort((short) 0); // pad
+        if (template != null) {
+            template.writeBody(data, templateInPort, templateOutputPort);
+            return;
+        }
         if (match == null)
             this.match = new OFMatch();
         this.match.writeTo(data);
@@ -361,9 +428,17 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
 
     @Override
     public int hashCode() {
+        int instructionsHash, matchHash;
+        if (template != null && match == null) {
+            instructionsHash = template.hashInstructions(templateOutputPort);
+            matchHash = template.hashMatch(templateInPort);
+        } else {
+            instructionsHash = (instructions == null) ? 0 : instructions.hashCode();
+            matchHash = (match == null) ? 0 : match.hashCode();
+        }
         final int prime = 227;
         int result = super.hashCode();
-        result = prime * result + ((instructions == null) ? 0 : instructions.hashCode());
+        result = prime * result + instructionsHash;
         result = prime * result + bufferId;
         result = prime * result + tableId;
         result = prime * result + command;
@@ -372,7 +447,7 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
         result = prime * result + flags;
         result = prime * result + hardTimeout;
         result = prime * result + idleTimeout;
-        result = prime * result + ((match == null) ? 0 : match.hashCode());
+        result = prime * result + matchHash;
         result = prime * result + outPort;
         result = prime * result + outGroup;
         result = prime * result + priority;
@@ -391,12 +466,29 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
             return false;
         }
         OFFlowMod other = (OFFlowMod) obj;
-        if (instructions == null) {
-            if (other.instructions != null) {
+        // flow mods of templates only need to be decoded if their
+        // encodings differ
+        if (template == null || match != null ||
+                other.template == null || other.match != null ||
+                !template.bodyEquals(templateInPort, templateOutputPort,
+                                     other.template, other.templateInPort,
+                                     other.templateOutputPort)) {
+            decodeTemplate();
+            other.decodeTemplate();
+            if (instructions == null) {
+                if (other.instructions != null) {
+                    return false;
+                }
+            } else if (!instructions.equals(other.instructions)) {
+                return false;
+            }
+            if (match == null) {
+                if (other.match != null) {
+                    return false;
+                }
+            } else if (!match.equals(other.match)) {
                 return false;
             }
-        } else if (!instructions.equals(other.instructions)) {
-            return false;
         }
         if (bufferId != other.bufferId) {
             return false;
@@ -422,13 +514,6 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
         if (idleTimeout != other.idleTimeout) {
             return false;
         }
-        if (match == null) {
-            if (other.match != null) {
-                return false;
-            }
-        } else if (!match.equals(other.match)) {
-            return false;
-        }
         if (outPort != other.outPort) {
             return false;
         }
@@ -447,13 +532,16 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
     @Override
     public OFFlowMod clone() {
         try {
-            OFMatch neoMatch = match.clone();
             OFFlowMod flowMod = (OFFlowMod) super.clone();
-            flowMod.setMatch(neoMatch);
+            // a template is immutable and can be shared
+            if (template != null && match == null)
+                return flowMod;
+            OFMatch neoMatch = match.clone();
+            flowMod.match = neoMatch;
             List<OFInstruction> neoInstructions = new LinkedList<OFInstruction>();
             for(OFInstruction instruction: this.instructions)
                 neoInstructions.add((OFInstruction) instruction.clone());
-            flowMod.setInstructions(neoInstructions);
+            flowMod.instructions = neoInstructions;
             return flowMod;
         } catch (CloneNotSupportedException e) {
             // Won't happen
@@ -466,6 +554,7 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
      */
     @Override
     public String toString() {
+        decodeTemplate();
         return "OFFlowMod [instructionFactory=" + instructionFactory + ", instructions=" + instructions 
                 + ", bufferId=" + U32.f(bufferId) + ", tableId=" + tableId +  ", command=" + command
                 + ", cookie=" + cookie + ", cookieMask=" + cookieMask + ", flags=" + flags + ", hardTimeout="
@@ -481,6 +570,10 @@ public class OFFlowMod extends OFMessage implements OFInstructionFactoryAware, C
     @Override
     public void computeLength() {
         int l = MINIMUM_LENGTH - OFMatch.MINIMUM_LENGTH;
+        if (template != null) {
+            this.length = U16.t(l + template.getBodyLength());
+            return;
+        }
         if (instructions != null) {
             for (OFInstruction instruction : instructions) {
                 l += instruction.getLengthU();
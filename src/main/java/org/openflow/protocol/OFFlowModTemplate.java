@@ -0,0 +1,256 @@
+package org.openflow.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.factory.OFInstructionFactory;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionActions;
+
+/**
+ * A flow mod that is serialized once and then written to many switches
+ * with different ports.
+ *
+ * Installing a route writes the same flow mod to every switch along it,
+ * changing only the in_port of the match and the port of the output action
+ * from hop to hop.  A template encodes the match and instructions of a
+ * flow mod once, and takes the offsets of the two ports in that encoding
+ * from the layout of the match and instructions.  The flow mods it hands
+ * out for each hop are plain OFFlowMods that copy the encoding and patch
+ * the ports in place when they are written, instead of serializing the
+ * match and instructions again.  Their match and instructions are decoded
+ * from the encoding only when they are read; once they are read through
+ * getMatch() or getInstructions(), the flow mod is written from them like
+ * any other.  Flow mods of a template share no state with each other, so
+ * one that is still queued or cached is not changed by the next hop.
+ *
+ * The hashes of the match and instructions depend linearly on the two
+ * ports, so the template also keeps them for port 0 together with how
+ * much they change per port.  A flow mod of a template is hashed, as
+ * OFMessageDamper does for every flow mod it writes, without decoding it.
+ */
+public class OFFlowModTemplate {
+    /**
+     * Length of the fields of a flow mod that precede the match
+     */
+    protected static final int FIXED_LENGTH =
+            OFFlowMod.MINIMUM_LENGTH - OFMatch.MINIMUM_LENGTH;
+
+    private final OFFlowMod header;
+    private final OFInstructionFactory instructionFactory;
+    /**
+     * Encoded match and instructions, with both ports set to 0
+     */
+    private final byte[] body;
+    private final int inPortOffset;
+    private final int outputPortOffset;
+    private final long matchHash;
+    private final long matchHashStep;
+    private final int instructionsHash;
+    private final int instructionsHashStep;
+
+    /**
+     * Create a template
+     * @param flowMod the flow mod to write.  It is encoded right away and
+     *        not kept.  Its match gets an in_port field if it has none, and
+     *        its first output action carries the output port.
+     * @throws IllegalArgumentException if the flow mod has no match, a
+     *         masked in_port or no output action
+     */
+    public OFFlowModTemplate(OFFlowMod flowMod) {
+        OFMatch match = flowMod.getMatch();
+        if (match == null)
+            throw new IllegalArgumentException("flow mod has no match");
+        if (!match.fieldExists(OFOXMFieldType.IN_PORT))
+            match.setInPort(0);
+        if (match.getMatchFieldMask(OFOXMFieldType.IN_PORT) != null)
+            throw new IllegalArgumentException("flow mod has a masked in_port");
+        List<OFInstruction> instructions = flowMod.getInstructions();
+        int outputOffset = getOutputPortOffset(instructions);
+        if (outputOffset < 0)
+            throw new IllegalArgumentException("flow mod has no output action");
+
+        int length = match.getLengthU();
+        for (OFInstruction instruction : instructions)
+            length += instruction.getLengthU();
+        body = new byte[length];
+        ByteBuffer data = ByteBuffer.wrap(body);
+        match.writeTo(data);
+        for (OFInstruction instruction : instructions)
+            instruction.writeTo(data);
+        if (data.hasRemaining())
+            throw new IllegalArgumentException("flow mod length is inconsistent");
+        inPortOffset = match.getFieldOffset(OFOXMFieldType.IN_PORT);
+        outputPortOffset = match.getLengthU() + outputOffset;
+        data.putInt(inPortOffset, 0);
+        data.putInt(outputPortOffset, 0);
+
+        // the flow mod is left as it was
+        int inPort = match.getInPort();
+        match.setInPort(0);
+        matchHash = match.longHashCode();
+        match.setInPort(1);
+        matchHashStep = match.longHashCode() - matchHash;
+        match.setInPort(inPort);
+        OFActionOutput output = getOutputAction(instructions);
+        int outputPort = output.getPort();
+        output.setPort(0);
+        instructionsHash = instructions.hashCode();
+        output.setPort(1);
+        instructionsHashStep = instructions.hashCode() - instructionsHash;
+        output.setPort(outputPort);
+
+        header = new OFFlowMod(flowMod, null, 0, 0);
+        instructionFactory = (flowMod.instructionFactory != null) ?
+                flowMod.instructionFactory : BasicFactory.getInstance();
+    }
+
+    /**
+     * Get a flow mod for one hop
+     * @param inPort the in_port of the match
+     * @param outputPort the port of the output action
+     * @return a new flow mod
+     */
+    public OFFlowMod getFlowMod(int inPort, int outputPort) {
+        return new OFFlowMod(header, this, inPort, outputPort);
+    }
+
+    /**
+     * Get the length of the flow mods of this template
+     * @return the length in bytes
+     */
+    public int getLength() {
+        return FIXED_LENGTH + body.length;
+    }
+
+    /**
+     * Get the length of the encoded match and instructions
+     * @return the length in bytes
+     */
+    int getBodyLength() {
+        return body.length;
+    }
+
+    /**
+     * Write the match and instructions of a flow mod of this template
+     * @param data
+     * @param inPort
+     * @param outputPort
+     */
+    void writeBody(ByteBuffer data, int inPort, int outputPort) {
+        int start = data.position();
+        data.put(body);
+        data.putInt(start + inPortOffset, inPort);
+        data.putInt(start + outputPortOffset, outputPort);
+    }
+
+    /**
+     * Get the hash of the match of a flow mod of this template
+     * @param inPort
+     * @return the same as OFMatch.hashCode()
+     */
+    int hashMatch(int inPort) {
+        long result = matchHash + matchHashStep * inPort;
+        return (int) (result ^ (result >>> 32));
+    }
+
+    /**
+     * Get the hash of the instructions of a flow mod of this template
+     * @param outputPort
+     * @return the same as List.hashCode() of the instructions
+     */
+    int hashInstructions(int outputPort) {
+        return instructionsHash + instructionsHashStep * outputPort;
+    }
+
+    /**
+     * Check if flow mods of two templates have the same encoded match and
+     * instructions.  Equal matches can still be encoded differently if
+     * their fields were set in a different order.
+     * @param inPort
+     * @param outputPort
+     * @param other
+     * @param otherInPort
+     * @param otherOutputPort
+     * @return
+     */
+    boolean bodyEquals(int inPort, int outputPort, OFFlowModTemplate other,
+                       int otherInPort, int otherOutputPort) {
+        return inPort == otherInPort && outputPort == otherOutputPort &&
+               inPortOffset == other.inPortOffset &&
+               outputPortOffset == other.outputPortOffset &&
+               Arrays.equals(body, other.body);
+    }
+
+    /**
+     * Set the match and instructions of a flow mod of this template
+     * @param flowMod
+     * @param inPort
+     * @param outputPort
+     */
+    void decode(OFFlowMod flowMod, int inPort, int outputPort) {
+        ByteBuffer data = ByteBuffer.allocate(body.length);
+        writeBody(data, inPort, outputPort);
+        data.flip();
+        OFMatch match = new OFMatch();
+        match.readFrom(data);
+        OFInstructionFactory factory = (flowMod.instructionFactory != null) ?
+                flowMod.instructionFactory : instructionFactory;
+        flowMod.instructions =
+                factory.parseInstructions(data, data.remaining());
+        flowMod.match = match;
+    }
+
+    /**
+     * Get the first output action
+     * @param instructions
+     * @return the action, or null if there is none
+     */
+    private static OFActionOutput getOutputAction(
+            List<OFInstruction> instructions) {
+        for (OFInstruction instruction : instructions) {
+            if (instruction instanceof OFInstructionActions) {
+                List<OFAction> actions =
+                        ((OFInstructionActions) instruction).getActions();
+                if (actions != null) {
+                    for (OFAction action : actions) {
+                        if (action instanceof OFActionOutput)
+                            return (OFActionOutput) action;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the offset of the port of the first output action
+     * @param instructions
+     * @return the offset from the start of the instructions, or -1 if there
+     *         is no output action
+     */
+    private static int getOutputPortOffset(List<OFInstruction> instructions) {
+        if (instructions == null) return -1;
+        int pos = 0;
+        for (OFInstruction instruction : instructions) {
+            if (instruction instanceof OFInstructionActions) {
+                List<OFAction> actions =
+                        ((OFInstructionActions) instruction).getActions();
+                int actionPos = pos + OFInstructionActions.MINIMUM_LENGTH;
+                if (actions != null) {
+                    for (OFAction action : actions) {
+                        if (action instanceof OFActionOutput)
+                            return actionPos + OFAction.MINIMUM_LENGTH;
+                        actionPos += action.getLengthU();
+                    }
+                }
+            }
+            pos += instruction.getLengthU();
+        }
+        return -1;
+    }
+}
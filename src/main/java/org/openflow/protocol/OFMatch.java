@@ -1,18 +1,26 @@
 package org.openflow.protocol;
 
 import java.nio.ByteBuffer;
-import java.util.List;
-import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import org.openflow.util.HexString;
 import org.openflow.util.U8;
 import org.openflow.util.U16;
-import org.openflow.util.U32;
 
 /**
  * Represents an ofp_match structure
+ *
+ * The fields that almost every match uses (in_port, eth_dst, eth_src,
+ * eth_type, vlan_vid, ip_proto, ipv4_src, ipv4_dst and the TCP and UDP
+ * ports) are kept in primitive slots, so that setting, comparing and
+ * hashing them neither allocates nor walks a list.  Bitmaps indexed by OXM
+ * type value tell which fields are present, which have a mask and which
+ * are kept as OFMatchFields in a spill list instead; the spill list holds
+ * all other fields, and common fields whose value or mask does not fit
+ * their slot.  Fields are written in the order they were first set.
  * 
  * @author Srini Seetharaman (srini.seetharaman@gmail.com)
  * 
@@ -62,10 +70,53 @@ public class OFMatch implements Cloneable {
         }
     }
 
+    /**
+     * Fields that have a slot
+     */
+    protected static final long SLOT_FIELDS =
+            bit(OFOXMFieldType.IN_PORT) | bit(OFOXMFieldType.ETH_DST) |
+            bit(OFOXMFieldType.ETH_SRC) | bit(OFOXMFieldType.ETH_TYPE) |
+            bit(OFOXMFieldType.VLAN_VID) | bit(OFOXMFieldType.IP_PROTO) |
+            bit(OFOXMFieldType.IPV4_SRC) | bit(OFOXMFieldType.IPV4_DST) |
+            bit(OFOXMFieldType.TCP_SRC) | bit(OFOXMFieldType.TCP_DST) |
+            bit(OFOXMFieldType.UDP_SRC) | bit(OFOXMFieldType.UDP_DST);
+
+    /**
+     * Fields whose slot can also hold a mask
+     */
+    protected static final long MASKED_SLOT_FIELDS =
+            bit(OFOXMFieldType.ETH_DST) | bit(OFOXMFieldType.ETH_SRC) |
+            bit(OFOXMFieldType.VLAN_VID) | bit(OFOXMFieldType.IPV4_SRC) |
+            bit(OFOXMFieldType.IPV4_DST);
+
     protected OFMatchType type;
     protected short length; //total length including padding
     protected short matchLength; // length excluding padding
-    protected List<OFMatchField> matchFields;
+
+    protected long present; // fields in this match
+    protected long masked; // fields that have a mask
+    protected long spilled; // fields kept in spillFields
+    protected byte[] order; // OXM type values in the order they were set
+    protected int fieldCount;
+    protected List<OFMatchField> spillFields;
+
+    protected int inPort;
+    protected long ethDst;
+    protected long ethDstMask;
+    protected long ethSrc;
+    protected long ethSrcMask;
+    protected short ethType;
+    protected short vlanVid;
+    protected short vlanVidMask;
+    protected byte ipProto;
+    protected int ipv4Src;
+    protected int ipv4SrcMask;
+    protected int ipv4Dst;
+    protected int ipv4DstMask;
+    protected short tcpSrc;
+    protected short tcpDst;
+    protected short udpSrc;
+    protected short udpDst;
 
     /**
      * By default, create a OFMatch that matches everything
@@ -75,7 +126,6 @@ public class OFMatch implements Cloneable {
         this.type = OFMatchType.OXM;
         this.length = U16.t(MINIMUM_LENGTH);
         this.matchLength = 4; //No padding
-        this.matchFields = new ArrayList<OFMatchField>();
     }
 
     /**
@@ -83,11 +133,12 @@ public class OFMatch implements Cloneable {
      * @return
      */
     public Object getMatchFieldValue(OFOXMFieldType matchType) {
-        for (OFMatchField matchField: matchFields) {
-            if (matchField.getType() == matchType)
-                return matchField.getValue();
-        }
-        throw new IllegalArgumentException("No match exists for matchfield " + matchType.getName());
+        long b = bit(matchType);
+        if ((present & b) == 0)
+            throw new IllegalArgumentException("No match exists for matchfield " + matchType.getName());
+        if ((spilled & b) != 0)
+            return getSpillField(matchType).getValue();
+        return toObject(matchType, getSlot(matchType));
     }
 
     /**
@@ -95,11 +146,14 @@ public class OFMatch implements Cloneable {
      * @return
      */
     public Object getMatchFieldMask(OFOXMFieldType matchType) {
-        for (OFMatchField matchField: matchFields) {
-            if (matchField.getType() == matchType)
-                return matchField.getMask();
-        }
-        throw new IllegalArgumentException("No match exists for matchfield " + matchType.getName());
+        long b = bit(matchType);
+        if ((present & b) == 0)
+            throw new IllegalArgumentException("No match exists for matchfield " + matchType.getName());
+        if ((spilled & b) != 0)
+            return getSpillField(matchType).getMask();
+        if ((masked & b) == 0)
+            return null;
+        return toObject(matchType, getSlotMask(matchType));
     }
 
     /**
@@ -107,11 +161,7 @@ public class OFMatch implements Cloneable {
      * @return boolean indicating if the field value exists 
      */
     public boolean fieldExists(OFOXMFieldType matchType) {
-        for (OFMatchField matchField: matchFields) {
-            if (matchField.getType() == matchType)
-                return true;
-        }
-        return false;
+        return (present & bit(matchType)) != 0;
     }
 
     /**
@@ -119,6 +169,8 @@ public class OFMatch implements Cloneable {
      * @return integer
      */
     public int getInPort() {
+        if (inSlot(OFOXMFieldType.IN_PORT))
+            return inPort;
         try {
     	    return (Integer)getMatchFieldValue(OFOXMFieldType.IN_PORT);
         } catch (IllegalArgumentException e) {
@@ -131,7 +183,7 @@ public class OFMatch implements Cloneable {
      * @param in_port
      */
     public OFMatch setInPort(int inPort) {
-    	this.setField(OFOXMFieldType.IN_PORT, inPort);
+    	putSlot(OFOXMFieldType.IN_PORT, inPort, false, 0);
     	return this;
     }
 
@@ -217,6 +269,8 @@ public class OFMatch implements Cloneable {
      * @return ether_type
      */
     public short getDataLayerType() {
+        if (inSlot(OFOXMFieldType.ETH_TYPE))
+            return ethType;
         return (Short)getMatchFieldValue(OFOXMFieldType.ETH_TYPE);
     }
 
@@ -226,7 +280,7 @@ public class OFMatch implements Cloneable {
      * @param dataLayerType
      */
     public OFMatch setDataLayerType(short dataLayerType) {
-    	this.setField(OFOXMFieldType.ETH_TYPE, dataLayerType);
+    	putSlot(OFOXMFieldType.ETH_TYPE, dataLayerType, false, 0);
         return this;
     }
 
@@ -236,6 +290,8 @@ public class OFMatch implements Cloneable {
      * @return vlan tag without the VLAN present bit set
      */
     public short getDataLayerVirtualLan() {
+        if (inSlot(OFOXMFieldType.VLAN_VID))
+            return (short)(vlanVid & 0xFFF);
         try {
             return (short)((Short)getMatchFieldValue(OFOXMFieldType.VLAN_VID) & 0xFFF);
         } catch (IllegalArgumentException e) {
@@ -249,7 +305,7 @@ public class OFMatch implements Cloneable {
      * @param dataLayerVirtualLan VLAN ID without the VLAN present bit set
      */
     public OFMatch setDataLayerVirtualLan(short vlan) {
-    	this.setField(OFOXMFieldType.VLAN_VID, vlan | OFVlanId.OFPVID_PRESENT.getValue());
+    	putSlot(OFOXMFieldType.VLAN_VID, vlan | OFVlanId.OFPVID_PRESENT.getValue(), false, 0);
         return this;
     }
 
@@ -282,6 +338,8 @@ public class OFMatch implements Cloneable {
      * @return
      */
     public byte getNetworkProtocol() {
+        if (inSlot(OFOXMFieldType.IP_PROTO))
+            return ipProto;
         return (Byte)getMatchFieldValue(OFOXMFieldType.IP_PROTO);
     }
 
@@ -291,7 +349,7 @@ public class OFMatch implements Cloneable {
      * @param networkProtocol
      */
     public OFMatch setNetworkProtocol(byte networkProtocol) {
-        this.setField(OFOXMFieldType.IP_PROTO, networkProtocol);
+        putSlot(OFOXMFieldType.IP_PROTO, networkProtocol, false, 0);
         return this;
     }
 
@@ -328,6 +386,8 @@ public class OFMatch implements Cloneable {
      * @return integer destination IP address
      */
     public int getNetworkDestination() {
+        if (inSlot(OFOXMFieldType.IPV4_DST))
+            return ipv4Dst;
         try {
             return (Integer)getMatchFieldValue(OFOXMFieldType.IPV4_DST);
         } catch (IllegalArgumentException e) {
@@ -367,7 +427,7 @@ public class OFMatch implements Cloneable {
     public OFMatch setNetworkDestination(short dataLayerType, int networkDestination) {
     	switch (dataLayerType) {    		
 		    case ETH_TYPE_IPV4:
-		        this.setField(OFOXMFieldType.IPV4_DST, networkDestination);
+		        putSlot(OFOXMFieldType.IPV4_DST, networkDestination, false, 0);
 		        break;
 		    case ETH_TYPE_IPV6:
 		        this.setField(OFOXMFieldType.IPV6_DST, networkDestination);
@@ -386,7 +446,7 @@ public class OFMatch implements Cloneable {
      * @param networkMask network mask
      */
     public OFMatch setNetworkDestinationMask(int networkDestination, int networkMask) {
-        this.setField(OFOXMFieldType.IPV4_DST, networkDestination, networkMask);
+        putMaskedSlot(OFOXMFieldType.IPV4_DST, networkDestination, networkMask);
         return this;
     }
 
@@ -397,6 +457,8 @@ public class OFMatch implements Cloneable {
      */
     // TODO: Add support for IPv6
     public int getNetworkSource() {
+        if (inSlot(OFOXMFieldType.IPV4_SRC))
+            return ipv4Src;
         try {
             return (Integer)getMatchFieldValue(OFOXMFieldType.IPV4_SRC);
         } catch (IllegalArgumentException e) {
@@ -438,7 +500,7 @@ public class OFMatch implements Cloneable {
     public OFMatch setNetworkSource(short dataLayerType, int networkSource) {
     	switch (dataLayerType) {    		
 		    case ETH_TYPE_IPV4:
-		        this.setField(OFOXMFieldType.IPV4_SRC, networkSource);
+		        putSlot(OFOXMFieldType.IPV4_SRC, networkSource, false, 0);
 		        break;
 		    case ETH_TYPE_ARP:
 		        this.setField(OFOXMFieldType.ARP_SHA, networkSource);
@@ -454,7 +516,7 @@ public class OFMatch implements Cloneable {
      * @param networkMask network mask
      */
     public OFMatch setNetworkSourceMask(int networkSource, int networkMask) {
-        this.setField(OFOXMFieldType.IPV4_SRC, networkSource, networkMask);
+        putMaskedSlot(OFOXMFieldType.IPV4_SRC, networkSource, networkMask);
         return this;
     }
 
@@ -467,8 +529,12 @@ public class OFMatch implements Cloneable {
     	byte networkProtocol = getNetworkProtocol();
     	switch (networkProtocol) {
     		case IP_PROTO_TCP:
+    			if (inSlot(OFOXMFieldType.TCP_DST))
+    				return tcpDst;
     			return (Short)getMatchFieldValue(OFOXMFieldType.TCP_DST);
     		case IP_PROTO_UDP:
+    			if (inSlot(OFOXMFieldType.UDP_DST))
+    				return udpDst;
     			return (Short)getMatchFieldValue(OFOXMFieldType.UDP_DST);
     		case IP_PROTO_SCTP:
     			return (Short)getMatchFieldValue(OFOXMFieldType.SCTP_DST);
@@ -495,10 +561,10 @@ public class OFMatch implements Cloneable {
     public OFMatch setTransportDestination(byte networkProtocol, short transportDestination) {
         switch (networkProtocol) {
 	        case IP_PROTO_TCP:
-	            this.setField(OFOXMFieldType.TCP_DST, transportDestination);
+	            putSlot(OFOXMFieldType.TCP_DST, transportDestination, false, 0);
 	            break;
 	        case IP_PROTO_UDP:
-	            this.setField(OFOXMFieldType.UDP_DST, transportDestination);
+	            putSlot(OFOXMFieldType.UDP_DST, transportDestination, false, 0);
 	            break;
 	        case IP_PROTO_SCTP:
 	            this.setField(OFOXMFieldType.SCTP_DST, transportDestination);
@@ -516,8 +582,12 @@ public class OFMatch implements Cloneable {
     	byte networkProtocol = getNetworkProtocol();
     	switch (networkProtocol) {
     		case IP_PROTO_TCP:
+    			if (inSlot(OFOXMFieldType.TCP_SRC))
+    				return tcpSrc;
     			return (Short)getMatchFieldValue(OFOXMFieldType.TCP_SRC);
     		case IP_PROTO_UDP:
+    			if (inSlot(OFOXMFieldType.UDP_SRC))
+    				return udpSrc;
     			return (Short)getMatchFieldValue(OFOXMFieldType.UDP_SRC);
     		case IP_PROTO_SCTP:
     			return (Short)getMatchFieldValue(OFOXMFieldType.SCTP_SRC);
@@ -544,10 +614,10 @@ public class OFMatch implements Cloneable {
     public OFMatch setTransportSource(byte networkProtocol, short transportSource) {
         switch (networkProtocol) {
 	        case IP_PROTO_TCP:
-	            this.setField(OFOXMFieldType.TCP_SRC, transportSource);
+	            putSlot(OFOXMFieldType.TCP_SRC, transportSource, false, 0);
 	            break;
 	        case IP_PROTO_UDP:
-	            this.setField(OFOXMFieldType.UDP_SRC, transportSource);
+	            putSlot(OFOXMFieldType.UDP_SRC, transportSource, false, 0);
 	            break;
 	        case IP_PROTO_SCTP:
 	            this.setField(OFOXMFieldType.SCTP_SRC, transportSource);
@@ -579,34 +649,60 @@ public class OFMatch implements Cloneable {
     public short getMatchLength() {
         return matchLength;
     }
+
+    /**
+     * Get where writeTo puts the value of a field
+     * @param field
+     * @return the offset of the value from the start of the match, or -1
+     *         if the match does not have the field
+     */
+    public int getFieldOffset(OFOXMFieldType field) {
+        if ((present & bit(field)) == 0)
+            return -1;
+        int pos = 4; // type and length
+        for (int i = 0; i < fieldCount; i++) {
+            OFOXMFieldType f = OFOXMFieldType.valueOf(order[i]);
+            if (f == field)
+                return pos + 4; // OXM header
+            long b = bit(f);
+            if ((spilled & b) != 0)
+                pos += getSpillField(f).getLength();
+            else
+                pos += 4 + (((masked & b) != 0) ? 2 : 1) * f.getPayloadLength();
+        }
+        return -1;
+    }
     
     /** Sets match field. In case of existing field, checks for existing value
      * 
      * @param matchField Check for uniqueness of field and add matchField
      */
     public void setField(OFMatchField newMatchField) {
-        if (this.matchFields == null)
-            this.matchFields = new ArrayList<OFMatchField>();
-        for (OFMatchField matchField: this.matchFields) {
-            if (matchField.getType() == newMatchField.getType()) {
-                matchField.setValue(newMatchField.getValue());
-                matchField.setMask(newMatchField.getMask());
-                return;
-            }
-        }
-        this.matchFields.add(newMatchField);
-        this.matchLength += newMatchField.getLength();
-        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+        OFOXMFieldType field = newMatchField.getType();
+        Object value = newMatchField.getValue();
+        Object mask = (newMatchField.getHasMask() == 1) ?
+                newMatchField.getMask() : null;
+        if (fitsSlot(field, value, mask))
+            putSlot(field, toSlot(value), mask != null,
+                    (mask == null) ? 0 : toSlot(mask));
+        else
+            putSpillField(newMatchField);
     }
 
     public void setField(OFOXMFieldType matchFieldType, Object matchFieldValue) {
-        OFMatchField matchField = new OFMatchField(matchFieldType, matchFieldValue);
-        setField(matchField);
+        setField(matchFieldType, matchFieldValue, null);
     }
 
     public void setField(OFOXMFieldType matchFieldType, Object matchFieldValue, Object matchFieldMask) {
-        OFMatchField matchField = new OFMatchField(matchFieldType, matchFieldValue, matchFieldMask);
-        setField(matchField);
+        // like OFMatchField, ignore a mask without any bit set
+        if (matchFieldMask != null && isAllZero(matchFieldMask))
+            matchFieldMask = null;
+        if (fitsSlot(matchFieldType, matchFieldValue, matchFieldMask))
+            putMaskedSlot(matchFieldType, toSlot(matchFieldValue),
+                          (matchFieldMask == null) ? 0 : toSlot(matchFieldMask));
+        else
+            putSpillField(new OFMatchField(matchFieldType, matchFieldValue,
+                                           matchFieldMask));
     }
 
     /**
@@ -614,7 +710,25 @@ public class OFMatch implements Cloneable {
      * @return a list of ordered OFMatchField objects
      */
     public List<OFMatchField> getMatchFields() {
-        return this.matchFields;
+        List<OFMatchField> matchFields = new ArrayList<OFMatchField>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            OFOXMFieldType field = OFOXMFieldType.valueOf(order[i]);
+            long b = bit(field);
+            try {
+                if ((spilled & b) != 0) {
+                    matchFields.add(getSpillField(field).clone());
+                } else {
+                    Object mask = ((masked & b) != 0) ?
+                            toObject(field, getSlotMask(field)) : null;
+                    matchFields.add(new OFMatchField(field,
+                            toObject(field, getSlot(field)), mask));
+                }
+            } catch (CloneNotSupportedException e) {
+                // Won't happen
+                throw new RuntimeException(e);
+            }
+        }
+        return matchFields;
     }
 
     /**
@@ -622,14 +736,10 @@ public class OFMatch implements Cloneable {
      * @param matchFields a list of ordered OFMatchField objects
      */
     public OFMatch setMatchFields(List<OFMatchField> matchFields) {
-        this.matchFields = matchFields;
-
-        //Recalculate lengths
-        this.matchLength = 4; //No padding
+        clearFields();
         if (matchFields != null)
-            for (OFMatchField newMatchField: this.matchFields) 
-                this.matchLength += newMatchField.getLength();
-        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+            for (OFMatchField newMatchField: matchFields)
+                setField(newMatchField);
         return this;
     }
 
@@ -640,22 +750,286 @@ public class OFMatch implements Cloneable {
      */
     public OFMatch setNonWildcards(Set<OFOXMFieldType> nonWildcardedFieldTypes) {
         if (nonWildcardedFieldTypes == null) 
-            setMatchFields(null);
+            clearFields();
         else if (nonWildcardedFieldTypes.size() == 0) 
-            setMatchFields(null);
+            clearFields();
         else {
-            List <OFMatchField> newMatchFields = new ArrayList<OFMatchField>();
+            for (int i = fieldCount - 1; i >= 0; i--) {
+                OFOXMFieldType field = OFOXMFieldType.valueOf(order[i]);
+                if (!nonWildcardedFieldTypes.contains(field))
+                    removeField(field);
+            }
+        }
+        return this;
+    }
 
-            if (nonWildcardedFieldTypes != null) {
-                for (OFMatchField matchField: matchFields) {
-                    OFOXMFieldType type = matchField.getType();
-                    if (nonWildcardedFieldTypes.contains(type))
-                        newMatchFields.add(matchField);
+    protected static long bit(OFOXMFieldType field) {
+        return 1L << field.getValue();
+    }
+
+    /**
+     * Check whether a field is present and kept in its slot
+     */
+    protected boolean inSlot(OFOXMFieldType field) {
+        return (((present & ~spilled) >>> field.getValue()) & 1) != 0;
+    }
+
+    /**
+     * Check whether a value, and mask if not null, can be kept in the slot
+     * of a field
+     */
+    protected static boolean fitsSlot(OFOXMFieldType field, Object value,
+                                      Object mask) {
+        long b = bit(field);
+        if ((SLOT_FIELDS & b) == 0)
+            return false;
+        if (mask != null && (MASKED_SLOT_FIELDS & b) == 0)
+            return false;
+        if (field.getPayloadLength() == OFPhysicalPort.OFP_ETH_ALEN)
+            return isAddress(value) && (mask == null || isAddress(mask));
+        return (value instanceof Number) &&
+               (mask == null || mask instanceof Number);
+    }
+
+    private static boolean isAddress(Object value) {
+        return (value instanceof byte[]) &&
+               ((byte[]) value).length == OFPhysicalPort.OFP_ETH_ALEN;
+    }
+
+    /**
+     * Convert a value that fits a slot to its slot value
+     */
+    protected static long toSlot(Object value) {
+        if (value instanceof byte[]) {
+            long v = 0;
+            for (byte b : (byte[]) value)
+                v = (v << 8) | (b & 0xff);
+            return v;
+        }
+        return ((Number) value).longValue();
+    }
+
+    private static boolean isAllZero(Object mask) {
+        if (mask instanceof Number)
+            return ((Number) mask).longValue() == 0;
+        if (mask instanceof byte[]) {
+            for (byte b : (byte[]) mask)
+                if (b != 0) return false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Convert a slot value to the object an OFMatchField of the field holds
+     */
+    protected static Object toObject(OFOXMFieldType field, long value) {
+        switch (field.getPayloadLength()) {
+            case 1:
+                return Byte.valueOf((byte) value);
+            case 2:
+                return Short.valueOf((short) value);
+            case 4:
+                return Integer.valueOf((int) value);
+            default:
+                byte[] bytes = new byte[field.getPayloadLength()];
+                for (int i = bytes.length - 1; i >= 0; i--) {
+                    bytes[i] = (byte) value;
+                    value >>>= 8;
                 }
+                return bytes;
+        }
+    }
+
+    protected long getSlot(OFOXMFieldType field) {
+        switch (field) {
+            case IN_PORT: return inPort;
+            case ETH_DST: return ethDst;
+            case ETH_SRC: return ethSrc;
+            case ETH_TYPE: return ethType;
+            case VLAN_VID: return vlanVid;
+            case IP_PROTO: return ipProto;
+            case IPV4_SRC: return ipv4Src;
+            case IPV4_DST: return ipv4Dst;
+            case TCP_SRC: return tcpSrc;
+            case TCP_DST: return tcpDst;
+            case UDP_SRC: return udpSrc;
+            case UDP_DST: return udpDst;
+            default:
+                throw new IllegalArgumentException("No slot for matchfield " + field.getName());
+        }
+    }
+
+    protected long getSlotMask(OFOXMFieldType field) {
+        switch (field) {
+            case ETH_DST: return ethDstMask;
+            case ETH_SRC: return ethSrcMask;
+            case VLAN_VID: return vlanVidMask;
+            case IPV4_SRC: return ipv4SrcMask;
+            case IPV4_DST: return ipv4DstMask;
+            default: return 0;
+        }
+    }
+
+    private void setSlot(OFOXMFieldType field, long value, long mask) {
+        switch (field) {
+            case IN_PORT: inPort = (int) value; break;
+            case ETH_DST: ethDst = value; ethDstMask = mask; break;
+            case ETH_SRC: ethSrc = value; ethSrcMask = mask; break;
+            case ETH_TYPE: ethType = (short) value; break;
+            case VLAN_VID: vlanVid = (short) value; vlanVidMask = (short) mask; break;
+            case IP_PROTO: ipProto = (byte) value; break;
+            case IPV4_SRC: ipv4Src = (int) value; ipv4SrcMask = (int) mask; break;
+            case IPV4_DST: ipv4Dst = (int) value; ipv4DstMask = (int) mask; break;
+            case TCP_SRC: tcpSrc = (short) value; break;
+            case TCP_DST: tcpDst = (short) value; break;
+            case UDP_SRC: udpSrc = (short) value; break;
+            case UDP_DST: udpDst = (short) value; break;
+            default:
+                throw new IllegalArgumentException("No slot for matchfield " + field.getName());
+        }
+    }
+
+    /**
+     * Set a field in its slot, as OFMatchField would: a mask without any
+     * bit set is dropped, and value bits outside the mask are cleared
+     */
+    protected void putMaskedSlot(OFOXMFieldType field, long value, long mask) {
+        if (mask == 0)
+            putSlot(field, value, false, 0);
+        else
+            putSlot(field, value & mask, true, mask);
+    }
+
+    /**
+     * Set a field in its slot, as is
+     */
+    protected void putSlot(OFOXMFieldType field, long value, boolean hasMask,
+                           long mask) {
+        long b = bit(field);
+        if ((spilled & b) != 0) {
+            removeSpillField(field);
+            spilled &= ~b;
+        }
+        addField(field, hasMask);
+        setSlot(field, value, hasMask ? mask : 0);
+    }
+
+    protected void putSpillField(OFMatchField matchField) {
+        OFOXMFieldType field = matchField.getType();
+        long b = bit(field);
+        if ((spilled & b) != 0)
+            removeSpillField(field);
+        if (spillFields == null)
+            spillFields = new ArrayList<OFMatchField>(2);
+        spillFields.add(matchField);
+        spilled |= b;
+        addField(field, matchField.getHasMask() == 1);
+    }
+
+    protected OFMatchField getSpillField(OFOXMFieldType field) {
+        for (OFMatchField matchField : spillFields) {
+            if (matchField.getType() == field)
+                return matchField;
+        }
+        return null;
+    }
+
+    private void removeSpillField(OFOXMFieldType field) {
+        for (int i = 0; i < spillFields.size(); i++) {
+            if (spillFields.get(i).getType() == field) {
+                spillFields.remove(i);
+                return;
             }
-            setMatchFields(newMatchFields);
         }
-        return this;
+    }
+
+    /**
+     * Account for a field that is set, keeping its place if it is already
+     * in the match
+     */
+    private void addField(OFOXMFieldType field, boolean hasMask) {
+        long b = bit(field);
+        if ((present & b) != 0) {
+            matchLength -= getFieldLength(field, (masked & b) != 0);
+        } else {
+            if (order == null)
+                order = new byte[8];
+            else if (fieldCount == order.length)
+                order = Arrays.copyOf(order, 2 * fieldCount);
+            order[fieldCount++] = (byte) field.getValue();
+            present |= b;
+        }
+        if (hasMask)
+            masked |= b;
+        else
+            masked &= ~b;
+        matchLength += getFieldLength(field, hasMask);
+        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+    }
+
+    private void removeField(OFOXMFieldType field) {
+        long b = bit(field);
+        if ((present & b) == 0)
+            return;
+        if ((spilled & b) != 0)
+            removeSpillField(field);
+        matchLength -= getFieldLength(field, (masked & b) != 0);
+        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+        present &= ~b;
+        masked &= ~b;
+        spilled &= ~b;
+        int i = 0;
+        while (order[i] != field.getValue()) i++;
+        System.arraycopy(order, i + 1, order, i, fieldCount - i - 1);
+        fieldCount--;
+    }
+
+    private void clearFields() {
+        present = 0;
+        masked = 0;
+        spilled = 0;
+        fieldCount = 0;
+        spillFields = null;
+        this.matchLength = 4; //No padding
+        this.length = U16.t(8*((this.matchLength + 7)/8)); //includes padding
+    }
+
+    private static int getFieldLength(OFOXMFieldType field, boolean hasMask) {
+        return OFOXMField.MINIMUM_LENGTH +
+               (hasMask ? 2 : 1) * field.getPayloadLength();
+    }
+
+    private static long readSlot(ByteBuffer data, int length) {
+        switch (length) {
+            case 1:
+                return data.get();
+            case 2:
+                return data.getShort();
+            case 4:
+                return data.getInt();
+            default:
+                return ((data.getShort() & 0xffffL) << 32) |
+                       (data.getInt() & 0xffffffffL);
+        }
+    }
+
+    private static void writeSlot(ByteBuffer data, int length, long value) {
+        switch (length) {
+            case 1:
+                data.put((byte) value);
+                break;
+            case 2:
+                data.putShort((short) value);
+                break;
+            case 4:
+                data.putInt((int) value);
+                break;
+            default:
+                data.putShort((short) (value >>> 32));
+                data.putInt((int) value);
+                break;
+        }
     }
 
     public void readFrom(ByteBuffer data) {
@@ -683,12 +1057,24 @@ public class OFMatch implements Cloneable {
             
             if (data.remaining() < remaining)
                 remaining = data.remaining();
-            this.matchFields = new ArrayList<OFMatchField>();
+            clearFields();
             while (remaining >= OFMatchField.MINIMUM_LENGTH) {
-                OFMatchField matchField = new OFMatchField();
-                matchField.readFrom(data);
-                this.matchFields.add(matchField);
-                remaining -= U32.f(matchField.getLength()); //value length + header length
+                int header = data.getInt(data.position());
+                OFOXMFieldType field = OFOXMFieldType.valueOf((byte) ((header >> 9) & 0x7f));
+                boolean hasMask = ((header >> 8) & 1) != 0;
+                long b = (field == null) ? 0 : bit(field);
+                if ((SLOT_FIELDS & b) != 0 &&
+                        (!hasMask || (MASKED_SLOT_FIELDS & b) != 0)) {
+                    data.getInt();
+                    int n = field.getPayloadLength();
+                    long value = readSlot(data, n);
+                    putSlot(field, value, hasMask, hasMask ? readSlot(data, n) : 0);
+                } else {
+                    OFMatchField matchField = new OFMatchField();
+                    matchField.readFrom(data);
+                    putSpillField(matchField);
+                }
+                remaining -= OFOXMField.MINIMUM_LENGTH + (header & 0xff); //value length + header length
             }
         } else {
             this.setField(OFOXMFieldType.IN_PORT, data.getInt());
@@ -787,54 +1173,128 @@ public class OFMatch implements Cloneable {
         short matchLength = getMatchLength();
         data.putShort((short)this.type.ordinal());
         data.putShort(matchLength); //length does not include padding
-        if (matchFields != null)
-            for (OFMatchField matchField : matchFields) 
-                matchField.writeTo(data);
+        for (int i = 0; i < fieldCount; i++) {
+            OFOXMFieldType field = OFOXMFieldType.valueOf(order[i]);
+            long b = bit(field);
+            if ((spilled & b) != 0) {
+                getSpillField(field).writeTo(data);
+                continue;
+            }
+            int n = field.getPayloadLength();
+            boolean hasMask = (masked & b) != 0;
+            data.putInt((field.getMatchClass() << 16) | (field.getValue() << 9) |
+                        (hasMask ? (1 << 8) | 2 * n : n));
+            writeSlot(data, n, getSlot(field));
+            if (hasMask)
+                writeSlot(data, n, getSlotMask(field));
+        }
         
         int padLength = 8*((matchLength + 7)/8) - matchLength;
         for (;padLength>0;padLength--)
             data.put((byte)0); //pad
     }
 
+    /**
+     * Matches with the same fields hash alike whatever order the fields
+     * were set in
+     */
     public int hashCode() {
+        long result = longHashCode();
+        return (int) (result ^ (result >>> 32));
+    }
+
+    /**
+     * Get the hash of the match before it is folded to an int. It depends
+     * linearly on the value of each field that is not spilled, see
+     * OFFlowModTemplate.
+     * @return
+     */
+    long longHashCode() {
         final int prime = 227;
-        int result = 1;
-        result = prime * result + ((matchFields == null) ? 0 : matchFields.hashCode());
+        long result = prime * present + masked;
+        for (long f = present & ~spilled; f != 0; f &= f - 1) {
+            OFOXMFieldType field = OFOXMFieldType.valueOf(
+                    (byte) Long.numberOfTrailingZeros(f));
+            result = prime * result + getSlot(field);
+            result = prime * result + getSlotMask(field);
+        }
+        if (spillFields != null) {
+            for (OFMatchField matchField : spillFields) {
+                result += prime * matchField.getType().getValue() +
+                          hashValue(matchField.getValue()) +
+                          hashValue(matchField.getMask());
+            }
+        }
         return result;
     }
 
+    /**
+     * Matches are equal if they have the same fields with the same values
+     * and masks, whatever order the fields were set in
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
             return true;
         }
-        if (!super.equals(obj)) {
+        if (!(obj instanceof OFMatch)) {
             return false;
         }
-        if (!(obj instanceof OFMatchField)) {
+        OFMatch other = (OFMatch) obj;
+        if (type != other.type || present != other.present ||
+                masked != other.masked || spilled != other.spilled) {
             return false;
         }
-        OFMatch other = (OFMatch) obj;
-        if (matchFields == null) {
-            if (other.matchFields != null)
+        for (long f = present & ~spilled; f != 0; f &= f - 1) {
+            OFOXMFieldType field = OFOXMFieldType.valueOf(
+                    (byte) Long.numberOfTrailingZeros(f));
+            if (getSlot(field) != other.getSlot(field) ||
+                    getSlotMask(field) != other.getSlotMask(field)) {
                 return false;
-        } else if (!matchFields.equals(other.matchFields)) {
-            return false;
+            }
+        }
+        if (spillFields != null) {
+            for (OFMatchField matchField : spillFields) {
+                OFMatchField otherField = other.getSpillField(matchField.getType());
+                if (!equalValues(matchField.getValue(), otherField.getValue()) ||
+                        !equalValues(matchField.getMask(), otherField.getMask())) {
+                    return false;
+                }
+            }
         }
         return true;
     }
 
+    private static int hashValue(Object value) {
+        if (value == null)
+            return 0;
+        if (value instanceof byte[])
+            return Arrays.hashCode((byte[]) value);
+        return value.hashCode();
+    }
+
+    private static boolean equalValues(Object a, Object b) {
+        if (a == null)
+            return b == null;
+        if (a instanceof byte[])
+            return (b instanceof byte[]) && Arrays.equals((byte[]) a, (byte[]) b);
+        return a.equals(b);
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#clone()
      */
     @Override
     public OFMatch clone() {
-        OFMatch match = new OFMatch();
         try {
-            List<OFMatchField> neoMatchFields = new LinkedList<OFMatchField>();
-            for(OFMatchField matchField: this.matchFields)
-                neoMatchFields.add((OFMatchField) matchField.clone());
-            match.setMatchFields(neoMatchFields);
+            OFMatch match = (OFMatch) super.clone();
+            if (order != null)
+                match.order = order.clone();
+            if (spillFields != null) {
+                match.spillFields = new ArrayList<OFMatchField>(spillFields.size());
+                for (OFMatchField matchField: spillFields)
+                    match.spillFields.add(matchField.clone());
+            }
             return match;
         } catch (CloneNotSupportedException e) {
             // Won't happen
@@ -967,7 +1427,7 @@ public class OFMatch implements Cloneable {
      */
     @Override
     public String toString() {
-        return "OFMatch [type=" + type + ", length=" + length + ", matchFields=" + matchFields + "]";
+        return "OFMatch [type=" + type + ", length=" + length + ", matchFields=" + getMatchFields() + "]";
     }
 
     /**
@@ -21,6 +21,8 @@ public class OFMessage {
     protected OFType type;
     protected short length;
     protected int xid;
+    // set when the length was just computed for writing this message
+    protected transient boolean lengthComputed;
 
     public OFMessage() {
         this.version = OFP_VERSION;
@@ -138,7 +140,10 @@ public class OFMessage {
      * @param data
      */
     public void writeTo(ByteBuffer data) {
-        computeLength();
+        if (lengthComputed)
+            lengthComputed = false;
+        else
+            computeLength();
         data.put(version);
         data.put(type.getTypeValue());
         data.putShort(length);
@@ -155,6 +160,27 @@ public class OFMessage {
         this.length = (short) MINIMUM_LENGTH;
     }
 
+    /**
+     * Compute the length of this message right before writing it. The
+     * following call to writeTo uses this length instead of computing it
+     * again, so the message must not change in between.
+     * @return the length of the message, unsigned
+     */
+    public int computeLengthForWrite() {
+        computeLength();
+        lengthComputed = true;
+        return getLengthU();
+    }
+
+    /**
+     * Forget a length computed by computeLengthForWrite, so the next call
+     * to writeTo computes it again. For messages that were sized but then
+     * not written.
+     */
+    public void clearComputedLength() {
+        lengthComputed = false;
+    }
+
     /**
      * Returns a summary of the message
      * @return "ofmsg=v=$version;t=$type:l=$len:xid=$xid"
@@ -58,7 +58,7 @@ public class OFOXMField implements Cloneable {
         return (type.getMatchClass() << 16)
             | (type.getValue() << 9)
             | (hasMask << 8)
-            | ((byte)type.getPayloadLength());
+            | ((hasMask + 1) * type.getPayloadLength()); // mask follows value
     }
 
     public boolean isAllZero(Object val) {
@@ -26,6 +26,11 @@ public class OFPacketIn extends OFMessage {
     protected long cookie;    
     protected OFMatch match;
     protected byte[] packetData;
+    // Payload location in the wire buffer when the message was decoded
+    // without copying; packetData is materialised from it on first use
+    protected ByteBuffer packetDataBuffer;
+    protected int packetDataOffset;
+    protected int packetDataLength;
 
     public OFPacketIn() {
         super();
@@ -102,19 +107,57 @@ public class OFPacketIn extends OFMessage {
     }
 
     /**
-     * Returns the packet data
+     * Returns the packet data. If the message was read with
+     * readFromNoCopy() the payload is copied out of its view on the first
+     * call and cached.
      * @return
      */
     public byte[] getPacketData() {
+        if (this.packetData == null && this.packetDataBuffer != null) {
+            byte[] data = new byte[this.packetDataLength];
+            ByteBuffer view = this.packetDataBuffer.duplicate();
+            view.position(this.packetDataOffset);
+            view.get(data);
+            this.packetData = data;
+        }
         return this.packetData;
     }
 
+    /**
+     * Returns a read-only view of the packet data without copying it
+     * @return
+     */
+    public ByteBuffer getPacketDataView() {
+        if (this.packetData != null)
+            return ByteBuffer.wrap(this.packetData).asReadOnlyBuffer();
+        if (this.packetDataBuffer != null) {
+            ByteBuffer view = this.packetDataBuffer.asReadOnlyBuffer();
+            view.limit(this.packetDataOffset + this.packetDataLength);
+            view.position(this.packetDataOffset);
+            return view;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the length of the packet data without materialising it
+     * @return
+     */
+    public int getPacketDataLength() {
+        if (this.packetData != null)
+            return this.packetData.length;
+        if (this.packetDataBuffer != null)
+            return this.packetDataLength;
+        return 0;
+    }
+
     /**
      * Sets the packet data, and updates the length of this message
      * @param packetData
      */
     public OFPacketIn setPacketData(byte[] packetData) {
         this.packetData = packetData;
+        this.packetDataBuffer = null;
         this.length = U16.t(OFPacketIn.MINIMUM_LENGTH + packetData.length);
         return this;
     }
@@ -124,10 +167,8 @@ public class OFPacketIn extends OFMessage {
      * @return
      */
     public int getInPort() {
-        for (OFMatchField matchField: match.matchFields) {
-            if (matchField.getType() == OFOXMFieldType.IN_PORT)
-                return (Integer) matchField.value;
-        }
+        if (match.fieldExists(OFOXMFieldType.IN_PORT))
+            return match.getInPort();
         return -1;
     }
 
@@ -167,6 +208,30 @@ public class OFPacketIn extends OFMessage {
 
     @Override
     public void readFrom(ByteBuffer data) {
+        readHeaderFrom(data);
+        // safeguard in case miss_send_len is left at default value of 128 bytes
+        this.packetData = new byte[Math.min(data.remaining(), getTotalLength())];
+        data.get(this.packetData);
+        this.packetDataBuffer = null;
+    }
+
+    /**
+     * Read this message off the wire without copying the packet data. Only
+     * the location of the payload in the given buffer is kept, so the caller
+     * must guarantee that the backing memory is never rewritten while this
+     * message is in use.
+     * @param data
+     */
+    public void readFromNoCopy(ByteBuffer data) {
+        readHeaderFrom(data);
+        this.packetDataBuffer = data;
+        this.packetDataOffset = data.position();
+        this.packetDataLength = Math.min(data.remaining(), getTotalLength());
+        this.packetData = null;
+        data.position(this.packetDataOffset + this.packetDataLength);
+    }
+
+    protected void readHeaderFrom(ByteBuffer data) {
         super.readFrom(data);
         this.bufferId = data.getInt();
         this.totalLength = data.getShort();
@@ -177,10 +242,6 @@ public class OFPacketIn extends OFMessage {
             this.match = new OFMatch();
         this.match.readFrom(data);
         data.getShort(); // pad
-
-        // safeguard in case miss_send_len is left at default value of 128 bytes
-        this.packetData = new byte[Math.min(data.remaining(), getTotalLength())];
-        data.get(this.packetData);
     }
 
     @Override
@@ -193,7 +254,10 @@ public class OFPacketIn extends OFMessage {
         data.putLong(cookie);
         this.match.writeTo(data);
         data.putShort((short) 0x0); // pad
-        data.put(this.packetData);
+        if (this.packetData == null && this.packetDataBuffer != null)
+            data.put(getPacketDataView());
+        else
+            data.put(this.packetData);
     }
 
     @Override
@@ -201,7 +265,7 @@ public class OFPacketIn extends OFMessage {
         final int prime = 283;
         int result = super.hashCode();
         result = prime * result + bufferId;
-        result = prime * result + Arrays.hashCode(packetData);
+        result = prime * result + Arrays.hashCode(getPacketData());
         result = prime * result + ((reason == null) ? 0 : reason.hashCode());
         result = prime * result + totalLength;
         result = prime * result + reason.ordinal();
@@ -225,7 +289,7 @@ public class OFPacketIn extends OFMessage {
         if (bufferId != other.bufferId) {
             return false;
         }
-        if (!Arrays.equals(packetData, other.packetData)) {
+        if (!Arrays.equals(getPacketData(), other.getPacketData())) {
             return false;
         }
         if (reason == null) {
@@ -271,7 +335,8 @@ public class OFPacketIn extends OFMessage {
     public void computeLength() {
         int l = MINIMUM_LENGTH - OFMatch.MINIMUM_LENGTH;
         l += match.getLength();
-        l += ((packetData != null) ? packetData.length : 0);
+        l += 2; // pad after the match
+        l += getPacketDataLength();
         this.length = U16.t(l);
     }
 
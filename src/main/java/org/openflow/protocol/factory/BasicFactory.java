@@ -3,6 +3,8 @@ package org.openflow.protocol.factory;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
@@ -21,6 +23,7 @@ import org.openflow.protocol.meter.OFMeterBand;
 import org.openflow.protocol.meter.OFMeterBandType;
 import org.openflow.protocol.statistics.tableFeatures.OFTableFeaturesProperty;
 import org.openflow.protocol.statistics.tableFeatures.OFTableFeaturesPropertyType;
+import org.openflow.util.U16;
 
 
 /**
@@ -37,8 +40,50 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
         OFInstructionFactory, OFHelloElementFactory,
         OFMeterBandFactory, OFTableFeaturesPropertyFactory {
 
+    /**
+     * Factories an object can be aware of, see getFactoryAwareness()
+     */
+    protected static final int ACTION_FACTORY = 1 << 0;
+    protected static final int INSTRUCTION_FACTORY = 1 << 1;
+    protected static final int MESSAGE_FACTORY = 1 << 2;
+    protected static final int QUEUE_PROPERTY_FACTORY = 1 << 3;
+    protected static final int STATISTICS_FACTORY = 1 << 4;
+    protected static final int HELLO_ELEMENT_FACTORY = 1 << 5;
+    protected static final int METER_BAND_FACTORY = 1 << 6;
+    protected static final int TABLE_FEATURES_PROPERTY_FACTORY = 1 << 7;
+
+    /**
+     * Number of messages of a type kept for reuse by default
+     */
+    public static final int DEFAULT_RECYCLE_CAPACITY = 1024;
+
+    /**
+     * What the factory resolved for one message type: the class its
+     * messages are created with, the factories that class needs and, if
+     * recycling is enabled for the type, the messages kept for reuse.
+     * Entries are immutable and replaced as a whole.
+     */
+    protected static class MessageType {
+        protected final Class<? extends OFMessage> clazz;
+        protected final int factories;
+        protected final BlockingQueue<OFMessage> recycled;
+
+        protected MessageType(Class<? extends OFMessage> clazz, int factories,
+                              BlockingQueue<OFMessage> recycled) {
+            this.clazz = clazz;
+            this.factories = factories;
+            this.recycled = recycled;
+        }
+    }
+
     private static final BasicFactory SINGLETON_INSTANCE = new BasicFactory();
 
+    /**
+     * Indexed by OFType ordinal, filled in on first use of each type
+     */
+    private final MessageType[] messageTypes =
+            new MessageType[OFType.values().length];
+
     protected BasicFactory() { }
 
     public static BasicFactory getInstance() {
@@ -56,10 +101,87 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
     @Override
     public OFMessage getMessage(OFType t) {
         OFMessage message = t.newInstance();
-        injectFactories(message);
+        injectFactories(message, getMessageType(t, message).factories);
         return message;
     }
 
+    /**
+     * Get a message to read a message of OFType t off the wire into. If
+     * recycling is enabled for t this is a message handed back through
+     * recycle() when one is available, otherwise a new message as from
+     * getMessage(). Either way its factories are set and the caller is
+     * expected to overwrite it with readFrom().
+     *
+     * @param t the type of the message to read
+     * @return a message of type t
+     */
+    public OFMessage getMessageForRead(OFType t) {
+        MessageType messageType = messageTypes[t.ordinal()];
+        if (messageType != null && messageType.recycled != null) {
+            OFMessage message = messageType.recycled.poll();
+            if (message != null)
+                return message;
+        }
+        return getMessage(t);
+    }
+
+    /**
+     * Hand a message that was read off the wire back for reuse by
+     * getMessageForRead(). Messages of types without recycling are left to
+     * the garbage collector, so a caller can hand back every message it is
+     * done with. Neither the message nor anything obtained from it, such as
+     * its match or its payload, may be used after it was handed back.
+     *
+     * @param m the message
+     */
+    public void recycle(OFMessage m) {
+        OFType t = m.getType();
+        if (t == null)
+            return;
+        MessageType messageType = messageTypes[t.ordinal()];
+        if (messageType != null && messageType.recycled != null &&
+                messageType.clazz == m.getClass())
+            messageType.recycled.offer(m);
+    }
+
+    /**
+     * Enable or disable recycling of the messages of OFType t. Only enable
+     * it for types whose messages nobody keeps once they were dispatched.
+     *
+     * @param t the type
+     * @param capacity the most messages kept for reuse; 0 disables recycling
+     */
+    public void setRecycling(OFType t, int capacity) {
+        OFMessage sample = t.newInstance();
+        messageTypes[t.ordinal()] = new MessageType(sample.getClass(),
+                getFactoryAwareness(sample.getClass()),
+                (capacity > 0) ? new ArrayBlockingQueue<OFMessage>(capacity) :
+                                 null);
+    }
+
+    /**
+     * Is recycling enabled for the messages of OFType t
+     */
+    public boolean isRecycling(OFType t) {
+        MessageType messageType = messageTypes[t.ordinal()];
+        return messageType != null && messageType.recycled != null;
+    }
+
+    /**
+     * Get the entry for OFType t, resolving it for the class of ofm if it
+     * was not yet resolved for that class
+     */
+    protected MessageType getMessageType(OFType t, OFMessage ofm) {
+        MessageType messageType = messageTypes[t.ordinal()];
+        if (messageType == null || messageType.clazz != ofm.getClass()) {
+            messageType = new MessageType(ofm.getClass(),
+                    getFactoryAwareness(ofm.getClass()),
+                    (messageType == null) ? null : messageType.recycled);
+            messageTypes[t.ordinal()] = messageType;
+        }
+        return messageType;
+    }
+
     @Override
     public List<OFMessage> parseMessages(ByteBuffer data) {
         return parseMessages(data, 0);
@@ -68,25 +190,21 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
     @Override
     public List<OFMessage> parseMessages(ByteBuffer data, int limit) {
         List<OFMessage> results = new ArrayList<OFMessage>();
-        OFMessage demux = new OFMessage();
         OFMessage ofm;
 
         while (limit == 0 || results.size() <= limit) {
             if (data.remaining() < OFMessage.MINIMUM_LENGTH)
                 return results;
 
-            data.mark();
-            demux.readFrom(data);
-            data.reset();
-
-            if (demux.getLengthU() > data.remaining())
+            // peek at the header without moving the position
+            int start = data.position();
+            if (U16.f(data.getShort(start + 2)) > data.remaining())
                 return results;
 
-            ofm = getMessage(demux.getType());
+            ofm = getMessageForRead(OFType.valueOf(data.get(start + 1)));
             if (ofm == null)
                 return null;
 
-            injectFactories(ofm);
             ofm.readFrom(data);
             if (OFMessage.class.equals(ofm.getClass())) {
                 // advance the position for un-implemented messages
@@ -99,31 +217,60 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
         return results;
     }
 
+    /**
+     * Get the factories instances of a class need
+     * @param clazz the class
+     * @return a combination of the *_FACTORY flags
+     */
+    protected int getFactoryAwareness(Class<?> clazz) {
+        int factories = 0;
+        if (OFActionFactoryAware.class.isAssignableFrom(clazz))
+            factories |= ACTION_FACTORY;
+        if (OFInstructionFactoryAware.class.isAssignableFrom(clazz))
+            factories |= INSTRUCTION_FACTORY;
+        if (OFMessageFactoryAware.class.isAssignableFrom(clazz))
+            factories |= MESSAGE_FACTORY;
+        if (OFQueuePropertyFactoryAware.class.isAssignableFrom(clazz))
+            factories |= QUEUE_PROPERTY_FACTORY;
+        if (OFStatisticsFactoryAware.class.isAssignableFrom(clazz))
+            factories |= STATISTICS_FACTORY;
+        if (OFHelloElementFactoryAware.class.isAssignableFrom(clazz))
+            factories |= HELLO_ELEMENT_FACTORY;
+        if (OFMeterBandFactoryAware.class.isAssignableFrom(clazz))
+            factories |= METER_BAND_FACTORY;
+        if (OFTableFeaturesPropertyFactoryAware.class.isAssignableFrom(clazz))
+            factories |= TABLE_FEATURES_PROPERTY_FACTORY;
+        return factories;
+    }
+
     protected void injectFactories(OFMessage ofm) {
-        if (ofm instanceof OFActionFactoryAware) {
-            ((OFActionFactoryAware)ofm).setActionFactory(this);
-        }
-        if (ofm instanceof OFInstructionFactoryAware) {
-            ((OFInstructionFactoryAware)ofm).setInstructionFactory(this);
-        }
-        if (ofm instanceof OFMessageFactoryAware) {
-            ((OFMessageFactoryAware)ofm).setMessageFactory(this);
-        }
-        if (ofm instanceof OFQueuePropertyFactoryAware) {
-            ((OFQueuePropertyFactoryAware)ofm).setQueuePropertyFactory(this);
-        }
-        if (ofm instanceof OFStatisticsFactoryAware) {
-            ((OFStatisticsFactoryAware)ofm).setStatisticsFactory(this);
-        }
-        if (ofm instanceof OFHelloElementFactoryAware) {
-            ((OFHelloElementFactoryAware)ofm).setHelloElementFactory(this);
-        }
-        if (ofm instanceof OFMeterBandFactoryAware) {
-            ((OFMeterBandFactoryAware)ofm).setMeterBandFactory(this);
-        }
-        if (ofm instanceof OFTableFeaturesPropertyFactoryAware) {
-            ((OFTableFeaturesPropertyFactoryAware)ofm).setTableFeaturesPropertyFactory(this);
-        }
+        injectFactories(ofm, getFactoryAwareness(ofm.getClass()));
+    }
+
+    /**
+     * Set this factory as the factories an object needs
+     * @param o the object
+     * @param factories the factories it needs, from getFactoryAwareness()
+     */
+    protected void injectFactories(Object o, int factories) {
+        if (factories == 0)
+            return;
+        if ((factories & ACTION_FACTORY) != 0)
+            ((OFActionFactoryAware)o).setActionFactory(this);
+        if ((factories & INSTRUCTION_FACTORY) != 0)
+            ((OFInstructionFactoryAware)o).setInstructionFactory(this);
+        if ((factories & MESSAGE_FACTORY) != 0)
+            ((OFMessageFactoryAware)o).setMessageFactory(this);
+        if ((factories & QUEUE_PROPERTY_FACTORY) != 0)
+            ((OFQueuePropertyFactoryAware)o).setQueuePropertyFactory(this);
+        if ((factories & STATISTICS_FACTORY) != 0)
+            ((OFStatisticsFactoryAware)o).setStatisticsFactory(this);
+        if ((factories & HELLO_ELEMENT_FACTORY) != 0)
+            ((OFHelloElementFactoryAware)o).setHelloElementFactory(this);
+        if ((factories & METER_BAND_FACTORY) != 0)
+            ((OFMeterBandFactoryAware)o).setMeterBandFactory(this);
+        if ((factories & TABLE_FEATURES_PROPERTY_FACTORY) != 0)
+            ((OFTableFeaturesPropertyFactoryAware)o).setTableFeaturesPropertyFactory(this);
     }
 
     @Override
@@ -139,7 +286,6 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
     @Override
     public List<OFAction> parseActions(ByteBuffer data, int length, int limit) {
         List<OFAction> results = new ArrayList<OFAction>();
-        OFAction demux = new OFAction();
         OFAction ofa;
         int end = data.position() + length;
 
@@ -148,15 +294,13 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
                     (data.position() + OFAction.MINIMUM_LENGTH) > end)
                 return results;
 
-            data.mark();
-            demux.readFrom(data);
-            data.reset();
-
-            if (demux.getLengthU() > data.remaining() ||
-                    (data.position() + demux.getLengthU()) > end)
+            // peek at the type and length without moving the position
+            int elementLength = U16.f(data.getShort(data.position() + 2));
+            if (elementLength > data.remaining() ||
+                    (data.position() + elementLength) > end)
                 return results;
 
-            ofa = getAction(demux.getType());
+            ofa = getAction(OFActionType.valueOf(data.getShort(data.position())));
             ofa.readFrom(data);
             if (OFAction.class.equals(ofa.getClass())) {
                 // advance the position for un-implemented messages
@@ -187,7 +331,6 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
     @Override
     public List<OFInstruction> parseInstructions(ByteBuffer data, int length, int limit) {
         List<OFInstruction> results = new ArrayList<OFInstruction>();
-        OFInstruction demux = new OFInstruction();
         OFInstruction ofi;
         int end = data.position() + length;
 
@@ -196,15 +339,13 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
                     (data.position() + OFInstruction.MINIMUM_LENGTH) > end)
                 return results;
 
-            data.mark();
-            demux.readFrom(data);
-            data.reset();
-
-            if (demux.getLengthU() > data.remaining() ||
-                    (data.position() + demux.getLengthU()) > end)
+            // peek at the type and length without moving the position
+            int elementLength = U16.f(data.getShort(data.position() + 2));
+            if (elementLength > data.remaining() ||
+                    (data.position() + elementLength) > end)
                 return results;
 
-            ofi = getInstruction(demux.getType());
+            ofi = getInstruction(OFInstructionType.valueOf(data.getShort(data.position())));
 
             // If actions are embedded in the OFInstruction,
             // then set factory
@@ -259,6 +400,8 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
             ByteBuffer data, int length, int limit) {
         List<OFStatistics> results = new ArrayList<OFStatistics>();
         OFStatistics statistics = getStatistics(t, st);
+        // every record is of the same class, resolve its factories once
+        int factories = getFactoryAwareness(statistics.getClass());
 
         int start = data.position();
         int count = 0;
@@ -273,10 +416,7 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
              * buffered past this message
              */
             if ((length - count) >= statistics.getLength()) {
-                if (statistics instanceof OFInstructionFactoryAware)
-                    ((OFInstructionFactoryAware)statistics).setInstructionFactory(this);
-                else if (statistics instanceof OFTableFeaturesPropertyFactoryAware)
-                    ((OFTableFeaturesPropertyFactoryAware)statistics).setTableFeaturesPropertyFactory(this);
+                injectFactories(statistics, factories);
                 statistics.readFrom(data);
                 results.add(statistics);
                 count += statistics.getLength();
@@ -314,7 +454,6 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
     public List<OFQueueProperty> parseQueueProperties(ByteBuffer data,
             int length, int limit) {
         List<OFQueueProperty> results = new ArrayList<OFQueueProperty>();
-        OFQueueProperty demux = new OFQueueProperty();
         OFQueueProperty ofqp;
         int end = data.position() + length;
 
@@ -323,15 +462,13 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
                     (data.position() + OFQueueProperty.MINIMUM_LENGTH) > end)
                 return results;
 
-            data.mark();
-            demux.readFrom(data);
-            data.reset();
-
-            if (demux.getLengthU() > data.remaining() ||
-                    (data.position() + demux.getLengthU()) > end)
+            // peek at the type and length without moving the position
+            int elementLength = U16.f(data.getShort(data.position() + 2));
+            if (elementLength > data.remaining() ||
+                    (data.position() + elementLength) > end)
                 return results;
 
-            ofqp = getQueueProperty(demux.getType());
+            ofqp = getQueueProperty(OFQueuePropertyType.valueOf(data.getShort(data.position())));
             ofqp.readFrom(data);
             if (OFQueueProperty.class.equals(ofqp.getClass())) {
                 // advance the position for un-implemented messages
@@ -358,7 +495,6 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
     public List<OFHelloElement> parseHelloElements(ByteBuffer data,
             int length, int limit) {
         List<OFHelloElement> results = new ArrayList<OFHelloElement>();
-        OFHelloElement demux = new OFHelloElement();
         OFHelloElement ofqp;
         int end = data.position() + length;
 
@@ -367,15 +503,13 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
                     (data.position() + OFHelloElement.MINIMUM_LENGTH) > end)
                 return results;
 
-            data.mark();
-            demux.readFrom(data);
-            data.reset();
-
-            if (demux.getLengthU() > data.remaining() ||
-                    (data.position() + demux.getLengthU()) > end)
+            // peek at the type and length without moving the position
+            int elementLength = U16.f(data.getShort(data.position() + 2));
+            if (elementLength > data.remaining() ||
+                    (data.position() + elementLength) > end)
                 return results;
 
-            ofqp = getHelloElement(demux.getType());
+            ofqp = getHelloElement(OFHelloElementType.valueOf(data.getShort(data.position())));
             ofqp.readFrom(data);
             if (OFHelloElement.class.equals(ofqp.getClass())) {
                 // advance the position for un-implemented messages
@@ -403,7 +537,6 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
     public List<OFMeterBand> parseMeterBands(ByteBuffer data,
             int length, int limit) {
         List<OFMeterBand> results = new ArrayList<OFMeterBand>();
-        OFMeterBand demux = new OFMeterBand();
         OFMeterBand ofqp;
         int end = data.position() + length;
 
@@ -412,15 +545,13 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
                     (data.position() + OFMeterBand.MINIMUM_LENGTH) > end)
                 return results;
 
-            data.mark();
-            demux.readFrom(data);
-            data.reset();
-
-            if (demux.getLengthU() > data.remaining() ||
-                    (data.position() + demux.getLengthU()) > end)
+            // peek at the type and length without moving the position
+            int elementLength = U16.f(data.getShort(data.position() + 2));
+            if (elementLength > data.remaining() ||
+                    (data.position() + elementLength) > end)
                 return results;
 
-            ofqp = getMeterBand(demux.getType());
+            ofqp = getMeterBand(OFMeterBandType.valueOf(data.getShort(data.position())));
             ofqp.readFrom(data);
             if (OFMeterBand.class.equals(ofqp.getClass())) {
                 // advance the position for un-implemented messages
@@ -448,7 +579,6 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
     public List<OFTableFeaturesProperty> parseTableFeaturesProperties(ByteBuffer data,
             int length, int limit) {
         List<OFTableFeaturesProperty> results = new ArrayList<OFTableFeaturesProperty>();
-        OFTableFeaturesProperty demux = new OFTableFeaturesProperty();
         OFTableFeaturesProperty oftfp;
         int end = data.position() + length;
 
@@ -457,15 +587,13 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
                     (data.position() + OFTableFeaturesProperty.MINIMUM_LENGTH) > end)
                 return results;
 
-            data.mark();
-            demux.readFrom(data);
-            data.reset();
-
-            if (demux.getLengthU() > data.remaining() ||
-                    (data.position() + demux.getLengthU()) > end)
+            // peek at the type and length without moving the position
+            int elementLength = U16.f(data.getShort(data.position() + 2));
+            if (elementLength > data.remaining() ||
+                    (data.position() + elementLength) > end)
                 return results;
 
-            oftfp = getTableFeaturesProperty(demux.getType());
+            oftfp = getTableFeaturesProperty(OFTableFeaturesPropertyType.valueOf(data.getShort(data.position())));
             if (oftfp instanceof OFInstructionFactoryAware) 
                 ((OFInstructionFactoryAware)oftfp).setInstructionFactory(this);
             else if (oftfp instanceof OFActionFactoryAware) 
@@ -4,7 +4,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionType;
 import org.openflow.protocol.action.OFActionVendor;
@@ -12,6 +11,7 @@ import org.openflow.protocol.vendor.OFByteArrayVendorData;
 import org.openflow.protocol.vendor.OFVendorData;
 import org.openflow.protocol.vendor.OFVendorDataType;
 import org.openflow.protocol.vendor.OFVendorId;
+import org.openflow.util.U16;
 
 /**
  * the extended floodlight factory that supports vendor factories.
@@ -22,6 +22,8 @@ import org.openflow.protocol.vendor.OFVendorId;
 public class FloodlightFactory extends BasicFactory
     implements OFVendorDataFactory {
 
+    protected static final int VENDOR_DATA_FACTORY = 1 << 8;
+
 	private static final FloodlightFactory SINGLETON_INSTANCE = new FloodlightFactory();
     private final OFVendorActionRegistry vendorActionRegistry;
     
@@ -34,17 +36,23 @@ public class FloodlightFactory extends BasicFactory
     }
 
     @Override
-    protected void injectFactories(OFMessage ofm) {
-        super.injectFactories(ofm);
-        if (ofm instanceof OFVendorDataFactoryAware) {
-            ((OFVendorDataFactoryAware)ofm).setVendorDataFactory(this);
-        }
+    protected int getFactoryAwareness(Class<?> clazz) {
+        int factories = super.getFactoryAwareness(clazz);
+        if (OFVendorDataFactoryAware.class.isAssignableFrom(clazz))
+            factories |= VENDOR_DATA_FACTORY;
+        return factories;
+    }
+
+    @Override
+    protected void injectFactories(Object o, int factories) {
+        super.injectFactories(o, factories);
+        if ((factories & VENDOR_DATA_FACTORY) != 0)
+            ((OFVendorDataFactoryAware)o).setVendorDataFactory(this);
     }
 
     @Override
     public List<OFAction> parseActions(ByteBuffer data, int length, int limit) {
         List<OFAction> results = new ArrayList<OFAction>();
-        OFAction demux = new OFAction();
         OFAction ofa;
         int end = data.position() + length;
 
@@ -53,15 +61,14 @@ public class FloodlightFactory extends BasicFactory
                     (data.position() + OFAction.MINIMUM_LENGTH) > end)
                 return results;
 
-            data.mark();
-            demux.readFrom(data);
-            data.reset();
-
-            if (demux.getLengthU() > data.remaining() ||
-                    (data.position() + demux.getLengthU()) > end)
+            // peek at the type and length without moving the position
+            int start = data.position();
+            int actionLength = U16.f(data.getShort(start + 2));
+            if (actionLength > data.remaining() ||
+                    (start + actionLength) > end)
                 return results;
 
-            OFActionType type = demux.getType();
+            OFActionType type = OFActionType.valueOf(data.getShort(start));
             ofa = getAction(type);
             ofa.readFrom(data);
 
@@ -73,7 +80,7 @@ public class FloodlightFactory extends BasicFactory
                 if(vendorActionFactory != null) {
                     // if we have a specific vendorActionFactory for this vendor id,
                     // delegate to it for vendor-specific reparsing of the message
-                    data.reset();
+                    data.position(start);
                     OFActionVendor newAction = vendorActionFactory.readFrom(data);
                     if(newAction != null)
                         ofa = newAction;
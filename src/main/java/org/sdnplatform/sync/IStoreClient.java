@@ -17,6 +17,7 @@
 package org.sdnplatform.sync;
 
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.sdnplatform.sync.error.ObsoleteVersionException;
@@ -130,6 +131,19 @@ public interface IStoreClient<K, V> {
      */
     public IVersion put(K key, V value) throws SyncException;
 
+    /**
+     * Associate each of the given values to its key, as
+     * {@link #put(Object, Object)} does for a single key.  A null value
+     * deletes the key.  The same caveats about concurrent updates apply.
+     * If writing a value fails, the remaining values are still written and
+     * the first exception is thrown at the end.
+     *
+     * @param values a map from keys to the values to write
+     * @throws ObsoleteVersionException
+     * @throws SyncException
+     */
+    public void putAll(Map<K, V> values) throws SyncException;
+
     /**
      * Put the given Versioned value into the store for the given key if the
      * version is greater to or concurrent with existing values. Throw an
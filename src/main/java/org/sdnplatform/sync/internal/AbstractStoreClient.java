@@ -1,6 +1,8 @@
 package org.sdnplatform.sync.internal;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.sdnplatform.sync.IStoreClient;
 import org.sdnplatform.sync.IVersion;
@@ -39,6 +41,18 @@ public abstract class AbstractStoreClient<K,V> implements IStoreClient<K, V> {
 
     @Override
     public IVersion put(K key, V value) throws SyncException {
+        return put(key, getVersioned(key, value));
+    }
+
+    /**
+     * Get the value with the version it should be written with, based on
+     * the versions already in the store
+     * @param key the key
+     * @param value the value
+     * @return the versioned value
+     * @throws SyncException
+     */
+    protected Versioned<V> getVersioned(K key, V value) throws SyncException {
         List<IVersion> versions = getVersions(key);
         Versioned<V> versioned;
         if(versions.isEmpty())
@@ -52,7 +66,20 @@ public abstract class AbstractStoreClient<K,V> implements IStoreClient<K, V> {
             else
                 versioned.setValue(value);
         }
-        return put(key, versioned);
+        return versioned;
+    }
+
+    @Override
+    public void putAll(Map<K, V> values) throws SyncException {
+        SyncException error = null;
+        for (Entry<K, V> e : values.entrySet()) {
+            try {
+                put(e.getKey(), e.getValue());
+            } catch (SyncException x) {
+                if (error == null) error = x;
+            }
+        }
+        if (error != null) throw error;
     }
 
     @Override
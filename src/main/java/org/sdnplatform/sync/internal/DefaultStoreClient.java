@@ -1,6 +1,8 @@
 package org.sdnplatform.sync.internal;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -11,6 +13,7 @@ import org.sdnplatform.sync.IStoreListener;
 import org.sdnplatform.sync.IVersion;
 import org.sdnplatform.sync.Versioned;
 import org.sdnplatform.sync.error.InconsistentDataException;
+import org.sdnplatform.sync.error.ObsoleteVersionException;
 import org.sdnplatform.sync.error.SyncException;
 import org.sdnplatform.sync.error.UnknownStoreException;
 import org.sdnplatform.sync.internal.store.IStore;
@@ -81,16 +84,37 @@ public class DefaultStoreClient<K, V> extends AbstractStoreClient<K, V> {
     @Override
     public IVersion put(K key, Versioned<V> versioned)
             throws SyncException {
-        VectorClock vc = (VectorClock)versioned.getVersion();
-
-        vc = vc.incremented(syncManager.getLocalNodeId(),
-                            System.currentTimeMillis());
-        versioned = Versioned.value(versioned.getValue(), vc);
-
+        versioned = incremented(versioned);
         delegate.put(key, versioned);
         return versioned.getVersion();
     }
 
+    /**
+     * Write all the values to the store in one batch.  The store writes
+     * them together, e.g. in one transaction, and notifies listeners and
+     * queues them for synchronization once for the batch.
+     */
+    @Override
+    public void putAll(Map<K, V> values) throws SyncException {
+        SyncException error = null;
+        List<Entry<K, Versioned<V>>> versioned =
+                new ArrayList<Entry<K, Versioned<V>>>(values.size());
+        for (Entry<K, V> e : values.entrySet()) {
+            try {
+                versioned.add(new Pair<K, Versioned<V>>(e.getKey(),
+                        incremented(getVersioned(e.getKey(), e.getValue()))));
+            } catch (SyncException x) {
+                if (error == null) error = x;
+            }
+        }
+        int written = delegate.putAll(versioned).size();
+        if (error == null && written < versioned.size()) {
+            error = new ObsoleteVersionException((versioned.size() - written) +
+                                                 " values had an obsolete version");
+        }
+        if (error != null) throw error;
+    }
+
     @Override
     public void addStoreListener(IStoreListener<K> listener) {
         if (listener == null)
@@ -120,6 +144,14 @@ public class DefaultStoreClient<K, V> extends AbstractStoreClient<K, V> {
     // Private local methods
     // *********************
 
+    private Versioned<V> incremented(Versioned<V> versioned) {
+        VectorClock vc = (VectorClock)versioned.getVersion();
+
+        vc = vc.incremented(syncManager.getLocalNodeId(),
+                            System.currentTimeMillis());
+        return Versioned.value(versioned.getValue(), vc);
+    }
+
     protected Versioned<V> handleGet(K key,
                                      Versioned<V> defaultValue,
                                      List<Versioned<V>> raw) 
@@ -4,6 +4,7 @@ import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -149,12 +150,39 @@ public class StoreRegistry {
             HintKey hk = new HintKey(storeName,key);
             hintLock.lock();
             try {
-                boolean needed = !hints.containsKey(hk);
-                needed &= hints.doput(hk, value);
-                if (needed) {
-                    hintQueue.add(hk);
+                if (doQueueHint(hk, value))
                     hintsAvailable.signal();
+            } finally {
+                hintLock.unlock();
+            }
+        } catch (SyncException e) {
+            logger.error("Failed to queue hint for store " + storeName, e);
+        }
+    }
+
+    /**
+     * Add a batch of key/values to the hint store for the given store,
+     * taking the hint lock once for the whole batch
+     * @param storeName the name of the store for the keyed values
+     * @param values the keys and values
+     */
+    @LogMessageDoc(level="ERROR",
+                   message="Failed to queue hint for store {storeName}",
+                   explanation="There was an error synchronizing data to " + 
+                               "remote nodes",
+                   recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    public void queueHints(String storeName,
+                           List<Entry<ByteArray, Versioned<byte[]>>> values) {
+        try {
+            hintLock.lock();
+            try {
+                boolean queued = false;
+                for (Entry<ByteArray, Versioned<byte[]>> e : values) {
+                    HintKey hk = new HintKey(storeName, e.getKey());
+                    queued |= doQueueHint(hk, e.getValue());
                 }
+                if (queued)
+                    hintsAvailable.signal();
             } finally {
                 hintLock.unlock();
             }
@@ -163,6 +191,20 @@ public class StoreRegistry {
         }
     }
 
+    /**
+     * Add a hint while holding the hint lock
+     * @return true if the key was added to the hint queue
+     */
+    private boolean doQueueHint(HintKey hk, Versioned<byte[]> value)
+            throws SyncException {
+        boolean needed = !hints.containsKey(hk);
+        needed &= hints.doput(hk, value);
+        if (needed) {
+            hintQueue.add(hk);
+        }
+        return needed;
+    }
+
     /**
      * Drain up to the given number of hints to the provided collection.
      * This method will block until at least one hint is available
@@ -3,22 +3,24 @@ package org.sdnplatform.sync.internal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 
-import org.sdnplatform.sync.IClosableIterator;
 import org.sdnplatform.sync.ISyncService;
 import org.sdnplatform.sync.Versioned;
 import org.sdnplatform.sync.IVersion.Occurred;
@@ -40,12 +42,15 @@ import org.sdnplatform.sync.internal.rpc.TProtocolUtil;
 import org.sdnplatform.sync.internal.store.IStorageEngine;
 import org.sdnplatform.sync.internal.store.IStore;
 import org.sdnplatform.sync.internal.store.MappingStoreListener;
+import org.sdnplatform.sync.internal.store.MerkleTree;
 import org.sdnplatform.sync.internal.store.SynchronizingStorageEngine;
 import org.sdnplatform.sync.internal.util.ByteArray;
 import org.sdnplatform.sync.internal.version.VectorClock;
 import org.sdnplatform.sync.thrift.SyncMessage;
 import org.sdnplatform.sync.thrift.KeyedValues;
 import org.sdnplatform.sync.thrift.KeyedVersions;
+import org.sdnplatform.sync.thrift.NodeDigest;
+import org.sdnplatform.sync.thrift.SyncDigestMessage;
 import org.sdnplatform.sync.thrift.SyncOfferMessage;
 import org.sdnplatform.sync.thrift.SyncValueMessage;
 import org.slf4j.Logger;
@@ -143,6 +148,23 @@ public class SyncManager extends AbstractSyncManager {
     private final Map<Integer, Cursor> cursorMap =
             new ConcurrentHashMap<Integer, Cursor>();
 
+    /**
+     * Digest exchanges with other nodes that are in progress, by node ID
+     * and store name
+     */
+    private final ConcurrentHashMap<String, DigestRound> digestRounds =
+            new ConcurrentHashMap<String, DigestRound>();
+
+    /**
+     * The digest of a store we don't have
+     */
+    private static final MerkleTree EMPTY_TREE = new MerkleTree();
+
+    /**
+     * Approximate size of a {@link NodeDigest} on the wire
+     */
+    private static final int DIGEST_SIZE = 15;
+
     /**
      * Whether to allow persistent stores or to use in-memory even
      * when persistence is requested
@@ -163,6 +185,9 @@ public class SyncManager extends AbstractSyncManager {
     public static IDebugCounter counterIterators;
     public static IDebugCounter counterErrorRemote;
     public static IDebugCounter counterErrorProcessing;
+    public static IDebugCounter counterAntientropyRounds;
+    public static IDebugCounter counterDigestBytes;
+    public static IDebugCounter counterSavedBytes;
 
     // ************
     // ISyncService
@@ -210,7 +235,10 @@ public class SyncManager extends AbstractSyncManager {
     }
 
     /**
-     * Perform a synchronization with the node specified
+     * Perform a synchronization with the node specified.  For each store,
+     * this starts an exchange of {@link MerkleTree} digests with the node
+     * that ends with offering the keys in the buckets whose digests differ.
+     * @see #handleSyncDigestResponse(short, String, List)
      */
     @LogMessageDoc(level="INFO",
                    message="[{id}->{id}] Synchronizing local state to remote node",
@@ -229,38 +257,25 @@ public class SyncManager extends AbstractSyncManager {
             } else if (Scope.UNSYNCHRONIZED.equals(store.getScope())) {
                 continue;
             }
-
-            IClosableIterator<Entry<ByteArray,
-                                  List<Versioned<byte[]>>>> entries =
-                    store.entries();
+            if (!rpcService.isConnected(node.getNodeId())) return;
+
+            MerkleTree tree = store.getDigestTree();
+            DigestRound round = new DigestRound(tree.getOfferSize());
+            digestRounds.put(getDigestRoundKey(node.getNodeId(),
+                                               store.getName()), round);
+
+            SyncMessage bsm =
+                    TProtocolUtil.getTSyncDigestRequestMessage(store.getName(),
+                                                               store.getScope(),
+                                                               store.isPersistent());
+            bsm.getSyncDigestRequest().
+                addToDigests(new NodeDigest(MerkleTree.ROOT,
+                                            tree.getHash(MerkleTree.ROOT)));
             try {
-                SyncMessage bsm =
-                        TProtocolUtil.getTSyncOfferMessage(store.getName(),
-                                                           store.getScope(),
-                                                           store.isPersistent());
-                int count = 0;
-                while (entries.hasNext()) {
-                    if (!rpcService.isConnected(node.getNodeId())) return;
-
-                    Entry<ByteArray, List<Versioned<byte[]>>> pair =
-                            entries.next();
-                    KeyedVersions kv =
-                            TProtocolUtil.getTKeyedVersions(pair.getKey(),
-                                                            pair.getValue());
-                    bsm.getSyncOffer().addToVersions(kv);
-                    count += 1;
-                    if (count >= 50) {
-                        sendSyncOffer(node.getNodeId(), bsm);
-                        bsm.getSyncOffer().unsetVersions();
-                        count = 0;
-                    }
-                }
-                sendSyncOffer(node.getNodeId(), bsm);
+                sendSyncDigest(node.getNodeId(), bsm, round);
             } catch (InterruptedException e) {
                 // This can't really happen
                 throw new RuntimeException(e);
-            } finally {
-                entries.close();
             }
         }
     }
@@ -335,6 +350,109 @@ public class SyncManager extends AbstractSyncManager {
         return false;
     }
 
+    /**
+     * Compare the digests sent by a node that is synchronizing its state to
+     * us against the digests of our copy of the store
+     * @param storeName the store to check
+     * @param digests the digests of the remote node
+     * @return our digests for the children of every interior node that
+     * differs, and for every leaf that differs
+     */
+    public List<NodeDigest> handleSyncDigestRequest(String storeName,
+                                                    List<NodeDigest> digests) {
+        SynchronizingStorageEngine store = storeRegistry.get(storeName);
+        MerkleTree tree = EMPTY_TREE;
+        if (store != null) tree = store.getDigestTree();
+
+        List<NodeDigest> result = new ArrayList<NodeDigest>();
+        for (NodeDigest d : digests) {
+            int n = d.getNode();
+            if (!MerkleTree.isNode(n) || tree.getHash(n) == d.getHash())
+                continue;
+            if (MerkleTree.isLeaf(n)) {
+                result.add(new NodeDigest(n, tree.getHash(n)));
+            } else {
+                addChildDigests(tree, n, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compare the digests sent back by a node we're synchronizing our state
+     * to against our own.  Where an interior node differs, send our
+     * digests for its children; where a leaf differs, offer the keys in it.
+     * @param nodeId the remote node ID
+     * @param storeName the store being synchronized
+     * @param digests the digests of the remote node
+     */
+    @LogMessageDoc(level="ERROR",
+                   message="[{id}->{id}] Failed to compare digests for store {name}",
+                   explanation="An error occurred while synchronizing " +
+                           "local state to a remote node",
+                   recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    public void handleSyncDigestResponse(short nodeId, String storeName,
+                                         List<NodeDigest> digests) {
+        SynchronizingStorageEngine store = storeRegistry.get(storeName);
+        if (store == null) return;
+        String roundKey = getDigestRoundKey(nodeId, storeName);
+        DigestRound round = digestRounds.get(roundKey);
+        if (round == null) round = new DigestRound(0);
+        round.digestBytes.addAndGet(digests.size() * DIGEST_SIZE);
+
+        MerkleTree tree = store.getDigestTree();
+        List<NodeDigest> next = new ArrayList<NodeDigest>();
+        Set<Integer> leaves = new HashSet<Integer>();
+        for (NodeDigest d : digests) {
+            int n = d.getNode();
+            if (!MerkleTree.isNode(n) || tree.getHash(n) == d.getHash())
+                continue;
+            if (MerkleTree.isLeaf(n)) {
+                leaves.add(n);
+            } else {
+                addChildDigests(tree, n, next);
+            }
+        }
+
+        try {
+            if (next.size() > 0) {
+                SyncMessage bsm =
+                        TProtocolUtil.getTSyncDigestRequestMessage(storeName,
+                                                                   store.getScope(),
+                                                                   store.isPersistent());
+                bsm.getSyncDigestRequest().setDigests(next);
+                sendSyncDigest(nodeId, bsm, round);
+            }
+
+            long offerBytes = 0;
+            int offered = 0;
+            if (leaves.size() > 0) {
+                List<ByteArray> keys = tree.getKeys(leaves);
+                offerBytes = tree.getOfferSize(keys);
+                offered = keys.size();
+                sendSyncOffers(nodeId, store, keys);
+            }
+            if (next.size() > 0) return;
+
+            // No more digests to compare, so this round is over
+            digestRounds.remove(roundKey, round);
+            long saved = round.fullSize - round.digestBytes.get() - offerBytes;
+            logger.debug("[{}->{}] Synchronized store {}: offered {} of {} " +
+                         "keys, saved about {} bytes",
+                         new Object[]{getLocalNodeId(), nodeId, storeName,
+                                      offered, tree.size(), saved});
+            if (debugCounter != null && counterAntientropyRounds != null) {
+                counterAntientropyRounds.updateCounterWithFlush();
+                counterDigestBytes.updateCounterWithFlush(getCount(round.digestBytes.get()));
+                counterSavedBytes.updateCounterWithFlush(getCount(saved));
+            }
+        } catch (Exception e) {
+            logger.error("[" + getLocalNodeId() + "->" + nodeId +
+                         "] Failed to compare digests for store " +
+                         storeName, e);
+        }
+    }
+
     /**
      * Get access to the raw storage engine.  This is useful for some
      * on-the-wire communication
@@ -370,6 +488,17 @@ public class SyncManager extends AbstractSyncManager {
         storeRegistry.queueHint(e.getName(), key, value);
     }
 
+    /**
+     * Queue a synchronization of a batch of values to all nodes
+     * assocatiated with the storage engine specified
+     * @param e the storage engine for the values
+     * @param values the keys and values to synchronize
+     */
+    public void queueSyncTasks(SynchronizingStorageEngine e,
+                               List<Entry<ByteArray, Versioned<byte[]>>> values) {
+        storeRegistry.queueHints(e.getName(), values);
+    }
+
     @Override
     public void addListener(String storeName, MappingStoreListener listener)
             throws UnknownStoreException {
@@ -542,6 +671,18 @@ public class SyncManager extends AbstractSyncManager {
                                     "Number of errors processing messages from remote clients",
                                     CounterType.ALWAYS_COUNT,
                                     IDebugCounterService.CTR_MDATA_ERROR);
+                counterAntientropyRounds = debugCounter.registerCounter(PACKAGE,
+                                    "antientropy-rounds",
+                                    "Stores synchronized to remote nodes by comparing digests",
+                                    CounterType.ALWAYS_COUNT);
+                counterDigestBytes = debugCounter.registerCounter(PACKAGE,
+                                    "antientropy-digest-bytes",
+                                    "Approximate bytes of digests exchanged during antientropy",
+                                    CounterType.ALWAYS_COUNT);
+                counterSavedBytes = debugCounter.registerCounter(PACKAGE,
+                                    "antientropy-saved-bytes",
+                                    "Approximate bytes saved by offering only keys whose digests differ",
+                                    CounterType.ALWAYS_COUNT);
             } catch (CounterException e) {
                 throw new FloodlightModuleException(e.getMessage());
             }
@@ -683,6 +824,82 @@ public class SyncManager extends AbstractSyncManager {
         rpcService.writeToNode(nodeId, bsm);
     }
 
+    private void sendSyncDigest(short nodeId, SyncMessage bsm,
+                                DigestRound round)
+            throws InterruptedException {
+        SyncDigestMessage sdm = bsm.getSyncDigestRequest();
+        round.digestBytes.addAndGet(sdm.getDigestsSize() * DIGEST_SIZE);
+        if (logger.isTraceEnabled()) {
+            logger.trace("[{}->{}] Sending SyncDigestRequest with {} elements",
+                         new Object[]{getLocalNodeId(), nodeId,
+                                      sdm.getDigestsSize()});
+        }
+
+        sdm.getHeader().setTransactionId(rpcService.getTransactionId());
+        rpcService.writeToNode(nodeId, bsm);
+    }
+
+    private void sendSyncOffers(short nodeId,
+                                SynchronizingStorageEngine store,
+                                List<ByteArray> keys)
+            throws SyncException, InterruptedException {
+        SyncMessage bsm =
+                TProtocolUtil.getTSyncOfferMessage(store.getName(),
+                                                   store.getScope(),
+                                                   store.isPersistent());
+        int count = 0;
+        for (ByteArray key : keys) {
+            if (!rpcService.isConnected(nodeId)) return;
+
+            List<Versioned<byte[]>> values = store.get(key);
+            if (values == null || values.size() == 0) continue;
+            KeyedVersions kv = TProtocolUtil.getTKeyedVersions(key, values);
+            bsm.getSyncOffer().addToVersions(kv);
+            count += 1;
+            if (count >= 50) {
+                sendSyncOffer(nodeId, bsm);
+                bsm.getSyncOffer().unsetVersions();
+                count = 0;
+            }
+        }
+        sendSyncOffer(nodeId, bsm);
+    }
+
+    private static void addChildDigests(MerkleTree tree, int node,
+                                        List<NodeDigest> digests) {
+        int first = MerkleTree.getFirstChild(node);
+        for (int c = first; c < first + MerkleTree.FANOUT; c++) {
+            digests.add(new NodeDigest(c, tree.getHash(c)));
+        }
+    }
+
+    private static String getDigestRoundKey(short nodeId, String storeName) {
+        return nodeId + ":" + storeName;
+    }
+
+    private static int getCount(long value) {
+        if (value < 0) return 0;
+        return (int)Math.min(value, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Bookkeeping for the digest exchange with a node for a store
+     */
+    private static class DigestRound {
+        /**
+         * Approximate size of offering every key in the store
+         */
+        final long fullSize;
+        /**
+         * Approximate size of the digests exchanged so far
+         */
+        final AtomicLong digestBytes = new AtomicLong();
+
+        public DigestRound(long fullSize) {
+            this.fullSize = fullSize;
+        }
+    }
+
     /**
      * Periodically perform cleanup
      * @author readams
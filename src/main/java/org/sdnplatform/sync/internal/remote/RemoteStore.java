@@ -12,6 +12,7 @@ import java.util.concurrent.TimeoutException;
 import org.sdnplatform.sync.IClosableIterator;
 import org.sdnplatform.sync.IVersion;
 import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.error.ObsoleteVersionException;
 import org.sdnplatform.sync.error.RemoteStoreException;
 import org.sdnplatform.sync.error.SyncException;
 import org.sdnplatform.sync.error.SyncRuntimeException;
@@ -93,6 +94,24 @@ public class RemoteStore implements IStore<ByteArray, byte[]> {
         getReply(header.getTransactionId(), bsm);
     }
 
+    @Override
+    public List<Entry<ByteArray, Versioned<byte[]>>>
+            putAll(List<Entry<ByteArray, Versioned<byte[]>>> values)
+                    throws SyncException {
+        // the protocol carries one key per put request
+        List<Entry<ByteArray, Versioned<byte[]>>> written =
+                new ArrayList<Entry<ByteArray, Versioned<byte[]>>>(values.size());
+        for (Entry<ByteArray, Versioned<byte[]>> e : values) {
+            try {
+                put(e.getKey(), e.getValue());
+                written.add(e);
+            } catch (ObsoleteVersionException x) {
+                // skip it
+            }
+        }
+        return written;
+    }
+
     @Override
     public List<IVersion> getVersions(ByteArray key) throws SyncException {
         List<Versioned<byte[]>> values = get(key);
@@ -371,6 +371,56 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
         }
     }
 
+    @Override
+    protected void handleSyncDigestRequest(SyncDigestMessage request,
+                                           Channel channel) {
+        try {
+            SyncMessage bsm =
+                    TProtocolUtil.getTSyncDigestResponseMessage(request.getStore());
+            SyncDigestMessage response = bsm.getSyncDigestResponse();
+            response.getHeader().
+                setTransactionId(request.getHeader().getTransactionId());
+            if (request.isSetDigests()) {
+                String storeName = request.getStore().getStoreName();
+                response.setDigests(syncManager.
+                                    handleSyncDigestRequest(storeName,
+                                                            request.getDigests()));
+            }
+            if (logger.isTraceEnabled()) {
+                logger.trace("[{}->{}] Sending SyncDigestResponse with {} " +
+                             "elements",
+                             new Object[]{getLocalNodeIdString(),
+                                          getRemoteNodeIdString(),
+                                          response.getDigestsSize()});
+            }
+            channel.write(bsm);
+        } catch (Exception e) {
+            channel.write(getError(request.getHeader().getTransactionId(), e,
+                                   MessageType.SYNC_DIGEST_REQUEST));
+        }
+    }
+
+    @Override
+    protected void handleSyncDigestResponse(final SyncDigestMessage response,
+                                            Channel channel) {
+        final Short nodeId = getRemoteNodeId();
+        if (nodeId == null || !response.isSetDigests()) return;
+
+        // Comparing the digests can lead to offering many keys, which
+        // blocks while waiting for the message window, so do it in a
+        // background task like antientropy itself
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                syncManager.handleSyncDigestResponse(nodeId,
+                                                     response.getStore().
+                                                         getStoreName(),
+                                                     response.getDigests());
+            }
+        };
+        syncManager.getThreadPool().getScheduledExecutor().execute(task);
+    }
+
     @Override
     protected void handleFullSyncRequest(FullSyncRequestMessage request,
                                          Channel channel) {
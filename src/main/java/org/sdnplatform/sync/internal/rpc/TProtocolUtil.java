@@ -14,6 +14,7 @@ import org.sdnplatform.sync.thrift.KeyedValues;
 import org.sdnplatform.sync.thrift.KeyedVersions;
 import org.sdnplatform.sync.thrift.MessageType;
 import org.sdnplatform.sync.thrift.Store;
+import org.sdnplatform.sync.thrift.SyncDigestMessage;
 import org.sdnplatform.sync.thrift.SyncOfferMessage;
 import org.sdnplatform.sync.thrift.SyncValueMessage;
 import org.sdnplatform.sync.thrift.VersionedValue;
@@ -247,6 +248,46 @@ public class TProtocolUtil {
         return bsm;
     }
 
+    /**
+     * Get a partially-initialized {@link SyncDigestMessage} request wrapped
+     * with a {@link SyncMessage}.  The digests will not be set, and the
+     * transaction ID will not be set in the {@link AsyncMessageHeader}.
+     * @param storeName the name of the store associated with the message
+     * @param scope the {@link Scope} for the store
+     * @param persist whether the store is persistent
+     * @return the {@link SyncMessage}
+     */
+    public static SyncMessage getTSyncDigestRequestMessage(String storeName,
+                                                           Scope scope,
+                                                           boolean persist) {
+        SyncMessage bsm = new SyncMessage(MessageType.SYNC_DIGEST_REQUEST);
+        bsm.setSyncDigestRequest(getTSyncDigestMessage(getTStore(storeName,
+                                                                 scope,
+                                                                 persist)));
+        return bsm;
+    }
+
+    /**
+     * Get a partially-initialized {@link SyncDigestMessage} response
+     * wrapped with a {@link SyncMessage}.  The digests will not be set, and
+     * the transaction ID will not be set in the {@link AsyncMessageHeader}.
+     * @param store the {@link Store} associated with the message
+     * @return the {@link SyncMessage}
+     */
+    public static SyncMessage getTSyncDigestResponseMessage(Store store) {
+        SyncMessage bsm = new SyncMessage(MessageType.SYNC_DIGEST_RESPONSE);
+        bsm.setSyncDigestResponse(getTSyncDigestMessage(store));
+        return bsm;
+    }
+
+    private static SyncDigestMessage getTSyncDigestMessage(Store store) {
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        SyncDigestMessage sdm = new SyncDigestMessage();
+        sdm.setHeader(header);
+        sdm.setStore(store);
+        return sdm;
+    }
+
     /**
      * Convert a thrift {@link org.sdnplatform.sync.thrift.VectorClock} into
      * a {@link VectorClock}.
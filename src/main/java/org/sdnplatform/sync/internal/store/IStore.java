@@ -67,6 +67,19 @@ public interface IStore<K, V> {
     public void put(K key, Versioned<V> value)
             throws SyncException;
 
+    /**
+     * Associate each value with its key and version in this store, as
+     * {@link #put(Object, Versioned)} does for a single value.  A value
+     * whose version is obsolete is skipped and the others are still
+     * written.
+     *
+     * @param values the keys and the values to store with their versions
+     * @return the entries of values that were written, in order
+     * @throws SyncException
+     */
+    public List<Entry<K, Versioned<V>>>
+            putAll(List<Entry<K, Versioned<V>>> values) throws SyncException;
+
     /**
      * Get a list of the versions associated with the given key
      * @param key the key
@@ -87,6 +87,18 @@ public class InMemoryStorageEngine<K, V> implements IStorageEngine<K, V> {
             throw new ObsoleteVersionException();
     }
 
+    @Override
+    public List<Entry<K, Versioned<V>>>
+            putAll(List<Entry<K, Versioned<V>>> values) throws SyncException {
+        List<Entry<K, Versioned<V>>> written =
+                new ArrayList<Entry<K, Versioned<V>>>(values.size());
+        for (Entry<K, Versioned<V>> e : values) {
+            if (doput(e.getKey(), e.getValue()))
+                written.add(e);
+        }
+        return written;
+    }
+
     public boolean doput(K key, Versioned<V> value) throws SyncException {
         StoreUtils.assertValidKey(key);
 
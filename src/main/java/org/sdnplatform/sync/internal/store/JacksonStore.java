@@ -113,6 +113,34 @@ public class JacksonStore<K, V> implements IStore<K, V> {
                      new Versioned<byte[]>(valuebytes, value.getVersion()));
     }
 
+    @Override
+    public List<Entry<K, Versioned<V>>>
+            putAll(List<Entry<K, Versioned<V>>> values) throws SyncException {
+        List<Entry<ByteArray, Versioned<byte[]>>> raw =
+                new ArrayList<Entry<ByteArray, Versioned<byte[]>>>(values.size());
+        for (Entry<K, Versioned<V>> e : values) {
+            Versioned<V> value = e.getValue();
+            byte[] valuebytes = value.getValue() != null 
+                    ? getValueBytes(value.getValue()) 
+                    : null;
+            raw.add(new Pair<ByteArray, Versioned<byte[]>>(getKeyBytes(e.getKey()),
+                    new Versioned<byte[]>(valuebytes, value.getVersion())));
+        }
+        List<Entry<ByteArray, Versioned<byte[]>>> rawWritten =
+                delegate.putAll(raw);
+        if (rawWritten.size() == raw.size())
+            return values;
+        // the written entries are in the order of raw, so match them up
+        List<Entry<K, Versioned<V>>> written =
+                new ArrayList<Entry<K, Versioned<V>>>(rawWritten.size());
+        int i = 0;
+        for (Entry<ByteArray, Versioned<byte[]>> e : rawWritten) {
+            while (raw.get(i) != e) i++;
+            written.add(values.get(i++));
+        }
+        return written;
+    }
+
     @Override
     public String getName() {
         return delegate.getName();
@@ -157,62 +157,48 @@ public class JavaDBStorageEngine implements IStorageEngine<ByteArray, byte[]> {
     @Override
     public void put(ByteArray key, Versioned<byte[]> value) 
             throws SyncException {
-        StoreUtils.assertValidKey(key);
+        List<Entry<ByteArray, Versioned<byte[]>>> values =
+                new ArrayList<Entry<ByteArray, Versioned<byte[]>>>(1);
+        values.add(new Pair<ByteArray, Versioned<byte[]>>(key, value));
+        if (putAll(values).isEmpty())
+            throw new ObsoleteVersionException("Obsolete version for key '" + key
+                                               + "': " + value.getVersion());
+    }
+
+    /**
+     * Write all the values in one transaction, so that the batch costs one
+     * connection and one commit rather than one per key
+     */
+    @Override
+    public List<Entry<ByteArray, Versioned<byte[]>>>
+            putAll(List<Entry<ByteArray, Versioned<byte[]>>> values)
+                    throws SyncException {
+        for (Entry<ByteArray, Versioned<byte[]>> e : values)
+            StoreUtils.assertValidKey(e.getKey());
+        List<Entry<ByteArray, Versioned<byte[]>>> written =
+                new ArrayList<Entry<ByteArray, Versioned<byte[]>>>(values.size());
         Connection dbConnection = null;
         try {
-            PreparedStatement stmt = null;
-            PreparedStatement update = null;
             try {
-                String keyStr = getKeyAsString(key);
                 dbConnection = getConnection();
                 dbConnection.setAutoCommit(false);
-                stmt = dbConnection.prepareStatement(getSql(SELECT_KEY));
-                List<Versioned<byte[]>> values = doSelect(stmt, keyStr);
-
-                int vindex;
-                if (values.size() > 0) {
-                    update = dbConnection.prepareStatement(getSql(UPDATE_KEY));
-                    update.setString(2, keyStr);
-                    vindex = 1;
-                } else {
-                    update = dbConnection.prepareStatement(getSql(INSERT_KEY));
-                    update.setString(1, keyStr);
-                    vindex = 2;
-                }
-
-                List<Versioned<byte[]>> itemsToRemove = 
-                        new ArrayList<Versioned<byte[]>>(values.size());
-                for(Versioned<byte[]> versioned: values) {
-                    Occurred occurred = value.getVersion().compare(versioned.getVersion());
-                    if(occurred == Occurred.BEFORE) {
-                        throw new ObsoleteVersionException("Obsolete version for key '" + key
-                                                           + "': " + value.getVersion());
-                    } else if(occurred == Occurred.AFTER) {
-                        itemsToRemove.add(versioned);
-                    }
+                for (Entry<ByteArray, Versioned<byte[]>> e : values) {
+                    if (doPut(dbConnection, e.getKey(), e.getValue()))
+                        written.add(e);
                 }
-                values.removeAll(itemsToRemove);
-                values.add(value);
-
-                ByteArrayInputStream is = 
-                        new ByteArrayInputStream(mapper.writeValueAsBytes(values));                
-                update.setBinaryStream(vindex, is);
-                update.execute();
                 dbConnection.commit();
-            } catch (SyncException e) {
-                dbConnection.rollback();
-                throw e;
             } catch (Exception e) {
-                dbConnection.rollback();
-                throw new PersistException("Could not retrieve key from database",
+                if (dbConnection != null) dbConnection.rollback();
+                throw new PersistException("Could not write keys to database",
                                            e);
             } finally {
-                cleanupSQL(dbConnection, stmt, update);
+                cleanupSQL(dbConnection);
             }
         } catch (SQLException e) {
             cleanupSQL(dbConnection);
             throw new PersistException("Could not clean up", e);
         }
+        return written;
     }
 
     @Override
@@ -424,6 +410,56 @@ public class JavaDBStorageEngine implements IStorageEngine<ByteArray, byte[]> {
         }
     }
 
+    /**
+     * Write a value within the transaction of the given connection
+     * @return false if the version of the value is obsolete, in which case
+     *         nothing is written
+     */
+    private boolean doPut(Connection dbConnection, ByteArray key,
+                          Versioned<byte[]> value)
+                throws SQLException, IOException {
+        PreparedStatement stmt = null;
+        PreparedStatement update = null;
+        try {
+            String keyStr = getKeyAsString(key);
+            stmt = dbConnection.prepareStatement(getSql(SELECT_KEY));
+            List<Versioned<byte[]>> values = doSelect(stmt, keyStr);
+
+            int vindex;
+            if (values.size() > 0) {
+                update = dbConnection.prepareStatement(getSql(UPDATE_KEY));
+                update.setString(2, keyStr);
+                vindex = 1;
+            } else {
+                update = dbConnection.prepareStatement(getSql(INSERT_KEY));
+                update.setString(1, keyStr);
+                vindex = 2;
+            }
+
+            List<Versioned<byte[]>> itemsToRemove = 
+                    new ArrayList<Versioned<byte[]>>(values.size());
+            for(Versioned<byte[]> versioned: values) {
+                Occurred occurred = value.getVersion().compare(versioned.getVersion());
+                if(occurred == Occurred.BEFORE) {
+                    return false;
+                } else if(occurred == Occurred.AFTER) {
+                    itemsToRemove.add(versioned);
+                }
+            }
+            values.removeAll(itemsToRemove);
+            values.add(value);
+
+            ByteArrayInputStream is = 
+                    new ByteArrayInputStream(mapper.writeValueAsBytes(values));                
+            update.setBinaryStream(vindex, is);
+            update.execute();
+            return true;
+        } finally {
+            if (stmt != null) stmt.close();
+            if (update != null) update.close();
+        }
+    }
+
     private void doClearTombstone(String keyStr) throws SyncException {
         Connection dbConnection = null;
         try {
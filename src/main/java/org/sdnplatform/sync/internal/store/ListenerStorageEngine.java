@@ -84,6 +84,23 @@ public class ListenerStorageEngine
         notifyListeners(key, UpdateType.LOCAL);
     }
 
+    @Override
+    public List<Entry<ByteArray, Versioned<byte[]>>>
+            putAll(List<Entry<ByteArray, Versioned<byte[]>>> values)
+                    throws SyncException {
+        if (debugCounter != null)
+            SyncManager.counterPuts.updateCounterWithFlush(values.size());
+        List<Entry<ByteArray, Versioned<byte[]>>> written =
+                localStorage.putAll(values);
+        if (!written.isEmpty()) {
+            List<ByteArray> keys = new ArrayList<ByteArray>(written.size());
+            for (Entry<ByteArray, Versioned<byte[]>> e : written)
+                keys.add(e.getKey());
+            notifyListeners(keys.iterator(), UpdateType.LOCAL);
+        }
+        return written;
+    }
+
     @Override
     public IClosableIterator<ByteArray> keys() {
         return localStorage.keys();
@@ -0,0 +1,288 @@
+package org.sdnplatform.sync.internal.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.sdnplatform.sync.IClosableIterator;
+import org.sdnplatform.sync.IVersion;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.version.ClockEntry;
+import org.sdnplatform.sync.internal.version.VectorClock;
+
+/**
+ * A hash tree over the keys of a store and the versions held for each
+ * key, used by antientropy to find the parts of two stores that differ
+ * without exchanging every key.  Keys are assigned to one of
+ * {@link #LEAVES} buckets by their hash.  The hash of a node is the XOR of
+ * the hashes of the entries below it, so writing a key only updates the
+ * nodes on the path from its bucket to the root.
+ *
+ * Nodes are numbered breadth first: the root is 0 and the children of
+ * node n are n * {@link #FANOUT} + 1 through n * {@link #FANOUT} +
+ * {@link #FANOUT}.
+ */
+public class MerkleTree {
+    private static final int FANOUT_BITS = 4;
+
+    /**
+     * Number of children of each interior node
+     */
+    public static final int FANOUT = 1 << FANOUT_BITS;
+
+    /**
+     * Number of levels below the root
+     */
+    public static final int DEPTH = 3;
+
+    /**
+     * Number of leaf buckets
+     */
+    public static final int LEAVES = 1 << (FANOUT_BITS * DEPTH);
+
+    /**
+     * The root node
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * Total number of nodes in the tree
+     */
+    public static final int SIZE = (LEAVES * FANOUT - 1) / (FANOUT - 1);
+
+    private static final int FIRST_LEAF = SIZE - LEAVES;
+
+    private final long[] hashes = new long[SIZE];
+    private final Map<ByteArray, Digest> entries =
+            new HashMap<ByteArray, Digest>();
+    private long offerSize = 0;
+
+    /**
+     * The hash of a key and its versions, along with its bucket and the
+     * approximate size of offering its versions to another node
+     */
+    private static class Digest {
+        final int leaf;
+        final long hash;
+        final int size;
+
+        public Digest(int leaf, long hash, int size) {
+            this.leaf = leaf;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    // ************
+    // Tree queries
+    // ************
+
+    /**
+     * Check whether the given node number is a node of the tree
+     * @param node the node number
+     * @return true if the node exists
+     */
+    public static boolean isNode(int node) {
+        return node >= 0 && node < SIZE;
+    }
+
+    /**
+     * Check whether the given node is a leaf bucket
+     * @param node the node number
+     * @return true if the node is a leaf
+     */
+    public static boolean isLeaf(int node) {
+        return node >= FIRST_LEAF && node < SIZE;
+    }
+
+    /**
+     * Get the first child of an interior node.  The other children follow
+     * it.
+     * @param node the node number
+     * @return the node number of the first child
+     */
+    public static int getFirstChild(int node) {
+        return node * FANOUT + 1;
+    }
+
+    // **************
+    // Public methods
+    // **************
+
+    /**
+     * Get the hash of a node
+     * @param node the node number
+     * @return the XOR of the hashes of the entries below the node
+     */
+    public synchronized long getHash(int node) {
+        return hashes[node];
+    }
+
+    /**
+     * Get the number of keys in the tree
+     * @return the number of keys
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the approximate number of bytes needed to offer the versions of
+     * every key in the tree to another node
+     * @return the size in bytes
+     */
+    public synchronized long getOfferSize() {
+        return offerSize;
+    }
+
+    /**
+     * Get the keys in the given leaf buckets
+     * @param leaves the leaf node numbers
+     * @return the keys
+     */
+    public synchronized List<ByteArray> getKeys(Set<Integer> leaves) {
+        List<ByteArray> keys = new ArrayList<ByteArray>();
+        for (Entry<ByteArray, Digest> e : entries.entrySet()) {
+            if (leaves.contains(e.getValue().leaf))
+                keys.add(e.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Get the approximate number of bytes needed to offer the versions of
+     * the given keys
+     * @param keys the keys
+     * @return the size in bytes
+     */
+    public synchronized long getOfferSize(Iterable<ByteArray> keys) {
+        long size = 0;
+        for (ByteArray key : keys) {
+            Digest d = entries.get(key);
+            if (d != null) size += d.size;
+        }
+        return size;
+    }
+
+    /**
+     * Set the versions held for a key
+     * @param key the key
+     * @param versions the versions, or an empty list if the key is no
+     * longer in the store
+     */
+    public synchronized void update(ByteArray key, List<IVersion> versions) {
+        Digest old = entries.remove(key);
+        if (old != null) {
+            offerSize -= old.size;
+            apply(old.leaf, old.hash);
+        }
+        if (versions == null || versions.size() == 0) return;
+
+        Digest d = getDigest(key, versions);
+        entries.put(key, d);
+        offerSize += d.size;
+        apply(d.leaf, d.hash);
+    }
+
+    /**
+     * Replace the contents of the tree with the given entries
+     * @param iter an iterator over the entries of a store.  The iterator
+     * will be closed.
+     */
+    public synchronized void rebuild(IClosableIterator<Entry<ByteArray,
+                                            List<Versioned<byte[]>>>> iter) {
+        entries.clear();
+        offerSize = 0;
+        for (int i = 0; i < SIZE; i++) {
+            hashes[i] = 0;
+        }
+        try {
+            while (iter.hasNext()) {
+                Entry<ByteArray, List<Versioned<byte[]>>> e = iter.next();
+                update(e.getKey(), StoreUtils.getVersions(e.getValue()));
+            }
+        } finally {
+            iter.close();
+        }
+    }
+
+    // *************
+    // Local methods
+    // *************
+
+    /**
+     * XOR the hash into the leaf and all its ancestors
+     */
+    private void apply(int leaf, long hash) {
+        int node = leaf;
+        while (true) {
+            hashes[node] ^= hash;
+            if (node == ROOT) break;
+            node = (node - 1) / FANOUT;
+        }
+    }
+
+    private static Digest getDigest(ByteArray key, List<IVersion> versions) {
+        byte[] k = key.get();
+        long keyHash = 0xcbf29ce484222325L;
+        for (byte b : k) {
+            keyHash ^= b & 0xff;
+            keyHash *= 0x100000001b3L;
+        }
+        keyHash = mix(keyHash);
+
+        // the versions of a key are not kept in any particular order, so
+        // combine them with a commutative operation
+        long versionHash = 0;
+        int size = 3 + varintSize(k.length) + k.length +
+                listHeaderSize(versions.size());
+        for (IVersion v : versions) {
+            VectorClock vc = (VectorClock)v;
+            List<ClockEntry> clock = vc.getEntries();
+            long h = mix(vc.getTimestamp());
+            size += 3 + listHeaderSize(clock.size()) +
+                    varintSize(zigzag(vc.getTimestamp()));
+            for (ClockEntry ce : clock) {
+                h = mix(h ^ ((long)ce.getNodeId() << 48) ^ ce.getVersion());
+                size += 3 + varintSize(zigzag(ce.getNodeId())) +
+                        varintSize(zigzag(ce.getVersion()));
+            }
+            versionHash += h;
+        }
+
+        int leaf = FIRST_LEAF + (int)(keyHash >>> (64 - FANOUT_BITS * DEPTH));
+        return new Digest(leaf, mix(keyHash + versionHash), size);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Sizes of the thrift compact protocol encoding of a KeyedVersions
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static int varintSize(long n) {
+        int size = 1;
+        while ((n & ~0x7fL) != 0) {
+            n >>>= 7;
+            size += 1;
+        }
+        return size;
+    }
+
+    private static int listHeaderSize(int n) {
+        return n < 15 ? 1 : 1 + varintSize(n);
+    }
+}
@@ -1,5 +1,8 @@
 package org.sdnplatform.sync.internal.store;
 
+import java.util.List;
+import java.util.Map.Entry;
+
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 
 import org.sdnplatform.sync.Versioned;
@@ -30,6 +33,13 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
      */
     protected Scope scope;
 
+    /**
+     * Digest of the store contents used for antientropy.  It is built
+     * the first time it's needed and then kept up to date as keys are
+     * written.
+     */
+    private volatile MerkleTree digestTree;
+
     /**
      * Allocate a synchronizing storage engine
      * @param localStorage the local storage
@@ -58,10 +68,56 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
     public void put(ByteArray key, Versioned<byte[]> value)
             throws SyncException {
         super.put(key, value);
+        updateDigest(key);
         if (!Scope.UNSYNCHRONIZED.equals(scope))
             syncManager.queueSyncTask(this, key, value);
     }
-    
+
+    @Override
+    public List<Entry<ByteArray, Versioned<byte[]>>>
+            putAll(List<Entry<ByteArray, Versioned<byte[]>>> values)
+                    throws SyncException {
+        List<Entry<ByteArray, Versioned<byte[]>>> written =
+                super.putAll(values);
+        updateDigest(written);
+        if (!Scope.UNSYNCHRONIZED.equals(scope))
+            syncManager.queueSyncTasks(this, written);
+        return written;
+    }
+
+    @Override
+    public boolean writeSyncValue(ByteArray key,
+                                  Iterable<Versioned<byte[]>> values) {
+        boolean r = super.writeSyncValue(key, values);
+        if (r) {
+            try {
+                updateDigest(key);
+            } catch (SyncException e) {
+                logger.debug("Failed to update digest for store {}; " +
+                             "rebuilding", getName(), e);
+                digestTree = null;
+            }
+        }
+        return r;
+    }
+
+    @Override
+    public void truncate() throws SyncException {
+        super.truncate();
+        digestTree = null;
+    }
+
+    @Override
+    public void cleanupTask() throws SyncException {
+        super.cleanupTask();
+        // cleanup removes old tombstones from the local storage directly,
+        // so rebuild the digest here rather than on the next antientropy
+        if (digestTree != null) {
+            digestTree = null;
+            getDigestTree();
+        }
+    }
+
     // **************
     // Public methods
     // **************
@@ -73,4 +129,47 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
     public Scope getScope() {
         return scope;
     }
+
+    /**
+     * Get the digest of the store contents, building it if needed
+     * @return the {@link MerkleTree}
+     */
+    public synchronized MerkleTree getDigestTree() {
+        MerkleTree tree = digestTree;
+        if (tree == null) {
+            tree = new MerkleTree();
+            synchronized (tree) {
+                // Publish the tree before reading the store, so that a
+                // concurrent write either is seen by the iterator or
+                // waits for the rebuild and then updates the tree
+                digestTree = tree;
+                tree.rebuild(localStorage.entries());
+            }
+        }
+        return tree;
+    }
+
+    // *************
+    // Local methods
+    // *************
+
+    private void updateDigest(ByteArray key) throws SyncException {
+        MerkleTree tree = digestTree;
+        if (tree == null) return;
+        // read the versions while holding the tree lock so that concurrent
+        // writes to the same key are applied in order
+        synchronized (tree) {
+            tree.update(key, localStorage.getVersions(key));
+        }
+    }
+
+    private void updateDigest(List<Entry<ByteArray, Versioned<byte[]>>> values)
+            throws SyncException {
+        MerkleTree tree = digestTree;
+        if (tree == null) return;
+        synchronized (tree) {
+            for (Entry<ByteArray, Versioned<byte[]>> e : values)
+                tree.update(e.getKey(), localStorage.getVersions(e.getKey()));
+        }
+    }
 }
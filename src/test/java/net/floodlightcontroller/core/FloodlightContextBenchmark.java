@@ -0,0 +1,107 @@
+package net.floodlightcontroller.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.devicemanager.IDeviceService;
+import net.floodlightcontroller.routing.IRoutingDecision;
+
+/**
+ * Compares a fresh context with string keys per packet, the way contexts
+ * used to be handled, against a reused context with slot keys. Each
+ * iteration stores and reads back the values a typical PACKET_IN pipeline
+ * puts in its context. Reports bytes allocated and time per packet.
+ * Run with
+ *   java -cp ... net.floodlightcontroller.core.FloodlightContextBenchmark
+ *         [iterations]
+ */
+public class FloodlightContextBenchmark {
+    private static final Object PAYLOAD = new Object();
+    private static final Object SRC = new Object();
+    private static final Object DST = new Object();
+    private static final Object DECISION = new Object();
+
+    private interface ContextPath {
+        int handle();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        final FloodlightContextStore<Object> store =
+                new FloodlightContextStore<Object>();
+
+        ContextPath mapPath = new ContextPath() {
+            @Override
+            public int handle() {
+                ConcurrentHashMap<String, Object> storage =
+                        new ConcurrentHashMap<String, Object>();
+                storage.put(IFloodlightProviderService.CONTEXT_PI_PAYLOAD,
+                            PAYLOAD);
+                storage.put(IDeviceService.CONTEXT_SRC_DEVICE, SRC);
+                storage.put(IDeviceService.CONTEXT_DST_DEVICE, DST);
+                storage.put(IRoutingDecision.CONTEXT_DECISION, DECISION);
+                int found = 0;
+                if (storage.get(IFloodlightProviderService.CONTEXT_PI_PAYLOAD) != null) found++;
+                if (storage.get(IDeviceService.CONTEXT_SRC_DEVICE) != null) found++;
+                if (storage.get(IDeviceService.CONTEXT_DST_DEVICE) != null) found++;
+                if (storage.get(IRoutingDecision.CONTEXT_DECISION) != null) found++;
+                return found;
+            }
+        };
+        ContextPath slotPath = new ContextPath() {
+            final FloodlightContext cntx = new FloodlightContext();
+            @Override
+            public int handle() {
+                store.put(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT,
+                          PAYLOAD);
+                store.put(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT, SRC);
+                store.put(cntx, IDeviceService.CONTEXT_DST_DEVICE_SLOT, DST);
+                store.put(cntx, IRoutingDecision.CONTEXT_DECISION_SLOT, DECISION);
+                int found = 0;
+                if (store.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT) != null) found++;
+                if (store.get(cntx, IDeviceService.CONTEXT_SRC_DEVICE_SLOT) != null) found++;
+                if (store.get(cntx, IDeviceService.CONTEXT_DST_DEVICE_SLOT) != null) found++;
+                if (store.get(cntx, IRoutingDecision.CONTEXT_DECISION_SLOT) != null) found++;
+                cntx.reset();
+                return found;
+            }
+        };
+
+        System.out.println("iterations=" + iterations);
+        // first pass warms up, second pass is reported
+        for (int pass = 0; pass < 2; pass++) {
+            run("map  ", mapPath, iterations, pass == 1);
+            run("slots", slotPath, iterations, pass == 1);
+        }
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    private static void run(String name, ContextPath path, int iterations,
+                            boolean report) {
+        long found = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            found += path.handle();
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (report) {
+            System.out.printf("%s: %8.1f ns/pkt %8.1f bytes/pkt (%d)%n", name,
+                              (double)elapsed / iterations,
+                              bytes < 0 ? Double.NaN : (double)bytes / iterations,
+                              found);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
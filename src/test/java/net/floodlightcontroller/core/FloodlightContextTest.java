@@ -0,0 +1,76 @@
+package net.floodlightcontroller.core;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class FloodlightContextTest {
+    private static final String SLOT_KEY =
+            "net.floodlightcontroller.core.FloodlightContextTest.slot";
+    private static final int SLOT = FloodlightContext.registerSlot(SLOT_KEY);
+
+    private final FloodlightContextStore<String> store =
+            new FloodlightContextStore<String>();
+
+    @Test
+    public void testRegisterSlotIsIdempotent() {
+        assertEquals(SLOT, FloodlightContext.registerSlot(SLOT_KEY));
+        assertEquals(SLOT, FloodlightContext.getSlot(SLOT_KEY));
+        assertEquals(-1, FloodlightContext.getSlot("not-registered"));
+    }
+
+    @Test
+    public void testSlotAndStringKeysAlias() {
+        FloodlightContext cntx = new FloodlightContext();
+        store.put(cntx, SLOT_KEY, "a");
+        assertEquals("a", store.get(cntx, SLOT));
+        // registered keys never go to the storage map
+        assertTrue(cntx.getStorage().isEmpty());
+
+        store.put(cntx, SLOT, "b");
+        assertEquals("b", store.get(cntx, SLOT_KEY));
+        store.remove(cntx, SLOT_KEY);
+        assertNull(store.get(cntx, SLOT));
+    }
+
+    @Test
+    public void testUnregisteredKeysUseStorage() {
+        FloodlightContext cntx = new FloodlightContext();
+        store.put(cntx, "plain-key", "c");
+        assertEquals("c", store.get(cntx, "plain-key"));
+        assertEquals("c", cntx.getStorage().get("plain-key"));
+        store.remove(cntx, "plain-key");
+        assertNull(store.get(cntx, "plain-key"));
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testPutNullSlotValue() {
+        store.put(new FloodlightContext(), SLOT, null);
+    }
+
+    @Test
+    public void testSlotsGrow() {
+        FloodlightContext cntx = new FloodlightContext();
+        int far = FloodlightContext.INITIAL_SLOTS * 3;
+        assertNull(store.get(cntx, far));
+        store.remove(cntx, far);
+        store.put(cntx, far, "d");
+        assertEquals("d", store.get(cntx, far));
+        assertTrue(cntx.slots.length > far);
+    }
+
+    @Test
+    public void testReset() {
+        FloodlightContext cntx = new FloodlightContext();
+        store.put(cntx, SLOT, "e");
+        store.put(cntx, FloodlightContext.INITIAL_SLOTS + 1, "f");
+        store.put(cntx, "plain-key", "g");
+        cntx.reset();
+        assertNull(store.get(cntx, SLOT));
+        assertNull(store.get(cntx, FloodlightContext.INITIAL_SLOTS + 1));
+        assertNull(store.get(cntx, "plain-key"));
+        assertEquals(0, cntx.slotsUsed);
+        for (Object o : cntx.slots)
+            assertNull(o);
+    }
+}
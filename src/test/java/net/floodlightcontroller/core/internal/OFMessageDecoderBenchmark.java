@@ -0,0 +1,93 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFMessage;
+
+/**
+ * Compares the copying and the zero-copy decoding paths of OFMessageDecoder
+ * on a stream of PACKET_INs. Reports bytes allocated and time per message.
+ * Run with
+ *   java -cp ... net.floodlightcontroller.core.internal.OFMessageDecoderBenchmark
+ *         [payloadBytes] [messagesPerRead] [iterations]
+ */
+public class OFMessageDecoderBenchmark {
+
+    private interface DecodePath {
+        int decode(ChannelBuffer buffer) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int payload = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int perRead = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        for (int i = 0; i < perRead; i++)
+            msgs.add(OFMessageDecoderTest.getPacketIn(i, payload));
+        final byte[] wire = OFMessageDecoderTest.serialize(msgs);
+
+        final Channel channel = createMock(Channel.class);
+        expect(channel.isConnected()).andReturn(true).anyTimes();
+        replay(channel);
+        final OFMessageDecoder copying = new OFMessageDecoder(false);
+        final OFMessageDecoder zeroCopy = new OFMessageDecoder(true);
+
+        DecodePath copyPath = new DecodePath() {
+            @Override
+            public int decode(ChannelBuffer buffer) throws Exception {
+                return ((List<?>)copying.decode(null, channel, buffer)).size();
+            }
+        };
+        DecodePath zeroCopyPath = new DecodePath() {
+            @Override
+            public int decode(ChannelBuffer buffer) throws Exception {
+                return zeroCopy.decodeFrames(channel, buffer).size();
+            }
+        };
+
+        System.out.println("payload=" + payload + "B messagesPerRead=" +
+                           perRead + " iterations=" + iterations);
+        // first pass warms up, second pass is reported
+        for (int pass = 0; pass < 2; pass++) {
+            run("copying ", copyPath, wire, iterations, pass == 1);
+            run("zerocopy", zeroCopyPath, wire, iterations, pass == 1);
+        }
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    private static void run(String name, DecodePath path, byte[] wire,
+                            int iterations, boolean report) throws Exception {
+        long count = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            count += path.decode(ChannelBuffers.wrappedBuffer(wire));
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (report) {
+            System.out.printf("%s: %8.1f ns/msg %8.1f bytes/msg%n", name,
+                              (double)elapsed / count,
+                              bytes < 0 ? Double.NaN : (double)bytes / count);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,201 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+
+public class OFMessageDecoderTest {
+    private Channel channel;
+    private byte[] wire;
+    private List<OFMessage> expected;
+
+    @Before
+    public void setUp() {
+        channel = createMock(Channel.class);
+        expect(channel.isConnected()).andReturn(true).anyTimes();
+        expect(channel.getRemoteAddress()).andReturn(null).anyTimes();
+        replay(channel);
+
+        expected = new ArrayList<OFMessage>();
+        for (int i = 0; i < 3; i++) {
+            expected.add(getPacketIn(i, 60 + i));
+            OFEchoRequest echo = new OFEchoRequest();
+            echo.setXid(100 + i);
+            expected.add(echo);
+        }
+        wire = serialize(expected);
+    }
+
+    static OFPacketIn getPacketIn(int xid, int dataLength) {
+        byte[] packetData = new byte[dataLength];
+        for (int i = 0; i < dataLength; i++)
+            packetData[i] = (byte)(i + xid);
+        OFPacketIn pi = new OFPacketIn();
+        pi.setBufferId(-1)
+          .setReason(OFPacketInReason.NO_MATCH)
+          .setTotalLength((short)dataLength)
+          .setMatch(new OFMatch().setInPort(xid + 1))
+          .setPacketData(packetData)
+          .setXid(xid);
+        pi.computeLength();
+        return pi;
+    }
+
+    static byte[] serialize(List<OFMessage> msgs) {
+        int size = 0;
+        for (OFMessage m : msgs) {
+            m.computeLength();
+            size += m.getLengthU();
+        }
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        for (OFMessage m : msgs)
+            m.writeTo(bb);
+        return bb.array();
+    }
+
+    @Test
+    public void testDecodeFramesMatchesCopyingParser() throws Exception {
+        OFMessageDecoder decoder = new OFMessageDecoder(true);
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(wire);
+        List<OFMessage> msgs = decoder.decodeFrames(channel, buffer);
+
+        List<OFMessage> parsed = BasicFactory.getInstance()
+                .parseMessages(ByteBuffer.wrap(wire));
+        assertEquals(expected.size(), msgs.size());
+        assertEquals(parsed.size(), msgs.size());
+        assertArrayEquals(wire, serialize(parsed));
+        assertArrayEquals(wire, serialize(msgs));
+        assertFalse(buffer.readable());
+    }
+
+    @Test
+    public void testPacketInPayloadIsNotCopied() throws Exception {
+        OFMessageDecoder decoder = new OFMessageDecoder(true);
+        List<OFMessage> msgs =
+                decoder.decodeFrames(channel, ChannelBuffers.wrappedBuffer(wire));
+        OFPacketIn pi = (OFPacketIn)msgs.get(0);
+        assertEquals(OFType.PACKET_IN, pi.getType());
+        assertEquals(60, pi.getPacketDataLength());
+
+        // The view aliases the received bytes until the payload is read
+        ByteBuffer view = pi.getPacketDataView();
+        int offset = pi.getLengthU() - 60;
+        assertEquals(wire[offset + 5], view.get(view.position() + 5));
+        wire[offset + 5] = (byte)0xff;
+        assertEquals((byte)0xff, view.get(view.position() + 5));
+
+        byte[] data = pi.getPacketData();
+        assertEquals(60, data.length);
+        assertEquals((byte)0xff, data[5]);
+        assertSame(data, pi.getPacketData());
+    }
+
+    @Test
+    public void testPartialFrameIsLeftUnread() throws Exception {
+        OFMessageDecoder decoder = new OFMessageDecoder(true);
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(wire, 0, 20);
+        assertNull(decoder.decodeFrames(channel, buffer));
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    private static MessageEvent getMessageEvent(Channel channel,
+                                                ChannelBuffer buffer) {
+        MessageEvent e = createMock(MessageEvent.class);
+        expect(e.getMessage()).andReturn(buffer).anyTimes();
+        expect(e.getChannel()).andReturn(channel).anyTimes();
+        expect(e.getRemoteAddress()).andReturn(null).anyTimes();
+        replay(e);
+        return e;
+    }
+
+    @Test
+    public void testRemainderDroppedOnClose() throws Exception {
+        OFMessageDecoder decoder = new OFMessageDecoder(true);
+        Capture<ChannelEvent> events =
+                new Capture<ChannelEvent>(CaptureType.ALL);
+        ChannelHandlerContext ctx = createMock(ChannelHandlerContext.class);
+        expect(ctx.getChannel()).andReturn(channel).anyTimes();
+        ctx.sendUpstream(capture(events));
+        expectLastCall().anyTimes();
+        replay(ctx);
+        ChannelStateEvent closed = createNiceMock(ChannelStateEvent.class);
+        replay(closed);
+
+        // a partial frame, then the connection goes away
+        decoder.messageReceived(ctx, getMessageEvent(channel,
+                ChannelBuffers.wrappedBuffer(wire, 0, 20)));
+        decoder.channelClosed(ctx, closed);
+
+        // a new connection must not see the stale bytes
+        decoder.messageReceived(ctx, getMessageEvent(channel,
+                ChannelBuffers.wrappedBuffer(wire)));
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        for (ChannelEvent ev : events.getValues()) {
+            if (!(ev instanceof MessageEvent)) continue;
+            @SuppressWarnings("unchecked")
+            List<OFMessage> batch =
+                    (List<OFMessage>)((MessageEvent)ev).getMessage();
+            msgs.addAll(batch);
+        }
+        assertArrayEquals(wire, serialize(msgs));
+    }
+
+    @Test
+    public void testFramesStraddlingReads() throws Exception {
+        for (int chunk : new int[] { 1, 7, 33, 100 }) {
+            OFMessageDecoder decoder = new OFMessageDecoder(true);
+            Capture<ChannelEvent> events =
+                    new Capture<ChannelEvent>(CaptureType.ALL);
+            ChannelHandlerContext ctx =
+                    createMock(ChannelHandlerContext.class);
+            expect(ctx.getChannel()).andReturn(channel).anyTimes();
+            ctx.sendUpstream(capture(events));
+            expectLastCall().anyTimes();
+            replay(ctx);
+
+            for (int off = 0; off < wire.length; off += chunk) {
+                int len = Math.min(chunk, wire.length - off);
+                MessageEvent e = createMock(MessageEvent.class);
+                expect(e.getMessage())
+                        .andReturn(ChannelBuffers.wrappedBuffer(wire, off, len))
+                        .anyTimes();
+                expect(e.getChannel()).andReturn(channel).anyTimes();
+                expect(e.getRemoteAddress()).andReturn(null).anyTimes();
+                replay(e);
+                decoder.messageReceived(ctx, e);
+            }
+
+            List<OFMessage> msgs = new ArrayList<OFMessage>();
+            for (ChannelEvent ev : events.getValues()) {
+                @SuppressWarnings("unchecked")
+                List<OFMessage> batch =
+                        (List<OFMessage>)((MessageEvent)ev).getMessage();
+                msgs.addAll(batch);
+            }
+            assertEquals("chunk size " + chunk, expected.size(), msgs.size());
+            assertArrayEquals("chunk size " + chunk, wire, serialize(msgs));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IOFSwitch;
+
+import org.jboss.netty.channel.Channel;
+import org.junit.After;
+import org.junit.Test;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFMessage;
+
+public class OFMessageDispatcherTest {
+    private OFMessageDispatcher dispatcher;
+
+    /**
+     * Records the order in which each switch's messages are handled
+     */
+    private static class RecordingController extends Controller {
+        final Map<Long, List<Integer>> handled =
+                new HashMap<Long, List<Integer>>();
+        final CountDownLatch done;
+        volatile CountDownLatch gate;
+
+        RecordingController(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        protected void handleMessage(IOFSwitch sw, OFMessage m,
+                                     FloodlightContext bContext)
+                throws IOException {
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            synchronized (handled) {
+                List<Integer> xids = handled.get(sw.getId());
+                if (xids == null) {
+                    xids = new ArrayList<Integer>();
+                    handled.put(sw.getId(), xids);
+                }
+                xids.add(m.getXid());
+            }
+            done.countDown();
+        }
+
+        @Override
+        void flushAll() {
+            // nothing to flush
+        }
+    }
+
+    private static IOFSwitch getSwitch(long dpid) {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(dpid).anyTimes();
+        replay(sw);
+        return sw;
+    }
+
+    private static Channel getChannel() {
+        Channel channel = createNiceMock(Channel.class);
+        replay(channel);
+        return channel;
+    }
+
+    private static OFMessage getMessage(int xid) {
+        OFEchoRequest m = new OFEchoRequest();
+        m.setXid(xid);
+        return m;
+    }
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null)
+            dispatcher.shutdown();
+    }
+
+    @Test
+    public void testPerSwitchOrdering() throws Exception {
+        int nSwitches = 8;
+        int perSwitch = 500;
+        RecordingController controller =
+                new RecordingController(nSwitches * perSwitch);
+        dispatcher = new OFMessageDispatcher(controller, 3, 64);
+        dispatcher.start();
+
+        IOFSwitch[] switches = new IOFSwitch[nSwitches];
+        Channel[] channels = new Channel[nSwitches];
+        for (int i = 0; i < nSwitches; i++) {
+            switches[i] = getSwitch(0x100L * i + 1);
+            channels[i] = getChannel();
+        }
+        for (int xid = 0; xid < perSwitch; xid++) {
+            for (int i = 0; i < nSwitches; i++)
+                dispatcher.dispatch(switches[i], channels[i], getMessage(xid));
+        }
+
+        assertTrue(controller.done.await(10, TimeUnit.SECONDS));
+        for (IOFSwitch sw : switches) {
+            List<Integer> xids = controller.handled.get(sw.getId());
+            assertEquals(perSwitch, xids.size());
+            for (int xid = 0; xid < perSwitch; xid++)
+                assertEquals(xid, xids.get(xid).intValue());
+        }
+    }
+
+    @Test
+    public void testShardForIsStable() {
+        dispatcher = new OFMessageDispatcher(new RecordingController(0), 4, 8);
+        for (long dpid = 0; dpid < 100; dpid++) {
+            int shard = dispatcher.shardFor(dpid);
+            assertTrue(shard >= 0 && shard < 4);
+            assertEquals(shard, dispatcher.shardFor(dpid));
+        }
+        assertTrue(dispatcher.shardFor(-1L) >= 0);
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        RecordingController controller = new RecordingController(4);
+        controller.gate = new CountDownLatch(1);
+        dispatcher = new OFMessageDispatcher(controller, 1, 8);
+        dispatcher.start();
+
+        Channel channel = createMock(Channel.class);
+        // high watermark of 6 is reached by the 6th or 7th message,
+        // depending on whether the worker already took the first one
+        expect(channel.setReadable(false)).andReturn(null).once();
+        expect(channel.setReadable(true)).andReturn(null).once();
+        replay(channel);
+
+        IOFSwitch sw = getSwitch(1L);
+        for (int xid = 0; xid < 7; xid++)
+            dispatcher.dispatch(sw, channel, getMessage(xid));
+        assertTrue(dispatcher.getQueueDepth(0) >= 6);
+
+        controller.gate.countDown();
+        assertTrue(controller.done.await(10, TimeUnit.SECONDS));
+        // wait for the worker to drain and resume the channel
+        for (int i = 0; i < 100 && dispatcher.getQueueDepth(0) > 0; i++)
+            Thread.sleep(10);
+        Thread.sleep(2 * OFMessageDispatcher.IDLE_POLL_MS);
+        verify(channel);
+    }
+
+    @Test
+    public void testFullQueueDoesNotBlock() throws Exception {
+        int n = 100;
+        RecordingController controller = new RecordingController(2 * n);
+        controller.gate = new CountDownLatch(1);
+        dispatcher = new OFMessageDispatcher(controller, 1, 8);
+        dispatcher.start();
+
+        IOFSwitch sw1 = getSwitch(1L);
+        IOFSwitch sw2 = getSwitch(2L);
+        Channel channel1 = getChannel();
+        Channel channel2 = getChannel();
+        // the worker is held, so all but a few messages overflow and
+        // dispatch returns anyway
+        for (int xid = 0; xid < n; xid++) {
+            dispatcher.dispatch(sw1, channel1, getMessage(xid));
+            dispatcher.dispatch(sw2, channel2, getMessage(xid));
+        }
+        assertTrue(dispatcher.getQueueDepth(0) <= 8);
+
+        controller.gate.countDown();
+        assertTrue(controller.done.await(10, TimeUnit.SECONDS));
+        for (IOFSwitch sw : new IOFSwitch[] { sw1, sw2 }) {
+            List<Integer> xids = controller.handled.get(sw.getId());
+            assertEquals(n, xids.size());
+            for (int xid = 0; xid < n; xid++)
+                assertEquals(xid, xids.get(xid).intValue());
+        }
+    }
+
+    @Test
+    public void testDisconnectedChannelIsNotResumed() throws Exception {
+        RecordingController controller = new RecordingController(7);
+        controller.gate = new CountDownLatch(1);
+        dispatcher = new OFMessageDispatcher(controller, 1, 8);
+        dispatcher.start();
+
+        Channel channel = createMock(Channel.class);
+        expect(channel.setReadable(false)).andReturn(null).once();
+        replay(channel);
+
+        IOFSwitch sw = getSwitch(1L);
+        for (int xid = 0; xid < 7; xid++)
+            dispatcher.dispatch(sw, channel, getMessage(xid));
+        dispatcher.channelDisconnected(channel);
+
+        controller.gate.countDown();
+        assertTrue(controller.done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(2 * OFMessageDispatcher.IDLE_POLL_MS);
+        verify(channel);
+    }
+}
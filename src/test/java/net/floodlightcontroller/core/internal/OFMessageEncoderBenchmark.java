@@ -0,0 +1,173 @@
+package net.floodlightcontroller.core.internal;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.openflow.protocol.OFMessage;
+
+/**
+ * Compares OFMessageEncoder with the previous encoding, which allocated a
+ * direct buffer per batch and computed every length twice, on batches of
+ * FLOW_MODs and PACKET_OUTs. Both go through the encoder's handleDownstream
+ * and the write completes right away, so pooled buffers are reused as
+ * they are when netty writes them. Reports encoded messages per second and
+ * bytes allocated per message. Direct memory is not part of the allocated
+ * bytes, only the buffer objects are.
+ * Run with
+ *   java -cp ... net.floodlightcontroller.core.internal.OFMessageEncoderBenchmark
+ *         [messagesPerBatch] [iterations]
+ */
+public class OFMessageEncoderBenchmark {
+
+    /**
+     * Completes every write as soon as the encoder passes it on
+     */
+    private static class WritingContext implements ChannelHandlerContext {
+        final Channel channel = EasyMock.createNiceMock(Channel.class);
+
+        WritingContext() {
+            EasyMock.replay(channel);
+        }
+
+        @Override
+        public void sendDownstream(ChannelEvent e) {
+            e.getFuture().setSuccess();
+        }
+
+        @Override
+        public Channel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public ChannelPipeline getPipeline() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return "encoder";
+        }
+
+        @Override
+        public ChannelHandler getHandler() {
+            return null;
+        }
+
+        @Override
+        public boolean canHandleUpstream() {
+            return false;
+        }
+
+        @Override
+        public boolean canHandleDownstream() {
+            return true;
+        }
+
+        @Override
+        public void sendUpstream(ChannelEvent e) {
+        }
+
+        @Override
+        public Object getAttachment() {
+            return null;
+        }
+
+        @Override
+        public void setAttachment(Object attachment) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int perBatch = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+
+        OneToOneEncoder previous = new OneToOneEncoder() {
+            @Override
+            protected Object encode(ChannelHandlerContext ctx,
+                                    Channel channel, Object msg) {
+                @SuppressWarnings("unchecked")
+                List<OFMessage> msglist = (List<OFMessage>)msg;
+                int size = 0;
+                for (OFMessage ofm : msglist) {
+                    ofm.computeLength();
+                    size += ofm.getLengthU();
+                }
+                ChannelBuffer buf = ChannelBuffers.directBuffer(size);
+                ByteBuffer data = buf.toByteBuffer(0, size);
+                for (OFMessage ofm : msglist) {
+                    ofm.writeTo(data);
+                }
+                buf.writerIndex(data.position());
+                return buf;
+            }
+        };
+        OneToOneEncoder pooled = new OFMessageEncoder();
+
+        List<OFMessage> flowMods =
+                OFMessageEncoderTest.getMix(perBatch, 0);
+        List<OFMessage> packetOuts =
+                OFMessageEncoderTest.getMix(0, perBatch);
+        List<OFMessage> mixed =
+                OFMessageEncoderTest.getMix(perBatch / 2, perBatch - perBatch / 2);
+
+        System.out.println("messagesPerBatch=" + perBatch +
+                           " iterations=" + iterations);
+        // first pass warms up, second pass is reported
+        for (int pass = 0; pass < 2; pass++) {
+            boolean report = pass == 1;
+            run("flowmod   previous", previous, flowMods, iterations, report);
+            run("flowmod   pooled  ", pooled, flowMods, iterations, report);
+            run("packetout previous", previous, packetOuts, iterations, report);
+            run("packetout pooled  ", pooled, packetOuts, iterations, report);
+            run("mixed     previous", previous, mixed, iterations, report);
+            run("mixed     pooled  ", pooled, mixed, iterations, report);
+        }
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    private static void run(String name, OneToOneEncoder encoder,
+                            List<OFMessage> msgs, int iterations,
+                            boolean report) throws Exception {
+        WritingContext ctx = new WritingContext();
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            MessageEvent e = new DownstreamMessageEvent(ctx.channel,
+                    Channels.future(ctx.channel), msgs, null);
+            encoder.handleDownstream(ctx, e);
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        long count = (long)iterations * msgs.size();
+        if (report) {
+            System.out.printf("%s: %10.0f msgs/s %8.1f bytes/msg%n", name,
+                              count * 1e9 / elapsed,
+                              bytes < 0 ? Double.NaN : (double)bytes / count);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,212 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.easymock.Capture;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketOut;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionApplyActions;
+
+public class OFMessageEncoderTest {
+
+    static OFFlowMod getFlowMod(int xid, int outPort) {
+        List<OFAction> actions = new ArrayList<OFAction>();
+        actions.add(new OFActionOutput(outPort, Short.MAX_VALUE));
+        OFFlowMod fm = new OFFlowMod();
+        fm.setMatch(OFMatch.fromString("in_port=" + (xid + 1) +
+                                       ",dl_dst=00:20:30:40:50:60"));
+        fm.setInstructions(Arrays.asList((OFInstruction)
+                new OFInstructionApplyActions().setActions(actions)));
+        fm.setBufferId(-1);
+        fm.setOutPort(OFPort.OFPP_ANY.getValue());
+        fm.setPriority(Short.MAX_VALUE);
+        fm.setXid(xid);
+        return fm;
+    }
+
+    static OFPacketOut getPacketOut(int xid, int dataLength) {
+        List<OFAction> actions = new ArrayList<OFAction>();
+        actions.add(new OFActionOutput(xid + 1, Short.MAX_VALUE));
+        OFPacketOut po = new OFPacketOut();
+        po.setBufferId(-1)
+          .setInPort(OFPort.OFPP_CONTROLLER)
+          .setActions(actions)
+          .setActionsLength((short)OFActionOutput.MINIMUM_LENGTH)
+          .setPacketData(new byte[dataLength])
+          .setXid(xid);
+        return po;
+    }
+
+    static List<OFMessage> getMix(int flowMods, int packetOuts) {
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        for (int i = 0; i < flowMods; i++)
+            msgs.add(getFlowMod(i, i + 2));
+        for (int i = 0; i < packetOuts; i++)
+            msgs.add(getPacketOut(100 + i, 64));
+        return msgs;
+    }
+
+    static byte[] toBytes(Object encoded) {
+        ChannelBuffer buf = (ChannelBuffer)encoded;
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        return bytes;
+    }
+
+    /**
+     * A message that cannot be written
+     */
+    static class BrokenMessage extends OFMessage {
+        BrokenMessage() {
+            type = OFType.ECHO_REQUEST;
+        }
+
+        @Override
+        public void writeTo(ByteBuffer data) {
+            super.writeTo(data);
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    @Test
+    public void testEncodeMatchesWriteTo() throws Exception {
+        OFMessageEncoder encoder = new OFMessageEncoder();
+        List<OFMessage> msgs = getMix(4, 4);
+        byte[] first = toBytes(encoder.encode(null, null, msgs));
+        assertArrayEquals(OFMessageDecoderTest.serialize(msgs), first);
+
+        // the next batch must not share memory with the first one
+        byte[] again = toBytes(encoder.encode(null, null, msgs));
+        assertArrayEquals(first, again);
+
+        List<OFMessage> parsed = BasicFactory.getInstance()
+                .parseMessages(ByteBuffer.wrap(first));
+        assertEquals(msgs.size(), parsed.size());
+        for (int i = 0; i < msgs.size(); i++) {
+            assertEquals(msgs.get(i).getType(), parsed.get(i).getType());
+            assertEquals(msgs.get(i).getXid(), parsed.get(i).getXid());
+        }
+    }
+
+    @Test
+    public void testLargeBatch() throws Exception {
+        // bigger than a pooled buffer
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        for (int i = 0; i < 20; i++)
+            msgs.add(getPacketOut(i, 1400));
+        byte[] encoded = toBytes(new OFMessageEncoder().encode(null, null, msgs));
+        assertTrue(encoded.length > OFMessageBufferPool.MAX_POOLED_SIZE);
+        assertArrayEquals(OFMessageDecoderTest.serialize(msgs), encoded);
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception {
+        OFPacketOut po = getPacketOut(1, 64);
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        msgs.add(getFlowMod(0, 2));
+        msgs.add(new BrokenMessage());
+        msgs.add(po);
+        try {
+            new OFMessageEncoder().encode(null, null, msgs);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the length sized for the failed batch is not written later
+        po.setPacketData(new byte[128]);
+        ByteBuffer data = ByteBuffer.allocate(1024);
+        po.writeTo(data);
+        assertEquals(OFPacketOut.MINIMUM_LENGTH +
+                     OFActionOutput.MINIMUM_LENGTH + 128,
+                     data.getShort(2) & 0xffff);
+
+        msgs.remove(1);
+        byte[] encoded = toBytes(new OFMessageEncoder().encode(null, null, msgs));
+        assertArrayEquals(OFMessageDecoderTest.serialize(msgs), encoded);
+    }
+
+    @Test
+    public void testPoolReuse() {
+        ByteBuffer a = OFMessageBufferPool.allocate(10);
+        ByteBuffer b = OFMessageBufferPool.allocate(10);
+        assertNotSame(a, b);
+        assertEquals(0, a.position());
+        assertEquals(10, a.limit());
+        assertEquals(OFMessageBufferPool.MIN_POOLED_SIZE, a.capacity());
+        assertTrue(a.isDirect());
+
+        ByteBuffer c = OFMessageBufferPool.allocate(5000);
+        assertEquals(8192, c.capacity());
+        c.position(100);
+        OFMessageBufferPool.release(c);
+        ByteBuffer d = OFMessageBufferPool.allocate(4097);
+        assertSame(c, d);
+        assertEquals(0, d.position());
+        assertEquals(4097, d.limit());
+
+        ByteBuffer large = OFMessageBufferPool.allocate(
+                OFMessageBufferPool.MAX_POOLED_SIZE + 1);
+        assertFalse(large.isDirect());
+        assertFalse(OFMessageBufferPool.isPooled(large));
+    }
+
+    @Test
+    public void testBufferReleasedWhenWritten() throws Exception {
+        // a batch of its own pooled size, between 2 and 4 KB
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        msgs.add(getPacketOut(1, 1400));
+        msgs.add(getPacketOut(2, 1400));
+        Channel channel = createNiceMock(Channel.class);
+        ChannelHandlerContext ctx = createMock(ChannelHandlerContext.class);
+        Capture<ChannelEvent> sent = new Capture<ChannelEvent>();
+        expect(ctx.getChannel()).andReturn(channel).anyTimes();
+        ctx.sendDownstream(capture(sent));
+        expectLastCall().once();
+        replay(channel, ctx);
+
+        ChannelFuture future = Channels.future(channel);
+        new OFMessageEncoder().handleDownstream(ctx,
+                new DownstreamMessageEvent(channel, future, msgs, null));
+        verify(ctx);
+        MessageEvent e = (MessageEvent)sent.getValue();
+        assertSame(future, e.getFuture());
+        ChannelBuffer buf = (ChannelBuffer)e.getMessage();
+        byte[] expected = OFMessageDecoderTest.serialize(msgs);
+        assertArrayEquals(expected, toBytes(buf));
+        int size = expected.length;
+
+        // not reused while netty may still read it
+        ByteBuffer other = OFMessageBufferPool.allocate(size);
+        other.put(new byte[size]);
+        assertArrayEquals(expected, toBytes(buf));
+
+        future.setSuccess();
+        ByteBuffer reused = OFMessageBufferPool.allocate(size);
+        reused.put(new byte[size]);
+        assertEquals(0, buf.getByte(0));
+    }
+}
@@ -0,0 +1,103 @@
+package net.floodlightcontroller.debugcounter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.debugcounter.IDebugCounterService.CounterType;
+
+/**
+ * Measures how a hot debug counter scales with the number of threads
+ * updating it.  Compares a single shared AtomicLong (the old global store)
+ * with a StripedCounter, and the full updateCounterWithFlush() path.
+ * Reports the aggregate throughput in millions of updates per second for
+ * 1 to 32 threads.  Run with
+ *   java -cp ... net.floodlightcontroller.debugcounter.DebugCounterBenchmark
+ *         [updates per thread]
+ */
+public class DebugCounterBenchmark {
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+    private interface Updater {
+        void update();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+
+        final AtomicLong atomic = new AtomicLong();
+        final StripedCounter striped = new StripedCounter();
+        DebugCounter dc = new DebugCounter();
+        final IDebugCounter counter =
+                dc.registerCounter("bench", "dispatch", "benchmark counter",
+                                   CounterType.ALWAYS_COUNT);
+        Updater[] updaters = new Updater[] {
+            new Updater() {
+                @Override
+                public void update() { atomic.incrementAndGet(); }
+            },
+            new Updater() {
+                @Override
+                public void update() { striped.add(1); }
+            },
+            new Updater() {
+                @Override
+                public void update() { counter.updateCounterWithFlush(); }
+            },
+        };
+        String[] names = { "AtomicLong", "StripedCounter", "IDebugCounter" };
+
+        System.out.println("updates/thread=" + updates + " cpus=" +
+                           Runtime.getRuntime().availableProcessors() +
+                           " cells=" + StripedCounter.CELLS);
+        System.out.printf("%-16s", "threads");
+        for (int threads : THREADS) System.out.printf("%8d", threads);
+        System.out.println();
+        for (int u = 0; u < updaters.length; u++) {
+            // warm up
+            run(updaters[u], updates, 2);
+            System.out.printf("%-16s", names[u]);
+            for (int threads : THREADS) {
+                long elapsed = run(updaters[u], updates, threads);
+                System.out.printf("%8.1f",
+                                  (double) updates * threads * 1000 / elapsed);
+            }
+            System.out.println(" Mops/s");
+        }
+        System.out.println("sums: " + atomic.get() + " " + striped.sum() +
+                           " " + counter.getCounterValue());
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    /**
+     * Update from a number of threads started together
+     * @return the elapsed wall clock time in nanoseconds
+     */
+    private static long run(final Updater updater, final int updates,
+                            int threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < updates; i++) {
+                        updater.update();
+                    }
+                }
+            });
+        }
+        for (Thread t : workers) t.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers) t.join();
+        return System.nanoTime() - begin;
+    }
+}
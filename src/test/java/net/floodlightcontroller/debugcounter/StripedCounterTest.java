@@ -0,0 +1,48 @@
+package net.floodlightcontroller.debugcounter;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StripedCounterTest {
+
+    @Test
+    public void testSingleThread() {
+        StripedCounter c = new StripedCounter();
+        c.add(1);
+        c.add(41);
+        assertEquals(42, c.sum());
+        // without contention the cells are never allocated
+        assertNull(c.cells);
+        c.reset();
+        assertEquals(0, c.sum());
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final StripedCounter c = new StripedCounter();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        c.add(1);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        assertEquals(800000, c.sum());
+
+        // contended or not, a reset clears base and cells alike
+        c.reset();
+        assertEquals(0, c.sum());
+        c.add(3);
+        assertEquals(3, c.sum());
+    }
+}
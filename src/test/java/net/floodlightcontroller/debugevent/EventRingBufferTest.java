@@ -0,0 +1,85 @@
+package net.floodlightcontroller.debugevent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+public class EventRingBufferTest extends FloodlightTestCase {
+
+    @Test
+    public void testCircularNature() {
+        EventRingBuffer rb = new EventRingBuffer(2);
+        rb.add(1, 1, "t", "String 1");
+        assertEquals(1, rb.size());
+        rb.add(2, 1, "t", "String 2");
+        assertEquals(2, rb.size());
+        rb.add(3, 1, "t", "String 3");
+        assertEquals(2, rb.size());
+
+        List<Event> events = rb.getEvents(10);
+        assertEquals(2, events.size());
+        assertEquals("String 2", events.get(0).geteventData());
+        assertEquals("String 3", events.get(1).geteventData());
+        assertEquals(1, rb.getEvents(1).size());
+        assertEquals("String 2", rb.getEvents(1).get(0).geteventData());
+        assertEquals(2, rb.iterator().next().getTimestamp());
+
+        rb.clear();
+        assertEquals(0, rb.size());
+        assertFalse(rb.iterator().hasNext());
+        rb.add(4, 1, "t", "String 4");
+        assertEquals(1, rb.size());
+        assertEquals(4, rb.iterator().next().getTimestamp());
+    }
+
+    @Test
+    public void testAddAllCopies() {
+        EventRingBuffer rb = new EventRingBuffer(4);
+        ArrayList<Event> elist = new ArrayList<Event>();
+        Event one = new Event(1, 7, "t", "one");
+        elist.add(one);
+        elist.add(null);
+        elist.add(new Event(3, 7, "t", "three"));
+        rb.addAll(elist, 3);
+        assertEquals(2, rb.size());
+
+        // the caller keeps its events and may reuse them
+        one.seteventData("reused");
+        List<Event> events = rb.getEvents(4);
+        assertEquals("one", events.get(0).geteventData());
+        assertEquals("three", events.get(1).geteventData());
+        assertNotSame(one, events.get(0));
+        assertEquals(7, events.get(0).getThreadId());
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final EventRingBuffer rb = new EventRingBuffer(64);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final long id = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (long i = 0; i < 20000; i++) {
+                        // every field carries the same value so that a torn
+                        // read would show up as a mismatch
+                        rb.add(i, id, "writer", Long.valueOf(i));
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) t.start();
+        while (threads.get(0).isAlive()) {
+            for (Event e : rb) {
+                assertEquals(Long.valueOf(e.getTimestamp()), e.geteventData());
+            }
+        }
+        for (Thread t : threads) t.join();
+        assertEquals(64, rb.size());
+        assertEquals(64, rb.getEvents(100).size());
+    }
+}
@@ -0,0 +1,166 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeviceFieldIndexTest {
+    protected DeviceFieldIndex index;
+    protected Map<Long, Device> deviceMap;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new DeviceFieldIndex();
+        deviceMap = new HashMap<Long, Device>();
+    }
+
+    protected void putDevice(long deviceKey,
+                             List<AttachmentPoint> aps,
+                             Entity... entities) {
+        Device d = new Device(null, deviceKey, null, null, aps,
+                              Arrays.asList(entities), null);
+        deviceMap.put(deviceKey, d);
+        index.updateDevice(deviceKey, deviceMap);
+    }
+
+    protected void assertKeys(long[] actual, long... expected) {
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testQuery() {
+        Date now = new Date();
+        putDevice(1L, null,
+                  new Entity(1L, (short)1, 0x0a000001, 1L, 1, now),
+                  new Entity(1L, (short)1, 0x0a000002, 1L, 1, now));
+        putDevice(2L, null,
+                  new Entity(2L, (short)1, 0x0a000102, 1L, 2, now));
+        putDevice(3L, null,
+                  new Entity(3L, null, 0x0b000001, 2L, 1, now));
+        putDevice(4L, null,
+                  new Entity(4L, null, null, null, null, now));
+        assertEquals(4, index.size());
+
+        assertNull(index.query(null, null, null, 32, null, null));
+        assertKeys(index.query(2L, null, null, 32, null, null), 2L);
+        assertKeys(index.query(5L, null, null, 32, null, null));
+        assertKeys(index.query(null, (short)1, null, 32, null, null),
+                   1L, 2L);
+        assertKeys(index.query(null, Ethernet.VLAN_UNTAGGED, null, 32,
+                               null, null), 3L, 4L);
+        assertKeys(index.query(null, null, 0x0a000002, 32, null, null), 1L);
+        assertKeys(index.query(null, (short)1, 0x0a000002, 32, null, null),
+                   1L);
+        assertKeys(index.query(null, (short)1, 0x0b000001, 32, null, null));
+
+        // switch and port on their own, and together
+        assertKeys(index.query(null, null, null, 32, 1L, null), 1L, 2L);
+        assertKeys(index.query(null, null, null, 32, null, 1), 1L, 3L);
+        assertKeys(index.query(null, null, null, 32, 1L, 1), 1L);
+        assertKeys(index.query(null, null, null, 32, 2L, 2));
+    }
+
+    @Test
+    public void testSubnetQuery() {
+        Date now = new Date();
+        putDevice(1L, null, new Entity(1L, null, 0x0a000001, 1L, 1, now));
+        putDevice(2L, null, new Entity(2L, null, 0x0a000102, 1L, 2, now));
+        putDevice(3L, null, new Entity(3L, null, 0xc0a80001, 1L, 3, now));
+        putDevice(4L, null, new Entity(4L, null, 0xc0a90001, 1L, 4, now));
+
+        assertKeys(index.query(null, null, 0x0a000000, 8, null, null),
+                   1L, 2L);
+        assertKeys(index.query(null, null, 0x0a000000, 24, null, null), 1L);
+        assertKeys(index.query(null, null, 0x0a000100, 24, 1L, 2), 2L);
+        assertKeys(index.query(null, null, 0x0a000100, 24, 1L, 1));
+        // addresses with the top bit set sort above the others
+        assertKeys(index.query(null, null, 0xc0a80000, 16, null, null), 3L);
+        assertKeys(index.query(null, null, 0xc0a80000, 15, null, null),
+                   3L, 4L);
+        assertKeys(index.query(null, null, 0, 0, null, null),
+                   1L, 2L, 3L, 4L);
+
+        // the sorted addresses follow updates
+        putDevice(5L, null, new Entity(5L, null, 0x0a0000ff, 1L, 5, now));
+        deviceMap.remove(1L);
+        index.updateDevice(1L, deviceMap);
+        assertKeys(index.query(null, null, 0x0a000000, 24, null, null), 5L);
+    }
+
+    @Test
+    public void testUpdate() {
+        Date now = new Date();
+        Entity e1 = new Entity(1L, null, 1, 1L, 1, now);
+        Entity e2 = new Entity(1L, null, 2, 1L, 2, now);
+        putDevice(1L, null, e1, e2);
+        assertKeys(index.query(null, null, 2, 32, null, null), 1L);
+
+        // only the fields of the remaining entities stay in the index,
+        // but attachment points are kept even without an entity
+        List<AttachmentPoint> aps = new ArrayList<AttachmentPoint>();
+        aps.add(new AttachmentPoint(1L, 2, now.getTime()));
+        putDevice(1L, aps, e1);
+        assertKeys(index.query(null, null, 2, 32, null, null));
+        assertKeys(index.query(null, null, 1, 32, null, null), 1L);
+        assertKeys(index.query(null, null, null, 32, 1L, 2), 1L);
+
+        deviceMap.remove(1L);
+        index.updateDevice(1L, deviceMap);
+        assertEquals(0, index.size());
+        assertKeys(index.query(1L, null, null, 32, null, null));
+        assertKeys(index.query(null, null, null, 32, 1L, null));
+    }
+
+    @Test
+    public void testRandom() {
+        // grow and shrink the tables, checking every query against a scan
+        Random random = new Random(3);
+        Date now = new Date();
+        for (int round = 0; round < 20000; round++) {
+            long key = random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                deviceMap.remove(key);
+                index.updateDevice(key, deviceMap);
+            } else {
+                putDevice(key, null,
+                          new Entity(key, (short)random.nextInt(8),
+                                     random.nextInt(1024),
+                                     (long)random.nextInt(16),
+                                     random.nextInt(8), now));
+            }
+            if (round % 100 != 0) continue;
+
+            int ip = random.nextInt(1024);
+            int prefixLength = 22 + random.nextInt(11);
+            int mask = -1 << (32 - prefixLength);
+            long sw = random.nextInt(16);
+            List<Long> expected = new ArrayList<Long>();
+            for (Device d : deviceMap.values()) {
+                Entity e = d.entities[0];
+                if ((e.getIpv4Address() & mask) == (ip & mask) &&
+                    e.getSwitchDPID() == sw)
+                    expected.add(d.getDeviceKey());
+            }
+            Collections.sort(expected);
+            long[] actual = index.query(null, null, ip, prefixLength,
+                                        sw, null);
+            assertEquals(expected.size(), actual.length);
+            for (int i = 0; i < actual.length; i++) {
+                assertEquals(expected.get(i).longValue(), actual[i]);
+            }
+        }
+        assertEquals(deviceMap.size(), index.size());
+    }
+}
@@ -0,0 +1,209 @@
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.core.test.MockThreadPoolService;
+import net.floodlightcontroller.devicemanager.IDeviceService;
+import net.floodlightcontroller.devicemanager.IEntityClassifierService;
+import net.floodlightcontroller.flowcache.FlowReconcileManager;
+import net.floodlightcontroller.flowcache.IFlowReconcileService;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.restserver.RestApiServer;
+import net.floodlightcontroller.storage.IStorageSourceService;
+import net.floodlightcontroller.storage.memory.MemoryStorageSource;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+import net.floodlightcontroller.topology.ITopologyService;
+
+import org.sdnplatform.sync.ISyncService;
+import org.sdnplatform.sync.test.MockSyncService;
+
+/**
+ * Replays a PACKET_IN trace from a population of known hosts and compares
+ * learning each source through learnDeviceByEntity(), as every packet
+ * used to be, against the known device fast path that falls back to
+ * learnDeviceByEntity() only when something changed.  Every host sends
+ * untagged UDP from its own port; the hosts are learned once before the
+ * trace is replayed in random order.  Reports time and bytes allocated
+ * per packet.
+ * Run with
+ *   java -cp ... net.floodlightcontroller.devicemanager.internal.DeviceLearningBenchmark
+ *         [hosts] [packets]
+ */
+public class DeviceLearningBenchmark {
+
+    private interface LearningPath {
+        Device learn(EthernetView eth, long sw, int port);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int hosts = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int packets = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        final DeviceManagerImpl deviceManager = getDeviceManager();
+        EthernetView[] views = new EthernetView[hosts];
+        long[] switches = new long[hosts];
+        int[] ports = new int[hosts];
+        for (int i = 0; i < hosts; i++) {
+            views[i] = new EthernetView(getPacket(i));
+            switches[i] = i % 64 + 1;
+            ports[i] = i / 64 % 48 + 1;
+        }
+
+        LearningPath entityPath = new LearningPath() {
+            @Override
+            public Device learn(EthernetView eth, long sw, int port) {
+                Entity e = deviceManager.getSourceEntityFromPacket(eth, sw,
+                                                                   port);
+                return deviceManager.learnDeviceByEntity(e);
+            }
+        };
+        LearningPath fastPath = new LearningPath() {
+            @Override
+            public Device learn(EthernetView eth, long sw, int port) {
+                Device d = deviceManager.learnKnownDeviceFromPacket(eth, sw,
+                                                                    port);
+                if (d != null) return d;
+                Entity e = deviceManager.getSourceEntityFromPacket(eth, sw,
+                                                                   port);
+                d = deviceManager.learnDeviceByEntity(e);
+                if (d != null) deviceManager.learnedEntities.put(d, e);
+                return d;
+            }
+        };
+
+        long start = System.nanoTime();
+        for (int i = 0; i < hosts; i++) {
+            fastPath.learn(views[i], switches[i], ports[i]);
+        }
+        System.out.printf("hosts=%d packets=%d devices=%d learned in %.1f ms%n",
+                          hosts, packets,
+                          deviceManager.getAllDevices().size(),
+                          (System.nanoTime() - start) / 1e6);
+
+        // first pass warms up, second pass is reported
+        for (int pass = 0; pass < 2; pass++) {
+            run("learnDeviceByEntity", entityPath, views, switches, ports,
+                packets, pass == 1);
+            run("fast path          ", fastPath, views, switches, ports,
+                packets, pass == 1);
+        }
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    private static void run(String name, LearningPath path,
+                            EthernetView[] views, long[] switches,
+                            int[] ports, int packets, boolean report) {
+        Random random = new Random(1);
+        int found = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < packets; i++) {
+            int h = random.nextInt(views.length);
+            if (path.learn(views[h], switches[h], ports[h]) != null) found++;
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (report) {
+            System.out.printf("  %s: %8.1f ns/packet %8.1f bytes/packet (%d)%n",
+                              name, (double)elapsed / packets,
+                              bytes < 0 ? Double.NaN : (double)bytes / packets,
+                              found);
+        }
+    }
+
+    private static byte[] getPacket(int host) {
+        return new Ethernet()
+            .setSourceMACAddress(Ethernet.toByteArray(0x020000000000L + host))
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(new IPv4()
+                        .setTtl((byte) 128)
+                        .setSourceAddress(0x0a000000 + host)
+                        .setDestinationAddress("10.255.255.254")
+                        .setPayload(new UDP()
+                                    .setSourcePort((short) 5000)
+                                    .setDestinationPort((short) 5001)
+                                    .setPayload(new Data(new byte[] {1}))))
+            .serialize();
+    }
+
+    /**
+     * A topology in which every port is an attachment point port of a
+     * single L2 domain
+     */
+    private static ITopologyService getTopology() {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                Class<?> type = method.getReturnType();
+                if (method.getName().equals("isAttachmentPointPort"))
+                    return true;
+                if (type == boolean.class) return false;
+                if (type == long.class) return 1L;
+                return null;
+            }
+        };
+        return (ITopologyService)Proxy.newProxyInstance(
+                ITopologyService.class.getClassLoader(),
+                new Class<?>[] { ITopologyService.class }, handler);
+    }
+
+    private static DeviceManagerImpl getDeviceManager() throws Exception {
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        MockThreadPoolService tp = new MockThreadPoolService();
+        RestApiServer restApi = new RestApiServer();
+        MemoryStorageSource storageSource = new MemoryStorageSource();
+        MockSyncService syncService = new MockSyncService();
+        DeviceManagerImpl deviceManager = new DeviceManagerImpl();
+        FlowReconcileManager flowReconcileMgr = new FlowReconcileManager();
+        DefaultEntityClassifier entityClassifier =
+                new DefaultEntityClassifier();
+        fmc.addService(IThreadPoolService.class, tp);
+        fmc.addService(IDeviceService.class, deviceManager);
+        fmc.addService(IStorageSourceService.class, storageSource);
+        fmc.addService(IFloodlightProviderService.class,
+                       new MockFloodlightProvider());
+        fmc.addService(IRestApiService.class, restApi);
+        fmc.addService(IFlowReconcileService.class, flowReconcileMgr);
+        fmc.addService(IEntityClassifierService.class, entityClassifier);
+        fmc.addService(ITopologyService.class, getTopology());
+        fmc.addService(ISyncService.class, syncService);
+        tp.init(fmc);
+        restApi.init(fmc);
+        storageSource.init(fmc);
+        deviceManager.init(fmc);
+        flowReconcileMgr.init(fmc);
+        entityClassifier.init(fmc);
+        syncService.init(fmc);
+        storageSource.startUp(fmc);
+        deviceManager.startUp(fmc);
+        flowReconcileMgr.startUp(fmc);
+        tp.startUp(fmc);
+        entityClassifier.startUp(fmc);
+        syncService.startUp(fmc);
+        return deviceManager;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
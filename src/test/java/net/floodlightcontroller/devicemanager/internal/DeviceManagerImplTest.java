@@ -76,6 +76,7 @@ import net.floodlightcontroller.flowcache.IFlowReconcileService;
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Data;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.UDP;
@@ -100,6 +101,7 @@ import org.sdnplatform.sync.IClosableIterator;
 import org.sdnplatform.sync.IStoreClient;
 import org.sdnplatform.sync.ISyncService;
 import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.version.VectorClock;
 import org.sdnplatform.sync.test.MockSyncService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -124,7 +126,7 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
 
     private IOFSwitch makeSwitchMock(long id) {
         IOFSwitch mockSwitch = createMock(IOFSwitch.class);
-        ImmutablePort port = ImmutablePort.create("p1", (short)1);
+        ImmutablePort port = ImmutablePort.create("p1", 1);
         expect(mockSwitch.getId()).andReturn(id).anyTimes();
         expect(mockSwitch.getStringId())
                 .andReturn(HexString.toHexString(id, 6)).anyTimes();
@@ -1303,6 +1305,61 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         assertEquals(2, deviceManager.getAllDevices().size());
     }
 
+    @Test
+    public void testPacketInKnownDevice() throws Exception {
+        long srcMac = Ethernet.toLong(testUDPPacket.getSourceMACAddress());
+        EthernetView eth = new EthernetView(testUDPPacketIn.getPacketData());
+        int port = testUDPPacketIn.getInPort();
+
+        ITopologyService mockTopology = createMock(ITopologyService.class);
+        deviceManager.topology = mockTopology;
+        mockTopologyForPacketInTests(mockTopology);
+        replay(mockTopology);
+
+        // Unknown devices are learned through learnDeviceByEntity
+        assertNull(deviceManager.learnKnownDeviceFromPacket(eth, 1L, port));
+        FloodlightContext cntx = new FloodlightContext();
+        assertEquals(Command.CONTINUE,
+                     dispatchPacketIn(1L, testUDPPacketIn, cntx));
+        Device device = (Device)IDeviceService.fcStore.get(cntx,
+                IDeviceService.CONTEXT_SRC_DEVICE);
+        verifyDevice(device, srcMac, (short)5, null, 1L, port);
+
+        // Known devices only have their last seen times updated
+        long lastSeen = device.getLastSeen().getTime();
+        long apLastSeen = device.attachmentPoints.get(0).getLastSeen();
+        Thread.sleep(5);
+        assertSame(device,
+                   deviceManager.learnKnownDeviceFromPacket(eth, 1L, port));
+        assertTrue(device.getLastSeen().getTime() > lastSeen);
+        assertTrue(device.attachmentPoints.get(0).getLastSeen() > apLastSeen);
+        cntx = new FloodlightContext();
+        assertEquals(Command.CONTINUE,
+                     dispatchPacketIn(1L, testUDPPacketIn, cntx));
+        assertSame(device, IDeviceService.fcStore.get(cntx,
+                IDeviceService.CONTEXT_SRC_DEVICE));
+        assertEquals(1, deviceManager.getAllDevices().size());
+
+        // A new attachment point needs the full learning path.  The device
+        // moves once the new attachment point is newer than the old one.
+        assertNull(deviceManager.learnKnownDeviceFromPacket(eth, 5L, port));
+        Thread.sleep(5);
+        cntx = new FloodlightContext();
+        assertEquals(Command.CONTINUE,
+                     dispatchPacketIn(5L, testUDPPacketIn, cntx));
+        device = (Device)IDeviceService.fcStore.get(cntx,
+                IDeviceService.CONTEXT_SRC_DEVICE);
+        verifyDevice(device, srcMac, (short)5, null, 5L, port);
+        assertNull(deviceManager.learnKnownDeviceFromPacket(eth, 1L, port));
+        assertSame(device,
+                   deviceManager.learnKnownDeviceFromPacket(eth, 5L, port));
+
+        // Deleted devices are forgotten
+        deviceManager.deleteDevice(device);
+        assertNull(deviceManager.learnKnownDeviceFromPacket(eth, 5L, port));
+        verify(mockTopology);
+    }
+
     /**
      * This test ensures the device manager learns the source device
      * corresponding to the senderHardwareAddress and senderProtocolAddress
@@ -1735,6 +1792,39 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
     }
 
 
+    @Test
+    public void testEntityExpiryScheduling() throws Exception {
+        ITopologyService mockTopology = createMock(ITopologyService.class);
+        deviceManager.topology = mockTopology;
+        mockTopologyForPacketInTests(mockTopology);
+        replay(mockTopology);
+
+        long now = System.currentTimeMillis();
+        Entity entity1 = new Entity(1L, null, 1, 1L, 1, new Date(now));
+        Entity entity2 = new Entity(1L, null, 2, 1L, 1,
+                                    new Date(now - 1000));
+        Device d = deviceManager.learnDeviceByEntity(entity1);
+        Long deviceKey = d.getDeviceKey();
+        assertEquals(Long.valueOf(now + DeviceManagerImpl.ENTITY_TIMEOUT),
+                     deviceManager.entityExpiryWheel.getDeadline(deviceKey));
+
+        // an older entity moves the expiry check earlier
+        deviceManager.learnDeviceByEntity(entity2);
+        assertEquals(Long.valueOf(now - 1000 +
+                                  DeviceManagerImpl.ENTITY_TIMEOUT),
+                     deviceManager.entityExpiryWheel.getDeadline(deviceKey));
+
+        // devices that are not due are not checked
+        deviceManager.cleanupEntities();
+        assertEquals(2, deviceManager.getDevice(deviceKey).
+                     getIPv4Addresses().length);
+        assertEquals(1, deviceManager.entityExpiryWheel.size());
+
+        deviceManager.deleteDevice(deviceManager.deviceMap.get(deviceKey));
+        assertEquals(0, deviceManager.entityExpiryWheel.size());
+        verify(mockTopology);
+    }
+
     @Test
     public void testAttachmentPointFlapping() throws Exception {
         Calendar c = Calendar.getInstance();
@@ -2034,6 +2124,46 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         doTestDeviceQuery();
     }
 
+    @Test
+    public void testDeviceSubnetQuery() throws Exception {
+        ITopologyService mockTopology = createMock(ITopologyService.class);
+        deviceManager.topology = mockTopology;
+        expect(mockTopology.isAttachmentPointPort(anyLong(),
+                                                  anyShort())).
+                                                  andReturn(true).anyTimes();
+        expect(mockTopology.getL2DomainId(EasyMock.anyLong())).andReturn(1L).anyTimes();
+        replay(mockTopology);
+
+        Entity entity1 = new Entity(1L, null, 0x0a000001, 1L, 1, new Date());
+        Entity entity2 = new Entity(2L, null, 0x0a000102, 1L, 2, new Date());
+        Entity entity3 = new Entity(3L, null, 0x0b000001, 5L, 1, new Date());
+        IDevice d1 = deviceManager.learnDeviceByEntity(entity1);
+        IDevice d2 = deviceManager.learnDeviceByEntity(entity2);
+        deviceManager.learnDeviceByEntity(entity3);
+
+        Set<Long> deviceKeys = new HashSet<Long>();
+        Iterator<? extends IDevice> iter =
+                deviceManager.queryDevices(null, null, 0x0a000000, 8,
+                                           null, null);
+        while (iter.hasNext()) {
+            deviceKeys.add(iter.next().getDeviceKey());
+        }
+        Set<Long> expectedDeviceKeys = new HashSet<Long>();
+        expectedDeviceKeys.add(d1.getDeviceKey());
+        expectedDeviceKeys.add(d2.getDeviceKey());
+        assertEquals(expectedDeviceKeys, deviceKeys);
+
+        iter = deviceManager.queryDevices(null, null, 0x0a000100, 24,
+                                          1L, null);
+        assertTrue(iter.hasNext());
+        assertEquals(d2.getDeviceKey(), iter.next().getDeviceKey());
+        assertFalse(iter.hasNext());
+
+        iter = deviceManager.queryDevices(null, null, 0x0a000100, 24,
+                                          5L, null);
+        assertFalse(iter.hasNext());
+    }
+
     protected void doTestDeviceClassQuery() throws Exception {
         Entity entity1 = new Entity(1L, (short)1, 1, 1L, 1, new Date());
         Entity entity2 = new Entity(2L, (short)2, 2, 1L, 2, new Date());
@@ -2730,6 +2860,55 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
                      expected.getActiveSince(), actualEntity.getActiveSince());
     }
 
+    /* Writes of the same device within the flush delay are coalesced into
+     * one write, and a removal replaces a queued write.
+     */
+    @Test
+    public void testCoalesceSyncStoreWrites() throws Exception {
+        ITopologyService mockTopology = makeMockTopologyAllPortsAp();
+        replay(mockTopology);
+        deviceManager.topology = mockTopology;
+        deviceManager.setSyncStoreWriteInterval(0);
+        deviceManager.setSyncStoreFlushDelay(50);
+
+        // new IPs change the device, so each one queues a write
+        Entity e1a = new Entity(1L, null, 3, 4L, 5, new Date());
+        Entity e1b = new Entity(1L, null, 4, 4L, 5, new Date());
+        Entity e1c = new Entity(1L, null, 5, 4L, 5, new Date());
+        Entity e2 = new Entity(2L, null, null, 4L, 6, new Date());
+        deviceManager.learnDeviceByEntity(e1a);
+        deviceManager.learnDeviceByEntity(e1b);
+        deviceManager.learnDeviceByEntity(e1c);
+        deviceManager.learnDeviceByEntity(e2);
+        assertEquals(0, getEntriesFromStore().size());
+
+        Thread.sleep(200);
+        List<DeviceSyncRepresentation> entries = getEntriesFromStore();
+        assertEquals(2, entries.size());
+        for (DeviceSyncRepresentation dsr: entries) {
+            if (dsr.getKey().contains("::00:00:00:00:00:01::")) {
+                assertEquals(3, dsr.getEntities().size());
+            } else {
+                assertEquals(1, dsr.getEntities().size());
+            }
+            // each device was written once
+            VectorClock vc =
+                    (VectorClock)storeClient.get(dsr.getKey()).getVersion();
+            assertEquals(1, vc.getEntries().size());
+            assertEquals(1, vc.getEntries().get(0).getVersion());
+        }
+
+        // a write followed by a removal only removes the entry. The
+        // entity has already expired, so cleanup removes the device.
+        Entity e3 = new Entity(3L, null, null, 4L, 7, new Date(1000));
+        deviceManager.learnDeviceByEntity(e3);
+        deviceManager.cleanupEntities();
+        Thread.sleep(200);
+        entries = getEntriesFromStore();
+        assertEquals(3, entries.size());
+        assertTrue(entries.contains(null));
+    }
+
     /* This test tests the normal operation as master when we write to the sync
      * store or delete from the store.
      */
@@ -2740,6 +2919,8 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         replay(mockTopology);
         deviceManager.topology = mockTopology;
         deviceManager.setSyncStoreWriteInterval(syncStoreIntervalMs);
+        // write through so that the store can be checked right away
+        deviceManager.setSyncStoreFlushDelay(0);
 
         Entity e1a = new Entity(1L, (short)2, 3, 4L, 5, new Date(1000));
         e1a.setActiveSince(new Date(0));
@@ -2973,6 +3154,8 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         // We want an EntityClassifier that has switch/port as key fields
         deviceManager.entityClassifier = new MockEntityClassifier();
         deviceManager.setSyncStoreWriteInterval(syncStoreInternalMs);
+        // write through so that the store can be checked right away
+        deviceManager.setSyncStoreFlushDelay(0);
 
         // Add Device1 with two entities to store and let device manager
         // learn
@@ -24,6 +24,7 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -46,6 +47,7 @@ import net.floodlightcontroller.packet.Data;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.LLDP;
 import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.restserver.RestApiServer;
@@ -64,9 +66,11 @@ import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
+import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFPhysicalPort;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.factory.FloodlightFactory;
@@ -381,6 +385,52 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         linkDiscovery.addOrUpdateLink(lt, info);
     }
 
+    @Test
+    public void testLinkTimeoutScheduling() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        Link lt = new Link(1L, 1, 2L, 1);
+        long now = System.currentTimeMillis();
+        long timeout = linkDiscovery.LINK_TIMEOUT * 1000;
+
+        LinkInfo info = new LinkInfo(now, now, null);
+        linkDiscovery.addOrUpdateLink(lt, info);
+        assertEquals(Long.valueOf(now + timeout),
+                     linkDiscovery.linkTimeouts.getDeadline(lt));
+
+        // a later refresh leaves the earlier deadline in place, to be
+        // checked and scheduled again once it is due
+        info = new LinkInfo(now, now + 1000, null);
+        assertFalse(linkDiscovery.addOrUpdateLink(lt, info));
+        assertEquals(Long.valueOf(now + 1000),
+                     linkDiscovery.links.get(lt).getUnicastValidTime());
+        assertEquals(Long.valueOf(now + timeout),
+                     linkDiscovery.linkTimeouts.getDeadline(lt));
+
+        // a BDDP on a direct link keeps it direct, and only the oldest
+        // valid time counts
+        info = new LinkInfo(now, null, now - 1000);
+        assertFalse(linkDiscovery.addOrUpdateLink(lt, info));
+        assertEquals(Long.valueOf(now + 1000),
+                     linkDiscovery.links.get(lt).getUnicastValidTime());
+        assertEquals(Long.valueOf(now - 1000 + timeout),
+                     linkDiscovery.linkTimeouts.getDeadline(lt));
+
+        // an old unicast valid time is due at once, and times out on its
+        // own, turning the link into a multihop link
+        info = new LinkInfo(now, now - 40000, null);
+        linkDiscovery.addOrUpdateLink(lt, info);
+        linkDiscovery.timeoutLinks();
+        assertNull(linkDiscovery.links.get(lt).getUnicastValidTime());
+        assertEquals(Long.valueOf(now - 1000 + timeout),
+                     linkDiscovery.linkTimeouts.getDeadline(lt));
+
+        info = new LinkInfo(now, null, now - 40000);
+        linkDiscovery.addOrUpdateLink(lt, info);
+        linkDiscovery.timeoutLinks();
+        assertNull(linkDiscovery.links.get(lt));
+        assertEquals(0, linkDiscovery.linkTimeouts.size());
+    }
+
     @Test
     public void testHARoleChange() throws Exception {
         LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
@@ -420,7 +470,7 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
         Capture<OFMessage> wc;
         Capture<FloodlightContext> fc;
-        Set<Short> qPorts;
+        Set<Integer> qPorts;
         OFPhysicalPort ofpp = new OFPhysicalPort();
         ofpp.setName("eth4242");
         ofpp.setPortNumber((short)4242);
@@ -435,8 +485,8 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         getMockFloodlightProvider().setSwitches(switches);
 
         // Create the set of ports
-        List<Short> ports = new ArrayList<Short>();
-        for(short p=1; p<=20; ++p) {
+        List<Integer> ports = new ArrayList<Integer>();
+        for(int p=1; p<=20; ++p) {
             ports.add(p);
         }
 
@@ -446,7 +496,7 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
 
         // Expect switch to return those ports.
         expect(sw1.getEnabledPortNumbers()).andReturn(ports).anyTimes();
-        expect(sw1.getPort(EasyMock.anyShort())).andReturn(p1).anyTimes();
+        expect(sw1.getPort(EasyMock.anyInt())).andReturn(p1).anyTimes();
         sw1.write(capture(wc), capture(fc));
         expectLastCall().anyTimes();
         replay(sw1);
@@ -475,6 +525,111 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         assertTrue(msgList.size() == ports.size() * 2);
     }
 
+    private ImmutablePort createPort(short portNumber, String mac) {
+        OFPhysicalPort ofpp = new OFPhysicalPort();
+        ofpp.setName("eth" + portNumber);
+        ofpp.setPortNumber(portNumber);
+        ofpp.setHardwareAddress(HexString.fromHexString(mac));
+        ofpp.setCurrentFeatures(0);
+        return ImmutablePort.fromOFPhysicalPort(ofpp);
+    }
+
+    @Test
+    public void testGenerateLLDPMessage() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        IOFSwitch sw = createMockSwitch(0x0102030405060708L);
+        expect(sw.getPort(1)).andReturn(
+                createPort((short)1, "5c:16:c7:00:00:01")).anyTimes();
+        expect(sw.getPort(300)).andReturn(
+                createPort((short)300, "00:00:00:00:00:00")).anyTimes();
+        replay(sw);
+        getMockFloodlightProvider().setSwitches(
+                Collections.singletonMap(sw.getId(), sw));
+
+        for (boolean isStandard : new boolean[] { true, false }) {
+            // ports of the same switch share the template but keep their
+            // own port id and source MAC
+            for (int port : new int[] { 1, 300, 1 }) {
+                OFPacketOut po = linkDiscovery.generateLLDPMessage(
+                        sw.getId(), port, isStandard, false);
+                byte[] data = po.getPacketData();
+                assertEquals(OFPacketOut.MINIMUM_LENGTH + data.length,
+                             po.getLengthU());
+
+                Ethernet eth = new Ethernet();
+                eth.deserialize(data, 0, data.length);
+                LLDP lldp;
+                if (isStandard) {
+                    assertEquals(Ethernet.TYPE_LLDP, eth.getEtherType());
+                    lldp = (LLDP) eth.getPayload();
+                } else {
+                    assertEquals(Ethernet.TYPE_BSN, eth.getEtherType());
+                    lldp = (LLDP) eth.getPayload().getPayload();
+                }
+                assertEquals(port == 1 ? "5C:16:C7:00:00:01"
+                                       : "03:04:05:06:07:08",
+                             eth.getSourceMAC().toString());
+                assertArrayEquals(new byte[] { 2, (byte) (port >> 8),
+                                               (byte) port },
+                                  lldp.getPortId().getValue());
+                assertArrayEquals(new byte[] { 4, 3, 4, 5, 6, 7, 8 },
+                                  lldp.getChassisId().getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testPacedDiscovery() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        final List<ImmutablePort> ports = new ArrayList<ImmutablePort>();
+        for (short p = 1; p <= 4; p++) {
+            ports.add(createPort(p, "5c:16:c7:00:00:0" + p));
+        }
+        Map<Long, IOFSwitch> switches = new HashMap<Long, IOFSwitch>();
+        Map<Long, Capture<List<OFMessage>>> writes =
+                new HashMap<Long, Capture<List<OFMessage>>>();
+        for (long id = 1; id <= 40; id++) {
+            IOFSwitch sw = createMockSwitch(id);
+            expect(sw.getEnabledPorts()).andReturn(ports).anyTimes();
+            for (ImmutablePort p : ports) {
+                expect(sw.getPort(p.getPortNumber())).andReturn(p).anyTimes();
+            }
+            Capture<List<OFMessage>> wc =
+                    new Capture<List<OFMessage>>(CaptureType.ALL);
+            sw.write(capture(wc), EasyMock.<FloodlightContext>isNull());
+            expectLastCall().anyTimes();
+            replay(sw);
+            switches.put(id, sw);
+            writes.put(id, wc);
+        }
+        getMockFloodlightProvider().setSwitches(switches);
+
+        // nothing is sent until a round starts
+        linkDiscovery.lldpClock = linkDiscovery.LLDP_TO_ALL_INTERVAL - 2;
+        linkDiscovery.discoverLinks();
+        for (Capture<List<OFMessage>> wc : writes.values()) {
+            assertFalse(wc.hasCaptured());
+        }
+
+        // each tick of the round probes 2 or 3 of the 40 switches, and
+        // each switch gets all its LLDPs in one write
+        int sent = 0;
+        for (int tick = 0; tick < linkDiscovery.LLDP_TO_ALL_INTERVAL;
+                tick++) {
+            linkDiscovery.discoverLinks();
+            int total = 0;
+            for (Capture<List<OFMessage>> wc : writes.values()) {
+                total += wc.getValues().size();
+            }
+            assertTrue(total - sent >= 2 && total - sent <= 3);
+            sent = total;
+        }
+        for (Capture<List<OFMessage>> wc : writes.values()) {
+            assertEquals(1, wc.getValues().size());
+            assertEquals(ports.size(), wc.getValue().size());
+        }
+    }
+
     private OFPacketIn createPacketIn(String srcMAC, String dstMAC,
                                       String srcIp, String dstIp, short vlan) {
         IPacket testPacket = new Ethernet()
@@ -0,0 +1,204 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+
+import org.junit.Test;
+import org.openflow.protocol.OFPacketIn;
+
+public class EthernetViewTest {
+
+    private static Ethernet getUdpPacket(short vlan) {
+        return (Ethernet) new Ethernet()
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setVlanID(vlan)
+            .setPriorityCode((byte) 3)
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(new IPv4()
+                .setTtl((byte) 128)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setPayload(new UDP()
+                    .setSourcePort((short) 5000)
+                    .setDestinationPort((short) 5001)
+                    .setPayload(new Data(new byte[] {1, 2, 3}))));
+    }
+
+    @Test
+    public void testHeaderFields() {
+        for (short vlan : new short[] { Ethernet.VLAN_UNTAGGED, 42 }) {
+            Ethernet eth = getUdpPacket(vlan);
+            EthernetView view = new EthernetView(eth.serialize());
+            assertEquals(eth.getDestinationMAC().toLong(),
+                         view.getDestinationMAC());
+            assertEquals(eth.getSourceMAC().toLong(), view.getSourceMAC());
+            assertEquals(vlan, view.getVlanID());
+            assertEquals(Ethernet.TYPE_IPv4, view.getEtherType());
+            assertFalse(view.isBroadcast());
+            assertFalse(view.isMulticast());
+            assertTrue(view.isIPv4());
+            assertFalse(view.isARP());
+            assertEquals(IPv4.PROTOCOL_UDP, view.getNetworkProtocol());
+            assertEquals(IPv4.toIPv4Address("192.168.1.1"),
+                         view.getNetworkSource());
+            assertEquals(IPv4.toIPv4Address("192.168.1.2"),
+                         view.getNetworkDestination());
+            assertEquals(5000, view.getTransportSource());
+            assertEquals(5001, view.getTransportDestination());
+            // reading headers does not decode the packet
+            assertFalse(view.isDecoded());
+        }
+    }
+
+    @Test
+    public void testArp() {
+        Ethernet eth = (Ethernet) new Ethernet()
+            .setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setEtherType(Ethernet.TYPE_ARP)
+            .setPayload(new ARP()
+                .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) 6)
+                .setProtocolAddressLength((byte) 4)
+                .setOpCode(ARP.OP_REQUEST)
+                .setSenderHardwareAddress(
+                        Ethernet.toMACAddress("00:44:33:22:11:01"))
+                .setSenderProtocolAddress(IPv4.toIPv4Address("10.0.0.1"))
+                .setTargetHardwareAddress(new byte[6])
+                .setTargetProtocolAddress(IPv4.toIPv4Address("10.0.0.2")));
+        EthernetView view = new EthernetView(eth.serialize());
+        assertTrue(view.isBroadcast());
+        assertTrue(view.isMulticast());
+        assertTrue(view.isARP());
+        assertFalse(view.isIPv4());
+        assertEquals(0, view.getNetworkDestination());
+        assertEquals(0, view.getTransportSource());
+        assertEquals(ARP.PROTO_TYPE_IP, view.getArpProtocolType());
+        assertEquals(ARP.OP_REQUEST, view.getArpOpCode());
+        assertEquals(Ethernet.toLong(Ethernet.toMACAddress("00:44:33:22:11:01")),
+                     view.getArpSenderHardwareAddress());
+        assertEquals(IPv4.toIPv4Address("10.0.0.1"),
+                     view.getArpSenderProtocolAddress());
+    }
+
+    @Test
+    public void testTruncatedPacket() {
+        byte[] data = getUdpPacket((short) 7).serialize();
+        EthernetView view = new EthernetView(data, 0, 16);
+        assertEquals(getUdpPacket((short) 7).getSourceMAC().toLong(),
+                     view.getSourceMAC());
+        assertEquals(Ethernet.VLAN_UNTAGGED, view.getVlanID());
+        assertEquals(0, view.getEtherType());
+        assertFalse(view.isIPv4());
+        assertEquals(0, view.getTransportDestination());
+    }
+
+    @Test
+    public void testGetEthernetIsCached() {
+        Ethernet eth = getUdpPacket(Ethernet.VLAN_UNTAGGED);
+        byte[] data = eth.serialize();
+        // the view may start inside a larger buffer
+        byte[] framed = new byte[data.length + 4];
+        System.arraycopy(data, 0, framed, 2, data.length);
+        EthernetView view = new EthernetView(framed, 2, data.length);
+        Ethernet decoded = view.getEthernet();
+        assertTrue(view.isDecoded());
+        assertSame(decoded, view.getEthernet());
+        assertArrayEquals(data, decoded.serialize());
+    }
+
+    @Test
+    public void testByteBufferView() {
+        Ethernet eth = getUdpPacket((short) 42);
+        byte[] data = eth.serialize();
+        // as the packet data of a PACKET_IN inside the read buffer
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 8);
+        buffer.position(4);
+        buffer.put(data);
+        buffer.position(4);
+        buffer.limit(4 + data.length);
+        EthernetView view = new EthernetView(buffer.asReadOnlyBuffer());
+        buffer.clear();
+        assertEquals(data.length, view.getLength());
+        assertEquals(eth.getSourceMAC().toLong(), view.getSourceMAC());
+        assertEquals(42, view.getVlanID());
+        assertEquals(IPv4.toIPv4Address("192.168.1.2"),
+                     view.getNetworkDestination());
+        assertEquals(5001, view.getTransportDestination());
+        assertFalse(view.isDecoded());
+        assertArrayEquals(data, view.getEthernet().serialize());
+
+        OFPacketIn pi = new OFPacketIn();
+        pi.setPacketData(data);
+        view = new EthernetView(pi.getPacketDataView());
+        assertEquals(5000, view.getTransportSource());
+        assertArrayEquals(data, view.getEthernet().serialize());
+    }
+
+    @Test
+    public void testPacketInPayloadStore() {
+        Ethernet eth = getUdpPacket(Ethernet.VLAN_UNTAGGED);
+
+        // a stored view is decoded on demand for CONTEXT_PI_PAYLOAD readers
+        FloodlightContext cntx = new FloodlightContext();
+        EthernetView view = new EthernetView(eth.serialize());
+        IFloodlightProviderService.bcStore.putView(cntx, view);
+        assertSame(view, IFloodlightProviderService.bcStore.getView(cntx));
+        assertFalse(view.isDecoded());
+        Ethernet decoded = IFloodlightProviderService.bcStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        assertTrue(view.isDecoded());
+        assertSame(decoded, IFloodlightProviderService.bcStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT));
+
+        // a stored packet is wrapped in a view for view readers
+        cntx = new FloodlightContext();
+        IFloodlightProviderService.bcStore.put(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD, eth);
+        view = IFloodlightProviderService.bcStore.getView(cntx);
+        assertSame(eth, view.getEthernet());
+        assertEquals(5001, view.getTransportDestination());
+
+        assertNull(IFloodlightProviderService.bcStore.getView(
+                new FloodlightContext()));
+    }
+
+    @Test
+    public void testPacketInPayloadReplaced() {
+        // listeners may store a new payload in a context that is reused
+        FloodlightContext cntx = new FloodlightContext();
+        IFloodlightProviderService.bcStore.put(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD,
+                getUdpPacket(Ethernet.VLAN_UNTAGGED));
+        EthernetView view = IFloodlightProviderService.bcStore.getView(cntx);
+        assertEquals(Ethernet.VLAN_UNTAGGED, view.getVlanID());
+
+        Ethernet eth = getUdpPacket((short) 42);
+        IFloodlightProviderService.bcStore.put(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD, eth);
+        view = IFloodlightProviderService.bcStore.getView(cntx);
+        assertEquals(42, view.getVlanID());
+        assertSame(eth, view.getEthernet());
+
+        // so may a view replaced by a packet in the same slot
+        eth = getUdpPacket((short) 7);
+        IFloodlightProviderService.bcStore.putView(cntx,
+                new EthernetView(getUdpPacket((short) 3).serialize()));
+        IFloodlightProviderService.bcStore.put(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD_SLOT, eth);
+        assertEquals(7, IFloodlightProviderService.bcStore.getView(cntx)
+                                                          .getVlanID());
+
+        IFloodlightProviderService.bcStore.remove(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        assertNull(IFloodlightProviderService.bcStore.getView(cntx));
+        assertNull(IFloodlightProviderService.bcStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD));
+    }
+}
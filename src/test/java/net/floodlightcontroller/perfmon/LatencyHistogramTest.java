@@ -0,0 +1,87 @@
+package net.floodlightcontroller.perfmon;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        // buckets are contiguous and each one starts where its values do
+        long last = -1;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long start = LatencyHistogram.bucketStart(i);
+            assertTrue(start > last);
+            assertEquals(i, LatencyHistogram.bucketIndex(start));
+            if (start > 0)
+                assertEquals(i - 1, LatencyHistogram.bucketIndex(start - 1));
+            last = start;
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getValueAtPercentile(99));
+        for (long v = 1; v <= 1000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1000, h.getMinNs());
+        assertEquals(1000000, h.getMaxNs());
+        assertEquals(500500, h.getAverageNs());
+        assertWithin(500000, h.getValueAtPercentile(50));
+        assertWithin(990000, h.getValueAtPercentile(99));
+        assertWithin(999000, h.getValueAtPercentile(99.9));
+        assertEquals(1000000, h.getValueAtPercentile(100));
+        assertWithin(1000, h.getValueAtPercentile(0));
+
+        // very large and negative values are clamped
+        h.record(Long.MAX_VALUE);
+        h.record(-5);
+        assertEquals(Long.MAX_VALUE, h.getMaxNs());
+        assertEquals(0, h.getMinNs());
+        assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+        assertEquals(0, h.getValueAtPercentile(0));
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMaxNs());
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(5);
+        long[] values = new long[20000];
+        LatencyHistogram[] parts = new LatencyHistogram[4];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < values.length; i++) {
+            // log-uniform between 1us and 1s
+            values[i] = (long) Math.pow(10, 3 + 6 * random.nextDouble());
+            parts[i % parts.length].record(values[i]);
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram part : parts) {
+            merged.add(part);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, merged.getCount());
+        assertEquals(values[0], merged.getMinNs());
+        assertEquals(values[values.length - 1], merged.getMaxNs());
+        for (double p : new double[] { 10, 50, 90, 99, 99.9 }) {
+            int rank = (int) Math.ceil(p / 100 * values.length);
+            assertWithin(values[rank - 1], merged.getValueAtPercentile(p));
+        }
+    }
+
+    private void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                   Math.abs(expected - actual) <= expected / 16);
+    }
+}
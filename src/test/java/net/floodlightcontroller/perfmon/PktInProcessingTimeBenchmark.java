@@ -0,0 +1,122 @@
+package net.floodlightcontroller.perfmon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.core.IOFSwitch;
+
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+
+/**
+ * Measures what performance monitoring adds to each listener invocation
+ * by dispatching a message to a chain of listeners that do nothing, with
+ * monitoring disabled and enabled.  Reports time per listener invocation.
+ * Run with
+ *   java -cp ... net.floodlightcontroller.perfmon.PktInProcessingTimeBenchmark
+ *         [iterations] [threads]
+ */
+public class PktInProcessingTimeBenchmark {
+    private static final int LISTENERS = 8;
+
+    private static class NoopListener implements IOFMessageListener {
+        @Override
+        public String getName() {
+            return "noop";
+        }
+
+        @Override
+        public boolean isCallbackOrderingPrereq(OFType type, String name) {
+            return false;
+        }
+
+        @Override
+        public boolean isCallbackOrderingPostreq(OFType type, String name) {
+            return false;
+        }
+
+        @Override
+        public Command receive(IOFSwitch sw, OFMessage msg,
+                               FloodlightContext cntx) {
+            return Command.CONTINUE;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int iterations =
+                args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        final List<IOFMessageListener> listeners =
+                new ArrayList<IOFMessageListener>();
+        for (int i = 0; i < LISTENERS; i++) {
+            listeners.add(new NoopListener());
+        }
+        final PktInProcessingTime pktinProcTime = new PktInProcessingTime();
+        pktinProcTime.bootstrap(listeners);
+        final OFMessage m =
+                BasicFactory.getInstance().getMessage(OFType.PACKET_IN);
+
+        System.out.println("iterations=" + iterations + " threads=" + threads +
+                           " listeners=" + LISTENERS);
+        // first pass warms up, second pass is reported
+        for (int pass = 0; pass < 2; pass++) {
+            for (boolean enabled : new boolean[] { false, true }) {
+                pktinProcTime.isEnabled = enabled;
+                long elapsed = run(pktinProcTime, listeners, m, iterations,
+                                   threads);
+                if (pass == 1) {
+                    System.out.printf("%-8s: %6.1f ns/listener%n",
+                                      enabled ? "enabled" : "disabled",
+                                      (double) elapsed /
+                                          ((long) iterations * LISTENERS));
+                }
+            }
+        }
+        CumulativeTimeBucket ctb = pktinProcTime.getCtb();
+        System.out.println("recorded " + ctb.getTotalPktCnt() +
+                           " messages, p99 " +
+                           ctb.getTotalProcTimeNsAtPercentile(99) + " ns");
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    /**
+     * Dispatch from a number of threads
+     * @return the average elapsed time per thread in nanoseconds
+     */
+    private static long run(final PktInProcessingTime pktinProcTime,
+                            final List<IOFMessageListener> listeners,
+                            final OFMessage m, final int iterations,
+                            int threads) throws InterruptedException {
+        final long[] elapsed = new long[threads];
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < iterations; i++) {
+                        // the dispatch loop of Controller.handleMessage
+                        ThreadTimeBuckets times =
+                                pktinProcTime.recordStartTimePktIn();
+                        for (IOFMessageListener listener : listeners) {
+                            listener.receive(null, m, null);
+                            pktinProcTime.recordEndTimeComp(times, listener);
+                        }
+                        pktinProcTime.recordEndTimePktIn(times, null, m, null);
+                    }
+                    elapsed[index] = System.nanoTime() - start;
+                }
+            });
+        }
+        for (Thread t : workers) t.start();
+        for (Thread t : workers) t.join();
+        long sum = 0;
+        for (long e : elapsed) sum += e;
+        return sum / threads;
+    }
+}
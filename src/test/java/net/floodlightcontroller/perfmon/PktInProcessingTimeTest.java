@@ -0,0 +1,115 @@
+package net.floodlightcontroller.perfmon;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.perfmon.PktInProcessingTime.TimeBucket;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+
+public class PktInProcessingTimeTest {
+    protected PktInProcessingTime pktinProcTime;
+    protected IOFMessageListener l1;
+    protected IOFMessageListener l2;
+
+    @Before
+    public void setUp() throws Exception {
+        l1 = createNiceMock(IOFMessageListener.class);
+        l2 = createNiceMock(IOFMessageListener.class);
+        pktinProcTime = new PktInProcessingTime();
+        pktinProcTime.bootstrap(Arrays.asList(l1, l2));
+        pktinProcTime.isEnabled = true;
+    }
+
+    protected void dispatch(OFMessage m, IOFMessageListener... listeners) {
+        ThreadTimeBuckets tb = pktinProcTime.recordStartTimePktIn();
+        for (IOFMessageListener l : listeners) {
+            pktinProcTime.recordEndTimeComp(tb, l);
+        }
+        pktinProcTime.recordEndTimePktIn(tb, null, m, null);
+    }
+
+    @Test
+    public void testMergeThreads() throws Exception {
+        BasicFactory factory = BasicFactory.getInstance();
+        final OFMessage pi = factory.getMessage(OFType.PACKET_IN);
+        final OFMessage ps = factory.getMessage(OFType.PORT_STATUS);
+
+        // every thread records into its own buckets
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        dispatch(pi, l1, l2);
+                        // out of the bootstrapped order
+                        dispatch(ps, l2);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+
+        CumulativeTimeBucket ctb = pktinProcTime.getCtb();
+        assertEquals(8000, ctb.getTotalPktCnt());
+        assertEquals(4000, ctb.getMessageTypes().get(OFType.PACKET_IN)
+                              .getCount());
+        assertEquals(4000, ctb.getMessageTypes().get(OFType.PORT_STATUS)
+                              .getCount());
+        assertEquals(2, ctb.getNumComps());
+        long[] counts = new long[2];
+        int i = 0;
+        for (OneComponentTime oct : ctb.getModules()) {
+            counts[i++] = oct.getPktCnt();
+        }
+        assertArrayEquals(new long[] { 4000, 8000 }, counts);
+        assertTrue(ctb.getTotalProcTimeNsAtPercentile(99.9) <=
+                   ctb.getMaxTotalProcTimeNs());
+
+        // starting over drops everything recorded so far
+        pktinProcTime.bootstrap(Arrays.asList(l1, l2));
+        assertEquals(0, pktinProcTime.getCtb().getTotalPktCnt());
+    }
+
+    @Test
+    public void testDisabled() {
+        pktinProcTime.isEnabled = false;
+        assertNull(pktinProcTime.recordStartTimePktIn());
+        dispatch(BasicFactory.getInstance().getMessage(OFType.PACKET_IN), l1);
+        assertEquals(0, pktinProcTime.getCtb().getTotalPktCnt());
+    }
+
+    @Test
+    public void testBucketReuse() {
+        ThreadTimeBuckets tb = new ThreadTimeBuckets(
+                Collections.<IOFMessageListener>emptyList());
+        long duration = PktInProcessingTime.ONE_BUCKET_DURATION_NANOSECONDS;
+        TimeBucket bucket = tb.getBucket(-1);
+        assertEquals(-1, bucket.bucketNum);
+        bucket.totalProcTimes.record(10);
+
+        assertSame(bucket, tb.getBucket(-duration));
+        assertEquals(1, bucket.totalProcTimes.getCount());
+        assertNotSame(bucket, tb.getBucket(0));
+
+        // a full round later the bucket is reset for its new span
+        TimeBucket reused = tb.getBucket(
+                (PktInProcessingTime.BUCKET_SET_SIZE - 1) * duration);
+        assertSame(bucket, reused);
+        assertEquals(PktInProcessingTime.BUCKET_SET_SIZE - 1,
+                     reused.bucketNum);
+        assertEquals(0, reused.totalProcTimes.getCount());
+    }
+}
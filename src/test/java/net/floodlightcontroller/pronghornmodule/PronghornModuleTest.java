@@ -0,0 +1,317 @@
+package net.floodlightcontroller.pronghornmodule;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFError;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.FloodlightFactory;
+import org.openflow.util.HexString;
+
+public class PronghornModuleTest {
+    private static final long DPID = 1L;
+    private static final long DPID2 = 2L;
+    private static final String SWITCH_ID = HexString.toHexString(DPID);
+
+    private PronghornModule pronghorn;
+    private IOFSwitch sw;
+    private IOFSwitch sw2;
+    private ScheduledExecutorService executor;
+    private Capture<OFMessage> written;
+    private Capture<List<OFMessage>> writtenLists;
+    private List<String> calls;
+    private int nextXid = 100;
+
+    private IOFSwitch createSwitch(long dpid) throws Exception {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(dpid).anyTimes();
+        expect(sw.getNextTransactionId()).andAnswer(
+                new IAnswer<Integer>() {
+                    @Override
+                    public Integer answer() {
+                        return nextXid++;
+                    }
+                }).anyTimes();
+        sw.write(capture(written), (FloodlightContext)isNull());
+        expectLastCall().andAnswer(record("write")).anyTimes();
+        sw.write(capture(writtenLists), (FloodlightContext)isNull());
+        expectLastCall().andAnswer(record("write list")).anyTimes();
+        sw.flush();
+        expectLastCall().andAnswer(record("flush")).anyTimes();
+        return sw;
+    }
+
+    private IAnswer<Object> record(final String call) {
+        return new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                calls.add(call);
+                return null;
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        written = new Capture<OFMessage>(CaptureType.ALL);
+        writtenLists = new Capture<List<OFMessage>>(CaptureType.ALL);
+        calls = new ArrayList<String>();
+        sw = createSwitch(DPID);
+        sw2 = createSwitch(DPID2);
+
+        IFloodlightProviderService provider =
+                createMock(IFloodlightProviderService.class);
+        expect(provider.getSwitch(DPID)).andReturn(sw).anyTimes();
+        expect(provider.getSwitch(DPID2)).andReturn(sw2).anyTimes();
+        expect(provider.getSwitch(anyLong())).andReturn(null).anyTimes();
+        expect(provider.getOFMessageFactory())
+                .andReturn(FloodlightFactory.getInstance()).anyTimes();
+
+        executor = new ScheduledThreadPoolExecutor(1);
+        IThreadPoolService threadPool = createMock(IThreadPoolService.class);
+        expect(threadPool.getScheduledExecutor())
+                .andReturn(executor).anyTimes();
+        replay(sw, sw2, provider, threadPool);
+
+        pronghorn = new PronghornModule();
+        pronghorn.floodlightProvider = provider;
+        pronghorn.threadpool_service = threadPool;
+        pronghorn.transactions = new ConcurrentHashMap<Long,
+                PronghornModule.SwitchTransactions>();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private int issueFlowMod() throws Exception {
+        OFFlowMod fm = new OFFlowMod();
+        pronghorn.issue_flow_mod(fm, SWITCH_ID);
+        assertTrue(fm.getXid() != 0);
+        return fm.getXid();
+    }
+
+    private void reply(OFType type, int xid) {
+        OFMessage m = (type == OFType.BARRIER_REPLY) ?
+                new OFBarrierReply() : new OFError();
+        m.setXid(xid);
+        pronghorn.receive(sw, m, null);
+    }
+
+    @Test
+    public void testPipelinedTransactions() throws Exception {
+        int fm1 = issueFlowMod();
+        int fm2 = issueFlowMod();
+        PronghornBarrierFuture first = pronghorn.barrier_async(SWITCH_ID);
+        int fm3 = issueFlowMod();
+        PronghornBarrierFuture second = pronghorn.barrier_async(SWITCH_ID);
+        assertTrue(first.get_xid() != second.get_xid());
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        reply(OFType.ERROR, fm2);
+        reply(OFType.ERROR, fm3);
+        reply(OFType.BARRIER_REPLY, first.get_xid());
+        PronghornBarrierResult r1 = first.get(1, TimeUnit.SECONDS);
+        assertTrue(r1.is_committed());
+        assertEquals(Collections.singletonList(fm2), r1.get_failed_xids());
+        assertFalse(r1.succeeded());
+        assertFalse(second.isDone());
+
+        reply(OFType.BARRIER_REPLY, second.get_xid());
+        PronghornBarrierResult r2 = second.get(1, TimeUnit.SECONDS);
+        assertTrue(r2.is_committed());
+        assertEquals(Collections.singletonList(fm3), r2.get_failed_xids());
+        assertTrue(fm1 != fm3);
+
+        // the flow mods and both barriers went out in order
+        List<OFType> types = new ArrayList<OFType>();
+        for (OFMessage m : written.getValues())
+            types.add(m.getType());
+        assertEquals(Arrays.asList(OFType.FLOW_MOD, OFType.FLOW_MOD,
+                                   OFType.BARRIER_REQUEST, OFType.FLOW_MOD,
+                                   OFType.BARRIER_REQUEST), types);
+    }
+
+    @Test
+    public void testCallbackSeesEarlyErrors() throws Exception {
+        int fm = issueFlowMod();
+        // the error arrives before the barrier is sent
+        reply(OFType.ERROR, fm);
+
+        final List<Integer> failures = new ArrayList<Integer>();
+        final List<String> outcome = new ArrayList<String>();
+        IPronghornBarrierCallback cb = new IPronghornBarrierCallback() {
+            @Override
+            public void command_failure(int id) {
+                failures.add(id);
+            }
+            @Override
+            public void barrier_success() {
+                outcome.add("success");
+            }
+            @Override
+            public void barrier_failure() {
+                outcome.add("failure");
+            }
+        };
+        PronghornBarrierFuture future = pronghorn.barrier_async(SWITCH_ID, cb);
+        reply(OFType.BARRIER_REPLY, future.get_xid());
+        assertTrue(future.get(1, TimeUnit.SECONDS).is_committed());
+        assertEquals(Collections.singletonList(fm), failures);
+        assertEquals(Collections.singletonList("success"), outcome);
+    }
+
+    @Test
+    public void testBarrierTimeout() throws Exception {
+        issueFlowMod();
+        PronghornBarrierFuture future = pronghorn.barrier_async(SWITCH_ID);
+        PronghornBarrierResult result = future.get(
+                PronghornModule.BARRIER_TIMEOUT_MS * 5, TimeUnit.MILLISECONDS);
+        assertFalse(result.is_committed());
+        // a late reply is ignored
+        reply(OFType.BARRIER_REPLY, future.get_xid());
+        assertFalse(future.get().is_committed());
+        assertEquals("false", pronghorn.sendBarrier(SWITCH_ID));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownSwitch() throws Exception {
+        pronghorn.barrier_async(HexString.toHexString(3L));
+    }
+
+    private static List<OFFlowMod> getFlowMods(int n) {
+        List<OFFlowMod> fms = new ArrayList<OFFlowMod>();
+        for (int i = 0; i < n; i++)
+            fms.add(new OFFlowMod());
+        return fms;
+    }
+
+    @Test
+    public void testBatchIsWrittenBehindBufferedFlowMods() throws Exception {
+        // issued earlier without a barrier, joins the batch's transaction
+        int early = issueFlowMod();
+        List<OFFlowMod> fms = getFlowMods(3);
+        PronghornBarrierFuture future =
+                pronghorn.issue_flow_mod_batch(fms, DPID);
+
+        // everything goes through the switch's buffer, flushed last
+        assertEquals(Arrays.asList("write", "write", "write", "write",
+                                   "write", "flush"), calls);
+        List<OFMessage> msgs = written.getValues();
+        assertEquals(5, msgs.size());
+        assertEquals(early, msgs.get(0).getXid());
+        for (int i = 0; i < 3; i++)
+            assertSame(fms.get(i), msgs.get(i + 1));
+        assertEquals(OFType.BARRIER_REQUEST, msgs.get(4).getType());
+        assertEquals(future.get_xid(), msgs.get(4).getXid());
+
+        reply(OFType.ERROR, early);
+        reply(OFType.ERROR, fms.get(1).getXid());
+        reply(OFType.BARRIER_REPLY, future.get_xid());
+        PronghornBarrierResult result = future.get(1, TimeUnit.SECONDS);
+        assertTrue(result.is_committed());
+        assertEquals(Arrays.asList(early, fms.get(1).getXid()),
+                     result.get_failed_xids());
+        assertTrue(result.get_commit_latency_ns() >= 0);
+    }
+
+    @Test
+    public void testBatchesForManySwitches() throws Exception {
+        Map<Long, List<OFFlowMod>> batches =
+                new HashMap<Long, List<OFFlowMod>>();
+        batches.put(DPID, getFlowMods(2));
+        batches.put(DPID2, getFlowMods(5));
+        Map<Long, PronghornBarrierFuture> futures =
+                pronghorn.issue_flow_mod_batches(batches);
+        assertEquals(2, futures.size());
+        assertEquals(9, written.getValues().size());
+
+        pronghorn.receive(sw2, getBarrierReply(futures.get(DPID2)), null);
+        assertTrue(futures.get(DPID2).get(1, TimeUnit.SECONDS).succeeded());
+        assertFalse(futures.get(DPID).isDone());
+        pronghorn.receive(sw, getBarrierReply(futures.get(DPID)), null);
+        assertTrue(futures.get(DPID).get(1, TimeUnit.SECONDS).succeeded());
+    }
+
+    @Test
+    public void testBatchesWithUnknownSwitchWriteNothing() throws Exception {
+        Map<Long, List<OFFlowMod>> batches =
+                new LinkedHashMap<Long, List<OFFlowMod>>();
+        batches.put(DPID, getFlowMods(2));
+        batches.put(3L, getFlowMods(2));
+        try {
+            pronghorn.issue_flow_mod_batches(batches);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(written.hasCaptured());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        int fm = issueFlowMod();
+        PronghornBarrierFuture future = pronghorn.barrier_async(SWITCH_ID);
+        PronghornModule.SwitchTransactions txns =
+                pronghorn.transactions.get(DPID);
+        assertTrue(txns.by_barrier_xid.containsKey(future.get_xid()));
+        assertTrue(txns.by_command_xid.containsKey(fm));
+
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertFalse(future.cancel(false));
+        assertTrue(txns.by_barrier_xid.isEmpty());
+        assertTrue(txns.by_command_xid.isEmpty());
+        try {
+            future.get();
+            fail("Expected CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Expected CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+        // a late reply is ignored
+        reply(OFType.BARRIER_REPLY, future.get_xid());
+        assertTrue(future.isCancelled());
+    }
+
+    private static OFMessage getBarrierReply(PronghornBarrierFuture future) {
+        OFMessage m = new OFBarrierReply();
+        m.setXid(future.get_xid());
+        return m;
+    }
+}
@@ -20,9 +20,19 @@ package net.floodlightcontroller.storage.memory.tests;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.restserver.RestApiServer;
+import net.floodlightcontroller.storage.CompoundPredicate;
+import net.floodlightcontroller.storage.IResultSet;
+import net.floodlightcontroller.storage.OperatorPredicate;
+import net.floodlightcontroller.storage.RowOrdering;
 import net.floodlightcontroller.storage.memory.MemoryStorageSource;
+import net.floodlightcontroller.storage.nosql.NoSqlStorageSource.ColumnIndexMode;
 import net.floodlightcontroller.storage.tests.StorageTest;
+
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.Before;
+import org.junit.Test;
 
 public class MemoryStorageTest extends StorageTest {
 
@@ -38,4 +48,61 @@ public class MemoryStorageTest extends StorageTest {
         storageSource.startUp(fmc);
         super.setUp();
     }
+
+    @Test
+    public void testIndexMaintenance() {
+        String[] columnList = {PERSON_SSN, PERSON_FIRST_NAME};
+        Map<String,Object> updateValues = new HashMap<String,Object>();
+        updateValues.put(PERSON_LAST_NAME, "Jones");
+        storageSource.updateRow(PERSON_TABLE_NAME, "111-11-1111", updateValues);
+        storageSource.deleteRow(PERSON_TABLE_NAME, "444-44-4444");
+
+        // the index of the last name follows updates and deletions
+        IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME,
+                columnList,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Jones"),
+                null);
+        checkExpectedResults(resultSet, columnList, new Object[][] {
+                {"111-11-1111", "John"},
+                {"333-33-3333", "Lisa"}
+        });
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Smith"),
+                null);
+        checkExpectedResults(resultSet, columnList, new Object[0][]);
+    }
+
+    @Test
+    public void testRangeIndex() {
+        // an index added after the rows were inserted covers them too
+        ((MemoryStorageSource) storageSource).setColumnIndexMode(
+                PERSON_TABLE_NAME, PERSON_AGE, ColumnIndexMode.RANGE_INDEXED);
+        String[] columnList = {PERSON_SSN, PERSON_AGE};
+        IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME,
+                columnList,
+                new CompoundPredicate(CompoundPredicate.Operator.AND, false,
+                        new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.GT, 27),
+                        new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.LTE, 40)),
+                null);
+        checkExpectedResults(resultSet, columnList, new Object[][] {
+                {"111-11-1111", 40},
+                {"555-55-5555", 31},
+                {"666-66-6666", 35}
+        });
+
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.LT, 20),
+                new RowOrdering(PERSON_SSN));
+        checkExpectedResults(resultSet, columnList, new Object[][] {
+                {"444-44-4444", 14}
+        });
+
+        // an empty range
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new CompoundPredicate(CompoundPredicate.Operator.AND, false,
+                        new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.GT, 40),
+                        new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.LT, 30)),
+                null);
+        checkExpectedResults(resultSet, columnList, new Object[0][]);
+    }
 }
@@ -0,0 +1,203 @@
+package net.floodlightcontroller.topology;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import net.floodlightcontroller.routing.BroadcastTree;
+import net.floodlightcontroller.routing.Link;
+
+/**
+ * Compares TopologyInstance.dijkstra() over a ClusterGraph against the
+ * earlier implementation built on HashMaps and a PriorityQueue, which is
+ * kept below for reference.  The graphs are random clusters of 100, 1000
+ * and 5000 switches: a bidirectional ring plus random bidirectional
+ * links, with an average degree of about four.  Each run computes the
+ * destination rooted trees of a sample of roots; the ClusterGraph is
+ * built once per graph, as TopologyInstance does per cluster, and its
+ * construction time is reported separately.
+ * Run with
+ *   java -cp ... net.floodlightcontroller.topology.DijkstraBenchmark
+ *         [roots]
+ */
+public class DijkstraBenchmark {
+
+    private interface TreeBuilder {
+        BroadcastTree build(long root);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int roots = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final TopologyInstance ti = new TopologyInstance();
+
+        for (int n: new int[] {100, 1000, 5000}) {
+            final Cluster c = getCluster(n, new Random(n));
+            final Map<Link, Integer> linkCost = new HashMap<Link, Integer>();
+            long start = System.nanoTime();
+            final ClusterGraph g = new ClusterGraph(c, linkCost);
+            long graphNs = System.nanoTime() - start;
+
+            TreeBuilder legacy = new TreeBuilder() {
+                @Override
+                public BroadcastTree build(long root) {
+                    return legacyDijkstra(c, root, linkCost, true);
+                }
+            };
+            TreeBuilder indexed = new TreeBuilder() {
+                @Override
+                public BroadcastTree build(long root) {
+                    return ti.dijkstra(g, root, true);
+                }
+            };
+
+            System.out.printf("switches=%d links=%d roots=%d graph=%.2f ms%n",
+                              n, g.inLinks.length, roots, graphNs / 1e6);
+            // first pass warms up, second pass is reported
+            for (int pass = 0; pass < 2; pass++) {
+                run("hashmap", legacy, c, roots, pass == 1);
+                run("indexed", indexed, c, roots, pass == 1);
+            }
+        }
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    private static void run(String name, TreeBuilder builder, Cluster c,
+                            int roots, boolean report) {
+        List<Long> nodes = new ArrayList<Long>(c.getNodes());
+        Random random = new Random(1);
+        long total = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < roots; i++) {
+            long root = nodes.get(random.nextInt(nodes.size()));
+            BroadcastTree tree = builder.build(root);
+            total += tree.getCost(nodes.get(0));
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (report) {
+            System.out.printf("  %s: %10.1f us/tree %12.0f bytes/tree (%d)%n",
+                              name, elapsed / 1e3 / roots,
+                              bytes < 0 ? Double.NaN : (double)bytes / roots,
+                              total);
+        }
+    }
+
+    private static Cluster getCluster(int n, Random random) {
+        Cluster c = new Cluster();
+        int port = 1;
+        for (int i = 0; i < n; i++) {
+            addCable(c, i + 1, (i + 1) % n + 1, port++);
+        }
+        for (int i = 0; i < n; i++) {
+            addCable(c, random.nextInt(n) + 1, random.nextInt(n) + 1, port++);
+        }
+        return c;
+    }
+
+    private static void addCable(Cluster c, long s1, long s2, int port) {
+        if (s1 == s2) return;
+        c.addLink(new Link(s1, port, s2, port));
+        c.addLink(new Link(s2, port, s1, port));
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static class NodeDist implements Comparable<NodeDist> {
+        private final Long node;
+        private final int dist;
+
+        public NodeDist(Long node, int dist) {
+            this.node = node;
+            this.dist = dist;
+        }
+
+        @Override
+        public int compareTo(NodeDist o) {
+            if (o.dist == this.dist) {
+                return (int)(this.node - o.node);
+            }
+            return this.dist - o.dist;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            return node.equals(((NodeDist) obj).node);
+        }
+
+        @Override
+        public int hashCode() {
+            return node.hashCode();
+        }
+    }
+
+    /**
+     * The HashMap based dijkstra() that TopologyInstance used before.
+     */
+    private static BroadcastTree legacyDijkstra(Cluster c, Long root,
+                                                Map<Link, Integer> linkCost,
+                                                boolean isDstRooted) {
+        HashMap<Long, Link> nexthoplinks = new HashMap<Long, Link>();
+        HashMap<Long, Integer> cost = new HashMap<Long, Integer>();
+        int w;
+
+        for (Long node: c.links.keySet()) {
+            nexthoplinks.put(node, null);
+            cost.put(node, TopologyInstance.MAX_PATH_WEIGHT);
+        }
+
+        HashMap<Long, Boolean> seen = new HashMap<Long, Boolean>();
+        PriorityQueue<NodeDist> nodeq = new PriorityQueue<NodeDist>();
+        nodeq.add(new NodeDist(root, 0));
+        cost.put(root, 0);
+        while (nodeq.peek() != null) {
+            NodeDist n = nodeq.poll();
+            Long cnode = n.node;
+            int cdist = n.dist;
+            if (cdist >= TopologyInstance.MAX_PATH_WEIGHT) break;
+            if (seen.containsKey(cnode)) continue;
+            seen.put(cnode, true);
+
+            for (Link link: c.links.get(cnode)) {
+                Long neighbor;
+
+                if (isDstRooted == true) neighbor = link.getSrc();
+                else neighbor = link.getDst();
+
+                if (neighbor.equals(cnode)) continue;
+                if (seen.containsKey(neighbor)) continue;
+
+                if (linkCost == null || linkCost.get(link)==null) w = 1;
+                else w = linkCost.get(link);
+
+                int ndist = cdist + w;
+                if (ndist < cost.get(neighbor)) {
+                    cost.put(neighbor, ndist);
+                    nexthoplinks.put(neighbor, link);
+                    NodeDist ndTemp = new NodeDist(neighbor, ndist);
+                    nodeq.remove(ndTemp);
+                    nodeq.add(ndTemp);
+                }
+            }
+        }
+
+        return new BroadcastTree(nexthoplinks, cost);
+    }
+}
@@ -0,0 +1,214 @@
+package net.floodlightcontroller.topology;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.floodlightcontroller.routing.Link;
+
+/**
+ * Replays a sequence of link flaps on a k-ary fat-tree and compares
+ * computing every new topology instance from scratch against computing
+ * it from the instance it replaces.  Each flap removes both directions
+ * of a random link and then restores them, so it takes two instances.
+ * Before every flap all routes of the current instance are loaded into
+ * its path cache, and the benchmark reports how many of them the next
+ * instance kept.
+ * It then computes the whole fat-tree from scratch, as after a switch
+ * reconnect storm, on the calling thread and on executors of 2, 4 and 8
+ * threads.
+ * Run with
+ *   java -cp ... net.floodlightcontroller.topology.TopologyInstanceBenchmark
+ *         [k] [flaps]
+ */
+public class TopologyInstanceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int k = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int flaps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        List<Link[]> cables = getFatTree(k);
+        Set<Link> links = new HashSet<Link>();
+        Set<Long> switches = new HashSet<Long>();
+        for (Link[] cable: cables) {
+            for (Link l: cable) {
+                links.add(l);
+                switches.add(l.getSrc());
+            }
+        }
+        System.out.println("k=" + k + " switches=" + switches.size() +
+                           " links=" + links.size() + " flaps=" + flaps);
+
+        // first pass warms up, second pass is reported
+        for (int pass = 0; pass < 2; pass++) {
+            run("full       ", cables, links, flaps, false, pass == 1);
+            run("incremental", cables, links, flaps, true, pass == 1);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (int threads: new int[] {0, 2, 4, 8}) {
+                runFull(links, threads, pass == 1);
+            }
+        }
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    private static void run(String name, List<Link[]> cables,
+                            Set<Link> links, int flaps, boolean incremental,
+                            boolean report) {
+        Random random = new Random(1);
+        Set<Link> current = new HashSet<Link>(links);
+        TopologyInstance ti = getInstance(current);
+        ti.compute();
+
+        long elapsed = 0;
+        long trees = 0;
+        long reusedTrees = 0;
+        long routes = 0;
+        long keptRoutes = 0;
+        for (int i = 0; i < flaps * 2; i++) {
+            Link[] cable = cables.get(random.nextInt(cables.size()));
+            for (Link l: cable) {
+                if (i % 2 == 0) current.remove(l);
+                else current.add(l);
+            }
+            loadAllRoutes(ti);
+            routes += ti.pathcache.size();
+
+            TopologyInstance nt = getInstance(current);
+            long start = System.nanoTime();
+            if (incremental) nt.compute(ti);
+            else nt.compute();
+            elapsed += System.nanoTime() - start;
+
+            keptRoutes += nt.pathcache.size();
+            for (Long dst: nt.destinationRootedTrees.keySet()) {
+                trees++;
+                if (nt.destinationRootedTrees.get(dst) ==
+                        ti.destinationRootedTrees.get(dst)) reusedTrees++;
+            }
+            ti = nt;
+        }
+        if (report) {
+            System.out.printf("%s: %8.2f ms/instance, reused %d/%d trees, " +
+                              "kept %d/%d cached routes%n", name,
+                              elapsed / 1e6 / (flaps * 2),
+                              reusedTrees, trees, keptRoutes, routes);
+        }
+    }
+
+    private static void runFull(Set<Link> links, int threads,
+                                boolean report) {
+        ExecutorService executor = null;
+        if (threads > 0) executor = Executors.newFixedThreadPool(threads);
+        int rounds = 5;
+        long elapsed = 0;
+        for (int i = 0; i < rounds; i++) {
+            TopologyInstance ti = getInstance(links);
+            long start = System.nanoTime();
+            ti.compute(null, executor);
+            elapsed += System.nanoTime() - start;
+        }
+        if (executor != null) executor.shutdown();
+        if (report) {
+            System.out.printf("full compute, %d threads: %8.2f ms%n",
+                              threads, elapsed / 1e6 / rounds);
+        }
+    }
+
+    private static void loadAllRoutes(TopologyInstance ti) {
+        // the path cache holds at most PATH_CACHE_SIZE routes, so only
+        // load routes toward a sample of destinations
+        List<Long> switches = new ArrayList<Long>(ti.getSwitches());
+        int dsts = Math.max(1, TopologyInstance.PATH_CACHE_SIZE / switches.size());
+        for (int d = 0; d < dsts && d < switches.size(); d++) {
+            for (long src: switches) {
+                ti.getRoute(src, switches.get(d), 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the cables of a k-ary fat-tree, each as the pair of links
+     * connecting two ports.  Core switches are numbered from 1, followed
+     * by the aggregation and edge switches of every pod.
+     */
+    private static List<Link[]> getFatTree(int k) {
+        int half = k / 2;
+        long core = 1;
+        long agg = core + half * half;
+        long edge = agg + k * half;
+        Map<Long, Integer> nextPort = new HashMap<Long, Integer>();
+        List<Link[]> cables = new ArrayList<Link[]>();
+
+        for (int pod = 0; pod < k; pod++) {
+            for (int a = 0; a < half; a++) {
+                long aggSw = agg + pod * half + a;
+                // aggregation switch a connects to core group a
+                for (int c = 0; c < half; c++) {
+                    cables.add(getCable(aggSw, core + a * half + c, nextPort));
+                }
+                for (int e = 0; e < half; e++) {
+                    cables.add(getCable(aggSw, edge + pod * half + e, nextPort));
+                }
+            }
+        }
+        return cables;
+    }
+
+    private static Link[] getCable(long s1, long s2,
+                                   Map<Long, Integer> nextPort) {
+        int p1 = getPort(s1, nextPort);
+        int p2 = getPort(s2, nextPort);
+        return new Link[] { new Link(s1, p1, s2, p2),
+                            new Link(s2, p2, s1, p1) };
+    }
+
+    private static int getPort(long sw, Map<Long, Integer> nextPort) {
+        Integer p = nextPort.get(sw);
+        if (p == null) p = 1;
+        nextPort.put(sw, p + 1);
+        return p;
+    }
+
+    private static TopologyInstance getInstance(Set<Link> links) {
+        Map<Long, Set<Integer>> switchPorts = new HashMap<Long, Set<Integer>>();
+        Map<NodePortTuple, Set<Link>> switchPortLinks =
+                new HashMap<NodePortTuple, Set<Link>>();
+        for (Link l: links) {
+            addPortLink(switchPorts, switchPortLinks, l.getSrc(),
+                        l.getSrcPort(), l);
+            addPortLink(switchPorts, switchPortLinks, l.getDst(),
+                        l.getDstPort(), l);
+        }
+        return new TopologyInstance(switchPorts,
+                                    new HashSet<NodePortTuple>(),
+                                    switchPortLinks,
+                                    new HashSet<NodePortTuple>(),
+                                    new HashSet<NodePortTuple>());
+    }
+
+    private static void addPortLink(Map<Long, Set<Integer>> switchPorts,
+                                    Map<NodePortTuple, Set<Link>> switchPortLinks,
+                                    long sw, int port, Link l) {
+        Set<Integer> ports = switchPorts.get(sw);
+        if (ports == null) {
+            ports = new HashSet<Integer>();
+            switchPorts.put(sw, ports);
+        }
+        ports.add(port);
+        NodePortTuple npt = new NodePortTuple(sw, port);
+        Set<Link> portLinks = switchPortLinks.get(npt);
+        if (portLinks == null) {
+            portLinks = new HashSet<Link>();
+            switchPortLinks.put(npt, portLinks);
+        }
+        portLinks.add(l);
+    }
+}
@@ -18,9 +18,14 @@ package net.floodlightcontroller.topology;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import static org.junit.Assert.*;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -29,6 +34,10 @@ import net.floodlightcontroller.core.test.MockFloodlightProvider;
 import net.floodlightcontroller.core.test.MockThreadPoolService;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
+import net.floodlightcontroller.routing.BroadcastTree;
+import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.routing.Route;
+import net.floodlightcontroller.routing.RouteId;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.NodePortTuple;
 import net.floodlightcontroller.topology.TopologyInstance;
@@ -467,4 +476,299 @@ public class TopologyInstanceTest {
                 verifyClusters(expectedClusters);
         }
     }
+
+    /**
+     * Compares an instance computed from a previous one against a full
+     * computation of the same links, and checks that the trees using the
+     * changed links were recomputed.  When links were only removed, all
+     * other trees must have been reused.
+     */
+    protected void verifyIncrementalCompute(TopologyInstance previous,
+                                            int [][] changedLinks,
+                                            boolean removed) {
+        TopologyInstance ti = topologyManager.getCurrentInstance();
+        TopologyInstance full = new TopologyInstance(ti.switchPorts,
+                                                     ti.blockedPorts,
+                                                     ti.switchPortLinks,
+                                                     ti.broadcastDomainPorts,
+                                                     ti.tunnelPorts);
+        full.compute();
+
+        assertEquals(full.destinationRootedTrees.keySet(),
+                     ti.destinationRootedTrees.keySet());
+        for (long dst: full.destinationRootedTrees.keySet()) {
+            BroadcastTree tree = ti.destinationRootedTrees.get(dst);
+            assertEquals(full.destinationRootedTrees.get(dst).getCosts(),
+                         tree.getCosts());
+
+            boolean usesChangedLink = false;
+            for (int [] r: changedLinks) {
+                Link l = tree.getTreeLink(r[0]);
+                if (l != null && l.getDst() == r[2]) usesChangedLink = true;
+                l = previous.destinationRootedTrees.get(dst).getTreeLink(r[0]);
+                if (l != null && l.getDst() == r[2]) usesChangedLink = true;
+            }
+            boolean reused = (tree == previous.destinationRootedTrees.get(dst));
+            if (usesChangedLink) assertFalse(reused);
+            else if (removed) assertTrue(reused);
+
+            // cached routes are kept only for destinations with reused trees
+            for (long src: full.destinationRootedTrees.keySet()) {
+                if (src == dst) continue;
+                RouteId id = new RouteId(src, dst);
+                assertEquals(reused, ti.pathcache.asMap().containsKey(id));
+                assertEquals(full.getRoute(src, dst, 0).getPath().size(),
+                             ti.getRoute(src, dst, 0).getPath().size());
+            }
+        }
+    }
+
+    protected void loadAllRoutes(TopologyInstance ti) {
+        for (long src: ti.getSwitches()) {
+            for (long dst: ti.getSwitches()) {
+                ti.getRoute(src, dst, 0);
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalShortestPathTrees() throws Exception {
+        // A ring of six switches with a chord between 1 and 4.
+        int [][] linkArray = {
+                              {1, 1, 2, 1, DIRECT_LINK},
+                              {2, 1, 1, 1, DIRECT_LINK},
+                              {2, 2, 3, 1, DIRECT_LINK},
+                              {3, 1, 2, 2, DIRECT_LINK},
+                              {3, 2, 4, 1, DIRECT_LINK},
+                              {4, 1, 3, 2, DIRECT_LINK},
+                              {4, 2, 5, 1, DIRECT_LINK},
+                              {5, 1, 4, 2, DIRECT_LINK},
+                              {5, 2, 6, 1, DIRECT_LINK},
+                              {6, 1, 5, 2, DIRECT_LINK},
+                              {6, 2, 1, 2, DIRECT_LINK},
+                              {1, 2, 6, 2, DIRECT_LINK},
+                              {1, 3, 4, 3, DIRECT_LINK},
+                              {4, 3, 1, 3, DIRECT_LINK}
+        };
+        int [][] flappedLinks = {
+                                 {2, 2, 3, 1},
+                                 {3, 1, 2, 2}
+        };
+        createTopologyFromLinks(linkArray);
+
+        TopologyInstance previous = topologyManager.getCurrentInstance();
+        loadAllRoutes(previous);
+        for (int [] r: flappedLinks) {
+            topologyManager.removeLink((long)r[0], (short)r[1],
+                                       (long)r[2], (short)r[3]);
+        }
+        topologyManager.createNewInstance();
+        verifyIncrementalCompute(previous, flappedLinks, true);
+
+        previous = topologyManager.getCurrentInstance();
+        loadAllRoutes(previous);
+        int [][] restoredLinks = {
+                                  {2, 2, 3, 1, DIRECT_LINK},
+                                  {3, 1, 2, 2, DIRECT_LINK}
+        };
+        createTopologyFromLinks(restoredLinks);
+        verifyIncrementalCompute(previous, flappedLinks, false);
+        verifyClusters(new int [][] {{1, 2, 3, 4, 5, 6}});
+    }
+
+    @Test
+    public void testDijkstraOnRandomGraphs() throws Exception {
+        Random random = new Random(7);
+        TopologyInstance ti = new TopologyInstance();
+        for (int round = 0; round < 20; round++) {
+            int n = 2 + random.nextInt(30);
+            Cluster c = new Cluster();
+            Map<Link, Integer> linkCost = new HashMap<Link, Integer>();
+            // a ring keeps the cluster strongly connected
+            for (int i = 0; i < n; i++) {
+                c.addLink(new Link(i + 1, 1, (i + 1) % n + 1, 2));
+            }
+            for (int i = 0; i < 2 * n; i++) {
+                Link l = new Link(random.nextInt(n) + 1, i + 3,
+                                  random.nextInt(n) + 1, i + 3);
+                c.addLink(l);
+                linkCost.put(l, 1 + random.nextInt(5));
+            }
+
+            ClusterGraph g = new ClusterGraph(c, linkCost);
+            for (long root: c.getNodes()) {
+                for (boolean isDstRooted: new boolean[] {true, false}) {
+                    BroadcastTree tree = ti.dijkstra(g, root, isDstRooted);
+                    Map<Long, Integer> expected =
+                            getCosts(c, linkCost, root, isDstRooted);
+                    assertEquals(expected, tree.getCosts());
+                    // every tree link is on a shortest path
+                    for (long node: c.getNodes()) {
+                        Link l = tree.getTreeLink(node);
+                        if (node == root) {
+                            assertNull(l);
+                            continue;
+                        }
+                        long next = isDstRooted ? l.getDst() : l.getSrc();
+                        assertEquals(node, isDstRooted ? l.getSrc() : l.getDst());
+                        Integer w = linkCost.get(l);
+                        assertEquals(tree.getCost(node),
+                                     tree.getCost(next) + (w == null ? 1 : w));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bellman-Ford reference for the costs of a tree.
+     */
+    private Map<Long, Integer> getCosts(Cluster c, Map<Link, Integer> linkCost,
+                                        long root, boolean isDstRooted) {
+        Map<Long, Integer> costs = new HashMap<Long, Integer>();
+        for (long node: c.getNodes()) {
+            costs.put(node, TopologyInstance.MAX_PATH_WEIGHT);
+        }
+        costs.put(root, 0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Set<Link> links: c.getLinks().values()) {
+                for (Link l: links) {
+                    if (l.getSrc() == l.getDst()) continue;
+                    long from = isDstRooted ? l.getDst() : l.getSrc();
+                    long to = isDstRooted ? l.getSrc() : l.getDst();
+                    if (costs.get(from) == TopologyInstance.MAX_PATH_WEIGHT)
+                        continue;
+                    Integer w = linkCost.get(l);
+                    int cost = costs.get(from) + (w == null ? 1 : w);
+                    if (cost < costs.get(to)) {
+                        costs.put(to, cost);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return costs;
+    }
+
+    private TopologyInstance getRandomInstance(int n, int links, long seed) {
+        Random random = new Random(seed);
+        Map<Long, Set<Integer>> switchPorts = new HashMap<Long, Set<Integer>>();
+        Map<NodePortTuple, Set<Link>> switchPortLinks =
+                new HashMap<NodePortTuple, Set<Link>>();
+        for (int i = 0; i < links; i++) {
+            // unidirectional links split the switches into several clusters
+            Link l = new Link(random.nextInt(n) + 1, i + 1,
+                              random.nextInt(n) + 1, i + 1);
+            if (l.getSrc() == l.getDst()) continue;
+            for (NodePortTuple npt: new NodePortTuple[] {
+                    new NodePortTuple(l.getSrc(), l.getSrcPort()),
+                    new NodePortTuple(l.getDst(), l.getDstPort()) }) {
+                if (!switchPorts.containsKey(npt.getNodeId()))
+                    switchPorts.put(npt.getNodeId(), new HashSet<Integer>());
+                switchPorts.get(npt.getNodeId()).add(npt.getPortId());
+                if (!switchPortLinks.containsKey(npt))
+                    switchPortLinks.put(npt, new HashSet<Link>());
+                switchPortLinks.get(npt).add(l);
+            }
+        }
+        return new TopologyInstance(switchPorts, new HashSet<NodePortTuple>(),
+                                    switchPortLinks,
+                                    new HashSet<NodePortTuple>(),
+                                    new HashSet<NodePortTuple>());
+    }
+
+    @Test
+    public void testParallelCompute() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (long seed = 0; seed < 5; seed++) {
+                TopologyInstance sequential = getRandomInstance(60, 150, seed);
+                sequential.compute();
+                TopologyInstance parallel = getRandomInstance(60, 150, seed);
+                parallel.compute(null, executor);
+
+                assertTrue(sequential.getClusters().size() > 1);
+                assertEquals(sequential.getClusters().size(),
+                             parallel.getClusters().size());
+                for (Cluster c: sequential.getClusters()) {
+                    assertEquals(c.getNodes(),
+                                 parallel.switchClusterMap.get(c.getId())
+                                         .getNodes());
+                }
+                assertEquals(sequential.destinationRootedTrees.keySet(),
+                             parallel.destinationRootedTrees.keySet());
+                for (long dst: sequential.destinationRootedTrees.keySet()) {
+                    BroadcastTree s = sequential.destinationRootedTrees.get(dst);
+                    BroadcastTree p = parallel.destinationRootedTrees.get(dst);
+                    assertEquals(s.getLinks(), p.getLinks());
+                    assertEquals(s.getCosts(), p.getCosts());
+                }
+                assertEquals(sequential.clusterBroadcastNodePorts,
+                             parallel.clusterBroadcastNodePorts);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEqualCostRoutes() throws Exception {
+        // Leaves 1, 2 and 3 each connect to spines 10 and 11, and leaf 3
+        // also reaches spine 10 through a longer path via switch 20.
+        int [][] linkArray = {
+                              {1, 1, 10, 1, DIRECT_LINK},
+                              {10, 1, 1, 1, DIRECT_LINK},
+                              {1, 2, 11, 1, DIRECT_LINK},
+                              {11, 1, 1, 2, DIRECT_LINK},
+                              {2, 1, 10, 2, DIRECT_LINK},
+                              {10, 2, 2, 1, DIRECT_LINK},
+                              {2, 2, 11, 2, DIRECT_LINK},
+                              {11, 2, 2, 2, DIRECT_LINK},
+                              {3, 1, 10, 3, DIRECT_LINK},
+                              {10, 3, 3, 1, DIRECT_LINK},
+                              {3, 2, 11, 3, DIRECT_LINK},
+                              {11, 3, 3, 2, DIRECT_LINK},
+                              {3, 3, 20, 1, DIRECT_LINK},
+                              {20, 1, 3, 3, DIRECT_LINK},
+                              {20, 2, 10, 4, DIRECT_LINK},
+                              {10, 4, 20, 2, DIRECT_LINK}
+        };
+        createTopologyFromLinks(linkArray);
+        TopologyInstance ti = topologyManager.getCurrentInstance();
+
+        List<Route> routes = ti.getRoutes(1, 3, 8);
+        assertEquals(2, routes.size());
+        assertEquals(ti.getRoute(1, 3, 0).getPath(), routes.get(0).getPath());
+        assertFalse(routes.get(0).getPath().equals(routes.get(1).getPath()));
+        Set<Long> spines = new HashSet<Long>();
+        for (int i = 0; i < routes.size(); i++) {
+            Route r = routes.get(i);
+            assertEquals(i, r.getRouteCount());
+            assertEquals(4, r.getPath().size());
+            assertEquals(1L, r.getPath().get(0).getNodeId());
+            assertEquals(3L, r.getPath().get(3).getNodeId());
+            spines.add(r.getPath().get(1).getNodeId());
+        }
+        assertEquals(new HashSet<Long>(Arrays.asList(10L, 11L)), spines);
+        assertTrue(ti.multipathcache.asMap().containsKey(new RouteId(1L, 3L)));
+        assertEquals(1, ti.getRoutes(1, 3, 1).size());
+        assertTrue(ti.getRoutes(1, 1, 8).isEmpty());
+
+        // cookies select among the routes, the same cookie always picks
+        // the same route
+        Set<List<NodePortTuple>> selected = new HashSet<List<NodePortTuple>>();
+        for (long cookie = 1; cookie <= 16; cookie++) {
+            Route r = ti.getRoute(1, 3, cookie);
+            assertEquals(r.getPath(), ti.getRoute(1, 3, cookie).getPath());
+            selected.add(r.getPath());
+        }
+        assertEquals(2, selected.size());
+
+        // a single shortest path is returned whatever the cookie
+        assertEquals(1, ti.getRoutes(20, 2, 8).size());
+        assertEquals(ti.getRoute(20, 2, 0).getPath(),
+                     ti.getRoute(20, 2, 12345).getPath());
+    }
 }
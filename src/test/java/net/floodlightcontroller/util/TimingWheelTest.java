@@ -0,0 +1,83 @@
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testDue() {
+        TimingWheel<Integer> wheel = new TimingWheel<Integer>(10, 4, 2, 1005);
+        wheel.schedule(1, 1000);
+        wheel.schedule(2, 1009);
+        wheel.schedule(3, 1010);
+        wheel.schedule(4, 1035);
+        wheel.schedule(5, 1200);
+
+        // deadlines in the current tick or earlier are due at once
+        assertEquals(3, wheel.size());
+        List<Integer> due = wheel.advance(1005);
+        Collections.sort(due);
+        assertEquals(2, due.size());
+        assertEquals(Integer.valueOf(1), due.get(0));
+        assertEquals(Integer.valueOf(2), due.get(1));
+
+        assertEquals(Collections.singletonList(3), wheel.advance(1019));
+        assertTrue(wheel.advance(1029).isEmpty());
+        // moved down from the higher level
+        assertEquals(Collections.singletonList(4), wheel.advance(1030));
+        // beyond the span of the top level
+        assertTrue(wheel.advance(1199).isEmpty());
+        assertEquals(Long.valueOf(1200), wheel.getDeadline(5));
+        assertEquals(Collections.singletonList(5), wheel.advance(1200));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testReschedule() {
+        TimingWheel<Integer> wheel = new TimingWheel<Integer>(10, 4, 2, 0);
+        wheel.schedule(1, 100);
+        // an earlier deadline replaces a later one, but not the other way
+        wheel.schedule(1, 50);
+        wheel.schedule(1, 70);
+        assertEquals(1, wheel.size());
+        assertEquals(Long.valueOf(50), wheel.getDeadline(1));
+        assertTrue(wheel.advance(49).isEmpty());
+        assertEquals(Collections.singletonList(1), wheel.advance(50));
+        assertTrue(wheel.advance(200).isEmpty());
+
+        wheel.schedule(2, 300);
+        wheel.cancel(2);
+        assertEquals(0, wheel.size());
+        assertTrue(wheel.advance(400).isEmpty());
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(7);
+        TimingWheel<Integer> wheel = new TimingWheel<Integer>(8, 16, 3, 0);
+        long[] deadlines = new long[5000];
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = random.nextInt(100000);
+            wheel.schedule(i, deadlines[i]);
+        }
+        List<Integer> all = new ArrayList<Integer>();
+        for (long now = 0; now <= 100000; now += random.nextInt(50)) {
+            for (Integer i : wheel.advance(now)) {
+                // never late, and at most one tick early
+                assertTrue(deadlines[i] <= now + 8);
+                assertTrue(deadlines[i] > now - 50 - 8);
+                all.add(i);
+            }
+        }
+        all.addAll(wheel.advance(100008));
+        assertEquals(deadlines.length, all.size());
+        assertEquals(0, wheel.size());
+    }
+}
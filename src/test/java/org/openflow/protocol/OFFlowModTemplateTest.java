@@ -0,0 +1,201 @@
+package org.openflow.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.action.OFActionSetField;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionApplyActions;
+import org.openflow.protocol.instruction.OFInstructionActions;
+import org.openflow.protocol.instruction.OFInstructionGotoTable;
+import org.openflow.util.OFTestCase;
+
+public class OFFlowModTemplateTest extends OFTestCase {
+    private OFFlowMod getFlowMod(int inPort, int outPort) {
+        OFFlowMod fm = (OFFlowMod) messageFactory.getMessage(OFType.FLOW_MOD);
+        OFMatch match = new OFMatch();
+        match.setDataLayerType((short) 0x800);
+        match.setNetworkDestination(0x0a000001);
+        match.setInPort(inPort);
+        List<OFAction> actions = new ArrayList<OFAction>();
+        actions.add(new OFActionOutput(outPort, (short) 0xffff));
+        fm.setIdleTimeout((short) 5)
+          .setCookie(1L << 52)
+          .setCommand(OFFlowMod.OFPFC_ADD)
+          .setMatch(match)
+          .setInstructions(Arrays.asList((OFInstruction)
+                  new OFInstructionApplyActions().setActions(actions)));
+        return fm;
+    }
+
+    private static byte[] toBytes(OFMessage m) {
+        ByteBuffer data = ByteBuffer.allocate(m.computeLengthForWrite());
+        m.writeTo(data);
+        TestCase.assertFalse(data.hasRemaining());
+        return data.array();
+    }
+
+    private static int getOutputPort(List<OFInstruction> instructions) {
+        OFInstructionActions apply = (OFInstructionActions) instructions.get(0);
+        return ((OFActionOutput) apply.getActions().get(0)).getPort();
+    }
+
+    public void testEncoding() throws Exception {
+        OFFlowModTemplate template = new OFFlowModTemplate(getFlowMod(7, 9));
+        OFFlowMod hop1 = template.getFlowMod(1, 2);
+        OFFlowMod hop2 = template.getFlowMod(3, 4);
+        byte[] expected1 = toBytes(getFlowMod(1, 2));
+        TestCase.assertEquals(expected1.length, template.getLength());
+        TestCase.assertTrue(Arrays.equals(expected1, toBytes(hop1)));
+        TestCase.assertTrue(Arrays.equals(toBytes(getFlowMod(3, 4)),
+                                          toBytes(hop2)));
+        // a later hop does not change an earlier one
+        TestCase.assertTrue(Arrays.equals(expected1, toBytes(hop1)));
+
+        // fixed fields can still be changed
+        hop1.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+        hop1.setXid(42);
+        OFFlowMod expected = getFlowMod(1, 2);
+        expected.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+        expected.setXid(42);
+        TestCase.assertTrue(Arrays.equals(toBytes(expected), toBytes(hop1)));
+        TestCase.assertTrue(Arrays.equals(toBytes(expected),
+                                          toBytes(hop1.clone())));
+    }
+
+    public void testMatchAndInstructions() throws Exception {
+        OFFlowMod prototype = getFlowMod(7, 9);
+        OFFlowModTemplate template = new OFFlowModTemplate(prototype);
+        // the template does not keep the prototype
+        prototype.getMatch().setInPort(11);
+        OFFlowMod hop = template.getFlowMod(1, 2);
+        TestCase.assertEquals(1, hop.getMatch().getInPort());
+        TestCase.assertEquals(0x0a000001,
+                              hop.getMatch().getNetworkDestination());
+        TestCase.assertEquals(2, getOutputPort(hop.getInstructions()));
+
+        // a flow mod of a template can be changed like any other
+        hop.getMatch().setInPort(5);
+        ((OFActionOutput) ((OFInstructionActions) hop.getInstructions().get(0))
+                .getActions().get(0)).setPort(6);
+        TestCase.assertTrue(Arrays.equals(toBytes(getFlowMod(5, 6)),
+                                          toBytes(hop)));
+        hop.setMatch(getFlowMod(3, 4).getMatch());
+        TestCase.assertEquals(3, hop.getMatch().getInPort());
+
+        hop = template.getFlowMod(1, 2);
+        hop.setInstructions(getFlowMod(3, 4).getInstructions());
+        TestCase.assertTrue(Arrays.equals(toBytes(getFlowMod(1, 4)),
+                                          toBytes(hop)));
+
+        // reading it back from the wire replaces the template
+        hop = template.getFlowMod(1, 2);
+        hop.readFrom(ByteBuffer.wrap(toBytes(getFlowMod(3, 4))));
+        TestCase.assertEquals(getFlowMod(3, 4).getMatch(), hop.getMatch());
+        TestCase.assertEquals(getFlowMod(3, 4).getInstructions(),
+                              hop.getInstructions());
+        TestCase.assertTrue(Arrays.equals(toBytes(getFlowMod(3, 4)),
+                                          toBytes(hop)));
+    }
+
+    public void testEquality() throws Exception {
+        OFFlowModTemplate t1 = new OFFlowModTemplate(getFlowMod(7, 9));
+        OFFlowModTemplate t2 = new OFFlowModTemplate(getFlowMod(8, 10));
+        OFFlowMod hop = t1.getFlowMod(1, 2);
+        TestCase.assertEquals(OFFlowMod.class, hop.getClass());
+        TestCase.assertEquals(hop, t2.getFlowMod(1, 2));
+        TestCase.assertEquals(hop.hashCode(), t2.getFlowMod(1, 2).hashCode());
+        // equal to the plain flow mod, whichever form it is in
+        OFFlowMod plain = getFlowMod(1, 2);
+        TestCase.assertEquals(plain, hop);
+        TestCase.assertEquals(hop, plain);
+        TestCase.assertEquals(plain.hashCode(), hop.hashCode());
+        TestCase.assertEquals(hop, hop.clone());
+        TestCase.assertEquals(hop.hashCode(), hop.clone().hashCode());
+        hop.getMatch();
+        TestCase.assertEquals(plain.hashCode(), hop.hashCode());
+        TestCase.assertEquals(plain.toString(), hop.toString());
+
+        TestCase.assertFalse(t1.getFlowMod(1, 2).equals(t1.getFlowMod(1, 3)));
+        TestCase.assertFalse(t1.getFlowMod(1, 2).equals(t1.getFlowMod(3, 2)));
+        hop = t1.getFlowMod(1, 2);
+        hop.setCommand(OFFlowMod.OFPFC_DELETE);
+        TestCase.assertFalse(hop.equals(t1.getFlowMod(1, 2)));
+
+        OFFlowMod other = getFlowMod(7, 9);
+        other.getMatch().setNetworkDestination(0x0a000002);
+        OFFlowModTemplate t3 = new OFFlowModTemplate(other);
+        TestCase.assertFalse(t1.getFlowMod(1, 2).equals(t3.getFlowMod(1, 2)));
+
+        // fields set in another order are encoded differently
+        OFFlowMod reordered = getFlowMod(7, 9);
+        OFMatch match = new OFMatch();
+        match.setInPort(7);
+        match.setNetworkDestination(0x0a000001);
+        match.setDataLayerType((short) 0x800);
+        reordered.setMatch(match);
+        OFFlowModTemplate t4 = new OFFlowModTemplate(reordered);
+        TestCase.assertEquals(t1.getFlowMod(1, 2), t4.getFlowMod(1, 2));
+        TestCase.assertEquals(t1.getFlowMod(1, 2).hashCode(),
+                              t4.getFlowMod(1, 2).hashCode());
+    }
+
+    public void testPortOffsets() throws Exception {
+        // in_port after masked, spilled and later set fields
+        OFFlowMod fm = getFlowMod(7, 9);
+        OFMatch match = new OFMatch();
+        match.setDataLayerDestination(new byte[] { 0, 1, 2, 3, 4, 5 });
+        match.setNetworkSourceMask(0x0a000000, 0xff000000);
+        match.setField(OFOXMFieldType.METADATA, 0x1234L, 0xff00L);
+        match.setInPort(7);
+        match.setDataLayerType((short) 0x800);
+        fm.setMatch(match);
+        // output behind another action and instruction
+        List<OFAction> actions = new ArrayList<OFAction>();
+        actions.add(new OFActionSetField(OFOXMFieldType.IP_DSCP, (byte) 4));
+        actions.add(new OFActionOutput(9, (short) 0xffff));
+        fm.setInstructions(Arrays.asList(
+                (OFInstruction) new OFInstructionGotoTable((byte) 1),
+                new OFInstructionApplyActions().setActions(actions)));
+        OFFlowModTemplate template = new OFFlowModTemplate(fm);
+
+        match.setInPort(1);
+        ((OFActionOutput) actions.get(1)).setPort(2);
+        OFFlowMod hop = template.getFlowMod(1, 2);
+        TestCase.assertTrue(Arrays.equals(toBytes(fm), toBytes(hop)));
+        // the hash is not decoded, but is the same
+        TestCase.assertEquals(fm.hashCode(), hop.hashCode());
+        match.setInPort(-3);
+        ((OFActionOutput) actions.get(1)).setPort(0xfffffffd);
+        hop = template.getFlowMod(-3, 0xfffffffd);
+        TestCase.assertTrue(Arrays.equals(toBytes(fm), toBytes(hop)));
+        TestCase.assertEquals(fm.hashCode(), hop.hashCode());
+
+        // a match without in_port gets one
+        OFFlowMod noInPort = getFlowMod(7, 9);
+        noInPort.getMatch().setNonWildcards(
+                EnumSet.of(OFOXMFieldType.IPV4_DST));
+        template = new OFFlowModTemplate(noInPort);
+        TestCase.assertEquals(3, template.getFlowMod(3, 4).getMatch().getInPort());
+        TestCase.assertEquals(0x0a000001, template.getFlowMod(3, 4).getMatch()
+                                                  .getNetworkDestination());
+    }
+
+    public void testNoOutput() throws Exception {
+        OFFlowMod fm = getFlowMod(1, 2);
+        fm.setInstructions(new ArrayList<OFInstruction>());
+        try {
+            new OFFlowModTemplate(fm);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.openflow.protocol;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares OFMatch with the previous representation, which kept every field
+ * in a list of OFMatchField objects, on the matches of a packet-in and of a
+ * forwarding flow mod. Measures decoding, building with the typed setters,
+ * reading fields back, hashing and encoding. Reports operations per second
+ * and bytes allocated per operation.
+ * Run with
+ *   java -cp ... org.openflow.protocol.OFMatchBenchmark [iterations]
+ */
+public class OFMatchBenchmark {
+    private static final byte[] MAC1 =
+            new byte[] { 0x00, 0x11, 0x22, 0x33, 0x44, 0x55 };
+    private static final byte[] MAC2 =
+            new byte[] { 0x00, 0x66, 0x77, 0x00, 0x01, 0x02 };
+
+    private interface Operation {
+        Object run(ByteBuffer data);
+    }
+
+    /**
+     * The list-based storage OFMatch used before, reduced to what the
+     * benchmark exercises
+     */
+    protected static class ListMatch {
+        protected List<OFMatchField> matchFields =
+                new ArrayList<OFMatchField>();
+        protected short matchLength = 4;
+
+        public void setField(OFOXMFieldType type, Object value) {
+            for (OFMatchField matchField : matchFields) {
+                if (matchField.getType() == type) {
+                    matchField.setValue(value);
+                    return;
+                }
+            }
+            OFMatchField matchField = new OFMatchField(type, value);
+            matchFields.add(matchField);
+            matchLength += matchField.getLength();
+        }
+
+        public Object getMatchFieldValue(OFOXMFieldType type) {
+            for (OFMatchField matchField : matchFields) {
+                if (matchField.getType() == type)
+                    return matchField.getValue();
+            }
+            return null;
+        }
+
+        public void readFrom(ByteBuffer data) {
+            data.getShort();
+            matchLength = data.getShort();
+            int remaining = matchLength - 4;
+            int end = data.position() + 8*((matchLength + 7)/8) - 4;
+            matchFields = new ArrayList<OFMatchField>();
+            while (remaining >= OFMatchField.MINIMUM_LENGTH) {
+                OFMatchField matchField = new OFMatchField();
+                matchField.readFrom(data);
+                matchFields.add(matchField);
+                remaining -= matchField.getLength();
+            }
+            data.position(end);
+        }
+
+        public void writeTo(ByteBuffer data) {
+            data.putShort((short)OFMatch.OFMatchType.OXM.ordinal());
+            data.putShort(matchLength);
+            for (OFMatchField matchField : matchFields)
+                matchField.writeTo(data);
+            int padLength = 8*((matchLength + 7)/8) - matchLength;
+            for (;padLength>0;padLength--)
+                data.put((byte)0);
+        }
+
+        @Override
+        public int hashCode() {
+            return 227 + matchFields.hashCode();
+        }
+    }
+
+    private static void build(OFMatch match) {
+        match.setInPort(3);
+        match.setDataLayerDestination(MAC1);
+        match.setDataLayerSource(MAC2);
+        match.setDataLayerType(OFMatch.ETH_TYPE_IPV4);
+        match.setNetworkProtocol(OFMatch.IP_PROTO_TCP);
+        match.setNetworkSource(0x0a000001);
+        match.setNetworkDestination(0x0a000002);
+        match.setTransportSource(OFMatch.IP_PROTO_TCP, (short) 40000);
+        match.setTransportDestination(OFMatch.IP_PROTO_TCP, (short) 80);
+    }
+
+    private static void build(ListMatch match) {
+        match.setField(OFOXMFieldType.IN_PORT, 3);
+        match.setField(OFOXMFieldType.ETH_DST, MAC1);
+        match.setField(OFOXMFieldType.ETH_SRC, MAC2);
+        match.setField(OFOXMFieldType.ETH_TYPE, OFMatch.ETH_TYPE_IPV4);
+        match.setField(OFOXMFieldType.IP_PROTO, OFMatch.IP_PROTO_TCP);
+        match.setField(OFOXMFieldType.IPV4_SRC, 0x0a000001);
+        match.setField(OFOXMFieldType.IPV4_DST, 0x0a000002);
+        match.setField(OFOXMFieldType.TCP_SRC, (short) 40000);
+        match.setField(OFOXMFieldType.TCP_DST, (short) 80);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        OFMatch packetInMatch = new OFMatch();
+        packetInMatch.setInPort(3);
+        OFMatch flowModMatch = new OFMatch();
+        build(flowModMatch);
+        final ByteBuffer packetIn = encode(packetInMatch);
+        final ByteBuffer flowMod = encode(flowModMatch);
+        final ByteBuffer out = ByteBuffer.allocate(flowMod.capacity());
+        final OFMatch match = new OFMatch();
+        match.readFrom(flowMod.duplicate());
+        final ListMatch listMatch = new ListMatch();
+        listMatch.readFrom(flowMod.duplicate());
+
+        Operation listDecode = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                ListMatch m = new ListMatch();
+                m.readFrom(data.duplicate());
+                return m;
+            }
+        };
+        Operation slotDecode = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                OFMatch m = new OFMatch();
+                m.readFrom(data.duplicate());
+                return m;
+            }
+        };
+        Operation listBuild = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                ListMatch m = new ListMatch();
+                build(m);
+                return m;
+            }
+        };
+        Operation slotBuild = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                OFMatch m = new OFMatch();
+                build(m);
+                return m;
+            }
+        };
+        Operation listRead = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                return (Integer) listMatch.getMatchFieldValue(OFOXMFieldType.IN_PORT) +
+                       (Short) listMatch.getMatchFieldValue(OFOXMFieldType.ETH_TYPE) +
+                       (Integer) listMatch.getMatchFieldValue(OFOXMFieldType.IPV4_DST) +
+                       (Short) listMatch.getMatchFieldValue(OFOXMFieldType.TCP_DST);
+            }
+        };
+        Operation slotRead = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                return match.getInPort() + match.getDataLayerType() +
+                       match.getNetworkDestination() +
+                       match.getTransportDestination();
+            }
+        };
+        Operation listHash = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                return listMatch.hashCode();
+            }
+        };
+        Operation slotHash = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                return match.hashCode();
+            }
+        };
+        Operation listEncode = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                out.clear();
+                listMatch.writeTo(out);
+                return out;
+            }
+        };
+        Operation slotEncode = new Operation() {
+            @Override
+            public Object run(ByteBuffer data) {
+                out.clear();
+                match.writeTo(out);
+                return out;
+            }
+        };
+
+        System.out.println("iterations=" + iterations);
+        // first pass warms up, second pass is reported
+        for (int pass = 0; pass < 2; pass++) {
+            boolean report = pass == 1;
+            run("decode packetin list", listDecode, packetIn, iterations, report);
+            run("decode packetin slot", slotDecode, packetIn, iterations, report);
+            run("decode flowmod  list", listDecode, flowMod, iterations, report);
+            run("decode flowmod  slot", slotDecode, flowMod, iterations, report);
+            run("build  flowmod  list", listBuild, null, iterations, report);
+            run("build  flowmod  slot", slotBuild, null, iterations, report);
+            run("read   flowmod  list", listRead, null, iterations, report);
+            run("read   flowmod  slot", slotRead, null, iterations, report);
+            run("hash   flowmod  list", listHash, null, iterations, report);
+            run("hash   flowmod  slot", slotHash, null, iterations, report);
+            run("encode flowmod  list", listEncode, null, iterations, report);
+            run("encode flowmod  slot", slotEncode, null, iterations, report);
+        }
+    }
+
+    private static ByteBuffer encode(OFMatch match) {
+        ByteBuffer data = ByteBuffer.allocate(match.getLengthU());
+        match.writeTo(data);
+        data.flip();
+        return data;
+    }
+
+    private static void run(String name, Operation operation, ByteBuffer data,
+                            int iterations, boolean report) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += operation.run(data).hashCode();
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (report) {
+            System.out.printf("%s: %12.0f ops/s %8.1f bytes/op%s%n", name,
+                              iterations * 1e9 / elapsed,
+                              bytes < 0 ? Double.NaN : (double)bytes / iterations,
+                              sink == 42 ? " " : "");
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,201 @@
+package org.openflow.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class OFMatchOXMTest extends TestCase {
+    private static final byte[] MAC1 =
+            new byte[] { 0x00, 0x11, 0x22, 0x33, 0x44, 0x55 };
+    private static final byte[] MAC2 =
+            new byte[] { (byte) 0xfe, (byte) 0xdc, 0x00, 0x01, 0x02, 0x03 };
+
+    /**
+     * A match with common fields, masked fields and fields without slots
+     */
+    private static OFMatch getMatch() {
+        OFMatch match = new OFMatch();
+        match.setInPort(3);
+        match.setDataLayerDestination(MAC1.clone());
+        match.setDataLayerSource(MAC2.clone());
+        match.setDataLayerType(OFMatch.ETH_TYPE_IPV4);
+        match.setField(OFOXMFieldType.IP_DSCP, (byte) 12);
+        match.setNetworkProtocol(OFMatch.IP_PROTO_TCP);
+        match.setNetworkSourceMask(0x0a0b0c0d, 0xffffff00);
+        match.setNetworkDestination(0xc0a80001);
+        match.setTransportSource(OFMatch.IP_PROTO_TCP, (short) 0x8001);
+        match.setField(OFOXMFieldType.METADATA, 0x1234L, 0xff00L);
+        match.setField(OFOXMFieldType.ETH_DST, MAC1.clone(),
+                       new byte[] { -1, -1, -1, 0, 0, 0 });
+        return match;
+    }
+
+    private static byte[] toBytes(OFMatch match) {
+        ByteBuffer data = ByteBuffer.allocate(match.getLengthU());
+        match.writeTo(data);
+        assertFalse(data.hasRemaining());
+        return data.array();
+    }
+
+    /**
+     * Encode a list of fields the way OFMatch did when it kept them in a
+     * list
+     */
+    private static byte[] toBytes(List<OFMatchField> matchFields) {
+        int matchLength = 4;
+        for (OFMatchField matchField : matchFields)
+            matchLength += matchField.getLength();
+        ByteBuffer data = ByteBuffer.allocate(8 * ((matchLength + 7) / 8));
+        data.putShort((short) 1);
+        data.putShort((short) matchLength);
+        for (OFMatchField matchField : matchFields)
+            matchField.writeTo(data);
+        return data.array();
+    }
+
+    public void testWriteRead() throws Exception {
+        OFMatch match = getMatch();
+        byte[] bytes = toBytes(match);
+        TestCase.assertEquals(match.getLengthU(), bytes.length);
+        TestCase.assertEquals(0, bytes.length % 8);
+        // the same bytes as the fields written one by one
+        TestCase.assertTrue(Arrays.equals(toBytes(match.getMatchFields()),
+                                          bytes));
+
+        OFMatch read = new OFMatch();
+        read.readFrom(ByteBuffer.wrap(bytes));
+        TestCase.assertEquals(match, read);
+        TestCase.assertEquals(match.hashCode(), read.hashCode());
+        TestCase.assertEquals(match.getMatchLength(), read.getMatchLength());
+        TestCase.assertTrue(Arrays.equals(bytes, toBytes(read)));
+
+        TestCase.assertEquals(3, read.getInPort());
+        TestCase.assertEquals(OFMatch.ETH_TYPE_IPV4, read.getDataLayerType());
+        TestCase.assertEquals(OFMatch.IP_PROTO_TCP, read.getNetworkProtocol());
+        TestCase.assertEquals(0x0a0b0c00, read.getNetworkSource());
+        TestCase.assertEquals(0xffffff00, read.getNetworkSourceMask());
+        TestCase.assertEquals(0xc0a80001, read.getNetworkDestination());
+        TestCase.assertEquals((short) 0x8001, read.getTransportSource());
+        TestCase.assertTrue(Arrays.equals(new byte[] { 0x00, 0x11, 0x22, 0, 0, 0 },
+                                          read.getDataLayerDestination()));
+        TestCase.assertTrue(Arrays.equals(MAC2, read.getDataLayerSource()));
+        TestCase.assertEquals((byte) 12,
+                read.getMatchFieldValue(OFOXMFieldType.IP_DSCP));
+        TestCase.assertEquals(0x1200L,
+                read.getMatchFieldValue(OFOXMFieldType.METADATA));
+        TestCase.assertEquals(0xff00L,
+                read.getMatchFieldMask(OFOXMFieldType.METADATA));
+        TestCase.assertNull(read.getMatchFieldMask(OFOXMFieldType.IN_PORT));
+    }
+
+    public void testMaskedHeader() throws Exception {
+        OFMatch match = new OFMatch();
+        match.setNetworkDestinationMask(0x0a000001, 0xff000000);
+        ByteBuffer data = ByteBuffer.wrap(toBytes(match));
+        TestCase.assertEquals(4 + 4 + 8, data.getInt() & 0xffff);
+        int header = data.getInt();
+        TestCase.assertEquals(OFOXMFieldType.IPV4_DST.getValue(),
+                              (header >> 9) & 0x7f);
+        TestCase.assertEquals(1, (header >> 8) & 1);
+        TestCase.assertEquals(8, header & 0xff);
+        TestCase.assertEquals(0x0a000000, data.getInt());
+        TestCase.assertEquals(0xff000000, data.getInt());
+
+        // a mask without any bit set is no mask
+        match.setNetworkDestinationMask(0x0a000001, 0);
+        TestCase.assertEquals(4 + 8, match.getMatchLength());
+        TestCase.assertNull(match.getMatchFieldMask(OFOXMFieldType.IPV4_DST));
+        TestCase.assertEquals(0x0a000001, match.getNetworkDestination());
+    }
+
+    public void testEquality() throws Exception {
+        OFMatch m1 = new OFMatch();
+        m1.setInPort(1);
+        m1.setDataLayerType(OFMatch.ETH_TYPE_ARP);
+        m1.setField(OFOXMFieldType.ARP_OP, (short) 1);
+        OFMatch m2 = new OFMatch();
+        m2.setField(OFOXMFieldType.ARP_OP, (short) 1);
+        m2.setDataLayerType(OFMatch.ETH_TYPE_ARP);
+        m2.setField(OFOXMFieldType.IN_PORT, 1);
+        TestCase.assertEquals(m1, m2);
+        TestCase.assertEquals(m1.hashCode(), m2.hashCode());
+
+        m2.setInPort(2);
+        TestCase.assertFalse(m1.equals(m2));
+        m2.setInPort(1);
+        m2.setField(OFOXMFieldType.ARP_OP, (short) 2);
+        TestCase.assertFalse(m1.equals(m2));
+        m2.setField(OFOXMFieldType.ARP_OP, (short) 1);
+        TestCase.assertEquals(m1, m2);
+        m2.setNetworkProtocol((byte) 0);
+        TestCase.assertFalse(m1.equals(m2));
+
+        TestCase.assertEquals(getMatch(), getMatch());
+        TestCase.assertEquals(getMatch().hashCode(), getMatch().hashCode());
+        TestCase.assertEquals(new OFMatch(), new OFMatch());
+    }
+
+    public void testReplaceAndRemove() throws Exception {
+        OFMatch match = getMatch();
+        List<OFMatchField> before = match.getMatchFields();
+
+        // a field that is set again keeps its place
+        match.setInPort(7);
+        match.setNetworkSourceMask(0x0a0b0c0d, 0);
+        List<OFMatchField> after = match.getMatchFields();
+        TestCase.assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++)
+            TestCase.assertEquals(before.get(i).getType(), after.get(i).getType());
+        TestCase.assertEquals(toBytes(after).length, toBytes(match).length);
+        TestCase.assertTrue(Arrays.equals(toBytes(after), toBytes(match)));
+
+        match.setNonWildcards(EnumSet.of(OFOXMFieldType.METADATA,
+                                         OFOXMFieldType.IN_PORT,
+                                         OFOXMFieldType.IPV4_DST));
+        List<OFMatchField> kept = match.getMatchFields();
+        TestCase.assertEquals(3, kept.size());
+        TestCase.assertEquals(OFOXMFieldType.IN_PORT, kept.get(0).getType());
+        TestCase.assertEquals(OFOXMFieldType.IPV4_DST, kept.get(1).getType());
+        TestCase.assertEquals(OFOXMFieldType.METADATA, kept.get(2).getType());
+        TestCase.assertEquals(4 + 8 + 8 + 20, match.getMatchLength());
+        TestCase.assertTrue(Arrays.equals(toBytes(kept), toBytes(match)));
+        TestCase.assertFalse(match.fieldExists(OFOXMFieldType.ETH_SRC));
+        TestCase.assertNull(match.getDataLayerSource());
+
+        match.setNonWildcards(null);
+        TestCase.assertEquals(new OFMatch(), match);
+        TestCase.assertEquals(8, match.getLengthU());
+
+        OFMatch copy = new OFMatch().setMatchFields(getMatch().getMatchFields());
+        TestCase.assertEquals(getMatch(), copy);
+    }
+
+    public void testCopies() throws Exception {
+        OFMatch match = getMatch();
+        OFMatch clone = match.clone();
+        TestCase.assertEquals(match, clone);
+        clone.setInPort(9);
+        clone.setField(OFOXMFieldType.METADATA, 1L);
+        TestCase.assertEquals(3, match.getInPort());
+        TestCase.assertEquals(0x1200L,
+                match.getMatchFieldValue(OFOXMFieldType.METADATA));
+
+        // changing the returned fields does not change the match
+        match.getMatchFields().get(0).setValue(5);
+        match.getDataLayerSource()[0] = 0;
+        TestCase.assertEquals(getMatch(), match);
+    }
+
+    public void testVlan() throws Exception {
+        OFMatch match = new OFMatch();
+        match.setDataLayerVirtualLan((short) 100);
+        TestCase.assertEquals(100, match.getDataLayerVirtualLan());
+        OFMatch read = new OFMatch();
+        read.readFrom(ByteBuffer.wrap(toBytes(match)));
+        TestCase.assertEquals(100, read.getDataLayerVirtualLan());
+        TestCase.assertEquals(match, read);
+    }
+}
@@ -0,0 +1,213 @@
+package org.openflow.protocol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openflow.protocol.OFFlowRemoved.OFFlowRemovedReason;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.factory.OFActionFactoryAware;
+import org.openflow.protocol.factory.OFHelloElementFactoryAware;
+import org.openflow.protocol.factory.OFInstructionFactoryAware;
+import org.openflow.protocol.factory.OFMessageFactoryAware;
+import org.openflow.protocol.factory.OFMeterBandFactoryAware;
+import org.openflow.protocol.factory.OFQueuePropertyFactoryAware;
+import org.openflow.protocol.factory.OFStatisticsFactoryAware;
+import org.openflow.protocol.factory.OFTableFeaturesPropertyFactoryAware;
+
+/**
+ * Compares BasicFactory.parseMessages() with the previous parsing, which
+ * read every header into a demux message and checked every message for
+ * each factory it might need, on a stream of OF1.3 messages. Also parses
+ * with PACKET_IN, ECHO_REQUEST and BARRIER_REPLY recycled. The stream is
+ * either a file of raw OpenFlow messages, such as the TCP payload of a
+ * captured switch connection, or a mix of mostly PACKET_INs with echo
+ * requests, barrier replies and FLOW_REMOVEDs. Reports time and bytes
+ * allocated per message.
+ * Run with
+ *   java -cp ... org.openflow.protocol.OFMessageParseBenchmark
+ *         [iterations] [captureFile]
+ */
+public class OFMessageParseBenchmark {
+
+    /**
+     * The parsing of BasicFactory before messages were resolved per type
+     */
+    protected static class PreviousFactory extends BasicFactory {
+        @Override
+        public OFMessage getMessage(OFType t) {
+            OFMessage message = t.newInstance();
+            injectFactories(message);
+            return message;
+        }
+
+        @Override
+        public List<OFMessage> parseMessages(ByteBuffer data, int limit) {
+            List<OFMessage> results = new ArrayList<OFMessage>();
+            OFMessage demux = new OFMessage();
+            OFMessage ofm;
+
+            while (limit == 0 || results.size() <= limit) {
+                if (data.remaining() < OFMessage.MINIMUM_LENGTH)
+                    return results;
+
+                data.mark();
+                demux.readFrom(data);
+                data.reset();
+
+                if (demux.getLengthU() > data.remaining())
+                    return results;
+
+                ofm = getMessage(demux.getType());
+                if (ofm == null)
+                    return null;
+
+                injectFactories(ofm);
+                ofm.readFrom(data);
+                if (OFMessage.class.equals(ofm.getClass())) {
+                    data.position(data.position()+(ofm.getLengthU() -
+                            OFMessage.MINIMUM_LENGTH));
+                }
+                results.add(ofm);
+            }
+
+            return results;
+        }
+
+        @Override
+        protected void injectFactories(OFMessage ofm) {
+            if (ofm instanceof OFActionFactoryAware) {
+                ((OFActionFactoryAware)ofm).setActionFactory(this);
+            }
+            if (ofm instanceof OFInstructionFactoryAware) {
+                ((OFInstructionFactoryAware)ofm).setInstructionFactory(this);
+            }
+            if (ofm instanceof OFMessageFactoryAware) {
+                ((OFMessageFactoryAware)ofm).setMessageFactory(this);
+            }
+            if (ofm instanceof OFQueuePropertyFactoryAware) {
+                ((OFQueuePropertyFactoryAware)ofm).setQueuePropertyFactory(this);
+            }
+            if (ofm instanceof OFStatisticsFactoryAware) {
+                ((OFStatisticsFactoryAware)ofm).setStatisticsFactory(this);
+            }
+            if (ofm instanceof OFHelloElementFactoryAware) {
+                ((OFHelloElementFactoryAware)ofm).setHelloElementFactory(this);
+            }
+            if (ofm instanceof OFMeterBandFactoryAware) {
+                ((OFMeterBandFactoryAware)ofm).setMeterBandFactory(this);
+            }
+            if (ofm instanceof OFTableFeaturesPropertyFactoryAware) {
+                ((OFTableFeaturesPropertyFactoryAware)ofm).setTableFeaturesPropertyFactory(this);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        ByteBuffer stream = (args.length > 1) ? readCapture(args[1]) :
+                                                getMix();
+
+        BasicFactory previous = new PreviousFactory();
+        BasicFactory table = new BasicFactory() { };
+        BasicFactory recycling = new BasicFactory() { };
+        recycling.setRecycling(OFType.PACKET_IN,
+                               BasicFactory.DEFAULT_RECYCLE_CAPACITY);
+        recycling.setRecycling(OFType.ECHO_REQUEST,
+                               BasicFactory.DEFAULT_RECYCLE_CAPACITY);
+        recycling.setRecycling(OFType.BARRIER_REPLY,
+                               BasicFactory.DEFAULT_RECYCLE_CAPACITY);
+
+        System.out.println("streamBytes=" + stream.remaining() +
+                           " messages=" + table.parseMessages(stream.duplicate()).size() +
+                           " iterations=" + iterations);
+        // first pass warms up, second pass is reported
+        for (int pass = 0; pass < 2; pass++) {
+            boolean report = pass == 1;
+            run("previous ", previous, stream, iterations, report);
+            run("table    ", table, stream, iterations, report);
+            run("recycling", recycling, stream, iterations, report);
+        }
+        // logging keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    /**
+     * A stream like that of a busy switch: PACKET_INs interleaved with echo
+     * requests, barrier replies and FLOW_REMOVEDs
+     */
+    private static ByteBuffer getMix() {
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        int xid = 0;
+        for (int i = 0; i < 16; i++) {
+            for (int j = 0; j < 12; j++)
+                msgs.add(OFMessageParseTest.getPacketIn(xid++, 128));
+            msgs.add(OFMessageParseTest.getEchoRequest(xid++, null));
+            OFBarrierReply barrier = new OFBarrierReply();
+            barrier.setXid(xid++);
+            msgs.add(barrier);
+            OFFlowRemoved flowRemoved = new OFFlowRemoved();
+            flowRemoved.setMatch(new OFMatch().setInPort(1)
+                                              .setDataLayerType(OFMatch.ETH_TYPE_IPV4)
+                                              .setNetworkDestination(0x0a000000 + i))
+                       .setReason(OFFlowRemovedReason.OFPRR_IDLE_TIMEOUT)
+                       .setPacketCount(10)
+                       .setXid(xid++);
+            msgs.add(flowRemoved);
+        }
+        return OFMessageParseTest.serialize(msgs);
+    }
+
+    private static ByteBuffer readCapture(String fileName) throws IOException {
+        File file = new File(fileName);
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0)
+                    break;
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void run(String name, BasicFactory factory,
+                            ByteBuffer stream, int iterations,
+                            boolean report) {
+        long count = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            List<OFMessage> msgs = factory.parseMessages(stream.duplicate());
+            count += msgs.size();
+            for (OFMessage m : msgs)
+                factory.recycle(m);
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (report) {
+            System.out.printf("%s: %8.1f ns/msg %8.1f bytes/msg%n", name,
+                              (double)elapsed / count,
+                              bytes < 0 ? Double.NaN : (double)bytes / count);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,185 @@
+package org.openflow.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionApplyActions;
+import org.openflow.protocol.instruction.OFInstructionActions;
+
+public class OFMessageParseTest extends TestCase {
+    private BasicFactory factory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // a factory of its own, so recycling does not leak into other tests
+        factory = new BasicFactory() { };
+    }
+
+    static OFPacketIn getPacketIn(int xid, int dataLength) {
+        byte[] packetData = new byte[dataLength];
+        for (int i = 0; i < dataLength; i++)
+            packetData[i] = (byte)(i + xid);
+        OFPacketIn pi = new OFPacketIn();
+        pi.setBufferId(-1)
+          .setReason(OFPacketInReason.NO_MATCH)
+          .setTotalLength((short)dataLength)
+          .setMatch(new OFMatch().setInPort(xid + 1))
+          .setPacketData(packetData)
+          .setXid(xid);
+        pi.computeLength();
+        return pi;
+    }
+
+    static OFEchoRequest getEchoRequest(int xid, byte[] payload) {
+        OFEchoRequest echo = new OFEchoRequest();
+        echo.setPayload(payload);
+        echo.setXid(xid);
+        echo.setLengthU(OFMessage.MINIMUM_LENGTH +
+                        (payload == null ? 0 : payload.length));
+        return echo;
+    }
+
+    static OFFlowMod getFlowMod(int xid) {
+        List<OFAction> actions = new ArrayList<OFAction>();
+        actions.add(new OFActionOutput(2, (short) 0xffff));
+        OFFlowMod fm = new OFFlowMod();
+        fm.setCommand(OFFlowMod.OFPFC_ADD)
+          .setMatch(new OFMatch().setInPort(1))
+          .setInstructions(Arrays.asList((OFInstruction)
+                  new OFInstructionApplyActions().setActions(actions)))
+          .setXid(xid);
+        return fm;
+    }
+
+    static ByteBuffer serialize(List<? extends OFMessage> msgs) {
+        int size = 0;
+        for (OFMessage m : msgs) {
+            m.computeLength();
+            size += m.getLengthU();
+        }
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        for (OFMessage m : msgs)
+            m.writeTo(bb);
+        bb.flip();
+        return bb;
+    }
+
+    public void testParseStream() throws Exception {
+        List<OFMessage> expected = new ArrayList<OFMessage>();
+        expected.add(getPacketIn(1, 60));
+        expected.add(getEchoRequest(2, new byte[] { 1, 2, 3 }));
+        OFBarrierReply barrier = new OFBarrierReply();
+        barrier.setXid(3);
+        expected.add(barrier);
+        expected.add(getFlowMod(4));
+        OFError error = new OFError();
+        error.setErrorType(OFError.OFErrorType.OFPET_BAD_REQUEST);
+        error.setOffendingMsg(getEchoRequest(5, null));
+        error.setXid(5);
+        expected.add(error);
+        ByteBuffer data = serialize(expected);
+        int length = data.remaining();
+
+        // a partial trailing message is left in the buffer
+        ByteBuffer truncated = ByteBuffer.allocate(length + 4);
+        truncated.put(data.duplicate());
+        truncated.put(serialize(Arrays.asList(getPacketIn(6, 10))).array(),
+                      0, 4);
+        truncated.flip();
+        List<OFMessage> msgs = factory.parseMessages(truncated);
+        TestCase.assertEquals(length, truncated.position());
+        TestCase.assertEquals(expected.size(), msgs.size());
+        for (int i = 0; i < msgs.size(); i++) {
+            TestCase.assertEquals(expected.get(i).getType(), msgs.get(i).getType());
+            TestCase.assertEquals(expected.get(i).getXid(), msgs.get(i).getXid());
+        }
+        TestCase.assertEquals(expected.get(0), msgs.get(0));
+        TestCase.assertEquals(expected.get(1), msgs.get(1));
+        TestCase.assertEquals(expected.get(2), msgs.get(2));
+
+        // factories were injected once per type
+        OFFlowMod fm = (OFFlowMod) msgs.get(3);
+        OFInstructionActions apply =
+                (OFInstructionActions) fm.getInstructions().get(0);
+        TestCase.assertEquals(2,
+                ((OFActionOutput) apply.getActions().get(0)).getPort());
+        OFError parsedError = (OFError) msgs.get(4);
+        TestCase.assertSame(factory, parsedError.getFactory());
+        TestCase.assertEquals(OFType.ECHO_REQUEST,
+                              parsedError.getOffendingMsg().getType());
+        TestCase.assertSame(factory,
+                ((OFError) factory.getMessage(OFType.ERROR)).getFactory());
+    }
+
+    public void testRecycling() throws Exception {
+        ByteBuffer data = serialize(Arrays.asList(getPacketIn(1, 60),
+                getEchoRequest(2, new byte[] { 1, 2, 3 })));
+
+        // without recycling every message is new
+        TestCase.assertFalse(factory.isRecycling(OFType.PACKET_IN));
+        List<OFMessage> first = factory.parseMessages(data.duplicate());
+        for (OFMessage m : first)
+            factory.recycle(m);
+        List<OFMessage> second = factory.parseMessages(data.duplicate());
+        TestCase.assertNotSame(first.get(0), second.get(0));
+        TestCase.assertNotSame(first.get(1), second.get(1));
+
+        factory.setRecycling(OFType.PACKET_IN, 4);
+        factory.setRecycling(OFType.ECHO_REQUEST, 4);
+        TestCase.assertTrue(factory.isRecycling(OFType.PACKET_IN));
+        first = factory.parseMessages(data.duplicate());
+        for (OFMessage m : first)
+            factory.recycle(m);
+        data = serialize(Arrays.asList(getPacketIn(7, 20),
+                                       getEchoRequest(8, null)));
+        second = factory.parseMessages(data.duplicate());
+        TestCase.assertSame(first.get(0), second.get(0));
+        TestCase.assertSame(first.get(1), second.get(1));
+        // nothing of the previous messages is left
+        TestCase.assertEquals(getPacketIn(7, 20), second.get(0));
+        TestCase.assertEquals(8, ((OFPacketIn) second.get(0)).getInPort());
+        TestCase.assertNull(((OFEchoRequest) second.get(1)).getPayload());
+        TestCase.assertEquals(getEchoRequest(8, null), second.get(1));
+
+        // messages that are created rather than read are always new
+        factory.recycle(second.get(0));
+        TestCase.assertNotSame(second.get(0),
+                               factory.getMessage(OFType.PACKET_IN));
+        TestCase.assertSame(second.get(0),
+                            factory.getMessageForRead(OFType.PACKET_IN));
+
+        // the pool is bounded
+        Set<OFMessage> recycled =
+                Collections.newSetFromMap(new IdentityHashMap<OFMessage, Boolean>());
+        for (int i = 0; i < 10; i++) {
+            OFMessage m = new OFPacketIn();
+            recycled.add(m);
+            factory.recycle(m);
+        }
+        int reused = 0;
+        for (int i = 0; i < 10; i++) {
+            if (recycled.contains(factory.getMessageForRead(OFType.PACKET_IN)))
+                reused++;
+        }
+        TestCase.assertEquals(4, reused);
+
+        factory.setRecycling(OFType.PACKET_IN, 0);
+        TestCase.assertFalse(factory.isRecycling(OFType.PACKET_IN));
+        OFMessage pi = factory.getMessageForRead(OFType.PACKET_IN);
+        factory.recycle(pi);
+        TestCase.assertNotSame(pi, factory.getMessageForRead(OFType.PACKET_IN));
+    }
+}
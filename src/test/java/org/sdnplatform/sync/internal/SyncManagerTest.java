@@ -41,9 +41,13 @@ import org.sdnplatform.sync.internal.SyncTorture;
 import org.sdnplatform.sync.internal.config.Node;
 import org.sdnplatform.sync.internal.config.PropertyCCProvider;
 import org.sdnplatform.sync.internal.store.Key;
+import org.sdnplatform.sync.internal.store.MerkleTree;
+import org.sdnplatform.sync.internal.store.SynchronizingStorageEngine;
 import org.sdnplatform.sync.internal.store.TBean;
+import org.sdnplatform.sync.internal.util.ByteArray;
 import org.sdnplatform.sync.internal.util.CryptoUtil;
 import org.sdnplatform.sync.internal.version.VectorClock;
+import org.sdnplatform.sync.thrift.NodeDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -277,6 +281,37 @@ public class SyncManagerTest {
         }
     }
 
+    @Test
+    public void testPutAllGlobalSync() throws Exception {
+        waitForFullMesh(2000);
+
+        IStoreClient<String, String> client0 =
+                syncManagers[0].getStoreClient("global",
+                                               String.class, String.class);
+        TestListener t0 = new TestListener();
+        client0.addStoreListener(t0);
+        client0.put("key0", "old");
+
+        HashMap<String, String> values = new HashMap<String, String>();
+        HashSet<Update> c0 = new HashSet<Update>();
+        for (int i = 0; i < 10; i++) {
+            values.put("key" + i, "" + i);
+            c0.add(new Update("key" + i, UpdateType.LOCAL));
+        }
+        client0.putAll(values);
+        waitForNotify(t0, c0, 2000);
+
+        // verify that we see all the values everywhere
+        for (int j = 0; j < syncManagers.length; j++) {
+            IStoreClient<String, String> client =
+                    syncManagers[j].getStoreClient("global",
+                                                   String.class, String.class);
+            for (int i = 0; i < 10; i++) {
+                waitForValue(client, "key" + i, ""+i, 2000, "client"+j);
+            }
+        }
+    }
+
     @Test
     public void testBasicLocalSync() throws Exception {
         waitForFullMesh(2000);
@@ -657,6 +692,89 @@ public class SyncManagerTest {
         waitForValue(client2, "key", "newvalue", 2000, "client2");
     }
 
+    private static void writeLocalValue(SyncManager syncManager, String key,
+                                        String value, VectorClock vc)
+            throws Exception {
+        // writing a sync value bypasses replication to the other nodes
+        List<Versioned<byte[]>> values =
+                Collections.singletonList(new Versioned<byte[]>(value.getBytes(),
+                                                                vc));
+        syncManager.writeSyncValue("global", Scope.GLOBAL, false,
+                                   key.getBytes(), values);
+    }
+
+    private static void waitForDigest(MerkleTree expected, MerkleTree tree,
+                                      int maxTime) throws Exception {
+        long then = System.currentTimeMillis();
+        while (expected.getHash(MerkleTree.ROOT) !=
+                tree.getHash(MerkleTree.ROOT)) {
+            Thread.sleep(100);
+            assertTrue(then + maxTime > System.currentTimeMillis());
+        }
+    }
+
+    @Test
+    public void testDigestAntientropy() throws Exception {
+        waitForFullMesh(2000);
+        SynchronizingStorageEngine store0 =
+                syncManagers[0].getStoreInternal("global");
+        SynchronizingStorageEngine store1 =
+                syncManagers[1].getStoreInternal("global");
+
+        VectorClock vc = new VectorClock().incremented(1, 1);
+        for (int i = 0; i < 200; i++) {
+            writeLocalValue(syncManagers[0], "key" + i, "value" + i, vc);
+        }
+        MerkleTree tree0 = store0.getDigestTree();
+        MerkleTree tree1 = store1.getDigestTree();
+        assertEquals(200, tree0.size());
+        assertEquals(0, tree1.size());
+
+        syncManagers[0].antientropy(nodes.get(1));
+        waitForDigest(tree0, tree1, 2000);
+        assertEquals(200, tree1.size());
+        assertEquals("value7",
+                     new String(store1.get(new ByteArray("key7".getBytes())).
+                                get(0).getValue()));
+
+        // the stores agree, so nothing differs from the root down
+        List<NodeDigest> digests = new ArrayList<NodeDigest>();
+        digests.add(new NodeDigest(MerkleTree.ROOT,
+                                   tree0.getHash(MerkleTree.ROOT)));
+        assertEquals(0, syncManagers[1].
+                     handleSyncDigestRequest("global", digests).size());
+
+        // a single new version is found by descending a single path
+        writeLocalValue(syncManagers[0], "key7", "newvalue7",
+                        vc.incremented(1, 2));
+        digests.set(0, new NodeDigest(MerkleTree.ROOT,
+                                      tree0.getHash(MerkleTree.ROOT)));
+        for (int level = 0; level < MerkleTree.DEPTH; level++) {
+            List<NodeDigest> children =
+                    syncManagers[1].handleSyncDigestRequest("global", digests);
+            assertEquals(MerkleTree.FANOUT, children.size());
+            digests = new ArrayList<NodeDigest>();
+            for (NodeDigest d : children) {
+                long hash = tree0.getHash(d.getNode());
+                if (hash != d.getHash())
+                    digests.add(new NodeDigest(d.getNode(), hash));
+            }
+            assertEquals(1, digests.size());
+        }
+        List<NodeDigest> leaves =
+                syncManagers[1].handleSyncDigestRequest("global", digests);
+        assertEquals(1, leaves.size());
+        assertTrue(MerkleTree.isLeaf(leaves.get(0).getNode()));
+        assertTrue(tree0.getKeys(Collections.singleton(leaves.get(0).getNode())).
+                   contains(new ByteArray("key7".getBytes())));
+
+        syncManagers[0].antientropy(nodes.get(1));
+        waitForDigest(tree0, tree1, 2000);
+        assertEquals("newvalue7",
+                     new String(store1.get(new ByteArray("key7".getBytes())).
+                                get(0).getValue()));
+    }
+
     /**
      * Do a brain-dead performance test with one thread writing and waiting
      * for the values on the other node.  The result get printed to the log
@@ -32,6 +32,7 @@ import org.sdnplatform.sync.error.SyncException;
 import org.sdnplatform.sync.internal.TUtils;
 import org.sdnplatform.sync.internal.store.IStore;
 import org.sdnplatform.sync.internal.util.ByteArray;
+import org.sdnplatform.sync.internal.util.Pair;
 import org.sdnplatform.sync.internal.version.VectorClock;
 
 
@@ -171,6 +172,37 @@ public abstract class AbstractStoreT<K, V> {
         assertTrue("Values not equal!", valuesEqual(versioned.getValue(), found.get(0).getValue()));
     }
 
+    @Test
+    public void testPutAll() throws Exception {
+        IStore<K, V> store = getStore();
+        List<K> keys = getKeys(3);
+        List<V> values = getValues(3);
+        store.put(keys.get(0), new Versioned<V>(values.get(0), getClock(1, 1)));
+
+        List<Entry<K, Versioned<V>>> batch =
+                new ArrayList<Entry<K, Versioned<V>>>();
+        // obsolete, so only the other two are written
+        batch.add(new Pair<K, Versioned<V>>(keys.get(0),
+                new Versioned<V>(values.get(1), getClock(1))));
+        batch.add(new Pair<K, Versioned<V>>(keys.get(1),
+                new Versioned<V>(values.get(1), getClock(1))));
+        batch.add(new Pair<K, Versioned<V>>(keys.get(2),
+                new Versioned<V>(values.get(2), getClock(1))));
+        List<Entry<K, Versioned<V>>> written = store.putAll(batch);
+        assertEquals(2, written.size());
+        assertSame(batch.get(1), written.get(0));
+        assertSame(batch.get(2), written.get(1));
+
+        List<Versioned<V>> found = store.get(keys.get(0));
+        assertEquals(1, found.size());
+        assertTrue(valuesEqual(values.get(0), found.get(0).getValue()));
+        for (int i = 1; i < 3; i++) {
+            found = store.get(keys.get(i));
+            assertEquals(1, found.size());
+            assertTrue(valuesEqual(values.get(i), found.get(0).getValue()));
+        }
+    }
+
     @Test
     public void testVersionedPut() throws Exception {
         K key = getKey();
@@ -0,0 +1,130 @@
+package org.sdnplatform.sync.internal.store;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sdnplatform.sync.IVersion;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.TUtils;
+import org.sdnplatform.sync.internal.util.ByteArray;
+
+public class MerkleTreeTest {
+    InMemoryStorageEngine<ByteArray, byte[]> store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new InMemoryStorageEngine<ByteArray, byte[]>("test");
+    }
+
+    private static ByteArray key(int i) {
+        return new ByteArray(("key" + i).getBytes());
+    }
+
+    private static void assertSameHashes(MerkleTree expected,
+                                         MerkleTree actual) {
+        for (int i = 0; i < MerkleTree.SIZE; i++) {
+            assertEquals("node " + i, expected.getHash(i), actual.getHash(i));
+        }
+    }
+
+    @Test
+    public void testUpdateMatchesRebuild() throws Exception {
+        MerkleTree tree = new MerkleTree();
+        for (int i = 0; i < 1000; i++) {
+            store.put(key(i), new Versioned<byte[]>("value".getBytes(),
+                                                    TUtils.getClock(1, i % 3)));
+            tree.update(key(i), store.getVersions(key(i)));
+        }
+        assertEquals(1000, tree.size());
+        assertTrue(tree.getOfferSize() > 0);
+
+        MerkleTree rebuilt = new MerkleTree();
+        rebuilt.rebuild(store.entries());
+        assertEquals(1000, rebuilt.size());
+        assertEquals(tree.getOfferSize(), rebuilt.getOfferSize());
+        assertSameHashes(tree, rebuilt);
+        assertTrue(tree.getHash(MerkleTree.ROOT) != 0);
+    }
+
+    @Test
+    public void testVersionOrder() throws Exception {
+        List<IVersion> versions = new ArrayList<IVersion>();
+        versions.add(TUtils.getClock(1, 1));
+        versions.add(TUtils.getClock(2, 2));
+        versions.add(TUtils.getClock(3));
+
+        MerkleTree tree1 = new MerkleTree();
+        tree1.update(key(1), versions);
+        Collections.reverse(versions);
+        MerkleTree tree2 = new MerkleTree();
+        tree2.update(key(1), versions);
+        assertSameHashes(tree1, tree2);
+
+        MerkleTree tree3 = new MerkleTree();
+        tree3.update(key(1), versions.subList(0, 2));
+        assertTrue(tree1.getHash(MerkleTree.ROOT) !=
+                tree3.getHash(MerkleTree.ROOT));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        MerkleTree tree = new MerkleTree();
+        MerkleTree expected = new MerkleTree();
+        List<IVersion> versions =
+                Collections.<IVersion>singletonList(TUtils.getClock(1));
+        for (int i = 0; i < 10; i++) {
+            tree.update(key(i), versions);
+            expected.update(key(i), versions);
+        }
+        long offerSize = tree.getOfferSize();
+
+        tree.update(key(10), versions);
+        assertTrue(expected.getHash(MerkleTree.ROOT) !=
+                tree.getHash(MerkleTree.ROOT));
+        tree.update(key(10), new ArrayList<IVersion>());
+        assertEquals(10, tree.size());
+        assertEquals(offerSize, tree.getOfferSize());
+        assertSameHashes(expected, tree);
+    }
+
+    @Test
+    public void testGetKeys() throws Exception {
+        MerkleTree tree = new MerkleTree();
+        List<IVersion> versions =
+                Collections.<IVersion>singletonList(TUtils.getClock(1));
+        tree.update(key(1), versions);
+        tree.update(key(2), versions);
+
+        Set<Integer> leaves = new HashSet<Integer>();
+        for (int n = MerkleTree.SIZE - MerkleTree.LEAVES;
+             n < MerkleTree.SIZE; n++) {
+            assertTrue(MerkleTree.isLeaf(n));
+            if (tree.getHash(n) != 0) leaves.add(n);
+        }
+        assertFalse(MerkleTree.isLeaf(MerkleTree.ROOT));
+        assertTrue(leaves.size() >= 1 && leaves.size() <= 2);
+
+        List<ByteArray> keys = tree.getKeys(leaves);
+        assertEquals(2, keys.size());
+        assertTrue(keys.contains(key(1)));
+        assertTrue(keys.contains(key(2)));
+        assertEquals(tree.getOfferSize(), tree.getOfferSize(keys));
+
+        // every interior node is the XOR of its children
+        for (int n = 0; n < MerkleTree.SIZE - MerkleTree.LEAVES; n++) {
+            long hash = 0;
+            int first = MerkleTree.getFirstChild(n);
+            for (int c = first; c < first + MerkleTree.FANOUT; c++) {
+                hash ^= tree.getHash(c);
+            }
+            assertEquals(tree.getHash(n), hash);
+        }
+    }
+}